@@ -2,6 +2,7 @@ package cz.agents.agentpolis.darptestbed.global;
 
 import java.util.Random;
 
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.CompactPlan;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.exception.WrongSettingsException;
 
 public class GlobalParams {
@@ -40,6 +41,61 @@ public class GlobalParams {
 	 * more passengers, they'll split this price)
 	 */
 	private static int pricePerKilometer;
+	/**
+	 * Memory (in megabytes) for the matrix of precomputed distances between
+	 * nodes (0 = no matrix, every distance is routed on demand)
+	 */
+	private static int distanceMatrixMemoryInMB = 0;
+	/**
+	 * true = the insertion algorithm evaluates positions by the forward time
+	 * slack of the plan items (without changing the plan), false = it tries
+	 * every position by really inserting the items
+	 */
+	private static boolean slackInsertion = false;
+	/**
+	 * true = the insertion algorithm works with plans stored in primitive
+	 * arrays ({@link CompactPlan}), false = with the plan items
+	 */
+	private static boolean compactPlans = false;
+	/**
+	 * Number of threads planning trips of different vehicles at once (0 = the
+	 * number of processors)
+	 */
+	private static int planningThreads = 0;
+	/**
+	 * Memory (in megabytes) for the paths cached by the A* planner
+	 */
+	private static int pathCacheMemoryInMB = 64;
+	/**
+	 * Time (in real milliseconds) the dispatcher may spend per timer tick on
+	 * improving the plans by local search (0 = no improvement)
+	 */
+	private static int planImprovementTimeInMillis = 0;
+	/**
+	 * The number of the best vehicles compared by the regret heuristic, when
+	 * requests are assigned in batches
+	 */
+	private static int regretK = 2;
+	/**
+	 * true = the dispatcher collects the requests and assigns them in batches
+	 * every timer tick (instead of one request after another as they come)
+	 */
+	private static boolean batchDispatching = false;
+	/**
+	 * Only the requests, that begin within this time (in simulation minutes),
+	 * are moved by the reoptimization of all plans (0 = all the requests)
+	 */
+	private static int reoptimizationHorizon = 0;
+	/**
+	 * Number of threads preparing the simulation, e.g. snapping positions of
+	 * the agents to the map (0 = the number of processors)
+	 */
+	private static int initThreads = 0;
+	/**
+	 * true = the imported map is saved into a snapshot next to the map file
+	 * and later runs load the snapshot instead of importing the map again
+	 */
+	private static boolean useMapSnapshot = true;
 
 	public static Random getRandom() {
 		if (randomSeed <= 0) {
@@ -153,6 +209,199 @@ public class GlobalParams {
 		GlobalParams.pricePerKilometer = pricePerKilometer;
 	}
 
+	public static int getDistanceMatrixMemoryInMB() {
+		return distanceMatrixMemoryInMB;
+	}
+
+	/**
+	 * Memory for the matrix of precomputed distances between nodes. Distances
+	 * of the nodes, that don't fit into the matrix, are routed on demand.
+	 * 
+	 * @param distanceMatrixMemoryInMB
+	 *            memory in megabytes (0 = no matrix)
+	 */
+	public static void setDistanceMatrixMemoryInMB(int distanceMatrixMemoryInMB) {
+		GlobalParams.validatePositiveOrZero(distanceMatrixMemoryInMB);
+		GlobalParams.distanceMatrixMemoryInMB = distanceMatrixMemoryInMB;
+	}
+
+	public static boolean isSlackInsertion() {
+		return slackInsertion;
+	}
+
+	/**
+	 * Chooses how the insertion algorithm evaluates the possible positions of
+	 * requests in a plan. The slack evaluation needs much less routing on
+	 * longer plans and chooses the same positions, except it skips the
+	 * positions exceeding the vehicle capacity (instead of rejecting the
+	 * request, if the best position exceeds it).
+	 * 
+	 * @param slackInsertion
+	 *            true, if the positions should be evaluated by the time slack
+	 */
+	public static void setSlackInsertion(boolean slackInsertion) {
+		GlobalParams.slackInsertion = slackInsertion;
+	}
+
+	public static boolean isCompactPlans() {
+		return compactPlans;
+	}
+
+	/**
+	 * Chooses the plan representation used by the insertion algorithm (not by
+	 * the slack insertion). Both give the same plans, the compact one doesn't
+	 * go through the plan items and requests during the insertions.
+	 * 
+	 * @param compactPlans
+	 *            true, if the plans should be converted to {@link CompactPlan}
+	 *            for the insertions
+	 */
+	public static void setCompactPlans(boolean compactPlans) {
+		GlobalParams.compactPlans = compactPlans;
+	}
+
+	public static int getPlanningThreads() {
+		if (planningThreads == 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return planningThreads;
+	}
+
+	/**
+	 * Number of threads planning trips of different vehicles at once. The
+	 * planned trips don't depend on it.
+	 * 
+	 * @param planningThreads
+	 *            number of threads (0 = the number of processors)
+	 */
+	public static void setPlanningThreads(int planningThreads) {
+		GlobalParams.validatePositiveOrZero(planningThreads);
+		GlobalParams.planningThreads = planningThreads;
+	}
+
+	public static int getPathCacheMemoryInMB() {
+		return pathCacheMemoryInMB;
+	}
+
+	/**
+	 * Memory for the paths cached by the A* planner (the least recently used
+	 * paths are evicted, when it's full). It has to be set before the planner
+	 * is created.
+	 * 
+	 * @param pathCacheMemoryInMB
+	 *            memory in megabytes (0 = no caching)
+	 */
+	public static void setPathCacheMemoryInMB(int pathCacheMemoryInMB) {
+		GlobalParams.validatePositiveOrZero(pathCacheMemoryInMB);
+		GlobalParams.pathCacheMemoryInMB = pathCacheMemoryInMB;
+	}
+
+	public static int getPlanImprovementTimeInMillis() {
+		return planImprovementTimeInMillis;
+	}
+
+	/**
+	 * Lets the dispatching logics, which keep the plans of their vehicles,
+	 * improve them by local search (see {@link PlanImprover}) at every tick of
+	 * their timer, if they call
+	 * {@code DispatchingLogic.improvePlans(Map)}. The search is stopped, when
+	 * the time runs out, and goes on with the next plans at the next tick.
+	 * 
+	 * @param planImprovementTimeInMillis
+	 *            real time in milliseconds per timer tick (0 = no improvement)
+	 */
+	public static void setPlanImprovementTimeInMillis(int planImprovementTimeInMillis) {
+		GlobalParams.validatePositiveOrZero(planImprovementTimeInMillis);
+		GlobalParams.planImprovementTimeInMillis = planImprovementTimeInMillis;
+	}
+
+	public static int getRegretK() {
+		return regretK;
+	}
+
+	/**
+	 * The regret-k heuristic assigns the request, that would lose the most if
+	 * it didn't get its best vehicle, first. The loss is measured against the
+	 * next k - 1 best vehicles.
+	 * 
+	 * @param regretK
+	 *            the number of compared vehicles (at least 2)
+	 */
+	public static void setRegretK(int regretK) {
+		if (regretK < 2) {
+			throw new WrongSettingsException("The regret has to compare at least 2 vehicles (" + regretK + ")");
+		}
+		GlobalParams.regretK = regretK;
+	}
+
+	public static boolean isBatchDispatching() {
+		return batchDispatching;
+	}
+
+	/**
+	 * Turns the batch dispatching on/off. The requests of a batch are
+	 * assigned jointly by the regret heuristic (see {@link #setRegretK(int)}).
+	 * 
+	 * @param batchDispatching
+	 *            true, if the requests should be queued until the next tick
+	 *            of the dispatcher's timer
+	 */
+	public static void setBatchDispatching(boolean batchDispatching) {
+		GlobalParams.batchDispatching = batchDispatching;
+	}
+
+	public static int getReoptimizationHorizon() {
+		return reoptimizationHorizon;
+	}
+
+	/**
+	 * Rolling horizon of the reoptimization of all plans: the requests, that
+	 * begin later, stay where they are in the plans (and the unserved ones
+	 * wait for another reoptimization).
+	 * 
+	 * @param reoptimizationHorizon
+	 *            horizon in simulation minutes (0 = no horizon)
+	 */
+	public static void setReoptimizationHorizon(int reoptimizationHorizon) {
+		GlobalParams.validatePositiveOrZero(reoptimizationHorizon);
+		GlobalParams.reoptimizationHorizon = reoptimizationHorizon;
+	}
+
+	public static int getInitThreads() {
+		if (initThreads == 0) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+		return initThreads;
+	}
+
+	/**
+	 * Number of threads preparing the simulation. The prepared simulation
+	 * doesn't depend on it.
+	 * 
+	 * @param initThreads
+	 *            number of threads (0 = the number of processors)
+	 */
+	public static void setInitThreads(int initThreads) {
+		GlobalParams.validatePositiveOrZero(initThreads);
+		GlobalParams.initThreads = initThreads;
+	}
+
+	public static boolean isUseMapSnapshot() {
+		return useMapSnapshot;
+	}
+
+	/**
+	 * Turns the map snapshots on/off. A snapshot belongs to the content of the
+	 * map file and to the EPSG, it's replaced when either of them changes.
+	 * 
+	 * @param useMapSnapshot
+	 *            true, if the map should be loaded from (and saved into) the
+	 *            snapshot
+	 */
+	public static void setUseMapSnapshot(boolean useMapSnapshot) {
+		GlobalParams.useMapSnapshot = useMapSnapshot;
+	}
+
 	private static void validatePositiveNotZero(int value) {
 		GlobalParams.validatePositiveOrZero(value);
 		if (value == 0) {
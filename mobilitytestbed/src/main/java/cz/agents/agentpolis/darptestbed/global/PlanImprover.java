@@ -0,0 +1,267 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.CompactPlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+
+/**
+ * Improves a plan made by the insertion algorithm by local search. The
+ * insertion algorithm places the requests one after another and never moves
+ * the requests placed before, so the plan is often longer than it has to be.
+ * <p/>
+ * The improver tries three kinds of moves and keeps every move, that makes
+ * the plan end sooner (the same criterion as the insertion algorithm uses):
+ * <ul>
+ * <li>relocate - a request is taken out of the plan and inserted again on its
+ * best positions</li>
+ * <li>exchange - two items of different requests swap their positions</li>
+ * <li>2-opt - a part of the plan is driven in the reverse order (if it doesn't
+ * contain both items of any request)</li>
+ * </ul>
+ * Every move is made in the plan and undone by {@link CompactPlan#rollback(int)}
+ * if it breaks a time window, the capacity or doesn't help. The search stops,
+ * when no move helps or when the deadline comes.
+ */
+public class PlanImprover {
+
+    private final Utils utils;
+
+    private long numberOfMoves;
+    private long numberOfImprovements;
+
+    public PlanImprover(Utils utils) {
+        this.utils = utils;
+    }
+
+    /**
+     * Improves the plan by the moves until none of them helps or the deadline
+     * comes
+     *
+     * @param plan           the plan to be improved (changed in place)
+     * @param freeSeats      free seats at the beginning of the plan
+     * @param deadlineInNanos the search stops at this {@link System#nanoTime()}
+     * @return true, if the plan has been improved
+     */
+    public boolean improve(CompactPlan plan, int freeSeats, long deadlineInNanos) {
+        boolean improved = false;
+        boolean moved = true;
+        while (moved && System.nanoTime() < deadlineInNanos) {
+            moved = relocateRequests(plan, freeSeats, deadlineInNanos)
+                    || exchangeItems(plan, freeSeats, deadlineInNanos)
+                    || reverseSegments(plan, freeSeats, deadlineInNanos);
+            improved |= moved;
+        }
+        return improved;
+    }
+
+    /**
+     * Takes the requests out one by one and inserts them again
+     *
+     * @return true, if some request has been moved
+     */
+    private boolean relocateRequests(CompactPlan plan, int freeSeats, long deadlineInNanos) {
+        boolean moved = false;
+        for (int i = getFirstMovableIndex(plan); i < plan.getSize(); i++) {
+            if (System.nanoTime() >= deadlineInNanos) {
+                return moved;
+            }
+            Request request = plan.getRequest(i);
+            int partner = findPartner(plan, i);
+            if (partner != -1 && partner < i || partner == -1 && plan.isBoarding(i)) {
+                // the request has been tried with its first item (or its
+                // get off item is missing)
+                continue;
+            }
+            long endOfPlanTime = plan.getEndOfPlanTime();
+            int mark = plan.mark();
+            boolean onBoard = !plan.isBoarding(i);
+            if (partner != -1) {
+                plan.removeItem(partner);
+            }
+            plan.removeItem(i);
+            numberOfMoves++;
+            if (utils.insertRequest(request, onBoard, plan, freeSeats) && plan.getEndOfPlanTime() < endOfPlanTime) {
+                plan.release(mark);
+                numberOfImprovements++;
+                moved = true;
+            } else {
+                plan.rollback(mark);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Swaps the positions of two items
+     *
+     * @return true, if some items have been swapped
+     */
+    private boolean exchangeItems(CompactPlan plan, int freeSeats, long deadlineInNanos) {
+        boolean moved = false;
+        for (int i = getFirstMovableIndex(plan); i < plan.getSize(); i++) {
+            for (int j = i + 1; j < plan.getSize(); j++) {
+                if (System.nanoTime() >= deadlineInNanos) {
+                    return moved;
+                }
+                if (!canExchange(plan, i, j)) {
+                    continue;
+                }
+                long endOfPlanTime = plan.getEndOfPlanTime();
+                Request firstRequest = plan.getRequest(i);
+                boolean firstBoarding = plan.isBoarding(i);
+                Request secondRequest = plan.getRequest(j);
+                boolean secondBoarding = plan.isBoarding(j);
+
+                int mark = plan.mark();
+                plan.removeItem(j);
+                plan.removeItem(i);
+                numberOfMoves++;
+                if (plan.insertItem(i, secondRequest, secondBoarding, true) >= 0
+                        && plan.insertItem(j, firstRequest, firstBoarding, true) >= 0
+                        && keepMove(plan, mark, freeSeats, endOfPlanTime)) {
+                    moved = true;
+                } else {
+                    plan.rollback(mark);
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Reverses the order of the items i..j
+     *
+     * @return true, if some part of the plan has been reversed
+     */
+    private boolean reverseSegments(CompactPlan plan, int freeSeats, long deadlineInNanos) {
+        boolean moved = false;
+        for (int i = getFirstMovableIndex(plan); i < plan.getSize(); i++) {
+            // two items make an exchange
+            for (int j = i + 2; j < plan.getSize(); j++) {
+                if (System.nanoTime() >= deadlineInNanos) {
+                    return moved;
+                }
+                if (!canReverse(plan, i, j)) {
+                    // a longer segment would contain the same request
+                    break;
+                }
+                long endOfPlanTime = plan.getEndOfPlanTime();
+                int length = j - i + 1;
+                Request[] requests = new Request[length];
+                boolean[] boarding = new boolean[length];
+                for (int k = 0; k < length; k++) {
+                    requests[k] = plan.getRequest(i + k);
+                    boarding[k] = plan.isBoarding(i + k);
+                }
+
+                int mark = plan.mark();
+                for (int k = j; k >= i; k--) {
+                    plan.removeItem(k);
+                }
+                numberOfMoves++;
+                boolean inserted = true;
+                for (int k = 0; k < length && inserted; k++) {
+                    inserted = plan.insertItem(i + k, requests[length - 1 - k], boarding[length - 1 - k], true) >= 0;
+                }
+                if (inserted && keepMove(plan, mark, freeSeats, endOfPlanTime)) {
+                    moved = true;
+                } else {
+                    plan.rollback(mark);
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Releases the mark, if the move keeps the capacity and makes the plan
+     * end sooner
+     */
+    private boolean keepMove(CompactPlan plan, int mark, int freeSeats, long endOfPlanTime) {
+        if (plan.getEndOfPlanTime() >= endOfPlanTime || !plan.checkCapacity(freeSeats)) {
+            return false;
+        }
+        plan.release(mark);
+        numberOfImprovements++;
+        return true;
+    }
+
+    /**
+     * The items can be swapped, if they belong to different requests and no
+     * passenger would get off before getting in
+     */
+    private boolean canExchange(CompactPlan plan, int i, int j) {
+        if (plan.getRequest(i) == plan.getRequest(j)) {
+            return false;
+        }
+        if (plan.isBoarding(i)) {
+            int partner = findPartner(plan, i);
+            if (partner != -1 && partner < j) {
+                return false;
+            }
+        }
+        if (!plan.isBoarding(j)) {
+            int partner = findPartner(plan, j);
+            if (partner > i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The items i..j can be reversed, if they don't contain both items of any
+     * request
+     */
+    private boolean canReverse(CompactPlan plan, int i, int j) {
+        for (int k = i; k <= j; k++) {
+            int partner = findPartner(plan, k);
+            if (partner >= i && partner <= j) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the other item of the same request (-1 if the
+     *         passenger is already on board)
+     */
+    private int findPartner(CompactPlan plan, int index) {
+        Request request = plan.getRequest(index);
+        if (plan.isBoarding(index)) {
+            for (int i = index + 1; i < plan.getSize(); i++) {
+                if (plan.getRequest(i) == request) {
+                    return i;
+                }
+            }
+        } else {
+            for (int i = index - 1; i >= 0; i--) {
+                if (plan.getRequest(i) == request) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 1, if the first item of the plan has to stay first
+     */
+    private int getFirstMovableIndex(CompactPlan plan) {
+        return plan.isFixedFirst() ? 1 : 0;
+    }
+
+    /**
+     * @return the number of tried moves
+     */
+    public long getNumberOfMoves() {
+        return numberOfMoves;
+    }
+
+    /**
+     * @return the number of moves, that have been kept
+     */
+    public long getNumberOfImprovements() {
+        return numberOfImprovements;
+    }
+}
@@ -0,0 +1,313 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.PlanItem;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+
+/**
+ * Evaluates insertions of a request into a {@link FlexiblePlan} without
+ * changing the plan.
+ * <p/>
+ * The insertion algorithm of {@link Utils} tries every combination of get in
+ * and get off position by inserting the items, and every try walks (and
+ * routes) the whole rest of the plan. This evaluator precomputes for every
+ * plan item how much its arrival may be postponed (forward time slack), how
+ * much of the postponement is absorbed by waiting and how many seats are
+ * free. Then one combination is checked in constant time - the new nodes are
+ * routed to and from every plan node just once per request.
+ * <p/>
+ * The evaluator works with a snapshot of the plan, it has to be created again
+ * whenever the plan changes.
+ */
+public class SlackInsertionEvaluator {
+
+    /**
+     * Slack of an item, that is already late (no postponement is possible)
+     */
+    private static final long LATE = Long.MIN_VALUE / 4;
+
+    private final Utils utils;
+    private final long currentTime;
+    private final long firstNode;
+    private final long lastNode;
+    private final int size;
+    private final boolean fixedFirst;
+
+    private final long[] nodes;
+    private final long[] arrivals;
+    private final long[] departures;
+    /**
+     * Total waiting time of the items 0..i-1 (size + 1 values)
+     */
+    private final long[] waitingBefore;
+    /**
+     * How much the arrival of item i may be postponed plus waitingBefore[i].
+     * A postponement d of item j keeps the items j..m on time, if d is at
+     * most min(relativeSlack[j..m]) - waitingBefore[j].
+     */
+    private final long[] relativeSlack;
+    /**
+     * The maximum postponement of item i, that keeps all the items i..size-1
+     * on time (size + 1 values, the last one is infinite)
+     */
+    private final long[] forwardSlack;
+    /**
+     * Free seats before the first item
+     */
+    private final int initialFreeSeats;
+    /**
+     * Free seats after leaving item i
+     */
+    private final int[] freeSeats;
+    /**
+     * False, if the plan already exceeds the capacity somewhere
+     */
+    private final boolean capacityKept;
+    private final long drivingTimeToLastNode;
+
+    /**
+     * @param utils     used for driving times
+     * @param plan      the plan to be evaluated
+     * @param freeSeats free seats in the vehicle at the beginning of the plan
+     */
+    public SlackInsertionEvaluator(Utils utils, FlexiblePlan plan, int freeSeats) {
+        this.utils = utils;
+        this.currentTime = plan.currentTime;
+        this.firstNode = plan.firstNode;
+        this.lastNode = plan.lastNode;
+        this.size = plan.getSize();
+        this.fixedFirst = utils.isFixedFirst(plan);
+
+        this.nodes = new long[size];
+        this.arrivals = new long[size];
+        this.departures = new long[size];
+        this.waitingBefore = new long[size + 1];
+        this.relativeSlack = new long[size];
+        this.forwardSlack = new long[size + 1];
+        this.initialFreeSeats = freeSeats;
+        this.freeSeats = new int[size];
+
+        boolean kept = true;
+        long[] latestArrivals = new long[size];
+        for (int i = 0; i < size; i++) {
+            PlanItem item = plan.getPlanItems().get(i);
+            nodes[i] = item.getNode();
+            arrivals[i] = item.getArrivalTime();
+            departures[i] = item.getDepartureTime();
+            latestArrivals[i] = item.getLatestArrivalTime();
+            waitingBefore[i + 1] = waitingBefore[i] + (departures[i] - arrivals[i]);
+
+            freeSeats += item.isBoarding ? -1 : 1;
+            this.freeSeats[i] = freeSeats;
+            if (freeSeats < 0) {
+                kept = false;
+            }
+        }
+        this.capacityKept = kept;
+
+        forwardSlack[size] = Long.MAX_VALUE;
+        for (int i = size - 1; i >= 0; i--) {
+            long slack = latestArrivals[i] == Long.MAX_VALUE ? Long.MAX_VALUE : latestArrivals[i] - arrivals[i];
+            if (slack < 0) {
+                slack = LATE;
+            }
+            relativeSlack[i] = plus(slack, waitingBefore[i]);
+            forwardSlack[i] = Math.min(slack, plus(forwardSlack[i + 1], departures[i] - arrivals[i]));
+        }
+
+        if (lastNode != -1 && size > 0) {
+            this.drivingTimeToLastNode = utils.computeDrivingTime(nodes[size - 1], lastNode);
+        } else {
+            this.drivingTimeToLastNode = 0;
+        }
+    }
+
+    /**
+     * Finds the best positions for both the get in and the get off node of the
+     * request. The positions are the same the insertion algorithm of
+     * {@link Utils} would choose, if it checked the capacity for every
+     * combination (instead of the best one only).
+     *
+     * @param request request to be inserted
+     * @return the insertion, that ends the plan the soonest, or null if the
+     *         request can't be inserted on time
+     */
+    public Insertion findBestInsertion(Request request) {
+        if (!capacityKept) {
+            return null;
+        }
+        PlanItem getIn = new PlanItem(request, true);
+        PlanItem getOff = new PlanItem(request, false);
+        long[] toGetIn = computeDrivingTimesTo(getIn.getNode());
+        long[] fromGetIn = computeDrivingTimesFrom(getIn.getNode());
+        long[] toGetOff = computeDrivingTimesTo(getOff.getNode());
+        long[] fromGetOff = computeDrivingTimesFrom(getOff.getNode());
+        long getInToGetOff = utils.computeDrivingTime(getIn.getNode(), getOff.getNode());
+        long getOffToLastNode = lastNode == -1 ? 0 : utils.computeDrivingTime(getOff.getNode(), lastNode);
+
+        Insertion best = null;
+        for (int j = fixedFirst ? 1 : 0; j <= size; j++) {
+            if (getFreeSeatsBefore(j) < 1) {
+                continue;
+            }
+            long getInDeparture = getIn.computeDepartureTime(computeArrivalTime(j, toGetIn));
+            if (getInDeparture == -1) {
+                continue;
+            }
+
+            // the passenger gets off right after getting in
+            long getOffDeparture = getOff.computeDepartureTime(getInDeparture + getInToGetOff);
+            if (getOffDeparture != -1) {
+                long endTime = computeEndOfPlanTime(j, getOffDeparture, fromGetOff, getOffToLastNode);
+                if (endTime >= 0 && (best == null || endTime < best.endOfPlanTime)) {
+                    best = new Insertion(j, j + 1, endTime);
+                }
+            }
+            if (j == size) {
+                continue;
+            }
+
+            // the passenger stays on board while the items j..m are visited
+            long delay = getInDeparture + fromGetIn[j] - arrivals[j];
+            long minSlack = Long.MAX_VALUE;
+            for (int m = j; m < size; m++) {
+                minSlack = Math.min(minSlack, relativeSlack[m]);
+                if (delay > minus(minSlack, waitingBefore[j]) || freeSeats[m] < 1) {
+                    // item m can't be visited with the passenger on board
+                    break;
+                }
+                long shift = Math.max(0, delay - (waitingBefore[m + 1] - waitingBefore[j]));
+                getOffDeparture = getOff.computeDepartureTime(departures[m] + shift + toGetOff[m + 1]);
+                if (getOffDeparture == -1) {
+                    continue;
+                }
+                long endTime = computeEndOfPlanTime(m + 1, getOffDeparture, fromGetOff, getOffToLastNode);
+                if (endTime >= 0 && (best == null || endTime < best.endOfPlanTime)) {
+                    best = new Insertion(j, m + 2, endTime);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the best position for the get off node of a request, whose
+     * passenger is already on board (the capacity isn't checked).
+     *
+     * @param request request to be inserted
+     * @return the insertion (with getInIndex -1), that ends the plan the
+     *         soonest, or null if the passenger can't get off on time
+     */
+    public Insertion findBestGetOffInsertion(Request request) {
+        PlanItem getOff = new PlanItem(request, false);
+        long[] toGetOff = computeDrivingTimesTo(getOff.getNode());
+        long[] fromGetOff = computeDrivingTimesFrom(getOff.getNode());
+        long getOffToLastNode = lastNode == -1 ? 0 : utils.computeDrivingTime(getOff.getNode(), lastNode);
+
+        Insertion best = null;
+        for (int k = fixedFirst ? 1 : 0; k <= size; k++) {
+            long getOffDeparture = getOff.computeDepartureTime(computeArrivalTime(k, toGetOff));
+            if (getOffDeparture == -1) {
+                continue;
+            }
+            long endTime = computeEndOfPlanTime(k, getOffDeparture, fromGetOff, getOffToLastNode);
+            if (endTime >= 0 && (best == null || endTime < best.endOfPlanTime)) {
+                best = new Insertion(-1, k, endTime);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return arrival time to a new node inserted at the position (the same
+     *         way as Utils.insertItemBody counts it)
+     */
+    private long computeArrivalTime(int position, long[] drivingTimesTo) {
+        if (position == 0) {
+            if (firstNode == -1) {
+                return currentTime;
+            }
+            return currentTime + drivingTimesTo[0];
+        }
+        return departures[position - 1] + drivingTimesTo[position];
+    }
+
+    /**
+     * @param position           the plan continues by the item on this position
+     * @param departure          departure from the last inserted node
+     * @param drivingTimesFrom   driving times from the last inserted node
+     * @param drivingTimeToLast  driving time from the last inserted node to the
+     *                           last node of the plan
+     * @return departure time at the end of the plan, or -1 if some item of
+     *         the rest of the plan would be late
+     */
+    private long computeEndOfPlanTime(int position, long departure, long[] drivingTimesFrom, long drivingTimeToLast) {
+        if (position == size) {
+            return departure + drivingTimeToLast;
+        }
+        long delay = departure + drivingTimesFrom[position] - arrivals[position];
+        if (delay > forwardSlack[position]) {
+            return -1;
+        }
+        long shift = Math.max(0, delay - (waitingBefore[size] - waitingBefore[position]));
+        return departures[size - 1] + shift + drivingTimeToLastNode;
+    }
+
+    private int getFreeSeatsBefore(int position) {
+        return position == 0 ? initialFreeSeats : freeSeats[position - 1];
+    }
+
+    /**
+     * @return driving times to the node from the node before every position
+     *         (from the first node of the plan for position 0, if there's any)
+     */
+    private long[] computeDrivingTimesTo(long node) {
+        long[] drivingTimes = new long[size + 1];
+        if (firstNode != -1) {
+            drivingTimes[0] = utils.computeDrivingTime(firstNode, node);
+        }
+        for (int i = 0; i < size; i++) {
+            drivingTimes[i + 1] = utils.computeDrivingTime(nodes[i], node);
+        }
+        return drivingTimes;
+    }
+
+    /**
+     * @return driving times from the node to every item of the plan
+     */
+    private long[] computeDrivingTimesFrom(long node) {
+        long[] drivingTimes = new long[size];
+        for (int i = 0; i < size; i++) {
+            drivingTimes[i] = utils.computeDrivingTime(node, nodes[i]);
+        }
+        return drivingTimes;
+    }
+
+    private static long plus(long slack, long time) {
+        return slack == Long.MAX_VALUE ? slack : slack + time;
+    }
+
+    private static long minus(long slack, long time) {
+        return slack == Long.MAX_VALUE ? slack : slack - time;
+    }
+
+    /**
+     * Positions of the inserted items (as used by Utils.insertItem - the get
+     * off index counts with the get in item already inserted)
+     */
+    public static class Insertion {
+
+        public final int getInIndex;
+        public final int getOffIndex;
+        /**
+         * Departure time at the end of the plan after the insertion
+         */
+        public final long endOfPlanTime;
+
+        public Insertion(int getInIndex, int getOffIndex, long endOfPlanTime) {
+            this.getInIndex = getInIndex;
+            this.getOffIndex = getOffIndex;
+            this.endOfPlanTime = endOfPlanTime;
+        }
+    }
+}
@@ -5,6 +5,8 @@ import com.google.inject.Singleton;
 import cz.agents.agentpolis.darptestbed.global.data.DriverAndDistance;
 import cz.agents.agentpolis.darptestbed.global.data.DriverAndDistanceComparator;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.logger.UtilsLogger;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.DistanceMatrix;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.RoadNetworkSearch;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedPlanner;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.*;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.comparator.RequestLatestDepComparator;
@@ -12,18 +14,19 @@ import cz.agents.agentpolis.darptestbed.simmodel.agent.data.comparator.RequestLa
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.generator.PassengersInAndOutPair;
 import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
 import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedModel;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
 import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
 import cz.agents.agentpolis.siminfrastructure.planner.TripPlannerException;
 import cz.agents.agentpolis.siminfrastructure.planner.trip.Trip;
-import cz.agents.agentpolis.siminfrastructure.planner.trip.TripItem;
 import cz.agents.agentpolis.siminfrastructure.planner.trip.Trips;
 import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.AllNetworkNodes;
-import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
 import cz.agents.agentpolis.simmodel.environment.model.query.AgentPositionQuery;
 import cz.agents.alite.common.event.EventProcessor;
 import org.apache.log4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A set of independent methods, that are used throughout the whole application.
@@ -63,6 +66,18 @@ public class Utils {
     protected Map<String, DriverAndDistance[]> passenAndDistMap = null;
 
     private final NodeExtendedFunction nodeExtendedFunction;
+    /**
+     * Distances computed so far (null if the matrix is switched off)
+     */
+    private final DistanceMatrix distanceMatrix;
+    /**
+     * One-to-many searches (null if the compact road network isn't bound)
+     */
+    private RoadNetworkSearch roadNetworkSearch = null;
+    /**
+     * Threads for planning several vehicles at once (created on demand)
+     */
+    private ForkJoinPool planningPool = null;
 
     // /**
     // * True, if the previous map was recently refreshed
@@ -87,28 +102,20 @@ public class Utils {
         this.nodeExtendedFunction = nodeExtendedFunction;
         this.utilsLogger = utilsLogger;
 
+        if (GlobalParams.getDistanceMatrixMemoryInMB() > 0) {
+            this.distanceMatrix = new DistanceMatrix(GlobalParams.getDistanceMatrixMemoryInMB() * 1024L * 1024L);
+        } else {
+            this.distanceMatrix = null;
+        }
     }
 
     /**
-     * Computes the length of a trip (node by node).
-     *
-     * @param trip trip to be measured
-     * @return trip length in meters
+     * The compact road network is bound only if the map init is registered as
+     * a module, without it the distances are always computed by the planner.
      */
-    private Double computeTripLength(Trip trip) {
-
-        Double len = 0.0;
-        TripItem item = trip.getAndRemoveFirstTripItem();
-        Node previosNode = allNodes.getAllNetworkNodes().get((item.tripPositionByNodeId));
-        item = trip.getAndRemoveFirstTripItem();
-
-        while (item != null) {
-            Node currenctNode = allNodes.getAllNetworkNodes().get((item.tripPositionByNodeId));
-            len += nodeExtendedFunction.computeDistanceBetweenNodes(previosNode.getId(), currenctNode.getId());
-            previosNode = currenctNode;
-            item = trip.getAndRemoveFirstTripItem();
-        }
-        return len;
+    @Inject(optional = true)
+    public void setRoadNetwork(CompactRoadNetwork roadNetwork) {
+        this.roadNetworkSearch = new RoadNetworkSearch(roadNetwork);
     }
 
     /**
@@ -119,16 +126,91 @@ public class Utils {
      * @return distance between the nodes in meters
      */
     public Double computeDistance(long node1, long node2) {
+        return measureDistance(node1, node2);
+    }
+
+    /**
+     * The distance is measured by the planner without creating the trip
+     *
+     * @return distance in meters, NaN if there's no trip between the nodes
+     */
+    private double measureDistance(long node1, long node2) {
         if (node1 == node2) {
             return 0.0;
         }
-        Trips trips = null;
+        if (distanceMatrix != null) {
+            double distance = distanceMatrix.getDistance(node1, node2);
+            if (!Double.isNaN(distance)) {
+                return distance;
+            }
+        }
+        double distance;
         try {
-            trips = pathPlanner.findTrip(null, node1, node2);
+            distance = pathPlanner.findDistance(node1, node2);
         } catch (TripPlannerException e) {
             e.printStackTrace();
+            return Double.NaN;
+        }
+        if (distanceMatrix != null) {
+            distanceMatrix.putDistance(node1, node2, distance);
+        }
+        return distance;
+    }
+
+    /**
+     * Fills the distance matrix with distances between all pairs of the given
+     * nodes (e.g. positions of known requests and taxis), so that the
+     * insertion algorithm doesn't need to route them later. Does nothing if
+     * the matrix is switched off.
+     * <p/>
+     * If the compact road network is available, the distances from one node
+     * are measured by a single one-to-many search, otherwise every pair is
+     * routed by the planner.
+     *
+     * @param nodeIds nodes to be precomputed
+     */
+    public void precomputeDistances(Collection<Long> nodeIds) {
+        if (distanceMatrix == null) {
+            return;
+        }
+        List<Long> storedNodeIds = new ArrayList<Long>(nodeIds.size());
+        for (Long nodeId : nodeIds) {
+            if (distanceMatrix.canStore(nodeId)) {
+                storedNodeIds.add(nodeId);
+            }
+        }
+        if (roadNetworkSearch == null) {
+            for (Long from : storedNodeIds) {
+                for (Long to : storedNodeIds) {
+                    computeDistance(from, to);
+                }
+            }
+            return;
+        }
+
+        CompactRoadNetwork roadNetwork = roadNetworkSearch.getRoadNetwork();
+        long[] targetNodes = new long[storedNodeIds.size()];
+        for (Long from : storedNodeIds) {
+            // only the distances, that aren't known yet
+            int numberOfTargets = 0;
+            for (Long to : storedNodeIds) {
+                if (!from.equals(to) && Double.isNaN(distanceMatrix.getDistance(from, to))) {
+                    targetNodes[numberOfTargets++] = to;
+                }
+            }
+            if (numberOfTargets == 0) {
+                continue;
+            }
+            long[] targets = Arrays.copyOf(targetNodes, numberOfTargets);
+            double[] distances = roadNetworkSearch.findDistancesFromSource(roadNetwork.getIndex(from),
+                    toNetworkIndexes(targets), Double.POSITIVE_INFINITY);
+            for (int i = 0; i < numberOfTargets; i++) {
+                // unreachable nodes are left to the planner
+                if (distances[i] != Double.POSITIVE_INFINITY) {
+                    distanceMatrix.putDistance(from, targets[i], distances[i]);
+                }
+            }
         }
-        return computeTripLength(trips.getAndRemoveFirstTrip());
     }
 
     /**
@@ -171,8 +253,8 @@ public class Utils {
      * @return time to drive (in milliseconds)
      */
     public Long computeDrivingTime(long node1, long node2, double velocityKmph) {
-        Double distance = computeDistance(node1, node2);
-        if (distance != null && !distance.isNaN() && !distance.isInfinite())
+        double distance = measureDistance(node1, node2);
+        if (!Double.isNaN(distance) && !Double.isInfinite(distance))
             return (long) (3600 * distance / velocityKmph);
         else
             return null;
@@ -319,6 +401,24 @@ public class Utils {
 
     public DriverAndDistance[] getDistMapForPassenger(long passengerPositionByNodeId, List<String> driversIds,
                                                       boolean useEndOfTripPositions) {
+        return getDistMapForPassenger(passengerPositionByNodeId, driversIds, useEndOfTripPositions, Long.MAX_VALUE);
+    }
+
+    /**
+     * Driving times from the given drivers to a passenger, sorted from the
+     * closest driver. If the compact road network is available, all of them
+     * are measured by a single backward search from the passenger.
+     *
+     * @param passengerPositionByNodeId     passenger's position
+     * @param driversIds                    drivers to be measured
+     * @param useEndOfTripPositions         true = the drivers' positions at the
+     *                                      end of their trips are used
+     * @param maxDrivingTime                drivers further than this (in
+     *                                      milliseconds) are left out
+     * @return driving times of the drivers, closest first
+     */
+    public DriverAndDistance[] getDistMapForPassenger(long passengerPositionByNodeId, List<String> driversIds,
+                                                      boolean useEndOfTripPositions, long maxDrivingTime) {
 
         if (driversIds == null || driversIds.size() == 0) {
             return null;
@@ -326,19 +426,24 @@ public class Utils {
 
         this.useEndOfTripPositions = useEndOfTripPositions;
 
-        DriverAndDistance[] taxiAndDistArr = new DriverAndDistance[driversIds.size()];
-
-        // compute distances to all taxis
+        long[] driverPositions = new long[driversIds.size()];
         for (int i = 0; i < driversIds.size(); i++) {
             String driverId = driversIds.get(i);
-            long driverPos = positionQuery.getCurrentPositionByNodeId(driverId);
+            driverPositions[i] = positionQuery.getCurrentPositionByNodeId(driverId);
             if (useEndOfTripPositions) {
-                driverPos = taxiModel.getEndOfTripPosition(taxiModel.getVehicleId(driverId));
+                driverPositions[i] = taxiModel.getEndOfTripPosition(taxiModel.getVehicleId(driverId));
             }
+        }
 
-            long drivingTime = this.computeDrivingTime(passengerPositionByNodeId, driverPos);
-            taxiAndDistArr[i] = new DriverAndDistance(driverId, drivingTime);
+        long[] drivingTimes = computeDrivingTimesTo(passengerPositionByNodeId, driverPositions, maxDrivingTime);
+
+        List<DriverAndDistance> taxiAndDistList = new ArrayList<DriverAndDistance>(driversIds.size());
+        for (int i = 0; i < driversIds.size(); i++) {
+            if (drivingTimes[i] <= maxDrivingTime) {
+                taxiAndDistList.add(new DriverAndDistance(driversIds.get(i), drivingTimes[i]));
+            }
         }
+        DriverAndDistance[] taxiAndDistArr = taxiAndDistList.toArray(new DriverAndDistance[taxiAndDistList.size()]);
 
         // sort them by the distance
         Arrays.sort(taxiAndDistArr, new DriverAndDistanceComparator());
@@ -346,6 +451,167 @@ public class Utils {
         return taxiAndDistArr;
     }
 
+    /**
+     * Computes driving times from many nodes to one target node (a single
+     * backward search, if the compact road network is available).
+     *
+     * @param targetNode     the common target
+     * @param sourceNodes    the nodes to be measured
+     * @param maxDrivingTime search bound in milliseconds (Long.MAX_VALUE = no
+     *                       bound), the search may stop at it
+     * @return driving times in milliseconds (in the order of the sources),
+     *         Long.MAX_VALUE for the sources which couldn't be reached within
+     *         the bound
+     */
+    public long[] computeDrivingTimesTo(long targetNode, long[] sourceNodes, long maxDrivingTime) {
+        if (roadNetworkSearch == null) {
+            long[] drivingTimes = new long[sourceNodes.length];
+            for (int i = 0; i < sourceNodes.length; i++) {
+                Long drivingTime = computeDrivingTime(sourceNodes[i], targetNode);
+                drivingTimes[i] = drivingTime == null ? Long.MAX_VALUE : drivingTime;
+            }
+            return drivingTimes;
+        }
+
+        CompactRoadNetwork roadNetwork = roadNetworkSearch.getRoadNetwork();
+        double[] distances = roadNetworkSearch.findDistancesToTarget(roadNetwork.getIndex(targetNode),
+                toNetworkIndexes(sourceNodes), toSearchBound(maxDrivingTime));
+        return toDrivingTimes(distances);
+    }
+
+    /**
+     * Computes driving times from one node to many target nodes (a single
+     * forward search, if the compact road network is available).
+     *
+     * @param sourceNode     the common source
+     * @param targetNodes    the nodes to be measured
+     * @param maxDrivingTime search bound in milliseconds (Long.MAX_VALUE = no
+     *                       bound), the search may stop at it
+     * @return driving times in milliseconds (in the order of the targets),
+     *         Long.MAX_VALUE for the targets which couldn't be reached within
+     *         the bound
+     */
+    public long[] computeDrivingTimesFrom(long sourceNode, long[] targetNodes, long maxDrivingTime) {
+        if (roadNetworkSearch == null) {
+            long[] drivingTimes = new long[targetNodes.length];
+            for (int i = 0; i < targetNodes.length; i++) {
+                Long drivingTime = computeDrivingTime(sourceNode, targetNodes[i]);
+                drivingTimes[i] = drivingTime == null ? Long.MAX_VALUE : drivingTime;
+            }
+            return drivingTimes;
+        }
+
+        CompactRoadNetwork roadNetwork = roadNetworkSearch.getRoadNetwork();
+        double[] distances = roadNetworkSearch.findDistancesFromSource(roadNetwork.getIndex(sourceNode),
+                toNetworkIndexes(targetNodes), toSearchBound(maxDrivingTime));
+        return toDrivingTimes(distances);
+    }
+
+    private int[] toNetworkIndexes(long[] nodeIds) {
+        CompactRoadNetwork roadNetwork = roadNetworkSearch.getRoadNetwork();
+        int[] indexes = new int[nodeIds.length];
+        for (int i = 0; i < nodeIds.length; i++) {
+            indexes[i] = roadNetwork.getIndex(nodeIds[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the longest distance, that can be driven within the time. No
+     * driving distance is shorter than the straight line distance, so nodes
+     * farther (in straight line) can't be reached in time.
+     *
+     * @param maxDrivingTime driving time (in milliseconds)
+     * @return distance in meters (positive infinity for Long.MAX_VALUE)
+     */
+    public double computeMaxDrivingDistance(long maxDrivingTime) {
+        return toSearchBound(maxDrivingTime);
+    }
+
+    /**
+     * @return distance in meters, that surely covers all nodes whose driving
+     *         time (rounded down to milliseconds) is within the bound
+     */
+    private double toSearchBound(long maxDrivingTime) {
+        if (maxDrivingTime == Long.MAX_VALUE) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (maxDrivingTime + 1) * GlobalParams.getVelocityInKmph() / 3600;
+    }
+
+    private long[] toDrivingTimes(double[] distances) {
+        double velocityKmph = GlobalParams.getVelocityInKmph();
+        long[] drivingTimes = new long[distances.length];
+        for (int i = 0; i < distances.length; i++) {
+            if (Double.isInfinite(distances[i])) {
+                drivingTimes[i] = Long.MAX_VALUE;
+            } else {
+                drivingTimes[i] = (long) (3600 * distances[i] / velocityKmph);
+            }
+        }
+        return drivingTimes;
+    }
+
+    /**
+     * Driving times from the driver's position to the passengers of the
+     * requests. Only the requests with time windows are measured (the others
+     * get 0), all by one forward search bounded by the largest time left
+     * until their latest departures.
+     *
+     * @param taxiDriverId        the driver
+     * @param requests            the requests to be measured
+     * @param requestsInExecution requests that are not measured (may be null)
+     * @return driving times in milliseconds (in the order of the requests),
+     *         Long.MAX_VALUE for the passengers that can't be reached before
+     *         the latest departure of any request
+     */
+    long[] computeDrivingTimesToPassengers(String taxiDriverId, List<Request> requests,
+                                           Set<Request> requestsInExecution) {
+        long currentTime = getCurrentTime();
+        long[] drivingTimes = new long[requests.size()];
+
+        List<Integer> measured = new ArrayList<Integer>();
+        long maxDrivingTime = Long.MIN_VALUE;
+        for (int i = 0; i < requests.size(); i++) {
+            Request req = requests.get(i);
+            if (req.getTimeWindow() == null
+                    || (requestsInExecution != null && requestsInExecution.contains(req))) {
+                continue;
+            }
+            measured.add(i);
+            maxDrivingTime = Math.max(maxDrivingTime, req.getTimeWindow().getLatestDeparture() - currentTime);
+        }
+        if (measured.isEmpty()) {
+            return drivingTimes;
+        }
+
+        if (roadNetworkSearch == null) {
+            for (int i : measured) {
+                drivingTimes[i] = computeDrivingTime(taxiDriverId, requests.get(i).getPassengerId());
+            }
+            return drivingTimes;
+        }
+
+        if (maxDrivingTime < 0) {
+            for (int i : measured) {
+                drivingTimes[i] = Long.MAX_VALUE;
+            }
+            return drivingTimes;
+        }
+
+        long[] passengerPositions = new long[measured.size()];
+        for (int j = 0; j < measured.size(); j++) {
+            passengerPositions[j] = positionQuery.getCurrentPositionByNodeId(requests.get(measured.get(j))
+                    .getPassengerId());
+        }
+        long[] measuredTimes = computeDrivingTimesFrom(positionQuery.getCurrentPositionByNodeId(taxiDriverId),
+                passengerPositions, maxDrivingTime);
+        for (int j = 0; j < measured.size(); j++) {
+            drivingTimes[measured.get(j)] = measuredTimes[j];
+        }
+        return drivingTimes;
+    }
+
     /**
      * Transfer the plan changeable into a trip plan that is ready for a taxi
      * driver
@@ -474,11 +740,11 @@ public class Utils {
         }
 
         // delete requests which cannot be driven to on time
+        long[] timesToDrive = computeDrivingTimesToPassengers(taxiDriverId, listOfReqs, null);
         for (int i = listOfReqs.size() - 1; i >= 0; i--) {
             Request req = listOfReqs.get(i);
-            long timeToDrive = computeDrivingTime(taxiDriverId, req.getPassengerId());
             if (req.getTimeWindow() != null
-                    && getCurrentTime() + timeToDrive > req.getTimeWindow().getLatestDeparture()) {
+                    && timesToDrive[i] > req.getTimeWindow().getLatestDeparture() - getCurrentTime()) {
                 listOfReqs.remove(i);
             }
         }
@@ -493,10 +759,23 @@ public class Utils {
         long tmpDepartTime;
         // this property is never used, but it may be useful for logging
         List<Request> listOfReqsInPlan = new ArrayList<Request>();
+        CompactPlan compactPlan = toCompactPlanForInsertion(plan);
 
 
         // try to place all requests
         for (int i = 0; i < listOfReqs.size(); i++) {
+            if (GlobalParams.isSlackInsertion()) {
+                if (insertRequestBySlack(listOfReqs.get(i), false, plan)) {
+                    listOfReqsInPlan.add(listOfReqs.get(i));
+                }
+                continue;
+            }
+            if (compactPlan != null) {
+                if (insertRequest(listOfReqs.get(i), false, compactPlan)) {
+                    listOfReqsInPlan.add(listOfReqs.get(i));
+                }
+                continue;
+            }
             minDepartTime = Long.MAX_VALUE;
             itemGetIn = new PlanItem(listOfReqs.get(i), true);
             itemGetOff = new PlanItem(listOfReqs.get(i), false);
@@ -539,6 +818,9 @@ public class Utils {
             }
         }
 
+        if (compactPlan != null) {
+            compactPlan.copyTo(plan);
+        }
         return plan;
     }
 
@@ -580,6 +862,7 @@ public class Utils {
         }
 
         // delete requests which cannot be driven to on time
+        long[] timesToDrive = computeDrivingTimesToPassengers(taxiDriverId, listOfReqs, requestsInExecution);
         for (int i = listOfReqs.size() - 1; i >= 0; i--) {
             Request req = listOfReqs.get(i);
 
@@ -587,9 +870,8 @@ public class Utils {
                 continue;
             }
 
-            long timeToDrive = computeDrivingTime(taxiDriverId, req.getPassengerId());
             if (req.getTimeWindow() != null
-                    && getCurrentTime() + timeToDrive > req.getTimeWindow().getLatestDeparture()) {
+                    && timesToDrive[i] > req.getTimeWindow().getLatestDeparture() - getCurrentTime()) {
 
                 return null;
 //                listOfReqs.remove(i);
@@ -606,10 +888,23 @@ public class Utils {
         long tmpDepartTime;
         // this property is never used, but it may be useful for logging
         List<Request> listOfReqsInPlan = new ArrayList<Request>();
+        CompactPlan compactPlan = toCompactPlanForInsertion(plan);
 
 
         // try to place all requests
         for (Request request : listOfReqs) {
+            if (GlobalParams.isSlackInsertion()) {
+                if (insertRequestBySlack(request, requestsInExecution.contains(request), plan)) {
+                    listOfReqsInPlan.add(request);
+                }
+                continue;
+            }
+            if (compactPlan != null) {
+                if (insertRequest(request, requestsInExecution.contains(request), compactPlan)) {
+                    listOfReqsInPlan.add(request);
+                }
+                continue;
+            }
             minDepartTime = Long.MAX_VALUE;
             if (!requestsInExecution.contains(request)) {
 
@@ -682,9 +977,147 @@ public class Utils {
             }
         }
 
+        if (compactPlan != null) {
+            compactPlan.copyTo(plan);
+        }
         return plan;
     }
 
+    /**
+     * @return the plan converted for the insertion algorithm, or null if the
+     *         plan items should be used
+     */
+    private CompactPlan toCompactPlanForInsertion(FlexiblePlan plan) {
+        if (!isCompactInsertion()) {
+            return null;
+        }
+        return CompactPlan.fromFlexiblePlan(plan);
+    }
+
+    /**
+     * @return true, if planning inserts the requests into compact plans (the
+     *         plan items are then only read and replaced by new ones)
+     */
+    private boolean isCompactInsertion() {
+        return GlobalParams.isCompactPlans() && !GlobalParams.isSlackInsertion();
+    }
+
+    /**
+     * Inserts the request into the compact plan on the best positions, the
+     * same way as the insertion algorithm does with the plan items
+     *
+     * @param request request to be inserted
+     * @param onBoard true, if the passenger is already on board (only the get
+     *                off node is inserted)
+     * @return true, if the request has been inserted
+     */
+    protected boolean insertRequest(Request request, boolean onBoard, CompactPlan plan) {
+        // the driver's seat is taken
+        int freeSeats = plan.vehicle.getCapacity() - 1 - taxiModel.getNumOfPassenOnBoard(plan.vehicle.getId());
+        return insertRequest(request, onBoard, plan, freeSeats);
+    }
+
+    /**
+     * Inserts the request into the compact plan on the best positions (see
+     * {@link #insertRequest(Request, boolean, CompactPlan)})
+     *
+     * @param freeSeats free seats at the beginning of the plan
+     * @return true, if the request has been inserted
+     */
+    protected boolean insertRequest(Request request, boolean onBoard, CompactPlan plan, int freeSeats) {
+        long minDepartTime = Long.MAX_VALUE;
+        int minDTimeGetInIndex = -1;
+        int minDTimeGetOffIndex = -1;
+        long tmpDepartTime;
+
+        if (!onBoard) {
+            // first, lets place the node where the passenger gets in
+            for (int j = 0; j <= plan.getSize(); j++) {
+                int mark = plan.mark();
+                tmpDepartTime = plan.insertItem(j, request, true, true);
+                if (tmpDepartTime >= 0) {
+                    // lets try to place the get off node
+                    for (int k = j + 1; k <= plan.getSize(); k++) {
+                        tmpDepartTime = plan.insertItem(k, request, false, false);
+                        if (tmpDepartTime >= 0 && tmpDepartTime < minDepartTime) {
+                            minDepartTime = tmpDepartTime;
+                            minDTimeGetInIndex = j;
+                            minDTimeGetOffIndex = k;
+                        }
+                    }
+                }
+                // change it back (only the items moved by the insertion)
+                plan.rollback(mark);
+            }
+        } else {
+            for (int k = 0; k <= plan.getSize(); k++) {
+                tmpDepartTime = plan.insertItem(k, request, false, false);
+                if (tmpDepartTime >= 0 && tmpDepartTime < minDepartTime) {
+                    minDepartTime = tmpDepartTime;
+                    minDTimeGetOffIndex = k;
+                }
+            }
+        }
+        if (minDepartTime == Long.MAX_VALUE) {
+            return false;
+        }
+
+        int mark = plan.mark();
+        if (!onBoard) {
+            plan.insertItem(minDTimeGetInIndex, request, true, true);
+        }
+        plan.insertItem(minDTimeGetOffIndex, request, false, true);
+        // let's not forget checking the capacity
+        if (!plan.checkCapacity(freeSeats)) {
+            plan.rollback(mark);
+            return false;
+        }
+        plan.release(mark);
+        return true;
+    }
+
+    /**
+     * Inserts the request into the plan on the best positions found by the
+     * {@link SlackInsertionEvaluator} (the plan isn't changed while searching)
+     *
+     * @param request request to be inserted
+     * @param onBoard true, if the passenger is already on board (only the get
+     *                off node is inserted)
+     * @return true, if the request has been inserted
+     */
+    protected boolean insertRequestBySlack(Request request, boolean onBoard, FlexiblePlan plan) {
+        int freeSeats = plan.vehicle.getCapacity() - 1 - taxiModel.getNumOfPassenOnBoard(plan.vehicle.getId());
+        SlackInsertionEvaluator evaluator = new SlackInsertionEvaluator(this, plan, freeSeats);
+        SlackInsertionEvaluator.Insertion insertion;
+        if (onBoard) {
+            insertion = evaluator.findBestGetOffInsertion(request);
+        } else {
+            insertion = evaluator.findBestInsertion(request);
+        }
+        if (insertion == null) {
+            return false;
+        }
+
+        if (!onBoard && insertItem(insertion.getInIndex, new PlanItem(request, true), true, plan) < 0) {
+            return false;
+        }
+        if (insertItem(insertion.getOffIndex, new PlanItem(request, false), true, plan) < 0) {
+            if (!onBoard) {
+                plan.removeItem(insertion.getInIndex);
+            }
+            return false;
+        }
+        // let's not forget checking the capacity
+        if (!checkOutCapacity(plan)) {
+            plan.removeItem(insertion.getOffIndex);
+            if (!onBoard) {
+                plan.removeItem(insertion.getInIndex);
+            }
+            return false;
+        }
+        return true;
+    }
+
     // ------- Insert
 
     /**
@@ -859,6 +1292,200 @@ public class Utils {
         return planTrips(listOfReqs, vehicle, null, true);
     }
 
+    // ------- Local search
+
+    /**
+     * Makes a copy of the plan and refreshes its times according to when the
+     * driver can make it (see
+     * {@link #refreshPlannerTime(FlexiblePlan, String)}), the plan isn't
+     * changed
+     *
+     * @return the refreshed copy (without the items, that are late already)
+     */
+    public FlexiblePlan refreshPlan(FlexiblePlan plan) {
+        FlexiblePlan refreshed;
+        try {
+            refreshed = (FlexiblePlan) plan.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        refreshPlannerTime(refreshed, taxiModel.getTaxiDriverId(plan.vehicle.getId()));
+        return refreshed;
+    }
+
+    /**
+     * Improves a copy of the plan by local search (see {@link PlanImprover}).
+     * The times of the copy are refreshed first, the plan isn't changed.
+     *
+     * @param plan            the plan to be improved
+     * @param improver        the local search
+     * @param deadlineInNanos the search stops at this {@link System#nanoTime()}
+     * @return the improved plan, or null if no improvement has been found
+     *         (or the plan can't be kept on time anymore)
+     */
+    public FlexiblePlan improvePlan(FlexiblePlan plan, PlanImprover improver, long deadlineInNanos) {
+        FlexiblePlan refreshed = refreshPlan(plan);
+        if (refreshed.getSize() != plan.getSize()) {
+            // some items have been dropped, they are late already
+            return null;
+        }
+        CompactPlan compactPlan = CompactPlan.fromFlexiblePlan(refreshed);
+        // the driver's seat is taken
+        int freeSeats = plan.vehicle.getCapacity() - 1 - taxiModel.getNumOfPassenOnBoard(plan.vehicle.getId());
+        if (!improver.improve(compactPlan, freeSeats, deadlineInNanos)) {
+            return null;
+        }
+        return compactPlan.toFlexiblePlan();
+    }
+
+    // ------- Parallel planning
+
+    /**
+     * Plans the requests for every vehicle separately (the same way as
+     * {@link #planTrips(List, TestbedVehicle, FlexiblePlan, boolean)}), the
+     * vehicles are planned in parallel. The current plans aren't changed,
+     * every vehicle gets a copy of its plan (with compact plans, the copy
+     * shares the plan items, because they are only read and then replaced).
+     *
+     * @param listOfReqs   requests to be served
+     * @param vehicles     candidate vehicles
+     * @param currentPlans current plans by vehicle ids (a new plan is made for
+     *                     vehicles without a plan), may be null
+     * @return the plans in the same order as the vehicles
+     */
+    public List<FlexiblePlan> planTripsInParallel(List<Request> listOfReqs, List<TestbedVehicle> vehicles,
+                                                  Map<String, FlexiblePlan> currentPlans) {
+        FlexiblePlan[] plans = new FlexiblePlan[vehicles.size()];
+        for (int i = 0; i < vehicles.size(); i++) {
+            FlexiblePlan currentPlan = currentPlans == null ? null : currentPlans.get(vehicles.get(i).getId());
+            if (currentPlan != null && isCompactInsertion()) {
+                plans[i] = currentPlan.shareItems();
+            } else if (currentPlan != null) {
+                try {
+                    plans[i] = (FlexiblePlan) currentPlan.clone();
+                } catch (CloneNotSupportedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        PlanTripsTask task = new PlanTripsTask(listOfReqs, vehicles, plans, 0, plans.length);
+        if (GlobalParams.getPlanningThreads() > 1 && plans.length > 1) {
+            getPlanningPool().invoke(task);
+        } else {
+            task.compute();
+        }
+        return Arrays.asList(plans);
+    }
+
+    /**
+     * Plans the requests for all the vehicles (in parallel) and chooses the
+     * best vehicle: the one that serves the most new requests, then the one
+     * whose plan gets longer the least, then the first one in the list. The
+     * choice doesn't depend on the number of planning threads.
+     *
+     * @param listOfReqs   requests to be served
+     * @param vehicles     candidate vehicles
+     * @param currentPlans current plans by vehicle ids, may be null
+     * @return the new plan of the best vehicle (see FlexiblePlan.vehicle), or
+     *         null if no vehicle can serve any of the requests
+     */
+    public FlexiblePlan findBestPlan(List<Request> listOfReqs, List<TestbedVehicle> vehicles,
+                                     Map<String, FlexiblePlan> currentPlans) {
+        List<FlexiblePlan> plans = planTripsInParallel(listOfReqs, vehicles, currentPlans);
+
+        FlexiblePlan bestPlan = null;
+        int bestNewRequests = 0;
+        long bestExtraTime = Long.MAX_VALUE;
+        for (int i = 0; i < plans.size(); i++) {
+            FlexiblePlan plan = plans.get(i);
+            FlexiblePlan currentPlan = currentPlans == null ? null : currentPlans.get(vehicles.get(i).getId());
+
+            int newRequests = plan.getRequests().size();
+            long extraTime = plan.getEndOfPlanTime();
+            if (currentPlan != null) {
+                newRequests -= currentPlan.getRequests().size();
+                extraTime -= currentPlan.getEndOfPlanTime();
+            } else {
+                extraTime -= plan.currentTime;
+            }
+
+            if (newRequests > bestNewRequests || (newRequests == bestNewRequests && newRequests > 0
+                    && extraTime < bestExtraTime)) {
+                bestPlan = plan;
+                bestNewRequests = newRequests;
+                bestExtraTime = extraTime;
+            }
+        }
+        return bestPlan;
+    }
+
+    /**
+     * @return the pool with the number of threads currently set, the previous
+     *         pool is shut down if the number has changed
+     */
+    private synchronized ForkJoinPool getPlanningPool() {
+        if (planningPool == null || planningPool.getParallelism() != GlobalParams.getPlanningThreads()) {
+            if (planningPool != null) {
+                planningPool.shutdown();
+            }
+            planningPool = new ForkJoinPool(GlobalParams.getPlanningThreads());
+        }
+        return planningPool;
+    }
+
+    /**
+     * Stops the planning threads (when the simulation finishes), a later
+     * parallel planning starts new ones
+     */
+    public synchronized void shutdown() {
+        if (planningPool != null) {
+            planningPool.shutdown();
+            planningPool = null;
+        }
+    }
+
+    /**
+     * Plans the vehicles from..to-1, the range is split in halves until one
+     * vehicle is left
+     */
+    private class PlanTripsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Request> listOfReqs;
+        private final List<TestbedVehicle> vehicles;
+        /**
+         * Copies of the current plans (or null), they're replaced by the
+         * results
+         */
+        private final FlexiblePlan[] plans;
+        private final int from;
+        private final int to;
+
+        PlanTripsTask(List<Request> listOfReqs, List<TestbedVehicle> vehicles, FlexiblePlan[] plans, int from,
+                      int to) {
+            this.listOfReqs = listOfReqs;
+            this.vehicles = vehicles;
+            this.plans = plans;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && GlobalParams.getPlanningThreads() > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PlanTripsTask(listOfReqs, vehicles, plans, from, middle),
+                        new PlanTripsTask(listOfReqs, vehicles, plans, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                plans[i] = planTrips(listOfReqs, vehicles.get(i), plans[i], true);
+            }
+        }
+    }
+
 
     /**
      * Updates the time, from which the plan begins. Sets it up this way: the
@@ -887,6 +1514,12 @@ public class Utils {
      *         destroy the plan
      */
     public void updateCurrentTime(long currentTime, FlexiblePlan flexiblePlan) {
+        if (GlobalParams.isCompactPlans()) {
+            CompactPlan compactPlan = CompactPlan.fromFlexiblePlan(flexiblePlan);
+            compactPlan.refreshTimes();
+            compactPlan.copyTo(flexiblePlan);
+            return;
+        }
         // add all plan items again (to refresh their time)
         List<PlanItem> planItemsOld = flexiblePlan.planItems;
         flexiblePlan.planItems = new ArrayList<PlanItem>();
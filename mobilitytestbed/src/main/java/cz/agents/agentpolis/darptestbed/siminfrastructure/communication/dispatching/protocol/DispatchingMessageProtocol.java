@@ -3,8 +3,8 @@ package cz.agents.agentpolis.darptestbed.siminfrastructure.communication.dispatc
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.dispatching.receiver.DispatchingReceiverVisitor;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol.BatchedMessageProtocol;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.receiver.RequestConsumerReceiverVisitor;
-import cz.agents.agentpolis.ondemandtransport.siminfrastructure.communication.protocol.AMessageProtocol;
 import cz.agents.alite.common.event.EventProcessor;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -12,13 +12,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
 @Singleton
 public class DispatchingMessageProtocol {
 
-    public final AMessageProtocol<RequestConsumerReceiverVisitor> requestConsumerProtocol;
-    public final AMessageProtocol<DispatchingReceiverVisitor> driverDispatchingProtocol;
+    public final BatchedMessageProtocol<RequestConsumerReceiverVisitor> requestConsumerProtocol;
+    public final BatchedMessageProtocol<DispatchingReceiverVisitor> driverDispatchingProtocol;
 
     @Inject
     public DispatchingMessageProtocol(EventProcessor eventProcessor) {
-        driverDispatchingProtocol = new AMessageProtocol<DispatchingReceiverVisitor>(eventProcessor) {};
-        requestConsumerProtocol = new AMessageProtocol<RequestConsumerReceiverVisitor>(eventProcessor) {};
+        driverDispatchingProtocol = new BatchedMessageProtocol<DispatchingReceiverVisitor>(eventProcessor) {};
+        requestConsumerProtocol = new BatchedMessageProtocol<RequestConsumerReceiverVisitor>(eventProcessor) {};
     }
 
     public void addReceiverVisitor(String agentId, DispatchingMessageProtocolCombinedVisitor receiverVisitor) {
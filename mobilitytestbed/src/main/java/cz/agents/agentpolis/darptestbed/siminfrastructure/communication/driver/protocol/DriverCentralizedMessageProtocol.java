@@ -4,11 +4,11 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.receiver.DriverCentralizedReceiverVisitor;
-import cz.agents.agentpolis.ondemandtransport.siminfrastructure.communication.protocol.AMessageProtocol;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol.BatchedMessageProtocol;
 import cz.agents.alite.common.event.EventProcessor;
 
 @Singleton
-public class DriverCentralizedMessageProtocol extends AMessageProtocol<DriverCentralizedReceiverVisitor> {
+public class DriverCentralizedMessageProtocol extends BatchedMessageProtocol<DriverCentralizedReceiverVisitor> {
 
 	@Inject
 	public DriverCentralizedMessageProtocol(EventProcessor eventProcessor) {
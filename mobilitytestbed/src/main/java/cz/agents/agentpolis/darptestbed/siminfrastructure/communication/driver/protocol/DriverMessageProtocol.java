@@ -4,11 +4,11 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.receiver.DriverReceiverVisitor;
-import cz.agents.agentpolis.ondemandtransport.siminfrastructure.communication.protocol.AMessageProtocol;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol.BatchedMessageProtocol;
 import cz.agents.alite.common.event.EventProcessor;
 
 @Singleton
-public class DriverMessageProtocol extends AMessageProtocol<DriverReceiverVisitor> {
+public class DriverMessageProtocol extends BatchedMessageProtocol<DriverReceiverVisitor> {
 
 	@Inject
 	public DriverMessageProtocol(EventProcessor eventProcessor) {
@@ -17,5 +17,5 @@ public interface DriverReceiverVisitor extends BaseReceiverVisitor {
 
     public void visit(DispatcherRequestsInsertionMessage dispatcherRequestsInsertionMessage);
 
-    public void visit(StringMessage stringMessage);
+    public void visit(StringMessage<?> stringMessage);
 }
@@ -4,11 +4,11 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.passenger.receiver.PassengerReceiverVisitor;
-import cz.agents.agentpolis.ondemandtransport.siminfrastructure.communication.protocol.AMessageProtocol;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol.BatchedMessageProtocol;
 import cz.agents.alite.common.event.EventProcessor;
 
 @Singleton
-public class PassengerMessageProtocol extends AMessageProtocol<PassengerReceiverVisitor> {
+public class PassengerMessageProtocol extends BatchedMessageProtocol<PassengerReceiverVisitor> {
 
 	@Inject
 	public PassengerMessageProtocol(EventProcessor eventProcessor) {
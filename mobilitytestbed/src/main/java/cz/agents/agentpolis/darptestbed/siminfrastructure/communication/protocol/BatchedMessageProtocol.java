@@ -0,0 +1,191 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import cz.agents.agentpolis.ondemandtransport.siminfrastructure.communication.protocol.AMessageProtocol;
+import cz.agents.agentpolis.ondemandtransport.siminfrastructure.communication.protocol.MessageVisitor;
+import cz.agents.alite.common.event.Event;
+import cz.agents.alite.common.event.EventHandlerAdapter;
+import cz.agents.alite.common.event.EventProcessor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A message protocol, that can also send messages in batches and counts the
+ * sent messages by their types.
+ * <p/>
+ * {@link #sendMessage(String, MessageVisitor)} schedules one simulation event
+ * per message (and receiver). Messages sent by
+ * {@link #sendMessageBatched(String, MessageVisitor)} wait for a single
+ * delivery event instead, which is scheduled with the first of them. The
+ * delivery hands the messages to their receivers in the order they were sent
+ * (across all receivers), so multicasts (e.g. a rejection sent to all
+ * drivers) and messages of many agents in the same tick cost one event.
+ * <p/>
+ * Every receiver gets its messages in the order they were sent, whether they
+ * were sent directly or batched: while a delivery is pending, the direct
+ * messages join it too (a batched message sent later would overtake them
+ * otherwise, because it goes with the earlier scheduled delivery).
+ *
+ * @param <TReceiverVisitor> type of the receivers
+ */
+public abstract class BatchedMessageProtocol<TReceiverVisitor> extends AMessageProtocol<TReceiverVisitor> {
+
+    private final EventProcessor eventProcessor;
+    /**
+     * Receivers by agent ids (the addresses of the super class aren't visible)
+     */
+    private final Map<String, TReceiverVisitor> receivers = new HashMap<>();
+    /**
+     * Messages waiting for the delivery event with their receivers, in the
+     * order they were sent
+     */
+    private List<PendingMessage<TReceiverVisitor>> pendingMessages = new ArrayList<>();
+    private final EventHandlerAdapter delivery = new EventHandlerAdapter() {
+
+        @Override
+        public void handleEvent(Event event) {
+            deliverPendingMessages();
+        }
+    };
+
+    /**
+     * The number of sent messages by the simple names of their classes
+     */
+    private final Map<String, Long> messageCounts = new TreeMap<>();
+    private long numberOfMessages;
+    private long numberOfEvents;
+
+    public BatchedMessageProtocol(EventProcessor eventProcessor) {
+        super(eventProcessor);
+        this.eventProcessor = eventProcessor;
+    }
+
+    @Override
+    public void addReceiverVisitor(String agentId, TReceiverVisitor receiverVisitor) {
+        super.addReceiverVisitor(agentId, receiverVisitor);
+        receivers.put(agentId, receiverVisitor);
+    }
+
+    @Override
+    public void removeReceiverVisitor(String agentId) {
+        super.removeReceiverVisitor(agentId);
+        receivers.remove(checkNotNull(agentId));
+    }
+
+    @Override
+    public <TMessageVisitor extends MessageVisitor<TReceiverVisitor>> boolean sendMessage(String agentId,
+            TMessageVisitor messageVisitor) {
+
+        if (!pendingMessages.isEmpty()) {
+            // queued behind the batched messages sent before it
+            return sendMessageBatched(agentId, messageVisitor);
+        }
+        if (!super.sendMessage(agentId, messageVisitor)) {
+            return false;
+        }
+        count(messageVisitor);
+        numberOfEvents++;
+        return true;
+    }
+
+    /**
+     * Sends the message with the next delivery of batched messages.
+     *
+     * @param agentId        id of the receiver
+     * @param messageVisitor the message
+     * @return true, if the receiver exists
+     */
+    public <TMessageVisitor extends MessageVisitor<TReceiverVisitor>> boolean sendMessageBatched(String agentId,
+            TMessageVisitor messageVisitor) {
+
+        TReceiverVisitor receiverVisitor = receivers.get(agentId);
+        if (receiverVisitor == null) {
+            return false;
+        }
+        if (pendingMessages.isEmpty()) {
+            eventProcessor.addEvent(delivery);
+            numberOfEvents++;
+        }
+        pendingMessages.add(new PendingMessage<TReceiverVisitor>(receiverVisitor, messageVisitor));
+        count(messageVisitor);
+        return true;
+    }
+
+    /**
+     * Sends the same message to all the receivers with the next delivery of
+     * batched messages.
+     *
+     * @return ids of the receivers, that exist
+     */
+    public <TMessageVisitor extends MessageVisitor<TReceiverVisitor>> List<String> sendMessageBatched(
+            List<String> agentIds, TMessageVisitor messageVisitor) {
+
+        List<String> sentTo = new ArrayList<>();
+        for (String agentId : agentIds) {
+            if (sendMessageBatched(agentId, messageVisitor)) {
+                sentTo.add(agentId);
+            }
+        }
+        return sentTo;
+    }
+
+    private void deliverPendingMessages() {
+        // receivers may reply in batches, their messages go with the next delivery
+        List<PendingMessage<TReceiverVisitor>> messages = pendingMessages;
+        pendingMessages = new ArrayList<>();
+        for (PendingMessage<TReceiverVisitor> message : messages) {
+            message.messageVisitor.accept(message.receiverVisitor);
+        }
+    }
+
+    private void count(MessageVisitor<TReceiverVisitor> messageVisitor) {
+        String type = messageVisitor.getClass().getSimpleName();
+        Long count = messageCounts.get(type);
+        messageCounts.put(type, count == null ? 1 : count + 1);
+        numberOfMessages++;
+    }
+
+    /**
+     * @return the number of sent messages by the simple names of their classes
+     *         (every receiver of a multicast counts)
+     */
+    public Map<String, Long> getMessageCounts() {
+        return Collections.unmodifiableMap(messageCounts);
+    }
+
+    public long getNumberOfMessages(Class<?> messageType) {
+        Long count = messageCounts.get(messageType.getSimpleName());
+        return count == null ? 0 : count;
+    }
+
+    public long getNumberOfMessages() {
+        return numberOfMessages;
+    }
+
+    /**
+     * @return the number of simulation events scheduled for the messages
+     */
+    public long getNumberOfEvents() {
+        return numberOfEvents;
+    }
+
+    /**
+     * A batched message with its receiver
+     */
+    private static class PendingMessage<TReceiverVisitor> {
+
+        final TReceiverVisitor receiverVisitor;
+        final MessageVisitor<TReceiverVisitor> messageVisitor;
+
+        PendingMessage(TReceiverVisitor receiverVisitor, MessageVisitor<TReceiverVisitor> messageVisitor) {
+            this.receiverVisitor = receiverVisitor;
+            this.messageVisitor = messageVisitor;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 package cz.agents.agentpolis.darptestbed.siminfrastructure.communication.receiver;
 
 public interface BaseReceiverVisitor {
-    public void visit(StringMessage stringMessage);
+    public void visit(StringMessage<?> stringMessage);
 }
@@ -4,11 +4,11 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.receiver.RequestConsumerReceiverVisitor;
-import cz.agents.agentpolis.ondemandtransport.siminfrastructure.communication.protocol.AMessageProtocol;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol.BatchedMessageProtocol;
 import cz.agents.alite.common.event.EventProcessor;
 
 @Singleton
-public class RequestConsumerMessageProtocol extends AMessageProtocol<RequestConsumerReceiverVisitor> {
+public class RequestConsumerMessageProtocol extends BatchedMessageProtocol<RequestConsumerReceiverVisitor> {
 
 	@Inject
 	public RequestConsumerMessageProtocol(EventProcessor eventProcessor) {
@@ -0,0 +1,149 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.LongIntHashMap;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lazily filled matrix of shortest path distances between nodes.
+ * <p/>
+ * Every node gets a compact index when it's seen for the first time and its
+ * row (a primitive array) is allocated then. The number of indexed nodes is
+ * limited by the memory budget - distances from or to nodes that don't fit
+ * aren't stored and have to be computed by the planner on demand.
+ * <p/>
+ * The matrix is shared by all planning threads. The node indexes are split
+ * into stripes by the node id, each stripe has its own lock, which is held
+ * only for the lookup. The distances are read and written without locking, a
+ * distance stored concurrently with its lookup may be missed and is computed
+ * once more.
+ */
+public class DistanceMatrix {
+
+    private static final Logger LOGGER = Logger.getLogger(DistanceMatrix.class);
+
+    private static final int NOT_INDEXED = -1;
+    /**
+     * The stripe of a node is given by the highest bits of its hashed id
+     */
+    private static final int STRIPE_BITS = 5;
+    private static final int NUMBER_OF_STRIPES = 1 << STRIPE_BITS;
+    private static final long UNKNOWN_DISTANCE = Double.doubleToRawLongBits(Double.NaN);
+
+    /**
+     * Maximum number of indexed nodes
+     */
+    private final int capacity;
+    private final LongIntHashMap[] nodeIndexes;
+    /**
+     * Raw bits of the distances in meters, rows are indexed by the origin, NaN
+     * = not known yet. A row is set before its node is put to the stripe, so
+     * it's visible to anyone, who has got the index from the stripe.
+     */
+    private final AtomicLongArray[] distances;
+    private final AtomicInteger numberOfNodes = new AtomicInteger();
+    private final AtomicBoolean fullReported = new AtomicBoolean();
+
+    /**
+     * @param memoryBudgetInBytes maximum memory used by the stored distances
+     */
+    public DistanceMatrix(long memoryBudgetInBytes) {
+        this.capacity = (int) Math.min(Integer.MAX_VALUE - 8, (long) Math.sqrt(memoryBudgetInBytes / 8));
+        this.nodeIndexes = new LongIntHashMap[NUMBER_OF_STRIPES];
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            nodeIndexes[i] = new LongIntHashMap(Math.min(capacity, 1 << 16) / NUMBER_OF_STRIPES, NOT_INDEXED);
+        }
+        this.distances = new AtomicLongArray[capacity];
+    }
+
+    /**
+     * @return the stored distance in meters, or NaN if it isn't known
+     */
+    public double getDistance(long fromNodeId, long toNodeId) {
+        int from = getIndex(fromNodeId);
+        if (from == NOT_INDEXED) {
+            return Double.NaN;
+        }
+        int to = getIndex(toNodeId);
+        if (to == NOT_INDEXED) {
+            return Double.NaN;
+        }
+        return Double.longBitsToDouble(distances[from].get(to));
+    }
+
+    /**
+     * Stores the distance, if both nodes fit into the memory budget
+     *
+     * @param distance distance in meters
+     */
+    public void putDistance(long fromNodeId, long toNodeId, double distance) {
+        int from = indexNode(fromNodeId);
+        if (from == NOT_INDEXED) {
+            return;
+        }
+        int to = indexNode(toNodeId);
+        if (to == NOT_INDEXED) {
+            return;
+        }
+        distances[from].lazySet(to, Double.doubleToRawLongBits(distance));
+    }
+
+    /**
+     * @return true, if distances from and to the node can be stored (the node
+     *         is already indexed or there's still room for it)
+     */
+    public boolean canStore(long nodeId) {
+        return numberOfNodes.get() < capacity || getIndex(nodeId) != NOT_INDEXED;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getNumberOfNodes() {
+        return numberOfNodes.get();
+    }
+
+    private int getIndex(long nodeId) {
+        LongIntHashMap stripe = getStripe(nodeId);
+        synchronized (stripe) {
+            return stripe.get(nodeId);
+        }
+    }
+
+    private int indexNode(long nodeId) {
+        LongIntHashMap stripe = getStripe(nodeId);
+        synchronized (stripe) {
+            int index = stripe.get(nodeId);
+            if (index != NOT_INDEXED) {
+                return index;
+            }
+            do {
+                index = numberOfNodes.get();
+                if (index == capacity) {
+                    if (fullReported.compareAndSet(false, true)) {
+                        LOGGER.info("Distance matrix is full (" + capacity
+                                + " nodes), distances of other nodes will be computed on demand");
+                    }
+                    return NOT_INDEXED;
+                }
+            } while (!numberOfNodes.compareAndSet(index, index + 1));
+            AtomicLongArray row = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                row.lazySet(i, UNKNOWN_DISTANCE);
+            }
+            distances[index] = row;
+            stripe.put(nodeId, index);
+            return index;
+        }
+    }
+
+    private LongIntHashMap getStripe(long nodeId) {
+        long h = nodeId * 0x9E3779B97F4A7C15L;
+        return nodeIndexes[(int) (h >>> (64 - STRIPE_BITS))];
+    }
+
+}
@@ -0,0 +1,204 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.AtomicFiles;
+import cz.agents.agentpolis.utils.key.Key;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A cache of found paths, stored as arrays of node ids together with their
+ * lengths. The paths are shared by all readers.
+ * <p/>
+ * The cache is bounded by the total number of stored nodes (instead of the
+ * number of paths), so long paths don't blow up the memory. It's split into
+ * independently locked segments, so it can be used by several planning
+ * threads at once. Hits, misses and evictions are counted.
+ * <p/>
+ * The paths can be saved into a file and loaded by the next run on the same
+ * graph (the file is marked by a hash of the graph, paths of another graph
+ * are never loaded).
+ */
+public class PathCache {
+
+    /**
+     * Memory taken by one stored node (the array item + a share of the entry)
+     */
+    private static final int BYTES_PER_NODE = 8;
+    private static final int BYTES_PER_PATH = 64;
+
+    private static final int FILE_MAGIC = 0x54425043;
+    private static final int FILE_VERSION = 2;
+    /**
+     * magic, version, graph hash, number of paths
+     */
+    private static final int FILE_HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    private final Cache<Key, RoutedPath> paths;
+
+    /**
+     * @param memoryBudgetInBytes approximate memory used by the stored paths
+     * @param concurrencyLevel    expected number of threads using the cache
+     */
+    public PathCache(long memoryBudgetInBytes, int concurrencyLevel) {
+        this.paths = CacheBuilder.newBuilder().maximumWeight(memoryBudgetInBytes)
+                .weigher(new Weigher<Key, RoutedPath>() {
+                    @Override
+                    public int weigh(Key key, RoutedPath path) {
+                        return BYTES_PER_PATH + BYTES_PER_NODE * path.getNumberOfNodes();
+                    }
+                }).concurrencyLevel(Math.max(1, concurrencyLevel)).recordStats().build();
+    }
+
+    /**
+     * Returns the cached path, or finds it by the loader and stores it (the
+     * path is searched only once, even if more threads ask for it at once)
+     *
+     * @return the path
+     * @throws ExecutionException if the loader fails
+     */
+    public RoutedPath getPath(long fromNodeId, long toNodeId, Callable<RoutedPath> loader)
+            throws ExecutionException {
+        return paths.get(new Key(fromNodeId, toNodeId), loader);
+    }
+
+    /**
+     * @return numbers of hits, misses, evictions etc. since the cache was
+     *         created
+     */
+    public CacheStats getStats() {
+        return paths.stats();
+    }
+
+    public long size() {
+        return paths.size();
+    }
+
+    /**
+     * Loads the paths saved by {@link #save(File, long)} (a buffered stream
+     * read, nothing stays mapped). Nothing is loaded, if the file doesn't
+     * exist or belongs to another graph. Loaded paths aren't counted as
+     * misses.
+     *
+     * @param graphHash hash of the graph the paths have to belong to
+     * @return the number of loaded paths
+     * @throws IOException if the file can't be read or is broken
+     */
+    public int load(File file, long graphHash) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        long remaining = file.length() - FILE_HEADER_BYTES;
+        if (remaining < 0) {
+            throw new IOException("The path cache file " + file + " is broken");
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("The file " + file + " isn't a path cache");
+            }
+            if (in.readLong() != graphHash) {
+                return 0;
+            }
+            int numberOfPaths = in.readInt();
+            for (int i = 0; i < numberOfPaths; i++) {
+                long fromNodeId = in.readLong();
+                long toNodeId = in.readLong();
+                double length = in.readDouble();
+                int numberOfNodes = in.readInt();
+                remaining -= 8 + 8 + 8 + 4;
+                // a broken length mustn't allocate more than the file holds
+                if (numberOfNodes < 0 || 8L * numberOfNodes > remaining) {
+                    throw new IOException("The path cache file " + file + " is broken");
+                }
+                long[] nodeIds = new long[numberOfNodes];
+                for (int j = 0; j < numberOfNodes; j++) {
+                    nodeIds[j] = in.readLong();
+                }
+                remaining -= 8L * numberOfNodes;
+                paths.put(new Key(fromNodeId, toNodeId), new RoutedPath(nodeIds, length));
+            }
+            return numberOfPaths;
+        } catch (EOFException e) {
+            throw new IOException("The path cache file " + file + " is broken", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves all cached paths into the file (a memory mapped write). The file
+     * is written aside and moved over the old one at the end, so a broken run
+     * never leaves a half-written cache.
+     *
+     * @param graphHash hash of the graph the paths belong to
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file, long graphHash) throws IOException {
+        Map<Key, RoutedPath> snapshot = paths.asMap();
+        long size = FILE_HEADER_BYTES;
+        int numberOfPaths = 0;
+        for (RoutedPath path : snapshot.values()) {
+            size += getEntryBytes(path);
+            numberOfPaths++;
+        }
+
+        File tmpFile = AtomicFiles.getTmpFile(file);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+        try {
+            randomAccessFile.setLength(size);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(FILE_MAGIC);
+            buffer.putInt(FILE_VERSION);
+            buffer.putLong(graphHash);
+            int countPosition = buffer.position();
+            buffer.putInt(numberOfPaths);
+
+            // the map may have changed since it was measured
+            int written = 0;
+            for (Map.Entry<Key, RoutedPath> entry : snapshot.entrySet()) {
+                RoutedPath path = entry.getValue();
+                if (written == numberOfPaths || buffer.remaining() < getEntryBytes(path)) {
+                    break;
+                }
+                buffer.putLong(entry.getKey().firstPartOfKey);
+                buffer.putLong(entry.getKey().secondPartOfKey);
+                buffer.putDouble(path.getLength());
+                buffer.putInt(path.getNumberOfNodes());
+                for (int i = 0; i < path.getNumberOfNodes(); i++) {
+                    buffer.putLong(path.getNodeId(i));
+                }
+                written++;
+            }
+            buffer.putInt(countPosition, written);
+            buffer.force();
+        } finally {
+            randomAccessFile.close();
+        }
+
+        AtomicFiles.replace(tmpFile, file);
+    }
+
+    /**
+     * @return bytes taken by the path in the file (from, to, length, number
+     *         of nodes, nodes)
+     */
+    private static long getEntryBytes(RoutedPath path) {
+        return 8 + 8 + 8 + 4 + 8L * path.getNumberOfNodes();
+    }
+
+}
@@ -0,0 +1,229 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+import java.util.Arrays;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.IndexedMinHeap;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.IntList;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+
+/**
+ * Dijkstra searches over the {@link CompactRoadNetwork}, which answer many
+ * distance queries sharing one end in a single graph sweep.
+ * <p/>
+ * Routes are chosen by the edge lengths (the same routes the planners
+ * find), but the reported distance of a route is the sum of straight line
+ * distances between its nodes - that's how Utils measures trips, so the
+ * results are interchangeable with Utils.computeDistance.
+ * <p/>
+ * A search may be bounded by a maximum distance. Every node whose route is
+ * within the bound is found exactly; nodes beyond the bound are not reported.
+ * <p/>
+ * The search settles the nodes in the order of their weights (route lengths
+ * by the edge lengths), while the bound applies to the measured distances.
+ * For every edge, the straight line between its ends is at least its length
+ * times the smallest ratio of the two over the network (close to 1 for OSM
+ * edges, which are straight segments). So the measured distance of a route is
+ * at least its weight times the ratio. Nodes measured beyond the bound aren't
+ * expanded, and once the weight of a settled node times the ratio exceeds the
+ * bound, no other node can be within it and the search stops.
+ * <p/>
+ * Queries may run from several threads at once (every thread gets its own
+ * search state).
+ */
+public class RoadNetworkSearch {
+
+    private final CompactRoadNetwork roadNetwork;
+    /**
+     * The smallest ratio of the straight line distance between the ends of an
+     * edge to its length, measured distance / weight of any route is at least
+     * this (0 if a straight line may be arbitrarily shorter)
+     */
+    private final double minDistancePerLength;
+
+    private final ThreadLocal<SearchState> searchStates = new ThreadLocal<SearchState>() {
+        @Override
+        protected SearchState initialValue() {
+            return new SearchState(roadNetwork.getNumberOfNodes());
+        }
+    };
+
+    public RoadNetworkSearch(CompactRoadNetwork roadNetwork) {
+        this.roadNetwork = roadNetwork;
+        this.minDistancePerLength = computeMinDistancePerLength(roadNetwork);
+    }
+
+    private static double computeMinDistancePerLength(CompactRoadNetwork roadNetwork) {
+        double minDistancePerLength = Double.POSITIVE_INFINITY;
+        for (int node = 0; node < roadNetwork.getNumberOfNodes(); node++) {
+            for (int edge = roadNetwork.getFirstEdge(node); edge < roadNetwork.getEndEdge(node); edge++) {
+                double length = roadNetwork.getEdgeLength(edge);
+                // an edge of no length adds nothing to the weight
+                if (length > 0) {
+                    double distance = roadNetwork.computeDistance(node, roadNetwork.getEdgeTarget(edge));
+                    minDistancePerLength = Math.min(minDistancePerLength, distance / length);
+                }
+            }
+        }
+        return minDistancePerLength == Double.POSITIVE_INFINITY ? 0 : minDistancePerLength;
+    }
+
+    public CompactRoadNetwork getRoadNetwork() {
+        return roadNetwork;
+    }
+
+    /**
+     * Many-to-one search: measures the distances from all sources to one
+     * target by a single backward search from the target. The search stops as
+     * soon as all sources are settled.
+     *
+     * @param target      dense index of the target node (if it's
+     *                    {@link CompactRoadNetwork#NO_NODE}, nothing is reached)
+     * @param sources     dense indexes of the source nodes (may repeat,
+     *                    {@link CompactRoadNetwork#NO_NODE} is never reached)
+     * @param maxDistance the search bound in meters (positive infinity = no
+     *                    bound)
+     * @return distance in meters for every source (in the same order), or
+     *         positive infinity if the target can't be reached within the bound
+     */
+    public double[] findDistancesToTarget(int target, int[] sources, double maxDistance) {
+        return findDistances(target, sources, maxDistance, true);
+    }
+
+    /**
+     * One-to-many search: measures the distances from one source to all
+     * targets by a single forward search from the source (an isochrone
+     * limited to the target nodes). The search stops as soon as all targets
+     * are settled, or when the bound is exceeded.
+     *
+     * @param source      dense index of the source node (if it's
+     *                    {@link CompactRoadNetwork#NO_NODE}, nothing is reached)
+     * @param targets     dense indexes of the target nodes (may repeat,
+     *                    {@link CompactRoadNetwork#NO_NODE} is never reached)
+     * @param maxDistance the search bound in meters (positive infinity = no
+     *                    bound)
+     * @return distance in meters for every target (in the same order), or
+     *         positive infinity if the target can't be reached within the bound
+     */
+    public double[] findDistancesFromSource(int source, int[] targets, double maxDistance) {
+        return findDistances(source, targets, maxDistance, false);
+    }
+
+    private double[] findDistances(int root, int[] wantedNodes, double maxDistance, boolean backward) {
+        double[] distances = new double[wantedNodes.length];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        if (root == CompactRoadNetwork.NO_NODE) {
+            return distances;
+        }
+
+        SearchState state = searchStates.get();
+        int remaining = 0;
+        for (int wantedNode : wantedNodes) {
+            if (wantedNode != CompactRoadNetwork.NO_NODE && !state.isWanted[wantedNode]) {
+                state.isWanted[wantedNode] = true;
+                state.wanted.add(wantedNode);
+                remaining++;
+            }
+        }
+
+        state.start(root);
+        while (remaining > 0 && !state.heap.isEmpty()) {
+            int node = state.heap.poll();
+            if (state.weight[node] * minDistancePerLength > maxDistance) {
+                // the measured distances of all other nodes exceed the bound
+                break;
+            }
+            if (state.isWanted[node]) {
+                remaining--;
+            }
+            if (state.measured[node] > maxDistance) {
+                continue;
+            }
+            if (backward) {
+                for (int i = roadNetwork.getFirstIncomingEdge(node); i < roadNetwork.getEndIncomingEdge(node); i++) {
+                    int edge = roadNetwork.getIncomingEdge(i);
+                    state.relax(roadNetwork.getEdgeSource(edge), node, edge);
+                }
+            } else {
+                for (int edge = roadNetwork.getFirstEdge(node); edge < roadNetwork.getEndEdge(node); edge++) {
+                    state.relax(roadNetwork.getEdgeTarget(edge), node, edge);
+                }
+            }
+        }
+
+        for (int i = 0; i < wantedNodes.length; i++) {
+            int wantedNode = wantedNodes[i];
+            if (wantedNode != CompactRoadNetwork.NO_NODE && state.measured[wantedNode] <= maxDistance) {
+                distances[i] = state.measured[wantedNode];
+            }
+        }
+        for (int i = 0; i < state.wanted.size(); i++) {
+            state.isWanted[state.wanted.get(i)] = false;
+        }
+        state.wanted.clear();
+        state.reset();
+        return distances;
+    }
+
+    /**
+     * Search arrays of one thread, reset after every query (only the touched
+     * nodes are reset)
+     */
+    private class SearchState {
+
+        /**
+         * Route lengths by the edge lengths (the search order)
+         */
+        final double[] weight;
+        /**
+         * Route lengths by straight line distances of the nodes (the result)
+         */
+        final double[] measured;
+        final IntList touched = new IntList();
+        final IndexedMinHeap heap;
+
+        final boolean[] isWanted;
+        final IntList wanted = new IntList();
+
+        SearchState(int numberOfNodes) {
+            weight = new double[numberOfNodes];
+            measured = new double[numberOfNodes];
+            Arrays.fill(weight, Double.POSITIVE_INFINITY);
+            Arrays.fill(measured, Double.POSITIVE_INFINITY);
+            heap = new IndexedMinHeap(numberOfNodes);
+            isWanted = new boolean[numberOfNodes];
+        }
+
+        void start(int node) {
+            touched.add(node);
+            weight[node] = 0;
+            measured[node] = 0;
+            heap.offer(node, 0);
+        }
+
+        /**
+         * Tries to reach the next node through the edge from/to the settled
+         * node
+         */
+        void relax(int next, int settled, int edge) {
+            double newWeight = weight[settled] + roadNetwork.getEdgeLength(edge);
+            if (newWeight < weight[next]) {
+                if (weight[next] == Double.POSITIVE_INFINITY) {
+                    touched.add(next);
+                }
+                weight[next] = newWeight;
+                measured[next] = measured[settled] + roadNetwork.computeDistance(settled, next);
+                heap.offer(next, newWeight);
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < touched.size(); i++) {
+                int node = touched.get(i);
+                weight[node] = Double.POSITIVE_INFINITY;
+                measured[node] = Double.POSITIVE_INFINITY;
+            }
+            touched.clear();
+            heap.clear();
+        }
+    }
+}
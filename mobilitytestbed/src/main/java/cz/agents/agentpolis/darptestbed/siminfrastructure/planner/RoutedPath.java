@@ -0,0 +1,37 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+/**
+ * A found path together with its length, measured once when the path is
+ * found. Instances are shared by all users of a cache, they never change.
+ */
+public final class RoutedPath {
+
+    private final long[] nodeIds;
+    private final double length;
+
+    /**
+     * @param nodeIds node ids of the path (the array is taken, not copied)
+     * @param length  the sum of straight line distances between the
+     *                consecutive nodes (in meters)
+     */
+    public RoutedPath(long[] nodeIds, double length) {
+        this.nodeIds = nodeIds;
+        this.length = length;
+    }
+
+    public int getNumberOfNodes() {
+        return nodeIds.length;
+    }
+
+    public long getNodeId(int index) {
+        return nodeIds[index];
+    }
+
+    /**
+     * @return path length in meters
+     */
+    public double getLength() {
+        return length;
+    }
+
+}
@@ -1,9 +1,11 @@
 package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
 
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.Hashes;
 import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
 import cz.agents.agentpolis.siminfrastructure.planner.TripPlannerException;
 import cz.agents.agentpolis.siminfrastructure.planner.path.AStarShortestPath;
@@ -16,7 +18,8 @@ import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwor
 import cz.agents.agentpolis.utils.key.Key;
 import org.jgrapht.graph.DirectedWeightedMultigraph;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -30,13 +33,15 @@ public class TestbedAStarPlanner implements TestbedPlanner, Heuristic<Long> {
     private final GraphType highwayGraphType;
 
     LoadingCache<Key, Double> distanceCache = CacheBuilder.newBuilder().maximumSize(100000)
+            .concurrencyLevel(GlobalParams.getPlanningThreads()).recordStats()
             .build(new CacheLoader<Key, Double>() {
                 public Double load(Key key) {
                     return nodeExtendedFunction.computeDistanceBetweenNodes(key.firstPartOfKey, key.secondPartOfKey);
                 }
             });
 
-    Cache<Key, List<PlannerEdge>> pathCache = CacheBuilder.newBuilder().maximumSize(100000).build();
+    private final PathCache pathCache = new PathCache(GlobalParams.getPathCacheMemoryInMB() * 1024L * 1024L,
+            GlobalParams.getPlanningThreads());
 
     public TestbedAStarPlanner(NodeExtendedFunction nodeExtendedFunction,
                                DirectedWeightedMultigraph<Long, PlannerEdge> highwayGraph, GraphType highwayGraphType) {
@@ -53,6 +58,59 @@ public class TestbedAStarPlanner implements TestbedPlanner, Heuristic<Long> {
 
     }
 
+    @Override
+    public double findDistance(long startNodeById, long destinationNodeById) throws TripPlannerException {
+        return findPath(startNodeById, destinationNodeById, highwayGraph).getLength();
+    }
+
+    /**
+     * Loads the paths found by previous runs on the same graph
+     *
+     * @return the number of loaded paths
+     * @throws IOException if the file can't be read
+     */
+    public int loadPathCache(File file) throws IOException {
+        return pathCache.load(file, computeGraphHash());
+    }
+
+    /**
+     * Saves the cached paths, so the next run on the same graph can load them
+     *
+     * @throws IOException if the file can't be written
+     */
+    public void savePathCache(File file) throws IOException {
+        pathCache.save(file, computeGraphHash());
+    }
+
+    /**
+     * @return a hash of all edges of the graph (it doesn't depend on the order
+     *         of the edges)
+     */
+    private long computeGraphHash() {
+        long hash = highwayGraph.vertexSet().size() * 31L + highwayGraph.edgeSet().size();
+        for (PlannerEdge edge : highwayGraph.edgeSet()) {
+            long edgeHash = Hashes.mix(edge.fromPosition);
+            edgeHash = Hashes.mix(edgeHash ^ edge.toPosition);
+            edgeHash = Hashes.mix(edgeHash ^ Double.doubleToLongBits(highwayGraph.getEdgeWeight(edge)));
+            hash += edgeHash;
+        }
+        return hash;
+    }
+
+    /**
+     * @return hits, misses and evictions of the path cache
+     */
+    public CacheStats getPathCacheStats() {
+        return pathCache.getStats();
+    }
+
+    /**
+     * @return hits, misses and evictions of the cache of heuristic distances
+     */
+    public CacheStats getDistanceCacheStats() {
+        return distanceCache.stats();
+    }
+
     @Override
     public double getHeuristicEstimate(Long current, Long goal) {
         try {
@@ -82,6 +140,28 @@ public class TestbedAStarPlanner implements TestbedPlanner, Heuristic<Long> {
 
         }
 
+        return createVehicleTrip(vehicleId, trip);
+    }
+
+    /**
+     * @param path a found path (no nodes = no trip)
+     */
+    private Trips createVehicleTrip(String vehicleId, RoutedPath path) {
+
+        if (path.getNumberOfNodes() == 0) {
+            return new Trips();
+        }
+
+        LinkedList<TripItem> trip = new LinkedList<TripItem>();
+        for (int i = 0; i < path.getNumberOfNodes(); i++) {
+            trip.add(new TripItem(path.getNodeId(i)));
+        }
+
+        return createVehicleTrip(vehicleId, trip);
+    }
+
+    private Trips createVehicleTrip(String vehicleId, LinkedList<TripItem> trip) {
+
         if (vehicleId == null) {
             vehicleId = "";
         }
@@ -92,18 +172,18 @@ public class TestbedAStarPlanner implements TestbedPlanner, Heuristic<Long> {
         return trips;
     }
 
-    private List<PlannerEdge> findPath(final long startNodeById, final long destinationNodeById,
-                                       final DirectedWeightedMultigraph<Long, PlannerEdge> plannerGraph) throws TripPlannerException {
-
-        Key fromToNodeKey = new Key(startNodeById, destinationNodeById);
+    /**
+     * @return the path (shared with the cache), measured when it's found
+     */
+    private RoutedPath findPath(final long startNodeById, final long destinationNodeById,
+                            final DirectedWeightedMultigraph<Long, PlannerEdge> plannerGraph) throws TripPlannerException {
 
         final Heuristic<Long> heuristic = this;
 
-        List<PlannerEdge> cachedPath;
         try {
-            cachedPath = pathCache.get(fromToNodeKey, new Callable<List<PlannerEdge>>() {
+            return pathCache.getPath(startNodeById, destinationNodeById, new Callable<RoutedPath>() {
                 @Override
-                public List<PlannerEdge> call() throws TripPlannerException {
+                public RoutedPath call() throws TripPlannerException {
                     List<PlannerEdge> plannerEdges = null;
 
                     AStarShortestPath<Long, PlannerEdge> shortestPath = null;
@@ -122,19 +202,22 @@ public class TestbedAStarPlanner implements TestbedPlanner, Heuristic<Long> {
                         throw new TripPlannerException(startNodeById, destinationNodeById);
                     }
 
-                    return plannerEdges;
+                    if (plannerEdges.isEmpty()) {
+                        return new RoutedPath(new long[0], 0);
+                    }
+                    long[] path = new long[plannerEdges.size() + 1];
+                    path[0] = plannerEdges.get(0).fromPosition;
+                    double length = 0;
+                    for (int i = 0; i < plannerEdges.size(); i++) {
+                        path[i + 1] = plannerEdges.get(i).toPosition;
+                        length += nodeExtendedFunction.computeDistanceBetweenNodes(path[i], path[i + 1]);
+                    }
+                    return new RoutedPath(path, length);
                 }
             });
         } catch (ExecutionException e) {
             throw new TripPlannerException(startNodeById, destinationNodeById);
         }
-
-        List<PlannerEdge> plannerEdges = new ArrayList<PlannerEdge>();
-        for (PlannerEdge edge : cachedPath) {
-            plannerEdges.add(new PlannerEdge(edge.fromPosition, edge.toPosition, edge.distance));
-        }
-
-        return plannerEdges;
     }
 
 }
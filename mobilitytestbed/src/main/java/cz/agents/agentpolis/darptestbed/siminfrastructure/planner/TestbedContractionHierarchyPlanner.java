@@ -0,0 +1,178 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.ch.ContractionHierarchy;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.ch.ContractionHierarchyBuilder;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.LongIntHashMap;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+import cz.agents.agentpolis.siminfrastructure.planner.TripPlannerException;
+import cz.agents.agentpolis.siminfrastructure.planner.trip.TripItem;
+import cz.agents.agentpolis.siminfrastructure.planner.trip.Trips;
+import cz.agents.agentpolis.siminfrastructure.planner.trip.VehicleTrip;
+import cz.agents.agentpolis.siminfrastructure.planner.utils.PlannerEdge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphType;
+import org.apache.log4j.Logger;
+import org.jgrapht.graph.DirectedWeightedMultigraph;
+
+import java.util.LinkedList;
+
+/**
+ * A planner answering queries on a contraction hierarchy precomputed from the
+ * highway graph. The preprocessing runs once in the constructor, after that
+ * every query is much cheaper than the A* search of {@link TestbedAStarPlanner}
+ * and needs no path cache. Found trips have the same form as the ones of
+ * {@link TestbedAStarPlanner}.
+ * <p/>
+ * The hierarchy can be built either from the jgrapht planner graph, or
+ * directly from the {@link CompactRoadNetwork} (the nodes then keep their
+ * network indexes, so no other id mapping is needed).
+ */
+public class TestbedContractionHierarchyPlanner implements TestbedPlanner {
+
+    private static final Logger LOGGER = Logger.getLogger(TestbedContractionHierarchyPlanner.class);
+
+    private final GraphType highwayGraphType;
+
+    /**
+     * Node ids by their dense index in the hierarchy and vice versa (used only
+     * if there's no road network)
+     */
+    private final long[] nodeIds;
+    private final LongIntHashMap nodeIndexes;
+    private final CompactRoadNetwork roadNetwork;
+
+    private final ContractionHierarchy hierarchy;
+    /**
+     * Straight line lengths of the original edges (measures found trips)
+     */
+    private final ContractionHierarchy.EdgeMeasure edgeLength;
+
+    public TestbedContractionHierarchyPlanner(DirectedWeightedMultigraph<Long, PlannerEdge> highwayGraph,
+                                              final NodeExtendedFunction nodeExtendedFunction,
+                                              GraphType highwayGraphType) {
+        this.highwayGraphType = highwayGraphType;
+        this.roadNetwork = null;
+        this.edgeLength = new ContractionHierarchy.EdgeMeasure() {
+            @Override
+            public double measure(int from, int to) {
+                return nodeExtendedFunction.computeDistanceBetweenNodes(nodeIds[from], nodeIds[to]);
+            }
+        };
+
+        long start = System.currentTimeMillis();
+
+        int numberOfNodes = highwayGraph.vertexSet().size();
+        this.nodeIds = new long[numberOfNodes];
+        this.nodeIndexes = new LongIntHashMap(numberOfNodes, CompactRoadNetwork.NO_NODE);
+        int index = 0;
+        for (Long nodeId : highwayGraph.vertexSet()) {
+            nodeIds[index] = nodeId;
+            nodeIndexes.put(nodeId, index);
+            index++;
+        }
+
+        ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder(numberOfNodes);
+        for (PlannerEdge edge : highwayGraph.edgeSet()) {
+            builder.addEdge(nodeIndexes.get(highwayGraph.getEdgeSource(edge)),
+                    nodeIndexes.get(highwayGraph.getEdgeTarget(edge)), highwayGraph.getEdgeWeight(edge));
+        }
+        this.hierarchy = builder.build();
+
+        LOGGER.info("Contraction hierarchy of " + numberOfNodes + " nodes built in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public TestbedContractionHierarchyPlanner(final CompactRoadNetwork roadNetwork, GraphType highwayGraphType) {
+        this.highwayGraphType = highwayGraphType;
+        this.roadNetwork = roadNetwork;
+        this.nodeIds = null;
+        this.nodeIndexes = null;
+        this.edgeLength = new ContractionHierarchy.EdgeMeasure() {
+            @Override
+            public double measure(int from, int to) {
+                return roadNetwork.computeDistance(from, to);
+            }
+        };
+
+        long start = System.currentTimeMillis();
+
+        ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder(roadNetwork.getNumberOfNodes());
+        for (int node = 0; node < roadNetwork.getNumberOfNodes(); node++) {
+            for (int edge = roadNetwork.getFirstEdge(node); edge < roadNetwork.getEndEdge(node); edge++) {
+                builder.addEdge(node, roadNetwork.getEdgeTarget(edge), roadNetwork.getEdgeLength(edge));
+            }
+        }
+        this.hierarchy = builder.build();
+
+        LOGGER.info("Contraction hierarchy of " + roadNetwork.getNumberOfNodes() + " nodes built in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    @Override
+    public Trips findTrip(String vehicleId, long startNodeById, long destinationNodeById) throws TripPlannerException {
+
+        int from = getIndex(startNodeById);
+        int to = getIndex(destinationNodeById);
+        if (from == CompactRoadNetwork.NO_NODE || to == CompactRoadNetwork.NO_NODE) {
+            throw new TripPlannerException(startNodeById, destinationNodeById);
+        }
+
+        if (from == to) {
+            return new Trips();
+        }
+
+        int[] path = hierarchy.findPath(from, to);
+        if (path == null) {
+            throw new TripPlannerException(startNodeById, destinationNodeById);
+        }
+
+        LinkedList<TripItem> trip = new LinkedList<TripItem>();
+        for (int node : path) {
+            trip.add(new TripItem(getNodeId(node)));
+        }
+
+        if (vehicleId == null) {
+            vehicleId = "";
+        }
+
+        Trips trips = new Trips();
+        trips.addTrip(new VehicleTrip(trip, highwayGraphType, vehicleId));
+
+        return trips;
+    }
+
+    @Override
+    public double findDistance(long startNodeById, long destinationNodeById) throws TripPlannerException {
+
+        int from = getIndex(startNodeById);
+        int to = getIndex(destinationNodeById);
+        if (from == CompactRoadNetwork.NO_NODE || to == CompactRoadNetwork.NO_NODE) {
+            throw new TripPlannerException(startNodeById, destinationNodeById);
+        }
+
+        if (from == to) {
+            return 0;
+        }
+
+        double distance = hierarchy.findPathMeasure(from, to, edgeLength);
+        if (distance == Double.POSITIVE_INFINITY) {
+            throw new TripPlannerException(startNodeById, destinationNodeById);
+        }
+        return distance;
+    }
+
+    private int getIndex(long nodeId) {
+        if (roadNetwork != null) {
+            return roadNetwork.getIndex(nodeId);
+        }
+        return nodeIndexes.get(nodeId);
+    }
+
+    private long getNodeId(int node) {
+        if (roadNetwork != null) {
+            return roadNetwork.getNodeId(node);
+        }
+        return nodeIds[node];
+    }
+
+}
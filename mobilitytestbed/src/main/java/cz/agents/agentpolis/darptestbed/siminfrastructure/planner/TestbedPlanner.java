@@ -6,4 +6,15 @@ import cz.agents.agentpolis.siminfrastructure.planner.trip.Trips;
 public interface TestbedPlanner {
 
 	public Trips findTrip(String vehicleId, long startNodeById, long destinationNodeById) throws TripPlannerException;
+
+	/**
+	 * Measures the trip found by {@link #findTrip(String, long, long)} without
+	 * creating it: the sum of straight line distances between the consecutive
+	 * nodes of the trip.
+	 * 
+	 * @return trip length in meters
+	 * @throws TripPlannerException
+	 *             if there's no such trip
+	 */
+	public double findDistance(long startNodeById, long destinationNodeById) throws TripPlannerException;
 }
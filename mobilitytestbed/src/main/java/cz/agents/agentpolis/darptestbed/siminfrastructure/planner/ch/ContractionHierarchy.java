@@ -0,0 +1,354 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.ch;
+
+import java.util.Arrays;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.IndexedMinHeap;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.IntList;
+
+/**
+ * A preprocessed road graph that answers point-to-point shortest path queries
+ * by a bidirectional search over "upward" edges only (every search visits just
+ * a tiny part of the graph).
+ * <p/>
+ * Nodes are addressed by dense int indexes (0..n-1). Edges are either
+ * original edges of the graph or shortcuts, which are remembered as a pair of
+ * child edges, so a found path can be unpacked back into original nodes.
+ * <p/>
+ * The hierarchy is immutable; queries may run from several threads at once
+ * (every thread gets its own search state).
+ */
+public class ContractionHierarchy {
+
+    private final int numberOfNodes;
+
+    /**
+     * Edges leading from a node to a node of a higher rank (forward search),
+     * CSR format indexed by the source node
+     */
+    private final int[] upFirst;
+    private final int[] upEdges;
+    /**
+     * Edges leading into a node from a node of a higher rank (backward search),
+     * CSR format indexed by the target node
+     */
+    private final int[] downFirst;
+    private final int[] downEdges;
+
+    /**
+     * All edges (original and shortcuts) by their id
+     */
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final double[] edgeWeight;
+    /**
+     * The two edges a shortcut consists of, -1 for original edges
+     */
+    private final int[] edgeFirstChild;
+    private final int[] edgeSecondChild;
+
+    private final ThreadLocal<QueryState> queryStates = new ThreadLocal<QueryState>() {
+        @Override
+        protected QueryState initialValue() {
+            return new QueryState(numberOfNodes);
+        }
+    };
+
+    ContractionHierarchy(int numberOfNodes, int[] rank, int numberOfEdges, int[] edgeFrom, int[] edgeTo,
+                         double[] edgeWeight, int[] edgeFirstChild, int[] edgeSecondChild) {
+
+        this.numberOfNodes = numberOfNodes;
+        this.edgeFrom = Arrays.copyOf(edgeFrom, numberOfEdges);
+        this.edgeTo = Arrays.copyOf(edgeTo, numberOfEdges);
+        this.edgeWeight = Arrays.copyOf(edgeWeight, numberOfEdges);
+        this.edgeFirstChild = Arrays.copyOf(edgeFirstChild, numberOfEdges);
+        this.edgeSecondChild = Arrays.copyOf(edgeSecondChild, numberOfEdges);
+
+        this.upFirst = new int[numberOfNodes + 1];
+        this.downFirst = new int[numberOfNodes + 1];
+        int numberOfUpEdges = 0;
+        for (int e = 0; e < numberOfEdges; e++) {
+            if (rank[edgeTo[e]] > rank[edgeFrom[e]]) {
+                upFirst[edgeFrom[e] + 1]++;
+                numberOfUpEdges++;
+            } else {
+                downFirst[edgeTo[e] + 1]++;
+            }
+        }
+        for (int v = 0; v < numberOfNodes; v++) {
+            upFirst[v + 1] += upFirst[v];
+            downFirst[v + 1] += downFirst[v];
+        }
+        this.upEdges = new int[numberOfUpEdges];
+        this.downEdges = new int[numberOfEdges - numberOfUpEdges];
+        int[] upNext = Arrays.copyOf(upFirst, numberOfNodes);
+        int[] downNext = Arrays.copyOf(downFirst, numberOfNodes);
+        for (int e = 0; e < numberOfEdges; e++) {
+            if (rank[edgeTo[e]] > rank[edgeFrom[e]]) {
+                upEdges[upNext[edgeFrom[e]]++] = e;
+            } else {
+                downEdges[downNext[edgeTo[e]]++] = e;
+            }
+        }
+    }
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    /**
+     * Finds the length of the shortest path between two nodes
+     *
+     * @param from dense index of the origin
+     * @param to   dense index of the destination
+     * @return path length (in edge weight units), or positive infinity if the
+     *         destination isn't reachable
+     */
+    public double findDistance(int from, int to) {
+        QueryState state = queryStates.get();
+        search(state, from, to);
+        double distance = state.bestDistance;
+        state.reset();
+        return distance;
+    }
+
+    /**
+     * Finds the shortest path between two nodes
+     *
+     * @param from dense index of the origin
+     * @param to   dense index of the destination
+     * @return dense indexes of all nodes on the path (including both ends), or
+     *         null if the destination isn't reachable
+     */
+    public int[] findPath(int from, int to) {
+        QueryState state = queryStates.get();
+        search(state, from, to);
+        if (state.meetingNode < 0) {
+            state.reset();
+            return null;
+        }
+
+        // edges from the origin to the meeting node (collected backwards)
+        IntList edges = new IntList();
+        int node = state.meetingNode;
+        while (node != from) {
+            int edge = state.forwardPredecessor[node];
+            edges.add(edge);
+            node = edgeFrom[edge];
+        }
+        edges.reverse();
+        // edges from the meeting node to the destination
+        node = state.meetingNode;
+        while (node != to) {
+            int edge = state.backwardPredecessor[node];
+            edges.add(edge);
+            node = edgeTo[edge];
+        }
+        state.reset();
+
+        IntList path = new IntList(edges.size() + 2);
+        path.add(from);
+        IntList stack = new IntList();
+        for (int i = 0; i < edges.size(); i++) {
+            unpackEdge(edges.get(i), stack, path);
+        }
+        return path.toArray();
+    }
+
+    /**
+     * Finds the shortest path between two nodes and measures it by another
+     * measure than the edge weights, without creating the path
+     *
+     * @param from    dense index of the origin
+     * @param to      dense index of the destination
+     * @param measure measure of the original edges
+     * @return the sum of the measures of the original edges on the path (in
+     *         the path order), or positive infinity if the destination isn't
+     *         reachable
+     */
+    public double findPathMeasure(int from, int to, EdgeMeasure measure) {
+        QueryState state = queryStates.get();
+        search(state, from, to);
+        if (state.meetingNode < 0) {
+            state.reset();
+            return Double.POSITIVE_INFINITY;
+        }
+
+        IntList edges = state.pathEdges;
+        int node = state.meetingNode;
+        while (node != from) {
+            int edge = state.forwardPredecessor[node];
+            edges.add(edge);
+            node = edgeFrom[edge];
+        }
+        edges.reverse();
+        node = state.meetingNode;
+        while (node != to) {
+            int edge = state.backwardPredecessor[node];
+            edges.add(edge);
+            node = edgeTo[edge];
+        }
+
+        double sum = 0;
+        IntList stack = state.unpackStack;
+        for (int i = 0; i < edges.size(); i++) {
+            stack.add(edges.get(i));
+            while (!stack.isEmpty()) {
+                int current = stack.removeLast();
+                if (edgeFirstChild[current] < 0) {
+                    sum += measure.measure(edgeFrom[current], edgeTo[current]);
+                } else {
+                    stack.add(edgeSecondChild[current]);
+                    stack.add(edgeFirstChild[current]);
+                }
+            }
+        }
+        edges.clear();
+        state.reset();
+        return sum;
+    }
+
+    /**
+     * Appends the original nodes of the edge (without its first node) to the
+     * path
+     */
+    private void unpackEdge(int edge, IntList stack, IntList path) {
+        stack.add(edge);
+        while (!stack.isEmpty()) {
+            int current = stack.removeLast();
+            if (edgeFirstChild[current] < 0) {
+                path.add(edgeTo[current]);
+            } else {
+                stack.add(edgeSecondChild[current]);
+                stack.add(edgeFirstChild[current]);
+            }
+        }
+    }
+
+    private void search(QueryState state, int from, int to) {
+        state.touch(from);
+        state.forwardDistance[from] = 0;
+        state.forwardHeap.offer(from, 0);
+        state.touch(to);
+        state.backwardDistance[to] = 0;
+        state.backwardHeap.offer(to, 0);
+
+        IndexedMinHeap forwardHeap = state.forwardHeap;
+        IndexedMinHeap backwardHeap = state.backwardHeap;
+
+        while (true) {
+            double forwardMin = forwardHeap.peekKey();
+            double backwardMin = backwardHeap.peekKey();
+            if (Math.min(forwardMin, backwardMin) >= state.bestDistance) {
+                break;
+            }
+
+            if (forwardMin <= backwardMin) {
+                int node = forwardHeap.poll();
+                double distance = state.forwardDistance[node];
+                state.checkMeeting(node, distance + state.backwardDistance[node]);
+                for (int i = upFirst[node]; i < upFirst[node + 1]; i++) {
+                    int edge = upEdges[i];
+                    int target = edgeTo[edge];
+                    double newDistance = distance + edgeWeight[edge];
+                    if (newDistance < state.forwardDistance[target]) {
+                        state.touch(target);
+                        state.forwardDistance[target] = newDistance;
+                        state.forwardPredecessor[target] = edge;
+                        forwardHeap.offer(target, newDistance);
+                    }
+                }
+            } else {
+                int node = backwardHeap.poll();
+                double distance = state.backwardDistance[node];
+                state.checkMeeting(node, distance + state.forwardDistance[node]);
+                for (int i = downFirst[node]; i < downFirst[node + 1]; i++) {
+                    int edge = downEdges[i];
+                    int source = edgeFrom[edge];
+                    double newDistance = distance + edgeWeight[edge];
+                    if (newDistance < state.backwardDistance[source]) {
+                        state.touch(source);
+                        state.backwardDistance[source] = newDistance;
+                        state.backwardPredecessor[source] = edge;
+                        backwardHeap.offer(source, newDistance);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A measure of original edges (e.g. their straight line length)
+     */
+    public interface EdgeMeasure {
+
+        /**
+         * @param from dense index of the edge source
+         * @param to   dense index of the edge target
+         */
+        double measure(int from, int to);
+    }
+
+    /**
+     * Search arrays of one thread, reset after every query (only the touched
+     * nodes are reset)
+     */
+    private static class QueryState {
+
+        final double[] forwardDistance;
+        final double[] backwardDistance;
+        final int[] forwardPredecessor;
+        final int[] backwardPredecessor;
+        final boolean[] isTouched;
+        final IntList touched = new IntList();
+        final IndexedMinHeap forwardHeap;
+        final IndexedMinHeap backwardHeap;
+        /**
+         * Reused by path measuring
+         */
+        final IntList pathEdges = new IntList();
+        final IntList unpackStack = new IntList();
+
+        double bestDistance = Double.POSITIVE_INFINITY;
+        int meetingNode = -1;
+
+        QueryState(int numberOfNodes) {
+            forwardDistance = new double[numberOfNodes];
+            backwardDistance = new double[numberOfNodes];
+            Arrays.fill(forwardDistance, Double.POSITIVE_INFINITY);
+            Arrays.fill(backwardDistance, Double.POSITIVE_INFINITY);
+            forwardPredecessor = new int[numberOfNodes];
+            backwardPredecessor = new int[numberOfNodes];
+            isTouched = new boolean[numberOfNodes];
+            forwardHeap = new IndexedMinHeap(numberOfNodes);
+            backwardHeap = new IndexedMinHeap(numberOfNodes);
+        }
+
+        void touch(int node) {
+            if (!isTouched[node]) {
+                isTouched[node] = true;
+                touched.add(node);
+            }
+        }
+
+        void checkMeeting(int node, double distance) {
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                meetingNode = node;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < touched.size(); i++) {
+                int node = touched.get(i);
+                forwardDistance[node] = Double.POSITIVE_INFINITY;
+                backwardDistance[node] = Double.POSITIVE_INFINITY;
+                isTouched[node] = false;
+            }
+            touched.clear();
+            forwardHeap.clear();
+            backwardHeap.clear();
+            bestDistance = Double.POSITIVE_INFINITY;
+            meetingNode = -1;
+        }
+    }
+}
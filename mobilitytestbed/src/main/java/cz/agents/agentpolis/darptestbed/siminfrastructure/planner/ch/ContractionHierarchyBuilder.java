@@ -0,0 +1,300 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.ch;
+
+import java.util.Arrays;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.IndexedMinHeap;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.IntList;
+
+/**
+ * Preprocesses a directed weighted graph into a {@link ContractionHierarchy}.
+ * <p/>
+ * Nodes are contracted one by one in the order of their priority (edge
+ * difference plus the number of already contracted neighbours, recomputed
+ * lazily). When a node is contracted, a shortcut is added between each pair of
+ * its neighbours whose shortest path leads through it - this is checked by a
+ * small local Dijkstra search (witness search).
+ * <p/>
+ * Usage: add all edges by {@link #addEdge(int, int, double)}, then call
+ * {@link #build()} once.
+ */
+public class ContractionHierarchyBuilder {
+
+    /**
+     * Maximum number of nodes settled by one witness search. A search stopped
+     * early may add a superfluous shortcut, which costs a little query time,
+     * but never a wrong result.
+     */
+    private static final int WITNESS_SETTLED_LIMIT = 500;
+
+    private final int numberOfNodes;
+
+    private int numberOfEdges = 0;
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private double[] edgeWeight;
+    private int[] edgeFirstChild;
+    private int[] edgeSecondChild;
+
+    /**
+     * Ids of edges leaving/entering every node
+     */
+    private final IntList[] outEdges;
+    private final IntList[] inEdges;
+
+    private final boolean[] contracted;
+    private final int[] contractedNeighbours;
+
+    // witness search state
+    private final double[] witnessDistance;
+    private final IntList witnessTouched = new IntList();
+    private final IndexedMinHeap witnessHeap;
+
+    private boolean built = false;
+
+    public ContractionHierarchyBuilder(int numberOfNodes) {
+        this.numberOfNodes = numberOfNodes;
+
+        int initialEdgeCapacity = Math.max(16, numberOfNodes * 3);
+        this.edgeFrom = new int[initialEdgeCapacity];
+        this.edgeTo = new int[initialEdgeCapacity];
+        this.edgeWeight = new double[initialEdgeCapacity];
+        this.edgeFirstChild = new int[initialEdgeCapacity];
+        this.edgeSecondChild = new int[initialEdgeCapacity];
+
+        this.outEdges = new IntList[numberOfNodes];
+        this.inEdges = new IntList[numberOfNodes];
+        for (int v = 0; v < numberOfNodes; v++) {
+            outEdges[v] = new IntList(4);
+            inEdges[v] = new IntList(4);
+        }
+
+        this.contracted = new boolean[numberOfNodes];
+        this.contractedNeighbours = new int[numberOfNodes];
+
+        this.witnessDistance = new double[numberOfNodes];
+        Arrays.fill(witnessDistance, Double.POSITIVE_INFINITY);
+        this.witnessHeap = new IndexedMinHeap(numberOfNodes);
+    }
+
+    /**
+     * Adds an original edge of the graph. Self loops are ignored, out of
+     * parallel edges only the shortest one is kept.
+     *
+     * @param from   dense index of the source node
+     * @param to     dense index of the target node
+     * @param weight non-negative weight of the edge
+     */
+    public void addEdge(int from, int to, double weight) {
+        if (built) {
+            throw new IllegalStateException("The hierarchy has already been built");
+        }
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative edge weight: " + weight);
+        }
+        if (from != to) {
+            addOrImproveEdge(from, to, weight, -1, -1);
+        }
+    }
+
+    /**
+     * Contracts all nodes and creates the hierarchy
+     */
+    public ContractionHierarchy build() {
+        if (built) {
+            throw new IllegalStateException("The hierarchy has already been built");
+        }
+        built = true;
+
+        IndexedMinHeap queue = new IndexedMinHeap(numberOfNodes);
+        for (int v = 0; v < numberOfNodes; v++) {
+            queue.offer(v, computePriority(v));
+        }
+
+        int[] rank = new int[numberOfNodes];
+        int nextRank = 0;
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+
+            // lazy update - the priority may have grown since it was computed
+            double priority = computePriority(node);
+            if (!queue.isEmpty() && priority > queue.peekKey()) {
+                queue.offer(node, priority);
+                continue;
+            }
+
+            contractNode(node, false);
+            contracted[node] = true;
+            rank[node] = nextRank++;
+
+            IntList out = outEdges[node];
+            for (int i = 0; i < out.size(); i++) {
+                int neighbour = edgeTo[out.get(i)];
+                if (!contracted[neighbour]) {
+                    contractedNeighbours[neighbour]++;
+                    queue.update(neighbour, computePriority(neighbour));
+                }
+            }
+            IntList in = inEdges[node];
+            for (int i = 0; i < in.size(); i++) {
+                int neighbour = edgeFrom[in.get(i)];
+                if (!contracted[neighbour]) {
+                    contractedNeighbours[neighbour]++;
+                    queue.update(neighbour, computePriority(neighbour));
+                }
+            }
+        }
+
+        return new ContractionHierarchy(numberOfNodes, rank, numberOfEdges, edgeFrom, edgeTo, edgeWeight,
+                edgeFirstChild, edgeSecondChild);
+    }
+
+    private double computePriority(int node) {
+        int shortcuts = contractNode(node, true);
+        int removedEdges = 0;
+        IntList out = outEdges[node];
+        for (int i = 0; i < out.size(); i++) {
+            if (!contracted[edgeTo[out.get(i)]]) {
+                removedEdges++;
+            }
+        }
+        IntList in = inEdges[node];
+        for (int i = 0; i < in.size(); i++) {
+            if (!contracted[edgeFrom[in.get(i)]]) {
+                removedEdges++;
+            }
+        }
+        return shortcuts - removedEdges + contractedNeighbours[node];
+    }
+
+    /**
+     * Finds (and if not simulating also adds) all shortcuts needed when the
+     * node is removed from the graph of not yet contracted nodes
+     *
+     * @return number of the shortcuts
+     */
+    private int contractNode(int node, boolean simulate) {
+        IntList in = inEdges[node];
+        IntList out = outEdges[node];
+
+        double maxOutWeight = 0;
+        for (int j = 0; j < out.size(); j++) {
+            int outEdge = out.get(j);
+            if (!contracted[edgeTo[outEdge]]) {
+                maxOutWeight = Math.max(maxOutWeight, edgeWeight[outEdge]);
+            }
+        }
+
+        int shortcuts = 0;
+        for (int i = 0; i < in.size(); i++) {
+            int inEdge = in.get(i);
+            int source = edgeFrom[inEdge];
+            if (contracted[source]) {
+                continue;
+            }
+            double inWeight = edgeWeight[inEdge];
+
+            witnessSearch(source, node, inWeight + maxOutWeight);
+
+            // the out list may grow by shortcuts only if source == target,
+            // which is skipped, so its size is stable here
+            for (int j = 0; j < out.size(); j++) {
+                int outEdge = out.get(j);
+                int target = edgeTo[outEdge];
+                if (contracted[target] || target == source) {
+                    continue;
+                }
+                double viaWeight = inWeight + edgeWeight[outEdge];
+                if (witnessDistance[target] > viaWeight) {
+                    shortcuts++;
+                    if (!simulate) {
+                        addOrImproveEdge(source, target, viaWeight, inEdge, outEdge);
+                    }
+                }
+            }
+            resetWitnessSearch();
+        }
+        return shortcuts;
+    }
+
+    /**
+     * Dijkstra search from the source over not contracted nodes, avoiding the
+     * node being contracted
+     */
+    private void witnessSearch(int source, int avoidedNode, double maxDistance) {
+        witnessDistance[source] = 0;
+        witnessTouched.add(source);
+        witnessHeap.offer(source, 0);
+
+        int settled = 0;
+        while (!witnessHeap.isEmpty() && settled < WITNESS_SETTLED_LIMIT) {
+            if (witnessHeap.peekKey() > maxDistance) {
+                break;
+            }
+            int node = witnessHeap.poll();
+            settled++;
+            double distance = witnessDistance[node];
+
+            IntList out = outEdges[node];
+            for (int i = 0; i < out.size(); i++) {
+                int edge = out.get(i);
+                int target = edgeTo[edge];
+                if (target == avoidedNode || contracted[target]) {
+                    continue;
+                }
+                double newDistance = distance + edgeWeight[edge];
+                if (newDistance < witnessDistance[target]) {
+                    if (witnessDistance[target] == Double.POSITIVE_INFINITY) {
+                        witnessTouched.add(target);
+                    }
+                    witnessDistance[target] = newDistance;
+                    witnessHeap.offer(target, newDistance);
+                }
+            }
+        }
+    }
+
+    private void resetWitnessSearch() {
+        for (int i = 0; i < witnessTouched.size(); i++) {
+            witnessDistance[witnessTouched.get(i)] = Double.POSITIVE_INFINITY;
+        }
+        witnessTouched.clear();
+        witnessHeap.clear();
+    }
+
+    /**
+     * Adds a new edge, or lowers the weight of an existing edge between the
+     * same nodes. An existing edge may be changed in place, because edges
+     * between two not contracted nodes are never children of a shortcut.
+     */
+    private void addOrImproveEdge(int from, int to, double weight, int firstChild, int secondChild) {
+        IntList out = outEdges[from];
+        for (int i = 0; i < out.size(); i++) {
+            int edge = out.get(i);
+            if (edgeTo[edge] == to) {
+                if (weight < edgeWeight[edge]) {
+                    edgeWeight[edge] = weight;
+                    edgeFirstChild[edge] = firstChild;
+                    edgeSecondChild[edge] = secondChild;
+                }
+                return;
+            }
+        }
+
+        if (numberOfEdges == edgeFrom.length) {
+            int newCapacity = edgeFrom.length * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, newCapacity);
+            edgeTo = Arrays.copyOf(edgeTo, newCapacity);
+            edgeWeight = Arrays.copyOf(edgeWeight, newCapacity);
+            edgeFirstChild = Arrays.copyOf(edgeFirstChild, newCapacity);
+            edgeSecondChild = Arrays.copyOf(edgeSecondChild, newCapacity);
+        }
+        int edge = numberOfEdges++;
+        edgeFrom[edge] = from;
+        edgeTo[edge] = to;
+        edgeWeight[edge] = weight;
+        edgeFirstChild[edge] = firstChild;
+        edgeSecondChild[edge] = secondChild;
+        out.add(edge);
+        inEdges[to].add(edge);
+    }
+}
@@ -2,35 +2,92 @@ package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.init;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Provides;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedAStarPlanner;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedContractionHierarchyPlanner;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedPlanner;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
 import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
 import cz.agents.agentpolis.siminfrastructure.planner.utils.PlannerEdge;
 import cz.agents.agentpolis.siminfrastructure.planner.utils.PlannerGraphCreator;
 import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.AllNetworkNodes;
 import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.EGraphType;
 import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.TransportNetworks;
+import cz.agents.agentpolis.simulator.creator.SimulationCreator;
+import cz.agents.agentpolis.simulator.creator.SimulationFinishedListener;
 import cz.agents.agentpolis.simulator.creator.initializator.InitModuleFactory;
+import org.apache.log4j.Logger;
 import org.jgrapht.graph.DirectedWeightedMultigraph;
 
 import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
 
 public class TestbedPlannerModuleFactory implements InitModuleFactory {
 
+    private static final Logger LOGGER = Logger.getLogger(TestbedPlannerModuleFactory.class);
+
+    private final TestbedPlannerType plannerType;
+    /**
+     * Paths found by the A* planner are loaded from and saved into this file
+     * (null = no persistent cache)
+     */
+    private final File pathCacheFile;
+    private final SimulationCreator creator;
+
+    public TestbedPlannerModuleFactory() {
+        this(TestbedPlannerType.A_STAR);
+    }
+
+    public TestbedPlannerModuleFactory(TestbedPlannerType plannerType) {
+        this(plannerType, null, null);
+    }
+
+    /**
+     * @param plannerType   the planner to be used
+     * @param pathCacheFile the A* planner starts with the paths saved in this
+     *                      file by previous runs on the same map, and saves
+     *                      its paths there when the simulation finishes
+     * @param creator       the simulation, the paths are saved after it finishes
+     */
+    public TestbedPlannerModuleFactory(TestbedPlannerType plannerType, File pathCacheFile, SimulationCreator creator) {
+        super();
+        this.plannerType = plannerType;
+        this.pathCacheFile = pathCacheFile;
+        this.creator = creator;
+    }
+
     @Override
     public AbstractModule injectModule(Injector injector) {
 
-        NodeExtendedFunction nodeExtendedFunction = injector.getInstance(NodeExtendedFunction.class);
-        final TestbedPlanner pathPlanner = new TestbedAStarPlanner(nodeExtendedFunction, initPlannerGraph(injector),
-                EGraphType.HIGHWAY);
+        final TestbedPlanner pathPlanner;
+        switch (plannerType) {
+            case CONTRACTION_HIERARCHIES:
+                if (injector.getExistingBinding(Key.get(CompactRoadNetwork.class)) != null) {
+                    pathPlanner = new TestbedContractionHierarchyPlanner(injector.getInstance(CompactRoadNetwork.class),
+                            EGraphType.HIGHWAY);
+                } else {
+                    pathPlanner = new TestbedContractionHierarchyPlanner(initPlannerGraph(injector),
+                            injector.getInstance(NodeExtendedFunction.class), EGraphType.HIGHWAY);
+                }
+                break;
+            case A_STAR:
+            default:
+                NodeExtendedFunction nodeExtendedFunction = injector.getInstance(NodeExtendedFunction.class);
+                TestbedAStarPlanner aStarPlanner = new TestbedAStarPlanner(nodeExtendedFunction,
+                        initPlannerGraph(injector), EGraphType.HIGHWAY);
+                if (pathCacheFile != null) {
+                    initPersistentPathCache(aStarPlanner);
+                }
+                pathPlanner = aStarPlanner;
+                break;
+        }
 
         return new AbstractModule() {
 
             @Override
             protected void configure() {
-                // TODO Auto-generated method stub
-
             }
 
             @Provides
@@ -41,6 +98,28 @@ public class TestbedPlannerModuleFactory implements InitModuleFactory {
         };
     }
 
+    private void initPersistentPathCache(final TestbedAStarPlanner aStarPlanner) {
+        try {
+            int loaded = aStarPlanner.loadPathCache(pathCacheFile);
+            LOGGER.info(loaded + " paths loaded from " + pathCacheFile);
+        } catch (IOException e) {
+            LOGGER.warn("The path cache can't be loaded, starting with an empty one", e);
+        }
+
+        creator.addSimulationFinishedListener(new SimulationFinishedListener() {
+
+            @Override
+            public void simulationFinished() {
+                try {
+                    aStarPlanner.savePathCache(pathCacheFile);
+                    LOGGER.info("Paths saved into " + pathCacheFile + " (" + aStarPlanner.getPathCacheStats() + ")");
+                } catch (IOException e) {
+                    LOGGER.error("The path cache can't be saved", e);
+                }
+            }
+        });
+    }
+
     private DirectedWeightedMultigraph<Long, PlannerEdge> initPlannerGraph(Injector injector) {
 
         AllNetworkNodes allNetworkNodes = injector.getInstance(AllNetworkNodes.class);
@@ -0,0 +1,17 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.init;
+
+/**
+ * Path planners that {@link TestbedPlannerModuleFactory} is able to bind
+ */
+public enum TestbedPlannerType {
+
+    /**
+     * A* search on every query, found paths are cached
+     */
+    A_STAR,
+    /**
+     * Queries on a contraction hierarchy precomputed at the start of the
+     * simulation
+     */
+    CONTRACTION_HIERARCHIES
+}
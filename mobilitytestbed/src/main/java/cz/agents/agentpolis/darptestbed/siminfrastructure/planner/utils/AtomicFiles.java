@@ -0,0 +1,42 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replacing of the cache files, that are written aside (into a temporary file)
+ * and moved over the old file when complete, so readers never see a
+ * half-written file.
+ */
+public final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * @return the file the content of the given file is written into before
+     *         {@link #replace(File, File)}
+     */
+    public static File getTmpFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Moves the written temporary file over the file in one step. The move
+     * isn't atomic only if the file system doesn't support it, then the old
+     * file is still replaced (never deleted beforehand).
+     *
+     * @throws IOException if the file can't be replaced
+     */
+    public static void replace(File tmpFile, File file) throws IOException {
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
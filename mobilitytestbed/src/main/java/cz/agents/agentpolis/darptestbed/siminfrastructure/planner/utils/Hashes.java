@@ -0,0 +1,21 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils;
+
+/**
+ * Hashing of the primitive values, which the map, graph and cache hashes are
+ * made of.
+ */
+public final class Hashes {
+
+    private Hashes() {
+    }
+
+    /**
+     * Mixes the bits of the value (the finalizer of MurmurHash3), so close
+     * values get very different hashes
+     */
+    public static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
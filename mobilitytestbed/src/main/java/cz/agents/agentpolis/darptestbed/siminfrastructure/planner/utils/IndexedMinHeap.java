@@ -0,0 +1,160 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of dense int node indexes keyed by primitive doubles. It
+ * supports decrease-key, so graph searches need neither boxing nor duplicate
+ * entries. Clearing costs only the number of elements currently in the heap,
+ * which lets one instance be reused by many small searches over a big graph.
+ */
+public class IndexedMinHeap {
+
+    private final int[] heap;
+    private final double[] keys;
+    /**
+     * Position of a node in the heap array, -1 if the node is not present
+     */
+    private final int[] positions;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.keys = new double[capacity];
+        this.positions = new int[capacity];
+        Arrays.fill(positions, -1);
+        this.size = 0;
+    }
+
+    /**
+     * Inserts the node, or lowers its key if it's already in the heap (a higher
+     * key is ignored)
+     *
+     * @param node dense node index
+     * @param key  priority of the node
+     */
+    public void offer(int node, double key) {
+        int position = positions[node];
+        if (position < 0) {
+            position = size++;
+            heap[position] = node;
+            positions[node] = position;
+        } else if (keys[node] <= key) {
+            return;
+        }
+        keys[node] = key;
+        siftUp(position);
+    }
+
+    /**
+     * Sets a new key of the node (both higher and lower keys are accepted),
+     * inserting the node if it isn't in the heap yet
+     *
+     * @param node dense node index
+     * @param key  new priority of the node
+     */
+    public void update(int node, double key) {
+        int position = positions[node];
+        if (position < 0) {
+            offer(node, key);
+            return;
+        }
+        double oldKey = keys[node];
+        keys[node] = key;
+        if (key < oldKey) {
+            siftUp(position);
+        } else {
+            siftDown(position);
+        }
+    }
+
+    /**
+     * Removes the node with the lowest key
+     *
+     * @return dense node index
+     */
+    public int poll() {
+        int top = heap[0];
+        positions[top] = -1;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            positions[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * @return the lowest key in the heap, or positive infinity if it's empty
+     */
+    public double peekKey() {
+        if (size == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return keys[heap[0]];
+    }
+
+    public boolean contains(int node) {
+        return positions[node] >= 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all nodes (in time proportional to the current size)
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        int node = heap[position];
+        double key = keys[node];
+        while (position > 0) {
+            int parentPosition = (position - 1) >>> 1;
+            int parent = heap[parentPosition];
+            if (keys[parent] <= key) {
+                break;
+            }
+            heap[position] = parent;
+            positions[parent] = position;
+            position = parentPosition;
+        }
+        heap[position] = node;
+        positions[node] = position;
+    }
+
+    private void siftDown(int position) {
+        int node = heap[position];
+        double key = keys[node];
+        int half = size >>> 1;
+        while (position < half) {
+            int childPosition = 2 * position + 1;
+            int child = heap[childPosition];
+            int rightPosition = childPosition + 1;
+            if (rightPosition < size && keys[heap[rightPosition]] < keys[child]) {
+                childPosition = rightPosition;
+                child = heap[childPosition];
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            heap[position] = child;
+            positions[child] = position;
+            position = childPosition;
+        }
+        heap[position] = node;
+        positions[node] = position;
+    }
+}
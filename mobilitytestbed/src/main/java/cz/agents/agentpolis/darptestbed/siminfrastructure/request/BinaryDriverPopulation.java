@@ -0,0 +1,58 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.request;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Drivers stored in the binary columnar format.
+ * <p/>
+ * Columns: vehicle equipments, latitudes and longitudes of the initial
+ * positions, initial nodes and vehicle capacities.
+ */
+public class BinaryDriverPopulation extends BinaryPopulation {
+
+    private final int equipmentsColumn;
+    private final int latitudeColumn;
+    private final int longitudeColumn;
+    private final int initNodeColumn;
+    private final int capacityColumn;
+
+    /**
+     * @param mapHash hash of the map of the simulation, the stored nodes are
+     *                used only if they've been snapped to the same map
+     */
+    public BinaryDriverPopulation(File file, long mapHash) throws IOException {
+        super(file, KIND_DRIVERS, mapHash);
+        equipmentsColumn = columnsPosition;
+        latitudeColumn = equipmentsColumn + 8 * size;
+        longitudeColumn = latitudeColumn + 8 * size;
+        initNodeColumn = longitudeColumn + 8 * size;
+        capacityColumn = initNodeColumn + 8 * size;
+    }
+
+    static long getColumnBytes(int size) {
+        return 8L * 4 * size + 4L * size;
+    }
+
+    @Override
+    protected long getColumnBytes() {
+        return getColumnBytes(size);
+    }
+
+    /**
+     * @return the driver as it was stored in JSON
+     */
+    public Driver getDriver(int driver) {
+        return new Driver(getId(driver),
+                new GPS(getDouble(latitudeColumn, driver), getDouble(longitudeColumn, driver)),
+                getInt(capacityColumn, driver), decodeNames(getLong(equipmentsColumn, driver)));
+    }
+
+    /**
+     * @return node of the initial position, or {@link #NO_NODE} if it hasn't
+     *         been snapped (to the map of the simulation)
+     */
+    public long getInitNode(int driver) {
+        return getNode(initNodeColumn, driver);
+    }
+}
@@ -0,0 +1,117 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.request;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Passengers stored in the binary columnar format. The requests of all
+ * passengers are stored together, the requests of passenger p are
+ * getFirstRequest(p)..getEndRequest(p)-1.
+ * <p/>
+ * Columns: additional requirements of the passengers, call times, depart
+ * from/to and arrive from/to times, origin latitudes/longitudes,
+ * destination latitudes/longitudes, origin nodes, destination nodes (by
+ * requests) and the first requests of the passengers.
+ */
+public class BinaryPassengerPopulation extends BinaryPopulation {
+
+    private final int requirementsColumn;
+    private final int callTimeColumn;
+    private final int departFromColumn;
+    private final int departToColumn;
+    private final int arriveFromColumn;
+    private final int arriveToColumn;
+    private final int originLatitudeColumn;
+    private final int originLongitudeColumn;
+    private final int destinationLatitudeColumn;
+    private final int destinationLongitudeColumn;
+    private final int originNodeColumn;
+    private final int destinationNodeColumn;
+    private final int firstRequestColumn;
+
+    /**
+     * @param mapHash hash of the map of the simulation, the stored nodes are
+     *                used only if they've been snapped to the same map
+     */
+    public BinaryPassengerPopulation(File file, long mapHash) throws IOException {
+        super(file, KIND_PASSENGERS, mapHash);
+        requirementsColumn = columnsPosition;
+        callTimeColumn = requirementsColumn + 8 * size;
+        departFromColumn = callTimeColumn + 8 * numberOfRequests;
+        departToColumn = departFromColumn + 8 * numberOfRequests;
+        arriveFromColumn = departToColumn + 8 * numberOfRequests;
+        arriveToColumn = arriveFromColumn + 8 * numberOfRequests;
+        originLatitudeColumn = arriveToColumn + 8 * numberOfRequests;
+        originLongitudeColumn = originLatitudeColumn + 8 * numberOfRequests;
+        destinationLatitudeColumn = originLongitudeColumn + 8 * numberOfRequests;
+        destinationLongitudeColumn = destinationLatitudeColumn + 8 * numberOfRequests;
+        originNodeColumn = destinationLongitudeColumn + 8 * numberOfRequests;
+        destinationNodeColumn = originNodeColumn + 8 * numberOfRequests;
+        firstRequestColumn = destinationNodeColumn + 8 * numberOfRequests;
+    }
+
+    static long getColumnBytes(int size, int numberOfRequests) {
+        return 8L * size + 8L * 11 * numberOfRequests + 4L * (size + 1);
+    }
+
+    @Override
+    protected long getColumnBytes() {
+        return getColumnBytes(size, numberOfRequests);
+    }
+
+    /**
+     * @return the total number of requests of all passengers
+     */
+    public int getNumberOfRequests() {
+        return numberOfRequests;
+    }
+
+    public String getPassengerId(int passenger) {
+        return getId(passenger);
+    }
+
+    public Set<String> getAdditionalRequirements(int passenger) {
+        return decodeNames(getLong(requirementsColumn, passenger));
+    }
+
+    public int getFirstRequest(int passenger) {
+        return getInt(firstRequestColumn, passenger);
+    }
+
+    public int getEndRequest(int passenger) {
+        return getInt(firstRequestColumn, passenger + 1);
+    }
+
+    public long getCallTime(int request) {
+        return getLong(callTimeColumn, request);
+    }
+
+    /**
+     * @return node of the origin, or {@link #NO_NODE} if it hasn't been
+     *         snapped (to the map of the simulation)
+     */
+    public long getOriginNode(int request) {
+        return getNode(originNodeColumn, request);
+    }
+
+    /**
+     * @return node of the destination, or {@link #NO_NODE} if it hasn't been
+     *         snapped (to the map of the simulation)
+     */
+    public long getDestinationNode(int request) {
+        return getNode(destinationNodeColumn, request);
+    }
+
+    /**
+     * @return the request as it was stored in JSON
+     */
+    public PassengerRequest getRequest(int request) {
+        return new PassengerRequest(
+                new GPS(getDouble(originLatitudeColumn, request), getDouble(originLongitudeColumn, request)),
+                new GPS(getDouble(destinationLatitudeColumn, request), getDouble(destinationLongitudeColumn, request)),
+                getCallTime(request),
+                new TimeWindow(getLong(departFromColumn, request), getLong(departToColumn, request)),
+                new TimeWindow(getLong(arriveFromColumn, request), getLong(arriveToColumn, request)));
+    }
+}
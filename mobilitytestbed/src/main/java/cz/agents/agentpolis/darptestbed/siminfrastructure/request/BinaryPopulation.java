@@ -0,0 +1,189 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.request;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+
+/**
+ * A population stored in the binary columnar format (written by
+ * {@link BinaryPopulationWriter}), read from a memory mapped file. Nothing is
+ * parsed in advance, the values are read from their columns when they are
+ * asked for.
+ * <p/>
+ * The file begins with a header: magic, version, kind of the population,
+ * number of agents, number of requests (0 for drivers), hash of the map the
+ * positions have been snapped to ({@link NodeExtendedFunction#getMapHash()})
+ * and the names of the additional requirements (or vehicle equipments). A set of the names is
+ * stored as a bitset of their indices. The header is followed by the ids of
+ * the agents (offsets and UTF-8 bytes) and by the columns of the population
+ * (aligned to 8 bytes).
+ * <p/>
+ * The stored nodes are used only with the same map, with another map they're
+ * read as {@link #NO_NODE} (the positions are snapped again).
+ */
+public abstract class BinaryPopulation {
+
+    /**
+     * Node id of a position, that hasn't been snapped to the map
+     */
+    public static final long NO_NODE = -1;
+
+    static final int FILE_MAGIC = 0x44525450;
+    static final int FILE_VERSION = 2;
+    static final int KIND_PASSENGERS = 1;
+    static final int KIND_DRIVERS = 2;
+    /**
+     * Bit of a null set (the other 63 bits are the names)
+     */
+    static final long NULL_SET = 1L << 63;
+    static final int MAX_NAMES = 63;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected final MappedByteBuffer buffer;
+    protected final int size;
+    protected final int numberOfRequests;
+    private final String[] names;
+    /**
+     * true, if the nodes have been snapped to the map of the simulation
+     */
+    private final boolean sameMap;
+    private final int idOffsetsPosition;
+    private final int idBytesPosition;
+    /**
+     * Position of the first column after the ids
+     */
+    protected final int columnsPosition;
+
+    /**
+     * @param mapHash hash of the map of the simulation
+     *                ({@link NodeExtendedFunction#getMapHash()})
+     */
+    protected BinaryPopulation(File file, int kind, long mapHash) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The population file " + file + " is too big");
+            }
+            // the mapping stays valid after the file is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+
+        try {
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                throw new IOException("The file " + file + " isn't a binary population");
+            }
+            if (buffer.getInt() != kind) {
+                throw new IOException("The file " + file + " contains another kind of population");
+            }
+            size = buffer.getInt();
+            numberOfRequests = buffer.getInt();
+            sameMap = buffer.getLong() == mapHash;
+            names = new String[buffer.getInt()];
+            for (int i = 0; i < names.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                names[i] = new String(bytes, UTF8);
+            }
+            idOffsetsPosition = buffer.position();
+            idBytesPosition = idOffsetsPosition + 4 * (size + 1);
+            columnsPosition = align(idBytesPosition + buffer.getInt(idOffsetsPosition + 4 * size));
+            if (columnsPosition + getColumnBytes() != buffer.capacity()) {
+                throw new IOException("The population file " + file + " is broken");
+            }
+        } catch (RuntimeException e) {
+            // buffer underflow etc.
+            throw new IOException("The population file " + file + " is broken", e);
+        }
+    }
+
+    /**
+     * @return true, if the file is a binary population (not JSON)
+     */
+    public static boolean isBinaryPopulation(File file) {
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                return randomAccessFile.length() >= 4 && randomAccessFile.readInt() == FILE_MAGIC;
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the position rounded up to a multiple of 8
+     */
+    static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    /**
+     * @return the size of the columns in bytes (to check the file)
+     */
+    protected abstract long getColumnBytes();
+
+    /**
+     * @return the number of agents
+     */
+    public int getSize() {
+        return size;
+    }
+
+    protected String getId(int index) {
+        int from = buffer.getInt(idOffsetsPosition + 4 * index);
+        int to = buffer.getInt(idOffsetsPosition + 4 * (index + 1));
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(idBytesPosition + from + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * @return the names of the bitset (null, if the stored set was null)
+     */
+    protected Set<String> decodeNames(long bits) {
+        if ((bits & NULL_SET) != 0) {
+            return null;
+        }
+        Set<String> set = new HashSet<String>();
+        for (int i = 0; i < names.length; i++) {
+            if ((bits & (1L << i)) != 0) {
+                set.add(names[i]);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * @return the node stored in the column, or {@link #NO_NODE} if it has
+     *         been snapped to another map
+     */
+    protected long getNode(int column, int index) {
+        return sameMap ? getLong(column, index) : NO_NODE;
+    }
+
+    protected long getLong(int column, int index) {
+        return buffer.getLong(column + 8 * index);
+    }
+
+    protected double getDouble(int column, int index) {
+        return buffer.getDouble(column + 8 * index);
+    }
+
+    protected int getInt(int column, int index) {
+        return buffer.getInt(column + 4 * index);
+    }
+}
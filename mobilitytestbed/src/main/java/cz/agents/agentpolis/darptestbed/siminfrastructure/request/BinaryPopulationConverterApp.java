@@ -0,0 +1,51 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.request;
+
+import cz.agents.agentpolis.darptestbed.simulator.initializator.PassengerPopulationReader;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Converts a JSON population (possibly compressed) into the binary columnar
+ * format. The positions aren't snapped to the map (the map isn't loaded
+ * here), they are snapped when the population is loaded.
+ * <p/>
+ * Usage: BinaryPopulationConverterApp passengers|drivers input.json output.bin
+ */
+public class BinaryPopulationConverterApp {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !args[0].equals("passengers") && !args[0].equals("drivers")) {
+            System.err.println("Usage: BinaryPopulationConverterApp passengers|drivers input.json output.bin");
+            System.exit(1);
+        }
+        File input = new File(args[1]);
+        File output = new File(args[2]);
+        BinaryPopulationWriter writer = new BinaryPopulationWriter(null);
+
+        long start = System.currentTimeMillis();
+        if (args[0].equals("passengers")) {
+            PassengerPopulationReader reader = new PassengerPopulationReader(input);
+            try {
+                writer.writePassengers(reader, output);
+            } finally {
+                reader.close();
+            }
+        } else {
+            InputStream in = PassengerPopulationReader.openPopulationStream(input);
+            try {
+                List<Driver> drivers = new ObjectMapper().readValue(in, new TypeReference<List<Driver>>() {
+                });
+                writer.writeDrivers(drivers.iterator(), output);
+            } finally {
+                in.close();
+            }
+        }
+        System.out.println("The population " + input + " has been converted into " + output + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
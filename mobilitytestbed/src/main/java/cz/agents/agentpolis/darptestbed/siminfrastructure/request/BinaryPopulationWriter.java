@@ -0,0 +1,307 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.request;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.AtomicFiles;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes populations in the binary columnar format read by
+ * {@link BinaryPassengerPopulation} and {@link BinaryDriverPopulation}.
+ * <p/>
+ * The positions are snapped to the nearest nodes of the map, if a node
+ * finder is given (otherwise they're stored as {@link BinaryPopulation#NO_NODE}
+ * and snapped when the population is loaded). The hash of the map is stored
+ * with them, so they aren't used with another map.
+ */
+public class BinaryPopulationWriter {
+
+    private final NodeExtendedFunction nearestNodeFinder;
+
+    /**
+     * Names of the requirements/equipments in the order of their bits
+     */
+    private final List<String> names = new ArrayList<String>();
+    private final ByteArrayOutputStream idBytes = new ByteArrayOutputStream();
+    private int[] idOffsets = new int[1024];
+    private int size;
+
+    /**
+     * @param nearestNodeFinder snaps the positions to the map, may be null
+     */
+    public BinaryPopulationWriter(NodeExtendedFunction nearestNodeFinder) {
+        this.nearestNodeFinder = nearestNodeFinder;
+    }
+
+    /**
+     * Writes the passengers (they're read one by one, so the iterator may
+     * stream them from a file)
+     */
+    public void writePassengers(Iterator<Passenger> passengers, File file) throws IOException {
+        reset();
+        long[] requirements = new long[1024];
+        int[] firstRequests = new int[1025];
+        // call time, depart from, depart to, arrive from, arrive to, origin
+        // node, destination node
+        long[][] longColumns = new long[7][1024];
+        // origin latitude, origin longitude, destination latitude,
+        // destination longitude
+        double[][] doubleColumns = new double[4][1024];
+        int numberOfRequests = 0;
+
+        while (passengers.hasNext()) {
+            Passenger passenger = passengers.next();
+            if (size == requirements.length) {
+                requirements = Arrays.copyOf(requirements, 2 * size);
+                firstRequests = Arrays.copyOf(firstRequests, 2 * size + 1);
+            }
+            requirements[size] = encodeNames(passenger.additionalRequirements);
+            firstRequests[size] = numberOfRequests;
+            addId(passenger.passsngerId);
+
+            for (PassengerRequest request : passenger.requests) {
+                if (numberOfRequests == longColumns[0].length) {
+                    for (int i = 0; i < longColumns.length; i++) {
+                        longColumns[i] = Arrays.copyOf(longColumns[i], 2 * numberOfRequests);
+                    }
+                    for (int i = 0; i < doubleColumns.length; i++) {
+                        doubleColumns[i] = Arrays.copyOf(doubleColumns[i], 2 * numberOfRequests);
+                    }
+                }
+                longColumns[0][numberOfRequests] = request.reqestCallTimeInDayRange;
+                longColumns[1][numberOfRequests] = request.fromTimeWindow.fromTimeInDayRange;
+                longColumns[2][numberOfRequests] = request.fromTimeWindow.toTimeInDayRange;
+                longColumns[3][numberOfRequests] = request.toTimeWindow.fromTimeInDayRange;
+                longColumns[4][numberOfRequests] = request.toTimeWindow.toTimeInDayRange;
+                longColumns[5][numberOfRequests] = snap(request.originPosition);
+                longColumns[6][numberOfRequests] = snap(request.destinationnPosition);
+                doubleColumns[0][numberOfRequests] = request.originPosition.latitude;
+                doubleColumns[1][numberOfRequests] = request.originPosition.longitude;
+                doubleColumns[2][numberOfRequests] = request.destinationnPosition.latitude;
+                doubleColumns[3][numberOfRequests] = request.destinationnPosition.longitude;
+                numberOfRequests++;
+            }
+        }
+        firstRequests[size] = numberOfRequests;
+
+        MappedFile mappedFile = new MappedFile(file, BinaryPopulation.KIND_PASSENGERS, numberOfRequests,
+                BinaryPassengerPopulation.getColumnBytes(size, numberOfRequests));
+        try {
+            MappedByteBuffer buffer = mappedFile.buffer;
+            putLongs(buffer, requirements, size);
+            for (int i = 0; i < 5; i++) {
+                putLongs(buffer, longColumns[i], numberOfRequests);
+            }
+            for (double[] column : doubleColumns) {
+                putDoubles(buffer, column, numberOfRequests);
+            }
+            putLongs(buffer, longColumns[5], numberOfRequests);
+            putLongs(buffer, longColumns[6], numberOfRequests);
+            putInts(buffer, firstRequests, size + 1);
+        } catch (Throwable e) {
+            mappedFile.discard(e);
+            throw e;
+        }
+        mappedFile.close();
+    }
+
+    public void writeDrivers(Iterator<Driver> drivers, File file) throws IOException {
+        reset();
+        long[] equipments = new long[1024];
+        double[] latitudes = new double[1024];
+        double[] longitudes = new double[1024];
+        long[] initNodes = new long[1024];
+        int[] capacities = new int[1024];
+
+        while (drivers.hasNext()) {
+            Driver driver = drivers.next();
+            if (size == equipments.length) {
+                equipments = Arrays.copyOf(equipments, 2 * size);
+                latitudes = Arrays.copyOf(latitudes, 2 * size);
+                longitudes = Arrays.copyOf(longitudes, 2 * size);
+                initNodes = Arrays.copyOf(initNodes, 2 * size);
+                capacities = Arrays.copyOf(capacities, 2 * size);
+            }
+            equipments[size] = encodeNames(driver.vehicleEquipments);
+            latitudes[size] = driver.driverInitPosition.latitude;
+            longitudes[size] = driver.driverInitPosition.longitude;
+            initNodes[size] = snap(driver.driverInitPosition);
+            capacities[size] = driver.vehicleCapacity;
+            addId(driver.driverId);
+        }
+
+        MappedFile mappedFile = new MappedFile(file, BinaryPopulation.KIND_DRIVERS, 0,
+                BinaryDriverPopulation.getColumnBytes(size));
+        try {
+            MappedByteBuffer buffer = mappedFile.buffer;
+            putLongs(buffer, equipments, size);
+            putDoubles(buffer, latitudes, size);
+            putDoubles(buffer, longitudes, size);
+            putLongs(buffer, initNodes, size);
+            putInts(buffer, capacities, size);
+        } catch (Throwable e) {
+            mappedFile.discard(e);
+            throw e;
+        }
+        mappedFile.close();
+    }
+
+    private void reset() {
+        names.clear();
+        idBytes.reset();
+        size = 0;
+    }
+
+    private long snap(GPS gps) {
+        if (nearestNodeFinder == null) {
+            return BinaryPopulation.NO_NODE;
+        }
+        return nearestNodeFinder.getNearestNodeByNodeId(gps.longitude, gps.latitude);
+    }
+
+    /**
+     * Adds the id of the next agent (and counts the agent)
+     */
+    private void addId(String id) {
+        byte[] bytes = id.getBytes(BinaryPopulation.UTF8);
+        idBytes.write(bytes, 0, bytes.length);
+        if (size + 1 == idOffsets.length) {
+            idOffsets = Arrays.copyOf(idOffsets, 2 * idOffsets.length);
+        }
+        size++;
+        idOffsets[size] = idBytes.size();
+    }
+
+    private long encodeNames(Set<String> set) {
+        if (set == null) {
+            return BinaryPopulation.NULL_SET;
+        }
+        long bits = 0;
+        for (String name : set) {
+            int index = names.indexOf(name);
+            if (index == -1) {
+                if (names.size() == BinaryPopulation.MAX_NAMES) {
+                    throw new IllegalArgumentException("More than " + BinaryPopulation.MAX_NAMES
+                            + " different requirements can't be stored");
+                }
+                index = names.size();
+                names.add(name);
+            }
+            bits |= 1L << index;
+        }
+        return bits;
+    }
+
+    private static void putLongs(MappedByteBuffer buffer, long[] column, int length) {
+        buffer.asLongBuffer().put(column, 0, length);
+        buffer.position(buffer.position() + 8 * length);
+    }
+
+    private static void putDoubles(MappedByteBuffer buffer, double[] column, int length) {
+        buffer.asDoubleBuffer().put(column, 0, length);
+        buffer.position(buffer.position() + 8 * length);
+    }
+
+    private static void putInts(MappedByteBuffer buffer, int[] column, int length) {
+        buffer.asIntBuffer().put(column, 0, length);
+        buffer.position(buffer.position() + 4 * length);
+    }
+
+    /**
+     * The file with the header and the ids written, the buffer is positioned
+     * at the first column. The file is written aside and renamed, when it's
+     * closed, or deleted, when the writing fails.
+     */
+    private class MappedFile {
+
+        private final File file;
+        private final File tmpFile;
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+
+        MappedFile(File file, int kind, int numberOfRequests, long columnBytes) throws IOException {
+            this.file = file;
+            this.tmpFile = AtomicFiles.getTmpFile(file);
+
+            List<byte[]> encodedNames = new ArrayList<byte[]>();
+            long headerBytes = 6 * 4 + 8;
+            for (String name : names) {
+                byte[] bytes = name.getBytes(BinaryPopulation.UTF8);
+                encodedNames.add(bytes);
+                headerBytes += 4 + bytes.length;
+            }
+            long idsEnd = headerBytes + 4L * (size + 1) + idBytes.size();
+            long fileSize = ((idsEnd + 7) & ~7L) + columnBytes;
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("The population is too big for the binary format");
+            }
+
+            this.randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+            try {
+                randomAccessFile.setLength(fileSize);
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            } catch (IOException e) {
+                discard(e);
+                throw e;
+            }
+            buffer.putInt(BinaryPopulation.FILE_MAGIC);
+            buffer.putInt(BinaryPopulation.FILE_VERSION);
+            buffer.putInt(kind);
+            buffer.putInt(size);
+            buffer.putInt(numberOfRequests);
+            // nothing has been snapped without the node finder
+            buffer.putLong(nearestNodeFinder == null ? 0 : nearestNodeFinder.getMapHash());
+            buffer.putInt(encodedNames.size());
+            for (byte[] bytes : encodedNames) {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+            putInts(buffer, idOffsets, size + 1);
+            buffer.put(idBytes.toByteArray());
+            buffer.position(BinaryPopulation.align(buffer.position()));
+        }
+
+        /**
+         * Moves the completely written file over the file
+         */
+        void close() throws IOException {
+            try {
+                if (buffer.hasRemaining()) {
+                    throw new IOException("The population file " + file + " hasn't been completely written");
+                }
+                buffer.force();
+                randomAccessFile.close();
+                AtomicFiles.replace(tmpFile, file);
+            } catch (IOException e) {
+                discard(e);
+                throw e;
+            }
+        }
+
+        /**
+         * Closes and deletes the written file after the failure (the file
+         * being replaced stays as it was), the errors of the cleanup are
+         * suppressed by the failure
+         */
+        void discard(Throwable failure) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+            if (!tmpFile.delete() && tmpFile.exists()) {
+                failure.addSuppressed(new IOException("The file " + tmpFile + " can't be deleted"));
+            }
+        }
+    }
+}
@@ -62,7 +62,7 @@ public abstract class AgentLogic<TMessageProtocol extends AMessageProtocol<? ext
 		return utils.toHoursAndMinutes(utils.getCurrentTime());
 	}
 
-    public void processTextMessage(StringMessage message) {}
+    public void processTextMessage(StringMessage<?> message) {}
 
     protected void sendTextMessage(String agentId, String message) {
         ArrayList<String> list = new ArrayList<>();
@@ -71,8 +71,8 @@ public abstract class AgentLogic<TMessageProtocol extends AMessageProtocol<? ext
     }
 
     protected void sendTextMessage(List<String> list, String message) {
-        StringMessage stringMessage = new StringMessage(getAgentId(), message);
-        generalMessageProtocol.sendMessage(list, stringMessage);
+        StringMessage<BaseReceiverVisitor> stringMessage = new StringMessage<>(getAgentId(), message);
+        generalMessageProtocol.sendMessageBatched(list, stringMessage);
     }
 
     /**
@@ -0,0 +1,579 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.data;
+
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link FlexiblePlan} stored in parallel primitive arrays (node, arrival,
+ * waiting, time window bounds and the boarding flag of every item), so the
+ * insertion algorithm doesn't have to go through plan items, requests and
+ * time windows again and again.
+ * <p/>
+ * The operations compute exactly the same times as the plan items do
+ * ({@link Utils#insertItem(int, PlanItem, boolean, FlexiblePlan)},
+ * {@link FlexiblePlan#removeItem(int)} and
+ * {@link Utils#updateCurrentTime(long, FlexiblePlan)}), so a plan converted
+ * back by {@link #copyTo(FlexiblePlan)} is the same as if it had been planned
+ * item by item.
+ * <p/>
+ * What-if insertions don't have to be removed again: changes made after
+ * {@link #mark()} are recorded in an undo log and {@link #rollback(int)}
+ * restores only the changed items.
+ */
+public class CompactPlan {
+
+    /**
+     * Earliest time of an item, that has no lower bound
+     */
+    private static final long NO_EARLIEST_TIME = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 8;
+
+    protected final Utils utils;
+    public final TestbedVehicle vehicle;
+    /**
+     * The time at the beginning of the plan
+     */
+    public long currentTime;
+    /**
+     * The taxi driver's initial node (-1, if the plan starts by its first item)
+     */
+    public long firstNode;
+    /**
+     * The node where the driver wants to go after finishing the plan (-1 if
+     * none)
+     */
+    public long lastNode;
+
+    private int size;
+    private Request[] requests;
+    private boolean[] boarding;
+    private long[] nodes;
+    private long[] arrivals;
+    private long[] waitings;
+    /**
+     * The driver waits on the node until this time (NO_EARLIEST_TIME, if the
+     * item has no such bound)
+     */
+    private long[] earliestTimes;
+    /**
+     * The latest arrival without delay (Long.MAX_VALUE, if the item has no
+     * such bound)
+     */
+    private long[] latestTimes;
+
+    /**
+     * The undo log (used only while some mark is open): the kind of change,
+     * the index and the old times of the item
+     */
+    private int logSize;
+    private int openMarks;
+    private byte[] logKinds = new byte[0];
+    private int[] logIndexes = new int[0];
+    private long[] logArrivals = new long[0];
+    private long[] logWaitings = new long[0];
+    private Request[] logRequests = new Request[0];
+    private boolean[] logBoarding = new boolean[0];
+
+    private static final byte TIMES_CHANGED = 0;
+    private static final byte ITEM_ADDED = 1;
+    private static final byte ITEM_REMOVED = 2;
+
+    public CompactPlan(Utils utils, TestbedVehicle vehicle, long currentTime, long firstNode, long lastNode) {
+        this.utils = utils;
+        this.vehicle = vehicle;
+        this.currentTime = currentTime;
+        this.firstNode = firstNode;
+        this.lastNode = lastNode;
+
+        this.requests = new Request[INITIAL_CAPACITY];
+        this.boarding = new boolean[INITIAL_CAPACITY];
+        this.nodes = new long[INITIAL_CAPACITY];
+        this.arrivals = new long[INITIAL_CAPACITY];
+        this.waitings = new long[INITIAL_CAPACITY];
+        this.earliestTimes = new long[INITIAL_CAPACITY];
+        this.latestTimes = new long[INITIAL_CAPACITY];
+    }
+
+    public static CompactPlan fromFlexiblePlan(FlexiblePlan plan) {
+        CompactPlan compactPlan = new CompactPlan(plan.utils, plan.vehicle, plan.currentTime, plan.firstNode,
+                plan.lastNode);
+        for (PlanItem item : plan.getPlanItems()) {
+            compactPlan.add(compactPlan.size, item.request, item.isBoarding, item.getArrivalTime(),
+                    item.getWaitingTime());
+        }
+        return compactPlan;
+    }
+
+    /**
+     * @return the plan of the trip plan, or null if it has no flexible plan
+     */
+    public static CompactPlan fromTripPlan(TripPlan tripPlan, Utils utils) {
+        FlexiblePlan plan = tripPlan.getFlexiblePlan(utils);
+        if (plan == null) {
+            return null;
+        }
+        return fromFlexiblePlan(plan);
+    }
+
+    public FlexiblePlan toFlexiblePlan() {
+        FlexiblePlan plan = new FlexiblePlan(utils, vehicle, currentTime, firstNode, lastNode);
+        copyTo(plan);
+        return plan;
+    }
+
+    /**
+     * @return the trip plan for the driver (null, if the plan is empty)
+     */
+    public TripPlan toTripPlan() {
+        return utils.makeTripPlan(toFlexiblePlan());
+    }
+
+    /**
+     * Replaces the times and items of the plan by this plan (the plan gets
+     * new plan items)
+     */
+    public void copyTo(FlexiblePlan plan) {
+        plan.currentTime = currentTime;
+        plan.firstNode = firstNode;
+        plan.lastNode = lastNode;
+        List<PlanItem> planItems = new ArrayList<PlanItem>(size);
+        for (int i = 0; i < size; i++) {
+            planItems.add(new PlanItem(requests[i], boarding[i], arrivals[i], waitings[i]));
+        }
+        plan.planItems = planItems;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Request getRequest(int index) {
+        return requests[index];
+    }
+
+    public boolean isBoarding(int index) {
+        return boarding[index];
+    }
+
+    public long getNode(int index) {
+        return nodes[index];
+    }
+
+    public long getArrivalTime(int index) {
+        return arrivals[index];
+    }
+
+    public long getWaitingTime(int index) {
+        return waitings[index];
+    }
+
+    public long getDepartureTime(int index) {
+        return arrivals[index] + waitings[index];
+    }
+
+    public long getLatestArrivalTime(int index) {
+        return latestTimes[index];
+    }
+
+    /**
+     * @return true, if the first item has to stay first
+     */
+    public boolean isFixedFirst() {
+        return firstNode == -1 && size > 0;
+    }
+
+    /**
+     * @return the departure time from the last node of the plan
+     */
+    public long getEndOfPlanTime() {
+        if (size == 0) {
+            return currentTime;
+        }
+        if (lastNode != -1) {
+            return getDepartureTime(size - 1) + utils.computeDrivingTime(nodes[size - 1], lastNode);
+        }
+        return getDepartureTime(size - 1);
+    }
+
+    /**
+     * Inserts a node of the request into the specified index (other items
+     * will move further)
+     *
+     * @param isBoarding true for the node where the passenger gets in, false
+     *                   for the one where he gets off
+     * @param really     true, if the item should REALLY be inserted into the
+     *                   plan (false means that it just computes the difference
+     *                   it would make)
+     * @return -1, if the item causes itself, or some other item inconsistency
+     *         (the driver would arrive too late for it); if it's okay, it
+     *         returns the departure time at the end of the plan
+     */
+    public long insertItem(int index, Request request, boolean isBoarding, boolean really) {
+        long node = isBoarding ? request.getFromNode() : request.getToNode();
+        long earliestTime = computeEarliestTime(request, isBoarding);
+        long latestTime = computeLatestTime(request, isBoarding);
+
+        long endDepartTime = insertItemBody(index, request, isBoarding, node, earliestTime, latestTime, false);
+        if (really && endDepartTime >= 0) {
+            endDepartTime = insertItemBody(index, request, isBoarding, node, earliestTime, latestTime, true);
+        }
+        return endDepartTime;
+    }
+
+    private long insertItemBody(int index, Request request, boolean isBoarding, long node, long earliestTime,
+                                long latestTime, boolean really) {
+        if (index < 0 || index > size) {
+            return -1;
+        }
+        if (isFixedFirst() && index == 0) {
+            return -1;
+        }
+
+        // compute the arrival time from the previous node
+        long arrival;
+        if (index == 0) {
+            if (firstNode == -1) {
+                arrival = currentTime;
+            } else {
+                arrival = currentTime + utils.computeDrivingTime(firstNode, node);
+            }
+        } else {
+            arrival = getDepartureTime(index - 1) + utils.computeDrivingTime(nodes[index - 1], node);
+        }
+        if (arrival > latestTime) {
+            return -1;
+        }
+        long waiting = computeWaitingTime(earliestTime, arrival);
+        long departTime = arrival + waiting;
+
+        // compute the departure time difference caused in all following nodes
+        long departTimeDiff = -1;
+        if (index < size) {
+            long arrivalTimeDiff = departTime + utils.computeDrivingTime(node, nodes[index]) - arrivals[index];
+            departTimeDiff = really ? addTime(index, arrivalTimeDiff) : computeDepartureDifference(index,
+                    arrivalTimeDiff);
+            for (int i = index + 1; i < size; i++) {
+                // the driver would arrive too late to a node
+                if (departTimeDiff == -1) {
+                    return -1;
+                }
+                departTimeDiff = really ? addTime(i, departTimeDiff) : computeDepartureDifference(i, departTimeDiff);
+            }
+            if (departTimeDiff == -1) {
+                return -1;
+            }
+        }
+
+        // compute the departure time from the last node (the result)
+        long retVal;
+        if (index == size) {
+            retVal = departTime;
+            if (lastNode != -1) {
+                retVal += utils.computeDrivingTime(node, lastNode);
+            }
+        } else {
+            retVal = getDepartureTime(size - 1) + departTimeDiff;
+            if (lastNode != -1) {
+                retVal += utils.computeDrivingTime(nodes[size - 1], lastNode);
+            }
+        }
+
+        if (really) {
+            add(index, request, isBoarding, arrival, waiting);
+        }
+        return retVal;
+    }
+
+    /**
+     * Removes the item from the specified index (the following items will
+     * move back and arrive sooner, if they can)
+     */
+    public void removeItem(int index) {
+        if (index < 0 || index >= size) {
+            return;
+        }
+        remove(index);
+        if (size == index) {
+            return;
+        }
+
+        long departTimeDiff;
+        if (index == 0) {
+            if (firstNode == -1) {
+                departTimeDiff = takeTime(0, arrivals[0] - currentTime);
+            } else {
+                long drivingTime = utils.computeDrivingTime(firstNode, nodes[0]);
+                departTimeDiff = takeTime(0, arrivals[0] - (currentTime + drivingTime));
+            }
+        } else {
+            long drivingTime = utils.computeDrivingTime(nodes[index - 1], nodes[index]);
+            departTimeDiff = takeTime(index, arrivals[index] - (getDepartureTime(index - 1) + drivingTime));
+        }
+
+        // recount arrival times in all following nodes
+        for (int i = index + 1; i < size; i++) {
+            departTimeDiff = takeTime(i, departTimeDiff);
+        }
+    }
+
+    /**
+     * Inserts all items again to refresh their times (items, that wouldn't be
+     * on time anymore, are dropped)
+     */
+    public void refreshTimes() {
+        Request[] oldRequests = Arrays.copyOf(requests, size);
+        boolean[] oldBoarding = Arrays.copyOf(boarding, size);
+        int oldSize = size;
+        while (size > 0) {
+            remove(size - 1);
+        }
+        for (int i = 0; i < oldSize; i++) {
+            insertItem(size, oldRequests[i], oldBoarding[i], true);
+        }
+    }
+
+    /**
+     * Starts recording the changes of the plan, so that they can be undone.
+     * Marks can be nested, every mark has to be either rolled back or
+     * released.
+     *
+     * @return the mark for {@link #rollback(int)} or {@link #release(int)}
+     */
+    public int mark() {
+        openMarks++;
+        return logSize;
+    }
+
+    /**
+     * Undoes all the changes made after the mark (in O(changed items)) and
+     * releases it.
+     */
+    public void rollback(int mark) {
+        if (openMarks == 0 || mark < 0 || mark > logSize) {
+            throw new IllegalStateException("The mark " + mark + " isn't open");
+        }
+        // the removed items fitted into the arrays, so they fit in again
+        while (logSize > mark) {
+            logSize--;
+            int index = logIndexes[logSize];
+            switch (logKinds[logSize]) {
+                case TIMES_CHANGED:
+                    arrivals[index] = logArrivals[logSize];
+                    waitings[index] = logWaitings[logSize];
+                    break;
+                case ITEM_ADDED:
+                    removeFromArrays(index);
+                    break;
+                default:
+                    addToArrays(index, logRequests[logSize], logBoarding[logSize], logArrivals[logSize],
+                            logWaitings[logSize]);
+            }
+            logRequests[logSize] = null;
+        }
+        release(mark);
+    }
+
+    /**
+     * Keeps the changes made after the mark (they can still be undone by an
+     * older mark).
+     */
+    public void release(int mark) {
+        if (openMarks == 0 || mark < 0 || mark > logSize) {
+            throw new IllegalStateException("The mark " + mark + " isn't open");
+        }
+        openMarks--;
+        if (openMarks == 0) {
+            Arrays.fill(logRequests, 0, logSize, null);
+            logSize = 0;
+        }
+    }
+
+    /**
+     * @return the number of changes, that can be undone
+     */
+    public int getLogSize() {
+        return logSize;
+    }
+
+    /**
+     * @param freeSeats free seats at the beginning of the plan
+     * @return true, if the capacity isn't exceeded at any node of the plan
+     */
+    public boolean checkCapacity(int freeSeats) {
+        if (size == 0) {
+            return true;
+        }
+        for (int i = 0; i < size; i++) {
+            freeSeats += boarding[i] ? -1 : 1;
+            if (freeSeats < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Postpones the arrival to the item (see {@link PlanItem#addTime(long)})
+     */
+    private long addTime(int index, long timeToAdd) {
+        long departureDiff = computeDepartureDifference(index, timeToAdd);
+        if (departureDiff >= 0) {
+            setTimes(index, arrivals[index] + timeToAdd, waitings[index] >= timeToAdd ? waitings[index] - timeToAdd
+                    : 0);
+        }
+        return departureDiff;
+    }
+
+    /**
+     * See {@link PlanItem#computeDepartureDifference(long)}
+     */
+    private long computeDepartureDifference(int index, long timeToAdd) {
+        if (arrivals[index] + timeToAdd > latestTimes[index]) {
+            return -1;
+        }
+        if (waitings[index] >= timeToAdd) {
+            return 0;
+        }
+        return timeToAdd - waitings[index];
+    }
+
+    /**
+     * Brings the arrival to the item forward (see
+     * {@link PlanItem#takeTime(long)})
+     */
+    private long takeTime(int index, long timeToTake) {
+        long departTime = getDepartureTime(index);
+        long arrival = arrivals[index] - timeToTake;
+        setTimes(index, arrival, computeWaitingTime(earliestTimes[index], arrival));
+        return departTime - getDepartureTime(index);
+    }
+
+    private void setTimes(int index, long arrival, long waiting) {
+        if (openMarks > 0) {
+            log(TIMES_CHANGED, index, null, false, arrivals[index], waitings[index]);
+        }
+        arrivals[index] = arrival;
+        waitings[index] = waiting;
+    }
+
+    private void add(int index, Request request, boolean isBoarding, long arrival, long waiting) {
+        prepareArrays(size + 1);
+        if (openMarks > 0) {
+            log(ITEM_ADDED, index, null, false, 0, 0);
+        }
+        addToArrays(index, request, isBoarding, arrival, waiting);
+    }
+
+    private void remove(int index) {
+        if (openMarks > 0) {
+            log(ITEM_REMOVED, index, requests[index], boarding[index], arrivals[index], waitings[index]);
+        }
+        removeFromArrays(index);
+    }
+
+    private void log(byte kind, int index, Request request, boolean isBoarding, long arrival, long waiting) {
+        if (logSize == logKinds.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, logSize * 2);
+            logKinds = Arrays.copyOf(logKinds, capacity);
+            logIndexes = Arrays.copyOf(logIndexes, capacity);
+            logArrivals = Arrays.copyOf(logArrivals, capacity);
+            logWaitings = Arrays.copyOf(logWaitings, capacity);
+            logRequests = Arrays.copyOf(logRequests, capacity);
+            logBoarding = Arrays.copyOf(logBoarding, capacity);
+        }
+        logKinds[logSize] = kind;
+        logIndexes[logSize] = index;
+        logRequests[logSize] = request;
+        logBoarding[logSize] = isBoarding;
+        logArrivals[logSize] = arrival;
+        logWaitings[logSize] = waiting;
+        logSize++;
+    }
+
+    /**
+     * Makes the arrays big enough for the new size
+     */
+    private void prepareArrays(int newSize) {
+        if (newSize <= nodes.length) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, nodes.length * 2);
+        requests = Arrays.copyOf(requests, capacity);
+        boarding = Arrays.copyOf(boarding, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+        arrivals = Arrays.copyOf(arrivals, capacity);
+        waitings = Arrays.copyOf(waitings, capacity);
+        earliestTimes = Arrays.copyOf(earliestTimes, capacity);
+        latestTimes = Arrays.copyOf(latestTimes, capacity);
+    }
+
+    private void addToArrays(int index, Request request, boolean isBoarding, long arrival, long waiting) {
+        int moved = size - index;
+        System.arraycopy(requests, index, requests, index + 1, moved);
+        System.arraycopy(boarding, index, boarding, index + 1, moved);
+        System.arraycopy(nodes, index, nodes, index + 1, moved);
+        System.arraycopy(arrivals, index, arrivals, index + 1, moved);
+        System.arraycopy(waitings, index, waitings, index + 1, moved);
+        System.arraycopy(earliestTimes, index, earliestTimes, index + 1, moved);
+        System.arraycopy(latestTimes, index, latestTimes, index + 1, moved);
+
+        requests[index] = request;
+        boarding[index] = isBoarding;
+        nodes[index] = isBoarding ? request.getFromNode() : request.getToNode();
+        arrivals[index] = arrival;
+        waitings[index] = waiting;
+        earliestTimes[index] = computeEarliestTime(request, isBoarding);
+        latestTimes[index] = computeLatestTime(request, isBoarding);
+        size++;
+    }
+
+    private void removeFromArrays(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(requests, index + 1, requests, index, moved);
+        System.arraycopy(boarding, index + 1, boarding, index, moved);
+        System.arraycopy(nodes, index + 1, nodes, index, moved);
+        System.arraycopy(arrivals, index + 1, arrivals, index, moved);
+        System.arraycopy(waitings, index + 1, waitings, index, moved);
+        System.arraycopy(earliestTimes, index + 1, earliestTimes, index, moved);
+        System.arraycopy(latestTimes, index + 1, latestTimes, index, moved);
+        size--;
+        requests[size] = null;
+    }
+
+    private static long computeWaitingTime(long earliestTime, long arrivalTime) {
+        return arrivalTime < earliestTime ? earliestTime - arrivalTime : 0;
+    }
+
+    /**
+     * @return the time the driver waits for on the node (the same bounds as
+     *         {@link PlanItem} uses)
+     */
+    private static long computeEarliestTime(Request request, boolean isBoarding) {
+        TimeWindow timeWindow = request.getTimeWindow();
+        if (timeWindow == null) {
+            return NO_EARLIEST_TIME;
+        }
+        if (isBoarding) {
+            return timeWindow.getEarliestDeparture();
+        }
+        if (!timeWindow.isOneInterval()) {
+            return timeWindow.getEarliestArrival();
+        }
+        return NO_EARLIEST_TIME;
+    }
+
+    private static long computeLatestTime(Request request, boolean isBoarding) {
+        TimeWindow timeWindow = request.getTimeWindow();
+        if (timeWindow == null) {
+            return Long.MAX_VALUE;
+        }
+        if (isBoarding && !timeWindow.isOneInterval()) {
+            return timeWindow.getLatestDeparture();
+        }
+        return timeWindow.getLatestArrival();
+    }
+}
@@ -286,6 +286,17 @@ public class FlexiblePlan implements Cloneable {
         return planClone;
     }
 
+    /**
+     * @return a copy of the plan, that shares the plan items with this plan
+     *         (so it can be used only by code, that replaces the items instead
+     *         of changing them, e.g. {@link CompactPlan#copyTo(FlexiblePlan)})
+     */
+    public FlexiblePlan shareItems() {
+        FlexiblePlan planCopy = new FlexiblePlan(utils, vehicle, currentTime, firstNode, lastNode);
+        planCopy.planItems = new ArrayList<PlanItem>(planItems);
+        return planCopy;
+    }
+
     // /**
     // * Remove both get in and get off nodes, that belong to the request given
     // *
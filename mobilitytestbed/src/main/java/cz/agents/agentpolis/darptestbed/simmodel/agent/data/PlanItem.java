@@ -60,6 +60,16 @@ public class PlanItem implements Cloneable {
         computeWaitingTime();
     }
 
+    /**
+     * Creates the item with the times as they are (used by {@link CompactPlan})
+     */
+    PlanItem(Request request, boolean isBoarding, long arrivalTime, long waitingTime) {
+        this.request = request;
+        this.isBoarding = isBoarding;
+        this.arrivalTime = arrivalTime;
+        this.waitingTime = waitingTime;
+    }
+
     /**
      * Sets the arrival time to this node, counts waiting time
      *
@@ -148,22 +158,46 @@ public class PlanItem implements Cloneable {
      * Counts the waiting time according to the request and arrival time
      */
     private void computeWaitingTime() {
-        this.waitingTime = 0;
+        this.waitingTime = computeWaitingTime(arrivalTime);
+    }
+
+    /**
+     * @param arrivalTime
+     * @return how long the driver would wait on this node, if he arrived at
+     *         the given time
+     */
+    private long computeWaitingTime(long arrivalTime) {
         TimeWindow timeWin = request.getTimeWindow();
         if (timeWin == null) {
-            return;
+            return 0;
         }
         if (isBoarding) {
             long earliestDep = timeWin.getEarliestDeparture();
             if (arrivalTime < earliestDep) {
-                this.waitingTime = earliestDep - arrivalTime;
+                return earliestDep - arrivalTime;
             }
         } else if (!timeWin.isOneInterval()) {
             long earliestArr = timeWin.getEarliestArrival();
             if (arrivalTime < earliestArr) {
-                this.waitingTime = earliestArr - arrivalTime;
+                return earliestArr - arrivalTime;
             }
         }
+        return 0;
+    }
+
+    /**
+     * Computes the departure time for the given arrival time, but doesn't
+     * change this item
+     *
+     * @param arrivalTime
+     * @return -1 if the time causes delay, else it returns the departure time
+     *         (including waiting)
+     */
+    public long computeDepartureTime(long arrivalTime) {
+        if (hasDelay(arrivalTime)) {
+            return -1;
+        }
+        return arrivalTime + computeWaitingTime(arrivalTime);
     }
 
     /**
@@ -175,21 +209,26 @@ public class PlanItem implements Cloneable {
     }
 
     private static boolean hasDelay(Request request, boolean getIn, long arrivalTime) {
+        return arrivalTime > getLatestArrivalTime(request, getIn);
+    }
+
+    /**
+     * @return the latest time the driver can arrive to this node without
+     *         delay (Long.MAX_VALUE, if the request has no time window)
+     */
+    public long getLatestArrivalTime() {
+        return PlanItem.getLatestArrivalTime(request, isBoarding);
+    }
+
+    private static long getLatestArrivalTime(Request request, boolean getIn) {
         TimeWindow timeWin = request.getTimeWindow();
         if (timeWin == null) {
-            return false;
+            return Long.MAX_VALUE;
         }
-        if (getIn) {
-            if ((timeWin.isOneInterval() && arrivalTime > timeWin.getLatestArrival())
-                    || (!timeWin.isOneInterval() && arrivalTime > timeWin.getLatestDeparture())) {
-                return true;
-            }
-        } else {
-            if (arrivalTime > timeWin.getLatestArrival()) {
-                return true;
-            }
+        if (getIn && !timeWin.isOneInterval()) {
+            return timeWin.getLatestDeparture();
         }
-        return false;
+        return timeWin.getLatestArrival();
     }
 
     /**
@@ -204,6 +243,10 @@ public class PlanItem implements Cloneable {
         return arrivalTime;
     }
 
+    public long getWaitingTime() {
+        return waitingTime;
+    }
+
     /**
      * Get the number of node this plan item represents
      *
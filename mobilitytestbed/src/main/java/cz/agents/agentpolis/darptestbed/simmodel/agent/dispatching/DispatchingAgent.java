@@ -7,7 +7,8 @@ import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestc
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.message.ProposalReject;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic.DispatchingLogic;
-import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.TimerCallback;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.Timer;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.WakeableTimerCallback;
 import cz.agents.agentpolis.siminfrastructure.description.DescriptionImpl;
 import cz.agents.agentpolis.simmodel.agent.Agent;
 import cz.agents.agentpolis.simmodel.entity.EntityType;
@@ -19,7 +20,7 @@ import org.apache.log4j.Logger;
  *
  * @author Lukas Canda
  */
-public class DispatchingAgent extends Agent implements TimerCallback, DispatchingMessageProtocolCombinedVisitor {
+public class DispatchingAgent extends Agent implements WakeableTimerCallback, DispatchingMessageProtocolCombinedVisitor {
 
     private static final Logger LOGGER = Logger.getLogger(DispatchingAgent.class);
 
@@ -29,6 +30,8 @@ public class DispatchingAgent extends Agent implements TimerCallback, Dispatchin
      */
     private DispatchingLogic logic;
 
+    private Timer timer;
+
     public DispatchingAgent(String agentId, EntityType agentType, DispatchingLogic logic) {
 
         super(agentId, agentType);
@@ -47,6 +50,25 @@ public class DispatchingAgent extends Agent implements TimerCallback, Dispatchin
         logic.processRequests();
     }
 
+    @Override
+    public boolean hasPendingWork() {
+        return logic.hasPendingWork();
+    }
+
+    @Override
+    public void setTimer(Timer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * A new message may have brought some work for the timer callback
+     */
+    private void wakeUp() {
+        if (timer != null) {
+            timer.wakeUp(this);
+        }
+    }
+
     @Override
     public DescriptionImpl getDescription() {
         return new DescriptionImpl();
@@ -56,6 +78,7 @@ public class DispatchingAgent extends Agent implements TimerCallback, Dispatchin
     public void visit(Request request) {
         //LOGGER.debug(getId() + ":" + request.getClass().getSimpleName());
         logic.processNewRequest(request);
+        wakeUp();
 
     }
 
@@ -63,43 +86,50 @@ public class DispatchingAgent extends Agent implements TimerCallback, Dispatchin
     public void visit(ProposalReject proposalReject) {
         //LOGGER.debug(getId() + ":" + proposalReject.getClass().getSimpleName());
         logic.processRejectedProposal(proposalReject);
+        wakeUp();
     }
 
     @Override
     public void visit(ProposalAccept proposalAccept) {
         //LOGGER.debug(getId() + ":" + proposalAccept.getClass().getSimpleName());
         logic.confirmOrder(proposalAccept);
+        wakeUp();
     }
 
     @Override
     public void visit(DriverReportsPassengerIsInMessage passengerIsInTaxiMessage) {
         LOGGER.debug("---> Dispatching: Passenger entered " + passengerIsInTaxiMessage);
         logic.processPassengerInVehicle(passengerIsInTaxiMessage);
+        wakeUp();
     }
 
     @Override
     public void visit(DriverReportsPassengerHasLeftMessage passengerHasLeftTaxiMessage) {
         LOGGER.debug("---> Dispatching: Passenger left " + passengerHasLeftTaxiMessage);
         logic.processPassengerOffVehicle(passengerHasLeftTaxiMessage);
+        wakeUp();
     }
 
     @Override
     public void visit(DriverReportsLateForPassengerMessage driverReportsLateForPassengerMessage) {
         logic.processDriverArrivedLateForPassengerPickup(driverReportsLateForPassengerMessage);
+        wakeUp();
     }
 
     @Override
     public void visit(DriverNewPlanAcceptMessage driverNewPlanAcceptMessage) {
         logic.processDriverAcceptsNewPlan(driverNewPlanAcceptMessage);
+        wakeUp();
     }
 
     @Override
     public void visit(DriverNewPlanRejectMessage driverNewPlanRejectMessage) {
         logic.processDriverRejectsNewPlan(driverNewPlanRejectMessage);
+        wakeUp();
     }
 
     @Override
-    public void visit(StringMessage stringMessage) {
+    public void visit(StringMessage<?> stringMessage) {
         LOGGER.debug(getId() + ":" + stringMessage.getClass().getSimpleName() + ":" + stringMessage);
         logic.processTextMessage(stringMessage);
     }
@@ -0,0 +1,351 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic;
+
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a batch of requests (collected over a timer interval) to vehicles
+ * jointly, instead of one request after another.
+ * <p/>
+ * First, every request is planned into every candidate vehicle by
+ * {@link Utils#planTrips(List, TestbedVehicle, FlexiblePlan, boolean)} (the
+ * vehicles are planned in parallel). The feasible pairs make the compatibility
+ * graph, every pair is rated by how much longer the vehicle's plan gets.
+ * <p/>
+ * Then the requests are assigned by the regret-k heuristic: the request, that
+ * would lose the most if it didn't get its best vehicle (the sum of the
+ * differences between its best vehicle and the next k - 1 best ones), goes
+ * first. A request with less than k feasible vehicles goes before all
+ * others. After an assignment only the pairs of the changed vehicle are
+ * planned again, so a vehicle may get more requests of the batch (rides are
+ * shared).
+ * <p/>
+ * The time of every solution is measured, so the length of the batch interval
+ * can be weighed against the service quality.
+ */
+public class BatchAssigner {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchAssigner.class);
+
+    private static final long INFEASIBLE = Long.MAX_VALUE;
+
+    private final Utils utils;
+    /**
+     * The number of the best vehicles compared by the regret heuristic
+     */
+    private final int regretK;
+
+    private int numberOfBatches;
+    private long totalSolverTimeInMillis;
+    private long maxSolverTimeInMillis;
+    private Assignment lastAssignment;
+
+    public BatchAssigner(Utils utils) {
+        this(utils, 2);
+    }
+
+    /**
+     * @param regretK the number of the best vehicles compared by the regret
+     *                heuristic (at least 2)
+     */
+    public BatchAssigner(Utils utils, int regretK) {
+        if (regretK < 2) {
+            throw new IllegalArgumentException("The regret has to compare at least 2 vehicles, not " + regretK);
+        }
+        this.utils = utils;
+        this.regretK = regretK;
+    }
+
+    /**
+     * Assigns the requests to the vehicles. The current plans aren't changed.
+     *
+     * @param requests     requests of the batch
+     * @param vehicles     candidate vehicles
+     * @param currentPlans current plans by vehicle ids (vehicles without a plan
+     *                     get a new one), may be null
+     * @return new plans of the vehicles, that got some requests
+     */
+    public Assignment assign(List<Request> requests, List<TestbedVehicle> vehicles,
+                             Map<String, FlexiblePlan> currentPlans) {
+        return assign(requests, vehicles, currentPlans, null);
+    }
+
+    /**
+     * Assigns the requests to the vehicles, some requests may be assigned only
+     * to a given vehicle. The current plans aren't changed.
+     *
+     * @param requests         requests of the batch
+     * @param vehicles         candidate vehicles
+     * @param currentPlans     current plans by vehicle ids (vehicles without a
+     *                         plan get a new one), may be null
+     * @param requiredVehicles vehicle ids by the requests, that mustn't be
+     *                         assigned to another vehicle (they are assigned
+     *                         before the others), may be null
+     * @return new plans of the vehicles, that got some requests
+     */
+    public Assignment assign(List<Request> requests, List<TestbedVehicle> vehicles,
+                             Map<String, FlexiblePlan> currentPlans, Map<Request, String> requiredVehicles) {
+        long start = System.nanoTime();
+
+        Map<String, FlexiblePlan> workingPlans = new HashMap<String, FlexiblePlan>();
+        if (currentPlans != null) {
+            workingPlans.putAll(currentPlans);
+        }
+
+        // the compatibility graph
+        long[][] costs = new long[requests.size()][];
+        FlexiblePlan[][] plans = new FlexiblePlan[requests.size()][];
+        int feasiblePairs = 0;
+        for (int r = 0; r < requests.size(); r++) {
+            costs[r] = new long[vehicles.size()];
+            plans[r] = new FlexiblePlan[vehicles.size()];
+            Arrays.fill(costs[r], INFEASIBLE);
+            // the candidates are vehicles[firstCandidate..]
+            List<TestbedVehicle> candidates = vehicles;
+            int firstCandidate = 0;
+            String requiredVehicle = requiredVehicles == null ? null : requiredVehicles.get(requests.get(r));
+            if (requiredVehicle != null) {
+                firstCandidate = indexOf(vehicles, requiredVehicle);
+                candidates = firstCandidate == -1 ? Collections.<TestbedVehicle>emptyList()
+                        : vehicles.subList(firstCandidate, firstCandidate + 1);
+            }
+            List<FlexiblePlan> found = utils.planTripsInParallel(Collections.singletonList(requests.get(r)),
+                    candidates, workingPlans);
+            for (int c = 0; c < candidates.size(); c++) {
+                if (rate(requests.get(r), candidates.get(c), found.get(c), workingPlans, costs[r], plans[r],
+                        firstCandidate + c)) {
+                    feasiblePairs++;
+                }
+            }
+        }
+
+        Map<String, FlexiblePlan> newPlans = new LinkedHashMap<String, FlexiblePlan>();
+        Map<Request, String> assignedRequests = new LinkedHashMap<Request, String>();
+        boolean[] assigned = new boolean[requests.size()];
+        while (true) {
+            int chosenRequest = -1;
+            int chosenVehicle = -1;
+            long chosenRegret = -1;
+            long chosenCost = INFEASIBLE;
+            boolean chosenRequired = false;
+            for (int r = 0; r < requests.size(); r++) {
+                if (assigned[r]) {
+                    continue;
+                }
+                int best = -1;
+                for (int v = 0; v < vehicles.size(); v++) {
+                    if (costs[r][v] != INFEASIBLE && (best == -1 || costs[r][v] < costs[r][best])) {
+                        best = v;
+                    }
+                }
+                if (best == -1) {
+                    continue;
+                }
+                long regret = computeRegret(costs[r]);
+                // the requests with a required vehicle go first (they have
+                // been promised their vehicle)
+                boolean required = requiredVehicles != null && requiredVehicles.containsKey(requests.get(r));
+                if ((required && !chosenRequired) || (required == chosenRequired && (regret > chosenRegret
+                        || (regret == chosenRegret && costs[r][best] < chosenCost)))) {
+                    chosenRequest = r;
+                    chosenVehicle = best;
+                    chosenRegret = regret;
+                    chosenCost = costs[r][best];
+                    chosenRequired = required;
+                }
+            }
+            if (chosenRequest == -1) {
+                break;
+            }
+
+            TestbedVehicle vehicle = vehicles.get(chosenVehicle);
+            FlexiblePlan plan = plans[chosenRequest][chosenVehicle];
+            assigned[chosenRequest] = true;
+            assignedRequests.put(requests.get(chosenRequest), vehicle.getId());
+            workingPlans.put(vehicle.getId(), plan);
+            newPlans.put(vehicle.getId(), plan);
+
+            // the vehicle's plan has changed, its pairs are rated again
+            List<TestbedVehicle> changedVehicle = Collections.singletonList(vehicle);
+            for (int r = 0; r < requests.size(); r++) {
+                if (assigned[r] || costs[r][chosenVehicle] == INFEASIBLE) {
+                    continue;
+                }
+                FlexiblePlan found = utils.planTripsInParallel(Collections.singletonList(requests.get(r)),
+                        changedVehicle, workingPlans).get(0);
+                rate(requests.get(r), vehicle, found, workingPlans, costs[r], plans[r], chosenVehicle);
+            }
+        }
+
+        List<Request> unassignedRequests = new ArrayList<Request>();
+        for (int r = 0; r < requests.size(); r++) {
+            if (!assigned[r]) {
+                unassignedRequests.add(requests.get(r));
+            }
+        }
+
+        long solverTime = (System.nanoTime() - start) / 1000000;
+        Assignment assignment = new Assignment(newPlans, assignedRequests, unassignedRequests, feasiblePairs,
+                solverTime);
+        recordBatch(assignment);
+        LOGGER.debug("Batch of " + requests.size() + " requests and " + vehicles.size() + " vehicles: "
+                + assignedRequests.size() + " assigned, " + feasiblePairs + " feasible pairs, " + solverTime + " ms");
+        return assignment;
+    }
+
+    private int indexOf(List<TestbedVehicle> vehicles, String vehicleId) {
+        for (int v = 0; v < vehicles.size(); v++) {
+            if (vehicles.get(v).getId().equals(vehicleId)) {
+                return v;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the sum of the differences between the best cost and the next
+     *         k - 1 best costs (INFEASIBLE, if there are less than k feasible
+     *         costs)
+     */
+    private long computeRegret(long[] costs) {
+        long[] bestCosts = new long[regretK];
+        Arrays.fill(bestCosts, INFEASIBLE);
+        for (long cost : costs) {
+            if (cost >= bestCosts[regretK - 1]) {
+                continue;
+            }
+            int h = regretK - 1;
+            while (h > 0 && bestCosts[h - 1] > cost) {
+                bestCosts[h] = bestCosts[h - 1];
+                h--;
+            }
+            bestCosts[h] = cost;
+        }
+        long regret = 0;
+        for (int h = 1; h < regretK; h++) {
+            if (bestCosts[h] == INFEASIBLE) {
+                return INFEASIBLE;
+            }
+            regret += bestCosts[h] - bestCosts[0];
+        }
+        return regret;
+    }
+
+    /**
+     * Rates the pair of a request and a vehicle
+     *
+     * @param found the vehicle's plan with the request planned in
+     * @return true, if the request fits into the plan
+     */
+    private boolean rate(Request request, TestbedVehicle vehicle, FlexiblePlan found,
+                         Map<String, FlexiblePlan> workingPlans, long[] costs, FlexiblePlan[] plans, int v) {
+        FlexiblePlan workingPlan = workingPlans.get(vehicle.getId());
+        // the request has to fit in without pushing out any other one
+        int requestsBefore = workingPlan == null ? 0 : workingPlan.getRequests().size();
+        if (found == null || !found.getRequests().contains(request) || found.getRequests().size() <= requestsBefore) {
+            costs[v] = INFEASIBLE;
+            plans[v] = null;
+            return false;
+        }
+        long endOfPlanTime = workingPlan == null ? found.currentTime : workingPlan.getEndOfPlanTime();
+        costs[v] = Math.max(0, found.getEndOfPlanTime() - endOfPlanTime);
+        plans[v] = found;
+        return true;
+    }
+
+    private synchronized void recordBatch(Assignment assignment) {
+        numberOfBatches++;
+        totalSolverTimeInMillis += assignment.solverTimeInMillis;
+        maxSolverTimeInMillis = Math.max(maxSolverTimeInMillis, assignment.solverTimeInMillis);
+        lastAssignment = assignment;
+    }
+
+    public synchronized int getNumberOfBatches() {
+        return numberOfBatches;
+    }
+
+    /**
+     * @return time spent by all assignments so far (in milliseconds of real
+     *         time)
+     */
+    public synchronized long getTotalSolverTimeInMillis() {
+        return totalSolverTimeInMillis;
+    }
+
+    public synchronized long getMaxSolverTimeInMillis() {
+        return maxSolverTimeInMillis;
+    }
+
+    /**
+     * @return the result of the last batch, null if there was no batch yet
+     */
+    public synchronized Assignment getLastAssignment() {
+        return lastAssignment;
+    }
+
+    /**
+     * The result of one batch
+     */
+    public static class Assignment {
+
+        private final Map<String, FlexiblePlan> plans;
+        private final Map<Request, String> assignedRequests;
+        private final List<Request> unassignedRequests;
+        private final int numberOfFeasiblePairs;
+        private final long solverTimeInMillis;
+
+        Assignment(Map<String, FlexiblePlan> plans, Map<Request, String> assignedRequests,
+                   List<Request> unassignedRequests, int numberOfFeasiblePairs, long solverTimeInMillis) {
+            this.plans = plans;
+            this.assignedRequests = assignedRequests;
+            this.unassignedRequests = unassignedRequests;
+            this.numberOfFeasiblePairs = numberOfFeasiblePairs;
+            this.solverTimeInMillis = solverTimeInMillis;
+        }
+
+        /**
+         * @return new plans by vehicle ids (only the vehicles, that got some
+         *         requests, in the order of their first assignment)
+         */
+        public Map<String, FlexiblePlan> getPlans() {
+            return plans;
+        }
+
+        /**
+         * @return vehicle ids by the assigned requests (in the order of
+         *         assignment)
+         */
+        public Map<Request, String> getAssignedRequests() {
+            return assignedRequests;
+        }
+
+        public List<Request> getUnassignedRequests() {
+            return unassignedRequests;
+        }
+
+        /**
+         * @return the number of edges of the compatibility graph
+         */
+        public int getNumberOfFeasiblePairs() {
+            return numberOfFeasiblePairs;
+        }
+
+        /**
+         * @return real time of the assignment in milliseconds
+         */
+        public long getSolverTimeInMillis() {
+            return solverTimeInMillis;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic;
 
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+import cz.agents.agentpolis.darptestbed.global.PlanImprover;
 import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.global.data.DriverAndDistance;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.dispatching.message.DispatcherSendsOutTaxiMessage;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.dispatching.message.FinalPlanConfirmationMessage;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.dispatching.message.FinalPlanFailureMessage;
@@ -14,9 +17,11 @@ import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestc
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.message.ProposalReject;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedPlanner;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.AgentLogic;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TripInfo;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TripPlan;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
 import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedModel;
 import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedVehicleStorage;
 import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.AllNetworkNodes;
@@ -25,7 +30,11 @@ import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * The basic features of a DispatchingAgent, especially his communication
@@ -56,6 +65,26 @@ public abstract class DispatchingLogic extends AgentLogic<PassengerMessageProtoc
      */
     protected final TestbedVehicleStorage vehicleStorage;
 
+    /**
+     * Assigns batches of queued requests (created when first used)
+     */
+    private BatchAssigner batchAssigner;
+
+    /**
+     * Reoptimizes the plans of all vehicles (created when first used)
+     */
+    private FleetReoptimizer fleetReoptimizer;
+
+    /**
+     * Improves committed plans by local search (created when first used)
+     */
+    private PlanImprover planImprover;
+    /**
+     * The vehicle, whose plan was the last to be improved (the next call goes
+     * on with the following one)
+     */
+    private String lastImprovedVehicleId;
+
     public DispatchingLogic(String agentId, PassengerMessageProtocol sender,
                             DriverCentralizedMessageProtocol driverCentralizedMessageProtocol,
                             GeneralMessageProtocol generalMessageProtocol, TestbedModel taxiModel,
@@ -83,6 +112,17 @@ public abstract class DispatchingLogic extends AgentLogic<PassengerMessageProtoc
      */
     public abstract void processRequests();
 
+    /**
+     * Tells the timer, whether the requests need processing. The dispatcher is
+     * called by its timer only while this method returns true; it is asked
+     * again whenever a new message comes.
+     *
+     * @return true, if {@link #processRequests()} has something to do
+     */
+    public boolean hasPendingWork() {
+        return true;
+    }
+
     public abstract void confirmOrder(ProposalAccept proposalAccept);
 
     public abstract void processRejectedProposal(ProposalReject proposalReject);
@@ -103,7 +143,7 @@ public abstract class DispatchingLogic extends AgentLogic<PassengerMessageProtoc
     protected void sendMessageDispatcherAcceptsRequest(List<Request> passengerRequests, TripInfo confirmation) {
 
         for (Request request : passengerRequests) {
-            sender.sendMessage(request.getPassengerId(),
+            sender.sendMessageBatched(request.getPassengerId(),
                     new Proposal(request, confirmation.getDriverId(), confirmation.getVehicleId()));
         }
 
@@ -118,7 +158,7 @@ public abstract class DispatchingLogic extends AgentLogic<PassengerMessageProtoc
     }
 
     protected void sendRequestReject(String passengersId, Request originalRequest) {
-        sender.sendMessage(passengersId, new RequestReject(originalRequest, "dispatcher"));
+        sender.sendMessageBatched(passengersId, new RequestReject(originalRequest, "dispatcher"));
     }
 
     /**
@@ -133,6 +173,180 @@ public abstract class DispatchingLogic extends AgentLogic<PassengerMessageProtoc
         driverCentralizedMessageProtocol.sendMessage(driverId, dispatcherSendsOutTaxiMessage);
     }
 
+    /**
+     * Driving times of the drivers to the request's pickup node, closest
+     * first. All drivers are measured in a single graph search (if the compact
+     * road network is available).
+     *
+     * @param request               the request to be served
+     * @param driversIds            candidate drivers
+     * @param useEndOfTripPositions true = the drivers' positions at the end of
+     *                              their trips are used
+     * @param maxDrivingTime        drivers further than this (in milliseconds)
+     *                              are left out
+     */
+    protected DriverAndDistance[] getClosestDrivers(Request request, List<String> driversIds,
+                                                    boolean useEndOfTripPositions, long maxDrivingTime) {
+        return utils.getDistMapForPassenger(request.getFromNode(), driversIds, useEndOfTripPositions, maxDrivingTime);
+    }
+
+    /**
+     * Plans the requests for every candidate vehicle (the vehicles are planned
+     * in parallel, each with a copy of its current plan) and returns the plan
+     * of the best vehicle. See {@link Utils#findBestPlan(List, List, Map)}.
+     *
+     * @param requests     requests to be served
+     * @param vehicleIds   candidate vehicles
+     * @param currentPlans current plans by vehicle ids, may be null
+     * @return the new plan of the chosen vehicle (its vehicle is
+     *         FlexiblePlan.vehicle), or null if no vehicle can serve them
+     */
+    protected FlexiblePlan findBestPlan(List<Request> requests, List<String> vehicleIds,
+                                        Map<String, FlexiblePlan> currentPlans) {
+        return utils.findBestPlan(requests, getVehicles(vehicleIds), currentPlans);
+    }
+
+    /**
+     * Assigns all queued requests jointly (see {@link BatchAssigner}), usually
+     * called from {@link #processRequests()}. The assigned requests are
+     * removed from the queue, the others stay there.
+     *
+     * @param vehicleIds   candidate vehicles
+     * @param currentPlans current plans by vehicle ids, may be null
+     * @return new plans of the vehicles, that got some requests (nothing has
+     *         been sent to the drivers or passengers yet)
+     */
+    protected BatchAssigner.Assignment assignQueuedRequests(List<String> vehicleIds,
+                                                            Map<String, FlexiblePlan> currentPlans) {
+        BatchAssigner.Assignment assignment = getBatchAssigner().assign(new ArrayList<Request>(queueOfRequests),
+                getVehicles(vehicleIds), currentPlans);
+        queueOfRequests.removeAll(assignment.getAssignedRequests().keySet());
+        return assignment;
+    }
+
+    /**
+     * @return the batch assigner, which also keeps the solver times of all
+     *         batches
+     */
+    protected BatchAssigner getBatchAssigner() {
+        if (batchAssigner == null) {
+            batchAssigner = new BatchAssigner(utils, GlobalParams.getRegretK());
+        }
+        return batchAssigner;
+    }
+
+    /**
+     * Reoptimizes the plans of the vehicles together with the queued requests
+     * (see {@link FleetReoptimizer}), usually called from
+     * {@link #processRequests()} every few ticks. The assigned requests are
+     * removed from the queue, the others stay there.
+     *
+     * @param vehicleIds          all vehicles of the fleet
+     * @param currentPlans        current plans by vehicle ids, may be null
+     * @param requestsInExecution requests, whose passengers are on board or
+     *                            being picked up (they aren't moved)
+     * @return the changed plans (nothing has been sent to the drivers or
+     *         passengers yet, see {@link #sendPlans(Map)})
+     */
+    protected FleetReoptimizer.Reoptimization reoptimizePlans(List<String> vehicleIds,
+                                                              Map<String, FlexiblePlan> currentPlans,
+                                                              Set<Request> requestsInExecution) {
+        FleetReoptimizer.Reoptimization reoptimization = getFleetReoptimizer().reoptimize(
+                new ArrayList<Request>(queueOfRequests), getVehicles(vehicleIds), currentPlans, requestsInExecution);
+        queueOfRequests.removeAll(reoptimization.getAssignedRequests().keySet());
+        return reoptimization;
+    }
+
+    /**
+     * @return the fleet reoptimizer, which also counts the changed plans
+     */
+    protected FleetReoptimizer getFleetReoptimizer() {
+        if (fleetReoptimizer == null) {
+            fleetReoptimizer = new FleetReoptimizer(utils, GlobalParams.getRegretK(),
+                    GlobalParams.getReoptimizationHorizon() * 60000L);
+        }
+        return fleetReoptimizer;
+    }
+
+    /**
+     * Sends the plans to the drivers of the vehicles (e.g. the changed plans of
+     * a reoptimization, the drivers of other vehicles get no message)
+     *
+     * @param plans plans by vehicle ids
+     */
+    protected void sendPlans(Map<String, FlexiblePlan> plans) {
+        for (Map.Entry<String, FlexiblePlan> entry : plans.entrySet()) {
+            TripPlan tripPlan = utils.makeTripPlan(entry.getValue());
+            if (tripPlan != null) {
+                sendMessageDispatcherSendsOutTaxi(taxiModel.getTaxiDriverId(entry.getKey()), tripPlan);
+            }
+        }
+    }
+
+    /**
+     * Improves the plans by local search (see {@link PlanImprover}) until the
+     * time per tick ({@link GlobalParams#getPlanImprovementTimeInMillis()})
+     * runs out. The plans take turns by the vehicle ids, the next call goes on
+     * where this one stopped.
+     * <p/>
+     * This is a hook for the logics, which keep the plans of their vehicles,
+     * to be called from their {@link #processRequests()} at every tick. This
+     * class doesn't keep any plans, so it doesn't call it itself.
+     *
+     * @param currentPlans current plans by vehicle ids (they aren't changed)
+     * @return improved plans by vehicle ids (nothing has been sent to the
+     *         drivers yet)
+     */
+    protected Map<String, FlexiblePlan> improvePlans(Map<String, FlexiblePlan> currentPlans) {
+        Map<String, FlexiblePlan> improvedPlans = new LinkedHashMap<String, FlexiblePlan>();
+        long timeInMillis = GlobalParams.getPlanImprovementTimeInMillis();
+        if (timeInMillis == 0 || currentPlans.isEmpty()) {
+            return improvedPlans;
+        }
+        long deadline = System.nanoTime() + timeInMillis * 1000000L;
+
+        TreeSet<String> vehicleIds = new TreeSet<String>(currentPlans.keySet());
+        List<String> inTurn = new ArrayList<String>(vehicleIds.size());
+        if (lastImprovedVehicleId != null) {
+            inTurn.addAll(vehicleIds.tailSet(lastImprovedVehicleId, false));
+            inTurn.addAll(vehicleIds.headSet(lastImprovedVehicleId, true));
+        } else {
+            inTurn.addAll(vehicleIds);
+        }
+        for (String vehicleId : inTurn) {
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+            FlexiblePlan plan = currentPlans.get(vehicleId);
+            if (plan != null && plan.getSize() > 1) {
+                FlexiblePlan improved = utils.improvePlan(plan, getPlanImprover(), deadline);
+                if (improved != null) {
+                    improvedPlans.put(vehicleId, improved);
+                }
+            }
+            lastImprovedVehicleId = vehicleId;
+        }
+        return improvedPlans;
+    }
+
+    /**
+     * @return the local search, which also counts the tried and kept moves
+     */
+    protected PlanImprover getPlanImprover() {
+        if (planImprover == null) {
+            planImprover = new PlanImprover(utils);
+        }
+        return planImprover;
+    }
+
+    private List<TestbedVehicle> getVehicles(List<String> vehicleIds) {
+        List<TestbedVehicle> vehicles = new ArrayList<TestbedVehicle>(vehicleIds.size());
+        for (String vehicleId : vehicleIds) {
+            vehicles.add(vehicleStorage.getEntityById(vehicleId));
+        }
+        return vehicles;
+    }
+
     public void sendFinalPlanConfirmation(String driver) {
         List<String> wrapper = new ArrayList<>();
         wrapper.add(driver);
@@ -140,7 +354,7 @@ public abstract class DispatchingLogic extends AgentLogic<PassengerMessageProtoc
     }
 
     public void sendFinalPlanConfirmation(List<String> drivers) {
-        driverCentralizedMessageProtocol.sendMessage(drivers, new FinalPlanConfirmationMessage());
+        driverCentralizedMessageProtocol.sendMessageBatched(drivers, new FinalPlanConfirmationMessage());
     }
 
     public void sendFinalPlanFailure(String driver) {
@@ -151,7 +365,7 @@ public abstract class DispatchingLogic extends AgentLogic<PassengerMessageProtoc
 
 
     public void sendFinalPlanFailure(List<String> drivers) {
-        driverCentralizedMessageProtocol.sendMessage(drivers, new FinalPlanFailureMessage());
+        driverCentralizedMessageProtocol.sendMessageBatched(drivers, new FinalPlanFailureMessage());
     }
 
     public abstract void processPassengerOffVehicle(
@@ -0,0 +1,295 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic;
+
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.CompactPlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reoptimizes the plans of the whole fleet together with the unserved
+ * requests. The insertion algorithm never moves a request, that has been
+ * planned, so the early decisions stay even if the later requests would fit
+ * better.
+ * <p/>
+ * The movable requests (whose passengers aren't on board or being picked up
+ * yet) are taken out of every plan, then they are inserted again together
+ * with the unserved requests by the regret-k heuristic of
+ * {@link BatchAssigner}. A movable request has to get back into its own
+ * vehicle (its passenger has been told which vehicle comes), so the
+ * unserved requests get the room, that the new order of the plans makes.
+ * <p/>
+ * The reoptimization works with a rolling horizon: only the requests, that
+ * begin within the horizon, are moved or assigned.
+ * <p/>
+ * Only the changed plans are returned: a plan changes, if it serves some new
+ * requests or if the new order of its items makes it end sooner. A vehicle,
+ * whose movable requests couldn't be inserted again, keeps its current plan.
+ */
+public class FleetReoptimizer {
+
+    private static final Logger LOGGER = Logger.getLogger(FleetReoptimizer.class);
+
+    private final Utils utils;
+    private final BatchAssigner batchAssigner;
+    /**
+     * Rolling horizon in milliseconds (0 = no horizon)
+     */
+    private final long horizonInMillis;
+
+    private int numberOfReoptimizations;
+    private long numberOfChangedPlans;
+    private long totalSolverTimeInMillis;
+
+    /**
+     * @param regretK         the number of the best vehicles compared by the
+     *                        regret heuristic
+     * @param horizonInMillis only the requests, that begin within this time,
+     *                        are moved or assigned (0 = all)
+     */
+    public FleetReoptimizer(Utils utils, int regretK, long horizonInMillis) {
+        this.utils = utils;
+        this.batchAssigner = new BatchAssigner(utils, regretK);
+        this.horizonInMillis = horizonInMillis;
+    }
+
+    /**
+     * Reoptimizes the plans. The current plans aren't changed.
+     *
+     * @param unservedRequests    requests, that haven't been assigned yet
+     * @param vehicles            all vehicles of the fleet
+     * @param currentPlans        current plans by vehicle ids, may be null
+     * @param requestsInExecution requests, that mustn't be moved (the
+     *                            passengers are on board or being picked up)
+     * @return the changed plans
+     */
+    public Reoptimization reoptimize(List<Request> unservedRequests, List<TestbedVehicle> vehicles,
+                                     Map<String, FlexiblePlan> currentPlans, Set<Request> requestsInExecution) {
+        long start = System.nanoTime();
+        long horizonEnd = horizonInMillis == 0 ? Long.MAX_VALUE : utils.getCurrentTime() + horizonInMillis;
+
+        // the plans without the movable requests
+        Map<String, FlexiblePlan> refreshedPlans = new HashMap<String, FlexiblePlan>();
+        Map<String, FlexiblePlan> fixedPlans = new HashMap<String, FlexiblePlan>();
+        Map<String, List<Request>> movableRequests = new HashMap<String, List<Request>>();
+        Map<Request, String> requiredVehicles = new LinkedHashMap<Request, String>();
+        List<TestbedVehicle> candidates = new ArrayList<TestbedVehicle>();
+        for (TestbedVehicle vehicle : vehicles) {
+            FlexiblePlan currentPlan = currentPlans == null ? null : currentPlans.get(vehicle.getId());
+            if (currentPlan == null) {
+                candidates.add(vehicle);
+                continue;
+            }
+            FlexiblePlan refreshed = utils.refreshPlan(currentPlan);
+            if (refreshed.getSize() != currentPlan.getSize()) {
+                // the plan is late already, it stays as it is
+                continue;
+            }
+            CompactPlan compactPlan = CompactPlan.fromFlexiblePlan(refreshed);
+            List<Request> movable = findMovableRequests(compactPlan, refreshed, requestsInExecution, horizonEnd);
+            for (int i = compactPlan.getSize() - 1; i >= 0; i--) {
+                if (movable.contains(compactPlan.getRequest(i))) {
+                    compactPlan.removeItem(i);
+                }
+            }
+            for (Request request : movable) {
+                requiredVehicles.put(request, vehicle.getId());
+            }
+            refreshedPlans.put(vehicle.getId(), refreshed);
+            fixedPlans.put(vehicle.getId(), compactPlan.toFlexiblePlan());
+            movableRequests.put(vehicle.getId(), movable);
+            candidates.add(vehicle);
+        }
+
+        List<Request> requests = new ArrayList<Request>(requiredVehicles.keySet());
+        for (Request request : unservedRequests) {
+            if (beginsWithin(request, horizonEnd)) {
+                requests.add(request);
+            }
+        }
+        BatchAssigner.Assignment assignment = batchAssigner.assign(requests, candidates, fixedPlans,
+                requiredVehicles);
+
+        Map<String, FlexiblePlan> changedPlans = new LinkedHashMap<String, FlexiblePlan>();
+        Map<Request, String> assignedRequests = new LinkedHashMap<Request, String>();
+        for (TestbedVehicle vehicle : candidates) {
+            FlexiblePlan newPlan = assignment.getPlans().get(vehicle.getId());
+            if (newPlan == null || !allAssigned(movableRequests.get(vehicle.getId()), assignment)) {
+                continue;
+            }
+            List<Request> newRequests = new ArrayList<Request>();
+            for (Map.Entry<Request, String> entry : assignment.getAssignedRequests().entrySet()) {
+                if (entry.getValue().equals(vehicle.getId()) && !requiredVehicles.containsKey(entry.getKey())) {
+                    newRequests.add(entry.getKey());
+                }
+            }
+            FlexiblePlan refreshed = refreshedPlans.get(vehicle.getId());
+            if (refreshed != null && newRequests.isEmpty() && (hasSameOrder(newPlan, refreshed)
+                    || newPlan.getEndOfPlanTime() >= refreshed.getEndOfPlanTime())) {
+                continue;
+            }
+            changedPlans.put(vehicle.getId(), newPlan);
+            for (Request request : newRequests) {
+                assignedRequests.put(request, vehicle.getId());
+            }
+        }
+
+        List<Request> unassignedRequests = new ArrayList<Request>();
+        for (Request request : unservedRequests) {
+            if (!assignedRequests.containsKey(request)) {
+                unassignedRequests.add(request);
+            }
+        }
+
+        long solverTime = (System.nanoTime() - start) / 1000000;
+        Reoptimization reoptimization = new Reoptimization(changedPlans, assignedRequests, unassignedRequests,
+                requiredVehicles.size(), solverTime);
+        recordReoptimization(reoptimization);
+        LOGGER.debug("Reoptimization of " + candidates.size() + " vehicles: " + requiredVehicles.size()
+                + " movable requests, " + assignedRequests.size() + " of " + unservedRequests.size()
+                + " unserved requests assigned, " + changedPlans.size() + " plans changed, " + solverTime + " ms");
+        return reoptimization;
+    }
+
+    /**
+     * @return requests of the plan, that aren't in execution and begin within
+     *         the horizon (the request of the first item stays, if the
+     *         driver is already heading for it)
+     */
+    private List<Request> findMovableRequests(CompactPlan compactPlan, FlexiblePlan plan,
+                                              Set<Request> requestsInExecution, long horizonEnd) {
+        List<Request> movable = new ArrayList<Request>();
+        for (Request request : plan.getRequests()) {
+            if ((requestsInExecution == null || !requestsInExecution.contains(request))
+                    && beginsWithin(request, horizonEnd)) {
+                movable.add(request);
+            }
+        }
+        if (compactPlan.isFixedFirst()) {
+            movable.remove(compactPlan.getRequest(0));
+        }
+        return movable;
+    }
+
+    private boolean beginsWithin(Request request, long horizonEnd) {
+        return request.getTimeWindow() == null || request.getTimeWindow().getEarliestDeparture() <= horizonEnd;
+    }
+
+    private boolean allAssigned(List<Request> requests, BatchAssigner.Assignment assignment) {
+        if (requests == null) {
+            return true;
+        }
+        for (Request request : requests) {
+            if (!assignment.getAssignedRequests().containsKey(request)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true, if the plans visit the same items in the same order
+     */
+    private boolean hasSameOrder(FlexiblePlan plan, FlexiblePlan otherPlan) {
+        if (plan.getSize() != otherPlan.getSize()) {
+            return false;
+        }
+        CompactPlan items = CompactPlan.fromFlexiblePlan(plan);
+        CompactPlan otherItems = CompactPlan.fromFlexiblePlan(otherPlan);
+        for (int i = 0; i < items.getSize(); i++) {
+            if (items.getRequest(i) != otherItems.getRequest(i) || items.isBoarding(i) != otherItems.isBoarding(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized void recordReoptimization(Reoptimization reoptimization) {
+        numberOfReoptimizations++;
+        numberOfChangedPlans += reoptimization.changedPlans.size();
+        totalSolverTimeInMillis += reoptimization.solverTimeInMillis;
+    }
+
+    public synchronized int getNumberOfReoptimizations() {
+        return numberOfReoptimizations;
+    }
+
+    /**
+     * @return the number of plans changed by all reoptimizations so far (the
+     *         number of plans, that had to be sent to the drivers)
+     */
+    public synchronized long getNumberOfChangedPlans() {
+        return numberOfChangedPlans;
+    }
+
+    /**
+     * @return time spent by all reoptimizations so far (in milliseconds of
+     *         real time)
+     */
+    public synchronized long getTotalSolverTimeInMillis() {
+        return totalSolverTimeInMillis;
+    }
+
+    /**
+     * The result of one reoptimization
+     */
+    public static class Reoptimization {
+
+        private final Map<String, FlexiblePlan> changedPlans;
+        private final Map<Request, String> assignedRequests;
+        private final List<Request> unassignedRequests;
+        private final int numberOfMovableRequests;
+        private final long solverTimeInMillis;
+
+        Reoptimization(Map<String, FlexiblePlan> changedPlans, Map<Request, String> assignedRequests,
+                       List<Request> unassignedRequests, int numberOfMovableRequests, long solverTimeInMillis) {
+            this.changedPlans = changedPlans;
+            this.assignedRequests = assignedRequests;
+            this.unassignedRequests = unassignedRequests;
+            this.numberOfMovableRequests = numberOfMovableRequests;
+            this.solverTimeInMillis = solverTimeInMillis;
+        }
+
+        /**
+         * @return new plans by vehicle ids (only the plans, that have
+         *         changed)
+         */
+        public Map<String, FlexiblePlan> getChangedPlans() {
+            return changedPlans;
+        }
+
+        /**
+         * @return vehicle ids by the newly assigned (formerly unserved)
+         *         requests
+         */
+        public Map<Request, String> getAssignedRequests() {
+            return assignedRequests;
+        }
+
+        /**
+         * @return unserved requests, that are still unserved
+         */
+        public List<Request> getUnassignedRequests() {
+            return unassignedRequests;
+        }
+
+        public int getNumberOfMovableRequests() {
+            return numberOfMovableRequests;
+        }
+
+        /**
+         * @return real time of the reoptimization in milliseconds
+         */
+        public long getSolverTimeInMillis() {
+            return solverTimeInMillis;
+        }
+    }
+}
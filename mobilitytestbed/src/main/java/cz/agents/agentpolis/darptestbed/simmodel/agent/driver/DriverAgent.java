@@ -17,7 +17,7 @@ import org.apache.log4j.Logger;
  *
  * @author Lukas Canda
  */
-public abstract class DriverAgent<TDriverLogic extends DriverLogic> extends Agent implements DriverReceiverVisitor {
+public abstract class DriverAgent<TDriverLogic extends DriverLogic<?>> extends Agent implements DriverReceiverVisitor {
 
     private static final Logger LOGGER = Logger.getLogger(DriverAgent.class);
 
@@ -86,7 +86,7 @@ public abstract class DriverAgent<TDriverLogic extends DriverLogic> extends Agen
     }
 
     @Override
-    public void visit(StringMessage message) {
+    public void visit(StringMessage<?> message) {
         LOGGER.debug(getId() + ":" + message.getClass().getSimpleName() + ":" + message);
         logic.processTextMessage(message);
     }
@@ -6,16 +6,19 @@ import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestc
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.receiver.RequestConsumerReceiverVisitor;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.driver.logic.DriverDecentralizedLogic;
-import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.TimerCallback;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.Timer;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.WakeableTimerCallback;
 import cz.agents.agentpolis.simmodel.entity.EntityType;
 import cz.agents.agentpolis.simmodel.environment.model.query.AgentPositionQuery;
 import org.apache.log4j.Logger;
 
-public class DriverDecentralizedAgent extends DriverAgent<DriverDecentralizedLogic> implements TimerCallback,
+public class DriverDecentralizedAgent extends DriverAgent<DriverDecentralizedLogic> implements WakeableTimerCallback,
         RequestConsumerReceiverVisitor {
 
     private static final Logger LOGGER = Logger.getLogger(DriverDecentralizedAgent.class);
 
+    private Timer timer;
+
     public DriverDecentralizedAgent(String agentId, EntityType agentType, DriverDecentralizedLogic logic,
                                     AgentPositionQuery positionQuery) {
         super(agentId, agentType, logic, positionQuery);
@@ -32,17 +35,38 @@ public class DriverDecentralizedAgent extends DriverAgent<DriverDecentralizedLog
         logic.processAcceptancesAndRejections();
     }
 
+    @Override
+    public boolean hasPendingWork() {
+        return logic.hasPendingWork();
+    }
+
+    @Override
+    public void setTimer(Timer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * A new message may have brought some work for the timer callback
+     */
+    private void wakeUp() {
+        if (timer != null) {
+            timer.wakeUp(this);
+        }
+    }
+
     // ---
     @Override
     public void visit(Request request) {
         //LOGGER.debug(getId() + ":" + request.getClass().getSimpleName());
         logic.processNewRequest(request);
+        wakeUp();
 
     }
 
     @Override
     public void visit(ProposalReject proposalReject) {
         //LOGGER.debug(getId() + ":" + proposalReject.getClass().getSimpleName());
+        wakeUp();
 
     }
 
@@ -50,6 +74,7 @@ public class DriverDecentralizedAgent extends DriverAgent<DriverDecentralizedLog
     public void visit(ProposalAccept proposalAccept) {
         LOGGER.debug(getId() + ":" + proposalAccept.getClass().getSimpleName());
         logic.processNewAcceptance(proposalAccept.proposal);
+        wakeUp();
 
     }
 
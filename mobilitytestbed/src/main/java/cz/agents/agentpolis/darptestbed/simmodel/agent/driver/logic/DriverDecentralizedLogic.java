@@ -62,7 +62,7 @@ public abstract class DriverDecentralizedLogic extends DriverLogicWithPassengerM
      * @param proposal proposal to be send (it contains also the id of the passenger)
      */
     protected void sendProposalToPassenger(Proposal proposal) {
-        sender.sendMessage(proposal.getPassengerId(), proposal);
+        sender.sendMessageBatched(proposal.getPassengerId(), proposal);
     }
 
     /**
@@ -71,7 +71,7 @@ public abstract class DriverDecentralizedLogic extends DriverLogicWithPassengerM
      * @param request request to which we are replying
      */
     protected void sendRequestRejectionToPassenger(Request request) {
-        sender.sendMessage(request.getPassengerId(), new RequestReject(request, this.getAgentId()));
+        sender.sendMessageBatched(request.getPassengerId(), new RequestReject(request, this.getAgentId()));
     }
 
     // TAXI_PROPOSES_TO_PASSENGER
@@ -103,6 +103,19 @@ public abstract class DriverDecentralizedLogic extends DriverLogicWithPassengerM
      */
     public abstract void processAcceptancesAndRejections();
 
+    /**
+     * Tells the timer, whether the queues need processing. The agent is called
+     * by its timer only while this method returns true; it is asked again
+     * whenever a new message comes. Logics, that do all the work as messages
+     * come, should return false.
+     *
+     * @return true, if {@link #processRequests()} or
+     *         {@link #processAcceptancesAndRejections()} has something to do
+     */
+    public boolean hasPendingWork() {
+        return true;
+    }
+
     /**
      * Transfers proposals into requests
      *
@@ -145,7 +158,7 @@ public abstract class DriverDecentralizedLogic extends DriverLogicWithPassengerM
     protected void sendTripConfirmationToPassengers(List<Request> requests) {
 
         for (Request req : requests) {
-            sender.sendMessage(req.getPassengerId(), new OrderConfirmation(new TripInfo(getAgentId(), this.getVehicle().getId())));
+            sender.sendMessageBatched(req.getPassengerId(), new OrderConfirmation(new TripInfo(getAgentId(), this.getVehicle().getId())));
         }
 
         // print out
@@ -160,7 +173,7 @@ public abstract class DriverDecentralizedLogic extends DriverLogicWithPassengerM
 
     @Override
     protected void sendTaxiArrivedToPickup(String passengerId) {
-        sender.sendMessage(passengerId, new DriverArrivedMessage(getAgentId(), new TripInfo(getAgentId(), this.getVehicle().getId())));
+        sender.sendMessageBatched(passengerId, new DriverArrivedMessage(getAgentId(), new TripInfo(getAgentId(), this.getVehicle().getId())));
     }
 
     @Override
@@ -23,7 +23,7 @@ import cz.agents.agentpolis.simmodel.entity.EntityType;
  * 
  * @author Lukas Canda
  */
-public abstract class PassengerAgent<TPassengerLogic extends PassengerLogic> extends Agent implements
+public abstract class PassengerAgent<TPassengerLogic extends PassengerLogic<?>> extends Agent implements
 		RequestGeneratorCall, TimeActivityCallback, PassengerReceiverVisitor {
 
 	private static final Logger LOGGER = Logger.getLogger(PassengerAgent.class);
@@ -118,7 +118,7 @@ public abstract class PassengerAgent<TPassengerLogic extends PassengerLogic> ext
 	}
 
     @Override
-    public void visit(StringMessage message) {
+    public void visit(StringMessage<?> message) {
         LOGGER.debug(getId() + ":" + message.getClass().getSimpleName() + ":" + message);
         logic.processTextMessage(message);
     }
@@ -9,14 +9,18 @@ import org.joda.time.Duration;
 import cz.agents.agentpolis.darptestbed.global.Utils;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.data.generator.RequestGenerator;
-import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.TimerCallback;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.passenger.message.Proposal;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.Timer;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.WakeableTimerCallback;
 import cz.agents.agentpolis.simmodel.agent.activity.TimeSpendingActivity;
 import cz.agents.agentpolis.simmodel.entity.EntityType;
 
-public class PassengerDecentralizedAgent extends PassengerAgent<PassengerDecentralizedLogic> implements TimerCallback {
+public class PassengerDecentralizedAgent extends PassengerAgent<PassengerDecentralizedLogic> implements WakeableTimerCallback {
 
 	private static final Logger LOGGER = Logger.getLogger(PassengerDecentralizedAgent.class);
 
+	private Timer timer;
+
 	public PassengerDecentralizedAgent(String agentId, EntityType agentType, PassengerDecentralizedLogic logic, Utils utils,
                                        Duration startLife, TimeSpendingActivity timeSpendingActivity, Set<String> passengerRequirements,
                                        RequestGenerator requestGenerator) {
@@ -35,6 +39,31 @@ public class PassengerDecentralizedAgent extends PassengerAgent<PassengerDecentr
 		logic.processProposals();
 	}
 
+	@Override
+	public boolean hasPendingWork() {
+		return logic.hasPendingWork();
+	}
+
+	@Override
+	public void setTimer(Timer timer) {
+		this.timer = timer;
+	}
+
+	/**
+	 * A new proposal may have to be processed by the timer callback
+	 */
+	@Override
+	public void visit(Proposal proposal) {
+		super.visit(proposal);
+		wakeUp();
+	}
+
+	private void wakeUp() {
+		if (timer != null) {
+			timer.wakeUp(this);
+		}
+	}
+
 	/**
 	 * This method is usually called by a request generator.
 	 */
@@ -42,6 +71,7 @@ public class PassengerDecentralizedAgent extends PassengerAgent<PassengerDecentr
 	public void sendRequest(Request request) {
 		long statrTime = System.currentTimeMillis();
 		logic.sendRequest(request);
+		wakeUp();
 		utils.logAlgRealTime(System.currentTimeMillis() - statrTime);
 //        LOGGER.debug("Passenger sent request: " + request);
 		// TODO: LOG REQEST
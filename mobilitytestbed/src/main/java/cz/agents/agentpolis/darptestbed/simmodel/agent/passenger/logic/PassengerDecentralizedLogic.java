@@ -62,6 +62,17 @@ public abstract class PassengerDecentralizedLogic extends PassengerLogicWithRequ
 	 */
 	public abstract void processProposals();
 
+	/**
+	 * Tells the timer, whether the proposals need processing. The agent is
+	 * called by its timer only while this method returns true; it is asked
+	 * again whenever a new proposal comes.
+	 * 
+	 * @return true, if {@link #processProposals()} has something to do
+	 */
+	public boolean hasPendingWork() {
+		return true;
+	}
+
 	/**
 	 * Sends a message "your proposal has been accepted" as a reply to the best
 	 * proposal
@@ -79,10 +90,7 @@ public abstract class PassengerDecentralizedLogic extends PassengerLogicWithRequ
 	 *            receivers of the rejection
 	 */
 	protected void sendProposalRejected(List<String> taxiDriversIds, Proposal proposal) {
-		for (String taxiDriverId : taxiDriversIds) {
-
-			sender.sendMessage(taxiDriverId, new ProposalReject(proposal));
-		}
+		sender.sendMessageBatched(taxiDriversIds, new ProposalReject(proposal));
 	}
 	
 	/**
@@ -0,0 +1,46 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.timer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects, that the simulation has nothing more to do: the event queue holds
+ * nothing but the next ticks of the timers. Then the simulation can stop, if
+ * no timer has a callback with pending work.
+ */
+public class QuiescenceDetector {
+
+    private final List<Timer> timers = new ArrayList<>();
+
+    public void addTimer(Timer timer) {
+        if (!timers.contains(timer)) {
+            timers.add(timer);
+        }
+    }
+
+    /**
+     * @param eventQueueLength the number of events waiting for processing
+     * @return true, if there is no other event than the ticks of the timers
+     */
+    public boolean isEventQueueIdle(int eventQueueLength) {
+        int tickingTimers = 0;
+        for (Timer timer : timers) {
+            if (timer.isTicking()) {
+                tickingTimers++;
+            }
+        }
+        return eventQueueLength <= tickingTimers;
+    }
+
+    /**
+     * @return true, if some timer still has a callback to call
+     */
+    public boolean hasPendingWork() {
+        for (Timer timer : timers) {
+            if (timer.hasPendingWork()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
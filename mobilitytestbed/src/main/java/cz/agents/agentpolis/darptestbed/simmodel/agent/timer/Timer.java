@@ -1,7 +1,9 @@
 package cz.agents.agentpolis.darptestbed.simmodel.agent.timer;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.joda.time.Duration;
@@ -17,6 +19,12 @@ import cz.agents.alite.common.event.EventProcessorEventType;
  * The timer has a list of callbacks (e.g. agents) and an interval. Every time
  * the interval elapses, the timer calls all the callbacks in its list. (It
  * doesn't work with real time, but simulation time instead).
+ * <p/>
+ * Callbacks implementing {@link WakeableTimerCallback} are called only while
+ * they have some pending work - they are woken up by
+ * {@link #wakeUp(WakeableTimerCallback)} and they fall asleep as soon as their
+ * work is done. A timer without any callback to call doesn't schedule its
+ * ticks, until a callback is woken up again.
  * 
  * @author Lukas Canda
  */
@@ -35,9 +43,15 @@ public class Timer {
 	 */
 	protected List<TimerCallback> callbacks;
 	/**
-	 * The total number of timers running in the simulation.
+	 * Wakeable callbacks, that have some pending work (in the order of waking
+	 * up)
 	 */
-	protected int numberOfTimers;
+	protected final Set<WakeableTimerCallback> wokenCallbacks;
+	/**
+	 * Detects, that the simulation has nothing more to do (shared by all
+	 * timers of the simulation)
+	 */
+	private QuiescenceDetector quiescenceDetector;
 	/**
 	 * Core processor for processing all simulation events.
 	 */
@@ -46,6 +60,10 @@ public class Timer {
 	 * An event for the event processor.
 	 */
 	private EventHandler eventHandler;
+	/**
+	 * True, if the next tick of the timer is scheduled
+	 */
+	private boolean ticking;
 	/**
 	 * A storage to save all data concerning taxi drivers and passengers
 	 */
@@ -56,10 +74,11 @@ public class Timer {
 	 */
 	private final Utils utils;
 	/**
-	 * How many empty calls should the timer do before stopping the simulation.
-	 * If this number is too low, then the simulation can stop in the middle,
-	 * because nothing much is happening. If it is too big, the simulation can
-	 * wait a lot of time after finishing.
+	 * How many empty calls should the timer do before stopping the simulation,
+	 * while some callbacks still claim to have work. If this number is too
+	 * low, then the simulation can stop in the middle, because nothing much
+	 * is happening. If it is too big, the simulation can wait a lot of time
+	 * after finishing.
 	 */
 	private final int NUMBER_OF_EMPTY_CALLS = 20;
 	/**
@@ -68,26 +87,53 @@ public class Timer {
 	 */
 	private int stopIn = NUMBER_OF_EMPTY_CALLS;
 
-	public Timer(String timerId, EventProcessor eventProcessor, TestbedModel taxiModel, Utils utils,
-			int numberOfTimers, long interval) {
+	public Timer(String timerId, EventProcessor eventProcessor, TestbedModel taxiModel, Utils utils, long interval) {
 
 		if (interval <= 0) {
 			throw new RuntimeException("It is not possible to set up interval less or equal zero");
 		}
 		callbacks = new ArrayList<TimerCallback>();
+		wokenCallbacks = new LinkedHashSet<WakeableTimerCallback>();
 
 		this.id = timerId;
 		this.eventProcessor = eventProcessor;
 		this.taxiModel = taxiModel;
 		this.utils = utils;
 		this.interval = interval;
-		this.numberOfTimers = numberOfTimers;
+		this.quiescenceDetector = new QuiescenceDetector();
+		this.quiescenceDetector.addTimer(this);
+	}
+
+	public Timer(String timerId, EventProcessor eventProcessor, TestbedModel taxiModel, Utils utils,
+			Duration interval) {
+
+		this(timerId, eventProcessor, taxiModel, utils, interval.getMillis());
 	}
 
+	/**
+	 * @deprecated the timers don't need their number any more, the end of
+	 *             the simulation is detected by a {@link QuiescenceDetector}
+	 *             - use
+	 *             {@link #Timer(String, EventProcessor, TestbedModel, Utils, long)}
+	 */
+	@Deprecated
+	public Timer(String timerId, EventProcessor eventProcessor, TestbedModel taxiModel, Utils utils,
+			int numberOfTimers, long interval) {
+
+		this(timerId, eventProcessor, taxiModel, utils, interval);
+	}
+
+	/**
+	 * @deprecated the timers don't need their number any more, the end of
+	 *             the simulation is detected by a {@link QuiescenceDetector}
+	 *             - use
+	 *             {@link #Timer(String, EventProcessor, TestbedModel, Utils, Duration)}
+	 */
+	@Deprecated
 	public Timer(String timerId, EventProcessor eventProcessor, TestbedModel taxiModel, Utils utils,
 			int numberOfTimers, Duration interval) {
 
-		this(timerId, eventProcessor, taxiModel, utils, numberOfTimers, interval.getMillis());
+		this(timerId, eventProcessor, taxiModel, utils, interval.getMillis());
 	}
 
 	/**
@@ -104,28 +150,7 @@ public class Timer {
 			@Override
 			public void handleEvent(Event event) {
 				long startTime = System.currentTimeMillis();
-				// the simulation is terminated when it doesn't contain any
-				// events except timers
-				if (eventProcessor.getCurrentTime() > interval
-						&& eventProcessor.getCurrentQueueLength() <= numberOfTimers) {
-
-					if (stopIn <= 0) {
-						eventProcessor.addEvent(EventProcessorEventType.STOP, null, null, null);
-					} else {
-						stopIn--;
-					}
-				} else {
-					stopIn = NUMBER_OF_EMPTY_CALLS;
-				}
-				eventProcessor.addEvent(eventHandler, interval);
-				//LOGGER.debug("timer " + id + " callbacks");
-
-				// // refresh map of distances to keep it updated
-				// utils.refreshPassenAndDistMap();
-				// callbacks
-				for (TimerCallback call : callbacks) {
-					call.timerCallback();
-				}
+				tick();
 				utils.logAlgRealTime(System.currentTimeMillis() - startTime);
 			}
 
@@ -135,11 +160,109 @@ public class Timer {
 			}
 		};
 
+		ticking = true;
 		eventProcessor.addEvent(eventHandler, interval);
 	}
 
+	/**
+	 * Calls the callbacks, schedules the next tick (if there is anything to
+	 * call) and stops the simulation, when it has nothing more to do.
+	 */
+	private void tick() {
+		for (TimerCallback call : callbacks) {
+			call.timerCallback();
+		}
+		if (!wokenCallbacks.isEmpty()) {
+			// callbacks may wake up others (or themselves) meanwhile
+			List<WakeableTimerCallback> woken = new ArrayList<WakeableTimerCallback>(wokenCallbacks);
+			for (WakeableTimerCallback call : woken) {
+				if (call.hasPendingWork()) {
+					call.timerCallback();
+				}
+				if (!call.hasPendingWork()) {
+					wokenCallbacks.remove(call);
+				}
+			}
+		}
+
+		ticking = hasPendingWork();
+		if (ticking) {
+			eventProcessor.addEvent(eventHandler, interval);
+		}
+		stopIfQuiescent();
+	}
+
+	/**
+	 * The simulation is terminated when it doesn't contain any events except
+	 * timers. It stops at once, if no callback has any pending work, otherwise
+	 * after some empty calls in a row.
+	 */
+	private void stopIfQuiescent() {
+		if (eventProcessor.getCurrentTime() <= interval
+				|| !quiescenceDetector.isEventQueueIdle(eventProcessor.getCurrentQueueLength())) {
+			stopIn = NUMBER_OF_EMPTY_CALLS;
+			return;
+		}
+		if (!quiescenceDetector.hasPendingWork() || stopIn <= 0) {
+			LOGGER.debug("timer " + id + " stops the simulation");
+			eventProcessor.addEvent(EventProcessorEventType.STOP, null, null, null);
+		} else {
+			stopIn--;
+		}
+	}
+
+	/**
+	 * Adds a callback. A wakeable callback is called only after it has been
+	 * woken up, others are called at every tick.
+	 */
 	public void addCallback(TimerCallback callback) {
-		this.callbacks.add(callback);
+		if (callback instanceof WakeableTimerCallback) {
+			WakeableTimerCallback wakeable = (WakeableTimerCallback) callback;
+			wakeable.setTimer(this);
+			wakeUp(wakeable);
+		} else {
+			this.callbacks.add(callback);
+		}
+	}
+
+	/**
+	 * Lets the callback be called at the next ticks, until it has no pending
+	 * work. If the timer sleeps, its next tick is scheduled (at the next
+	 * multiple of the interval).
+	 */
+	public void wakeUp(WakeableTimerCallback callback) {
+		if (!callback.hasPendingWork()) {
+			return;
+		}
+		wokenCallbacks.add(callback);
+		if (!ticking && eventHandler != null) {
+			ticking = true;
+			long currentTime = eventProcessor.getCurrentTime();
+			eventProcessor.addEvent(eventHandler, interval - currentTime % interval);
+		}
+	}
+
+	/**
+	 * @return true, if the next tick of the timer is scheduled
+	 */
+	public boolean isTicking() {
+		return ticking;
+	}
+
+	/**
+	 * @return true, if the timer has a callback to call (callbacks, that
+	 *         aren't wakeable, are supposed to have work always)
+	 */
+	public boolean hasPendingWork() {
+		return !callbacks.isEmpty() || !wokenCallbacks.isEmpty();
+	}
+
+	public int getNumberOfWokenCallbacks() {
+		return wokenCallbacks.size();
+	}
+
+	public void setQuiescenceDetector(QuiescenceDetector quiescenceDetector) {
+		this.quiescenceDetector = quiescenceDetector;
 	}
 
 	public String getId() {
@@ -0,0 +1,19 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.timer;
+
+/**
+ * A timer callback, that is called only while it has some pending work. When
+ * new work comes (e.g. a message), the callback wakes itself up by
+ * {@link Timer#wakeUp(WakeableTimerCallback)}.
+ */
+public interface WakeableTimerCallback extends TimerCallback {
+
+    /**
+     * @return true, if the callback should be called at the next tick
+     */
+    public boolean hasPendingWork();
+
+    /**
+     * Called when the callback is added to the timer
+     */
+    public void setTimer(Timer timer);
+}
@@ -0,0 +1,217 @@
+package cz.agents.agentpolis.darptestbed.simmodel.environment.model;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Taxis of the fleet, their drivers and whether they're free or busy.
+ * <p/>
+ * Drivers are mapped to their vehicles (and back) by hash maps, free and busy
+ * vehicles are kept in linked hash sets, so every lookup and every state
+ * change takes constant time. The sets keep the order in which the vehicles
+ * became free/busy (the same order the former lists had).
+ * <p/>
+ * The list views are read-only and follow the registry. They iterate the sets
+ * directly, nothing is copied when the state changes. Their iterators fail
+ * fast, if the registry changes during the iteration. Access by index walks
+ * the set, so it takes time linear in the index.
+ */
+public class FleetRegistry {
+
+    private final Map<String, String> driverIdsByVehicle = new HashMap<>();
+    private final Map<String, String> vehicleIdsByDriver = new HashMap<>();
+    private final LinkedHashSet<String> freeVehicles = new LinkedHashSet<>();
+    private final LinkedHashSet<String> busyVehicles = new LinkedHashSet<>();
+    /**
+     * Incremented by every change of the free or busy vehicles
+     */
+    private int version;
+
+    private final StateView freeVehicleView = new StateView(freeVehicles, false);
+    private final StateView freeDriverView = new StateView(freeVehicles, true);
+    private final StateView busyVehicleView = new StateView(busyVehicles, false);
+    private final StateView busyDriverView = new StateView(busyVehicles, true);
+
+    /**
+     * Registers the vehicle with its driver as free (if it was busy before, it
+     * becomes free)
+     */
+    public void addFreeVehicle(String vehicleId, String driverId) {
+        String oldDriverId = driverIdsByVehicle.put(vehicleId, driverId);
+        if (oldDriverId != null && !oldDriverId.equals(driverId)) {
+            vehicleIdsByDriver.remove(oldDriverId);
+        }
+        vehicleIdsByDriver.put(driverId, vehicleId);
+        busyVehicles.remove(vehicleId);
+        freeVehicles.add(vehicleId);
+        version++;
+    }
+
+    /**
+     * Moves the vehicle (and its driver) from the free ones to the busy ones
+     *
+     * @return false, if the vehicle isn't free
+     */
+    public boolean setBusy(String vehicleId) {
+        if (!freeVehicles.remove(vehicleId)) {
+            return false;
+        }
+        busyVehicles.add(vehicleId);
+        version++;
+        return true;
+    }
+
+    /**
+     * Moves the vehicle (and its driver) from the busy ones to the free ones
+     *
+     * @return false, if the vehicle isn't busy
+     */
+    public boolean setFree(String vehicleId) {
+        if (!busyVehicles.remove(vehicleId)) {
+            return false;
+        }
+        freeVehicles.add(vehicleId);
+        version++;
+        return true;
+    }
+
+    public boolean isVehicleFree(String vehicleId) {
+        return freeVehicles.contains(vehicleId);
+    }
+
+    public boolean isDriverFree(String driverId) {
+        String vehicleId = vehicleIdsByDriver.get(driverId);
+        return vehicleId != null && freeVehicles.contains(vehicleId);
+    }
+
+    /**
+     * @return id of the vehicle driven by the driver, or null if there's no
+     *         such driver
+     */
+    public String getVehicleId(String driverId) {
+        return vehicleIdsByDriver.get(driverId);
+    }
+
+    /**
+     * @return id of the driver of the vehicle, or null if there's no such
+     *         vehicle
+     */
+    public String getDriverId(String vehicleId) {
+        return driverIdsByVehicle.get(vehicleId);
+    }
+
+    /**
+     * @return read-only set of the free vehicles (in the order they became
+     *         free)
+     */
+    public Set<String> getFreeVehicles() {
+        return Collections.unmodifiableSet(freeVehicles);
+    }
+
+    public int getNumberOfFreeVehicles() {
+        return freeVehicles.size();
+    }
+
+    public int getNumberOfVehicles() {
+        return freeVehicles.size() + busyVehicles.size();
+    }
+
+    public List<String> getFreeVehicleList() {
+        return freeVehicleView;
+    }
+
+    /**
+     * @return drivers of the free vehicles (in the same order as
+     *         {@link #getFreeVehicleList()})
+     */
+    public List<String> getFreeDriverList() {
+        return freeDriverView;
+    }
+
+    public List<String> getBusyVehicleList() {
+        return busyVehicleView;
+    }
+
+    /**
+     * @return drivers of the busy vehicles (in the same order as
+     *         {@link #getBusyVehicleList()})
+     */
+    public List<String> getBusyDriverList() {
+        return busyDriverView;
+    }
+
+    /**
+     * A read-only list of free or busy vehicles (or their drivers)
+     */
+    private class StateView extends AbstractList<String> {
+
+        private final Set<String> vehicles;
+        private final boolean drivers;
+
+        StateView(Set<String> vehicles, boolean drivers) {
+            this.vehicles = vehicles;
+            this.drivers = drivers;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= vehicles.size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + vehicles.size());
+            }
+            Iterator<String> items = iterator();
+            for (int i = 0; i < index; i++) {
+                items.next();
+            }
+            return items.next();
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+
+                private final Iterator<String> vehicleIds = vehicles.iterator();
+                private final int expectedVersion = version;
+
+                @Override
+                public boolean hasNext() {
+                    return vehicleIds.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    if (version != expectedVersion) {
+                        throw new ConcurrentModificationException();
+                    }
+                    String vehicleId = vehicleIds.next();
+                    return drivers ? driverIdsByVehicle.get(vehicleId) : vehicleId;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return vehicles.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (drivers) {
+                String vehicleId = vehicleIdsByDriver.get(o);
+                return vehicleId != null && vehicles.contains(vehicleId);
+            }
+            return vehicles.contains(o);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package cz.agents.agentpolis.darptestbed.simmodel.environment.model;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+import cz.agents.agentpolis.simmodel.environment.model.sensor.PositionUpdated;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A spatial index of free taxi drivers, which finds the candidates near a node
+ * without going through the whole fleet.
+ * <p/>
+ * Drivers are kept in a uniform grid over the projected node coordinates.
+ * {@link TestbedModel} puts a driver in when the taxi becomes free and takes
+ * it out when it becomes busy; positions of the indexed drivers are updated
+ * by the position sensing (the index is registered as a sensor of every
+ * driver).
+ * <p/>
+ * Distances are straight line distances, so they never exceed the driving
+ * distances - a radius query bounded by the longest distance a taxi may drive
+ * loses no candidate. Found drivers are sorted from the nearest one.
+ */
+public class FreeTaxiIndex implements PositionUpdated {
+
+    public static final double DEFAULT_CELL_SIZE = 500;
+
+    private final NodeExtendedFunction nodeFunction;
+    private final double cellSize;
+
+    /**
+     * Drivers in every occupied cell (by the packed cell coordinates)
+     */
+    private final Map<Long, Set<String>> cells = new HashMap<>();
+    private final Map<String, Position> positions = new HashMap<>();
+
+    /**
+     * Bounds of all cells ever occupied (searches never go beyond them)
+     */
+    private int minCellX = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    public FreeTaxiIndex(NodeExtendedFunction nodeFunction) {
+        this(nodeFunction, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param nodeFunction gives projected coordinates of the nodes
+     * @param cellSize     size of the grid cells in meters
+     */
+    public FreeTaxiIndex(NodeExtendedFunction nodeFunction, double cellSize) {
+        this.nodeFunction = nodeFunction;
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Puts the driver into the index, or moves it (a driver on an unknown node
+     * is removed)
+     */
+    public void put(String driverId, long nodeId) {
+        Coordinate coordinate = nodeFunction.getNodeCoordinate(nodeId);
+        if (coordinate == null) {
+            remove(driverId);
+            return;
+        }
+        Position position = new Position(coordinate.x, coordinate.y, toCell(coordinate.x), toCell(coordinate.y));
+        Position old = positions.put(driverId, position);
+        if (old != null) {
+            if (old.cellX == position.cellX && old.cellY == position.cellY) {
+                return;
+            }
+            removeFromCell(driverId, old);
+        }
+
+        long key = toKey(position.cellX, position.cellY);
+        Set<String> cell = cells.get(key);
+        if (cell == null) {
+            cell = new LinkedHashSet<>();
+            cells.put(key, cell);
+        }
+        cell.add(driverId);
+
+        minCellX = Math.min(minCellX, position.cellX);
+        maxCellX = Math.max(maxCellX, position.cellX);
+        minCellY = Math.min(minCellY, position.cellY);
+        maxCellY = Math.max(maxCellY, position.cellY);
+    }
+
+    public void remove(String driverId) {
+        Position old = positions.remove(driverId);
+        if (old != null) {
+            removeFromCell(driverId, old);
+        }
+    }
+
+    public boolean contains(String driverId) {
+        return positions.containsKey(driverId);
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * Moves an indexed driver to its new position (drivers, that aren't in the
+     * index, are ignored)
+     */
+    @Override
+    public void newEntityPosition(String entityId, long nodeId) {
+        if (positions.containsKey(entityId)) {
+            put(entityId, nodeId);
+        }
+    }
+
+    /**
+     * @return at most k drivers nearest to the node (the nearest first)
+     */
+    public List<String> findNearest(long nodeId, int k) {
+        Coordinate coordinate = nodeFunction.getNodeCoordinate(nodeId);
+        if (coordinate == null || k <= 0 || positions.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int cellX = toCell(coordinate.x);
+        int cellY = toCell(coordinate.y);
+        int maxRing = Math.max(Math.max(cellX - minCellX, maxCellX - cellX),
+                Math.max(cellY - minCellY, maxCellY - cellY));
+
+        List<Candidate> found = new ArrayList<>();
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // every driver in this ring (or further) is farther than (ring - 1) cells
+            if (found.size() >= k) {
+                Collections.sort(found);
+                if (found.get(k - 1).distance <= (ring - 1) * cellSize) {
+                    break;
+                }
+            }
+            for (int x = cellX - ring; x <= cellX + ring; x++) {
+                if (x == cellX - ring || x == cellX + ring) {
+                    for (int y = cellY - ring; y <= cellY + ring; y++) {
+                        collect(x, y, coordinate, Double.POSITIVE_INFINITY, found);
+                    }
+                } else {
+                    collect(x, cellY - ring, coordinate, Double.POSITIVE_INFINITY, found);
+                    collect(x, cellY + ring, coordinate, Double.POSITIVE_INFINITY, found);
+                }
+            }
+        }
+        Collections.sort(found);
+        return toDriverIds(found.subList(0, Math.min(k, found.size())));
+    }
+
+    /**
+     * @param radius the maximum distance in meters
+     * @return all drivers within the radius from the node (the nearest first)
+     */
+    public List<String> findWithinRadius(long nodeId, double radius) {
+        Coordinate coordinate = nodeFunction.getNodeCoordinate(nodeId);
+        if (coordinate == null || radius < 0 || positions.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int fromX = Math.max(minCellX, toCell(coordinate.x - radius));
+        int toX = Math.min(maxCellX, toCell(coordinate.x + radius));
+        int fromY = Math.max(minCellY, toCell(coordinate.y - radius));
+        int toY = Math.min(maxCellY, toCell(coordinate.y + radius));
+
+        List<Candidate> found = new ArrayList<>();
+        for (int x = fromX; x <= toX; x++) {
+            for (int y = fromY; y <= toY; y++) {
+                collect(x, y, coordinate, radius, found);
+            }
+        }
+        Collections.sort(found);
+        return toDriverIds(found);
+    }
+
+    private void collect(int cellX, int cellY, Coordinate coordinate, double radius, List<Candidate> found) {
+        Set<String> cell = cells.get(toKey(cellX, cellY));
+        if (cell == null) {
+            return;
+        }
+        for (String driverId : cell) {
+            Position position = positions.get(driverId);
+            double dx = position.x - coordinate.x;
+            double dy = position.y - coordinate.y;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance <= radius) {
+                found.add(new Candidate(driverId, distance));
+            }
+        }
+    }
+
+    private void removeFromCell(String driverId, Position position) {
+        long key = toKey(position.cellX, position.cellY);
+        Set<String> cell = cells.get(key);
+        cell.remove(driverId);
+        if (cell.isEmpty()) {
+            cells.remove(key);
+        }
+    }
+
+    private int toCell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long toKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private static List<String> toDriverIds(List<Candidate> candidates) {
+        List<String> driverIds = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            driverIds.add(candidate.driverId);
+        }
+        return driverIds;
+    }
+
+    private static class Position {
+
+        final double x;
+        final double y;
+        final int cellX;
+        final int cellY;
+
+        Position(double x, double y, int cellX, int cellY) {
+            this.x = x;
+            this.y = y;
+            this.cellX = cellX;
+            this.cellY = cellY;
+        }
+    }
+
+    /**
+     * A found driver, ordered by the distance (and the id, so the order is
+     * always the same)
+     */
+    private static class Candidate implements Comparable<Candidate> {
+
+        final String driverId;
+        final double distance;
+
+        Candidate(String driverId, double distance) {
+            this.driverId = driverId;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int byDistance = Double.compare(distance, other.distance);
+            return byDistance != 0 ? byDistance : driverId.compareTo(other.driverId);
+        }
+    }
+}
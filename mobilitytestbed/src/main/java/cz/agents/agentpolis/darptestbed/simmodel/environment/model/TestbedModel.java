@@ -2,6 +2,7 @@ package cz.agents.agentpolis.darptestbed.simmodel.environment.model;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.QuiescenceDetector;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.Timer;
 import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
 import cz.agents.agentpolis.simmodel.agent.Agent;
@@ -49,18 +50,17 @@ public class TestbedModel {
     private Timer taxiDriversTimer;
     private Timer passengersTimer;
 
-    // TODO: Refactor to set
     /**
-     * Following properties saves the current state of the environment:
-     * taxisFree - a list of ids of taxis, which have currently no task assigned
-     * taxiDriversFree - a list of ids of free taxis' drivers (the same order as
-     * previous list) taxisAtWork - a list of ids of taxis, which have been
-     * assigned a task passengers - a list of ids of all passengers
+     * Taxis, their drivers and whether they currently have a task assigned
+     */
+    private final FleetRegistry fleet;
+    /**
+     * Free taxi drivers by their positions (null, if not used)
+     */
+    private FreeTaxiIndex freeTaxiIndex;
+    /**
+     * A list of ids of all passengers
      */
-    private List<String> taxisFree;
-    private List<String> taxiDriversFree;
-    private List<String> taxisBusy;
-    private List<String> taxiDriversBusy;
     private List<String> passengers;
     /**
      * Map of taxi ids along with their current passengers on board
@@ -78,10 +78,7 @@ public class TestbedModel {
         this.positionQuery = positionQuery;
         this.vehicleStorage = vehicleStorage;
 
-        this.taxisFree = new ArrayList<String>();
-        this.taxiDriversFree = new ArrayList<String>();
-        this.taxisBusy = new ArrayList<String>();
-        this.taxiDriversBusy = new ArrayList<String>();
+        this.fleet = new FleetRegistry();
         this.passengers = new ArrayList<String>();
         this.taxiWithPassengersOnBoard = new HashMap<String, List<String>>();
         this.taxiWithEndOfTripPositions = new HashMap<String, Long>();
@@ -96,6 +93,15 @@ public class TestbedModel {
         this.dispatchingTimer = dispatchingTimer;
         this.taxiDriversTimer = taxiDriversTimer;
         this.passengersTimer = passengersTimer;
+
+        // the simulation is quiescent only when all timers are
+        QuiescenceDetector quiescenceDetector = new QuiescenceDetector();
+        for (Timer timer : Arrays.asList(dispatchingTimer, taxiDriversTimer, passengersTimer)) {
+            if (timer != null) {
+                quiescenceDetector.addTimer(timer);
+                timer.setQuiescenceDetector(quiescenceDetector);
+            }
+        }
     }
 
     /**
@@ -124,11 +130,9 @@ public class TestbedModel {
      * @param taxiDriverId
      */
     public void addFreeTaxi(String vehicleId, String taxiDriverId) {
-        this.taxisFree.add(vehicleId);
-        this.taxiDriversFree.add(taxiDriverId);
-        // in the case it was busy before
-        this.taxisBusy.remove(vehicleId);
-        this.taxiDriversBusy.remove(vehicleId);
+        // in the case it was busy before, it's moved
+        this.fleet.addFreeVehicle(vehicleId, taxiDriverId);
+        indexFreeTaxiDriver(taxiDriverId);
     }
 
     /**
@@ -140,20 +144,98 @@ public class TestbedModel {
         this.passengers.add(passengerId);
     }
 
+    /**
+     * @return read-only view of the free taxis (it follows the changes)
+     */
     public List<String> getTaxisFree() {
-        return taxisFree;
+        return fleet.getFreeVehicleList();
     }
 
+    /**
+     * @return read-only view of the free taxis' drivers (the same order as
+     *         {@link #getTaxisFree()})
+     */
     public List<String> getTaxiDriversFree() {
-        return taxiDriversFree;
+        return fleet.getFreeDriverList();
     }
 
     public List<String> getAllTaxiDrivers() {
-        List<String> allDrivers = new ArrayList<String>(this.taxiDriversFree);
-        allDrivers.addAll(this.taxiDriversBusy);
+        List<String> allDrivers = new ArrayList<String>(fleet.getNumberOfVehicles());
+        allDrivers.addAll(fleet.getFreeDriverList());
+        allDrivers.addAll(fleet.getBusyDriverList());
         return allDrivers;
     }
 
+    /**
+     * @return the fleet registry (constant time lookups and a free vehicle
+     *         set)
+     */
+    public FleetRegistry getFleet() {
+        return fleet;
+    }
+
+    /**
+     * Starts keeping free taxi drivers in the spatial index (all drivers free
+     * at the moment are indexed right away). The index should also be
+     * registered as the position sensor of every driver.
+     *
+     * @param freeTaxiIndex an empty index
+     */
+    public void setFreeTaxiIndex(FreeTaxiIndex freeTaxiIndex) {
+        this.freeTaxiIndex = freeTaxiIndex;
+        for (String taxiDriverId : fleet.getFreeDriverList()) {
+            indexFreeTaxiDriver(taxiDriverId);
+        }
+    }
+
+    public FreeTaxiIndex getFreeTaxiIndex() {
+        return freeTaxiIndex;
+    }
+
+    /**
+     * Finds the free taxi drivers nearest to the node (by the straight line
+     * distance)
+     *
+     * @param nodeId the node, e.g. a pick up position
+     * @param k      the maximum number of drivers
+     * @return the drivers, the nearest first (without the spatial index, all
+     *         free drivers are returned)
+     */
+    public List<String> findNearestFreeTaxiDrivers(long nodeId, int k) {
+        if (freeTaxiIndex == null) {
+            return new ArrayList<String>(fleet.getFreeDriverList());
+        }
+        return freeTaxiIndex.findNearest(nodeId, k);
+    }
+
+    /**
+     * Finds the free taxi drivers within the radius from the node (by the
+     * straight line distance)
+     *
+     * @param nodeId the node, e.g. a pick up position
+     * @param radius the maximum distance in meters
+     * @return the drivers, the nearest first (without the spatial index, all
+     *         free drivers are returned)
+     */
+    public List<String> findFreeTaxiDriversWithinRadius(long nodeId, double radius) {
+        if (freeTaxiIndex == null) {
+            return new ArrayList<String>(fleet.getFreeDriverList());
+        }
+        return freeTaxiIndex.findWithinRadius(nodeId, radius);
+    }
+
+    private void indexFreeTaxiDriver(String taxiDriverId) {
+        if (freeTaxiIndex == null) {
+            return;
+        }
+        Long position = positionQuery.getCurrentPositionByNodeId(taxiDriverId);
+        if (position == null) {
+            freeTaxiIndex.remove(taxiDriverId);
+        } else {
+            freeTaxiIndex.put(taxiDriverId, position);
+        }
+    }
+
     /**
      * Moves the taxi given as parameter from list of free taxis into the list
      * "busy". And also does the same with its driver.
@@ -161,8 +243,7 @@ public class TestbedModel {
      * @param taxiIndex the index of the taxi in the list
      */
     public void setTaxiBusy(int taxiIndex) {
-        this.taxisBusy.add(this.taxisFree.remove(taxiIndex));
-        this.taxiDriversBusy.add(this.taxiDriversFree.remove(taxiIndex));
+        setTaxiBusy(this.fleet.getFreeVehicleList().get(taxiIndex));
     }
 
     /**
@@ -172,9 +253,8 @@ public class TestbedModel {
      * @param taxiId the id of the taxi in the list
      */
     public void setTaxiBusy(String taxiId) {
-        if (this.taxisFree.contains(taxiId)) {
-            int taxiIndex = this.taxisFree.lastIndexOf(taxiId);
-            setTaxiBusy(taxiIndex);
+        if (this.fleet.setBusy(taxiId) && freeTaxiIndex != null) {
+            freeTaxiIndex.remove(fleet.getDriverId(taxiId));
         }
     }
 
@@ -185,10 +265,8 @@ public class TestbedModel {
      * @param taxiId the id of the taxi in the list
      */
     public void setTaxiFree(String taxiId) {
-        if (this.taxisBusy.contains(taxiId)) {
-            int taxiIndex = this.taxisBusy.lastIndexOf(taxiId);
-            this.taxisFree.add(this.taxisBusy.remove(taxiIndex));
-            this.taxiDriversFree.add(this.taxiDriversBusy.remove(taxiIndex));
+        if (this.fleet.setFree(taxiId)) {
+            indexFreeTaxiDriver(fleet.getDriverId(taxiId));
         }
     }
 
@@ -199,17 +277,7 @@ public class TestbedModel {
      * @return taxi id, or null, if there's no such id
      */
     public String getVehicleId(String taxiDriverId) {
-        for (int i = 0; i < this.taxiDriversFree.size(); i++) {
-            if (this.taxiDriversFree.get(i).equals(taxiDriverId)) {
-                return this.taxisFree.get(i);
-            }
-        }
-        for (int i = 0; i < this.taxiDriversBusy.size(); i++) {
-            if (this.taxiDriversBusy.get(i).equals(taxiDriverId)) {
-                return this.taxisBusy.get(i);
-            }
-        }
-        return null;
+        return this.fleet.getVehicleId(taxiDriverId);
     }
 
     /**
@@ -219,17 +287,7 @@ public class TestbedModel {
      * @return taxi driver id, or null, if there's no such id
      */
     public String getTaxiDriverId(String vehicleId) {
-        for (int i = 0; i < this.taxisFree.size(); i++) {
-            if (this.taxisFree.get(i).equals(vehicleId)) {
-                return this.taxiDriversFree.get(i);
-            }
-        }
-        for (int i = 0; i < this.taxisBusy.size(); i++) {
-            if (this.taxisBusy.get(i).equals(vehicleId)) {
-                return this.taxiDriversBusy.get(i);
-            }
-        }
-        return null;
+        return this.fleet.getDriverId(vehicleId);
     }
 
     /**
@@ -362,7 +420,7 @@ public class TestbedModel {
     }
 
     public boolean isFree(String taxiDriverId) {
-        return taxiDriversFree.contains(taxiDriverId) && !taxiDriversBusy.contains(taxiDriverId);
+        return fleet.isDriverFree(taxiDriverId);
     }
 
     public String toString() {
@@ -17,6 +17,8 @@ import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedModel;
 import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedVehicleStorage;
 import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.AllNetworkNodes;
 import cz.agents.agentpolis.simmodel.environment.model.query.AgentPositionQuery;
+import cz.agents.agentpolis.simulator.creator.SimulationCreator;
+import cz.agents.agentpolis.simulator.creator.SimulationFinishedListener;
 import cz.agents.agentpolis.simulator.creator.initializator.InitModuleFactory;
 import cz.agents.alite.common.event.EventProcessor;
 import org.joda.time.Duration;
@@ -32,9 +34,19 @@ import org.joda.time.Duration;
 public class DispatchingAndTimersInitFactory implements InitModuleFactory {
 
     private final LogicConstructor logicConstructor;
+    private final SimulationCreator creator;
 
     public DispatchingAndTimersInitFactory(LogicConstructor logicConstructor) {
+        this(logicConstructor, null);
+    }
+
+    /**
+     * @param creator the simulation, the planning threads are stopped after it
+     *                finishes (null = they're left to the JVM exit)
+     */
+    public DispatchingAndTimersInitFactory(LogicConstructor logicConstructor, SimulationCreator creator) {
         this.logicConstructor = logicConstructor;
+        this.creator = creator;
     }
 
     @Override
@@ -46,7 +58,16 @@ public class DispatchingAndTimersInitFactory implements InitModuleFactory {
         // get ready for creating timers
         TestbedModel taxiModel = injector.getInstance(TestbedModel.class);
         EventProcessor eventProcessor = injector.getInstance(EventProcessor.class);
-        Utils utils = injector.getInstance(Utils.class);
+        final Utils utils = injector.getInstance(Utils.class);
+        if (creator != null) {
+            creator.addSimulationFinishedListener(new SimulationFinishedListener() {
+
+                @Override
+                public void simulationFinished() {
+                    utils.shutdown();
+                }
+            });
+        }
 
         GeneralMessageProtocol generalMessageProtocol = injector.getInstance(GeneralMessageProtocol.class);
 
@@ -54,9 +75,9 @@ public class DispatchingAndTimersInitFactory implements InitModuleFactory {
             // create timers
             taxiModel.setTimers(
                     null,
-                    new Timer("TaxiDriversTimer", eventProcessor, taxiModel, utils, 2, Duration
+                    new Timer("TaxiDriversTimer", eventProcessor, taxiModel, utils, Duration
                             .standardMinutes(GlobalParams.getTimerDriverInterval())),
-                    new Timer("PassengersTimer", eventProcessor, taxiModel, utils, 2, Duration
+                    new Timer("PassengersTimer", eventProcessor, taxiModel, utils, Duration
                             .standardMinutes(GlobalParams.getTimerPassengerInterval())));
         } else {
             // create a new dispatching agent
@@ -81,7 +102,7 @@ public class DispatchingAndTimersInitFactory implements InitModuleFactory {
             injector.getInstance(TestbedModel.class).setDispatching(dispatchingAgent);
 
             // init dispatching timer
-            Timer dispatchingTimer = new Timer("DispatchingTimer", eventProcessor, taxiModel, utils, 1,
+            Timer dispatchingTimer = new Timer("DispatchingTimer", eventProcessor, taxiModel, utils,
                     Duration.standardMinutes(GlobalParams.getTimerDispatchingInterval()));
             dispatchingTimer.addCallback(dispatchingAgent);
             taxiModel.setTimers(dispatchingTimer, null, null);
@@ -7,6 +7,7 @@ import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.dispatch
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.passenger.protocol.PassengerMessageProtocol;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol.GeneralMessageProtocol;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.logger.VehicleMoveLogger;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.request.BinaryDriverPopulation;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.request.Driver;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.request.GPS;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.driver.DriverAgentFactory;
@@ -17,9 +18,11 @@ import cz.agents.agentpolis.darptestbed.simmodel.agent.driver.logic.DriverLogic;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.driver.logic.DriverLogicWithPassengerMessageProtocol;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.Timer;
 import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+import cz.agents.agentpolis.darptestbed.simmodel.environment.model.FreeTaxiIndex;
 import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedModel;
 import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedVehicleStorage;
 import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.SnapCache;
 import cz.agents.agentpolis.simmodel.agent.Agent;
 import cz.agents.agentpolis.simmodel.agent.activity.movement.DriveVehicleActivity;
 import cz.agents.agentpolis.simmodel.entity.vehicle.VehicleType;
@@ -80,6 +83,11 @@ public class DriverForBenchmarkInitFactory implements AgentInitFactory {
         NodeExtendedFunction nearestNodeFinder = injector.getInstance(NodeExtendedFunction.class);
         VehicleDataModel vehicleDataModel = injector.getInstance(VehicleDataModel.class);
         Random random = injector.getInstance(Random.class);
+        AgentPositionModel agentPositionModel = injector.getInstance(AgentPositionModel.class);
+
+        // free taxis are looked up by their positions
+        FreeTaxiIndex freeTaxiIndex = new FreeTaxiIndex(nearestNodeFinder);
+        taxiModel.setFreeTaxiIndex(freeTaxiIndex);
 
         List<Agent> agents = new ArrayList<Agent>();
         DriverAgentFactory factory = new DriverAgentFactory();
@@ -87,9 +95,31 @@ public class DriverForBenchmarkInitFactory implements AgentInitFactory {
         double velocityOfVehicle = VelocityConvertor.kmph2mps(GlobalParams.getVelocityInKmph());
 
         int counter = 0;
-        List<Driver> drivers = loadSerializedPassengerPopulation(serializedDriverPopulation);
-        Collections.shuffle(drivers, injector.getInstance(Random.class));
-        for (Driver driver : drivers) {
+        List<Driver> drivers;
+        // initial nodes of the drivers (snapped in the binary population, or
+        // null for JSON)
+        long[] initNodes = null;
+        if (BinaryDriverPopulation.isBinaryPopulation(serializedDriverPopulation)) {
+            BinaryDriverPopulation population = loadBinaryDriverPopulation(serializedDriverPopulation,
+                    nearestNodeFinder.getMapHash());
+            drivers = new ArrayList<Driver>();
+            initNodes = new long[population == null ? 0 : population.getSize()];
+            for (int i = 0; i < initNodes.length; i++) {
+                drivers.add(population.getDriver(i));
+                initNodes[i] = population.getInitNode(i);
+            }
+        } else {
+            drivers = loadSerializedPassengerPopulation(serializedDriverPopulation);
+        }
+        initNodes = snapDrivers(drivers, initNodes, nearestNodeFinder);
+        // the indices are shuffled, so the drivers keep their nodes
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < drivers.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, injector.getInstance(Random.class));
+        for (int index : order) {
+            Driver driver = drivers.get(index);
 
             if (counter++ > driverLimit) {
                 break;
@@ -101,7 +131,7 @@ public class DriverForBenchmarkInitFactory implements AgentInitFactory {
             VehicleTemplate vehicleTemplate = selectVehicleTemplate(vehicleDataModel, VehicleType.CAR, random);
             vehicleDataModel.assineVehilceTemplate(vehicle.getId(), vehicleTemplate.vehicleTemplateId);
 
-            long initialLocation = findNearestNode(driver.driverInitPosition, nearestNodeFinder);
+            long initialLocation = initNodes[index];
 
             injector.getInstance(VehicleStorage.class).addEntity(vehicle);
             injector.getInstance(TestbedVehicleStorage.class).addEntity(vehicle);
@@ -126,7 +156,8 @@ public class DriverForBenchmarkInitFactory implements AgentInitFactory {
                 taxiDriversTimer.addCallback((DriverDecentralizedAgent) driverAgent);
             }
 
-            injector.getInstance(AgentPositionModel.class).setNewEntityPosition(driverAgent.getId(), initialLocation);
+            agentPositionModel.setNewEntityPosition(driverAgent.getId(), initialLocation);
+            agentPositionModel.addSensingPositionNode(driverAgent.getId(), freeTaxiIndex);
             injector.getInstance(TestbedModel.class).addFreeTaxi(vehicle.getId(), driverAgent.getId());
             injector.getInstance(VehicleMoveLogger.class).logVehicleMove(vehicle.getId(), initialLocation);
 
@@ -138,8 +169,44 @@ public class DriverForBenchmarkInitFactory implements AgentInitFactory {
         return agents;
     }
 
-    private long findNearestNode(GPS gps, NodeExtendedFunction nearestNodeFinder) {
-        return nearestNodeFinder.getNearestNodeByNodeId(gps.longitude, gps.latitude);
+    /**
+     * Snaps the initial positions of the drivers, that haven't been snapped
+     * yet, all together (through the snap cache of the population)
+     *
+     * @param initNodes nodes snapped before, or null
+     * @return the initial nodes of all drivers
+     */
+    private long[] snapDrivers(List<Driver> drivers, long[] initNodes, NodeExtendedFunction nearestNodeFinder) {
+        if (initNodes == null) {
+            initNodes = new long[drivers.size()];
+            Arrays.fill(initNodes, BinaryDriverPopulation.NO_NODE);
+        }
+        List<Integer> unsnapped = new ArrayList<Integer>();
+        for (int i = 0; i < initNodes.length; i++) {
+            if (initNodes[i] == BinaryDriverPopulation.NO_NODE) {
+                unsnapped.add(i);
+            }
+        }
+        if (unsnapped.isEmpty()) {
+            return initNodes;
+        }
+
+        double[] longitudes = new double[unsnapped.size()];
+        double[] latitudes = new double[unsnapped.size()];
+        for (int i = 0; i < unsnapped.size(); i++) {
+            GPS gps = drivers.get(unsnapped.get(i)).driverInitPosition;
+            longitudes[i] = gps.longitude;
+            latitudes[i] = gps.latitude;
+        }
+        SnapCache snapCache = SnapCache.open(serializedDriverPopulation, nearestNodeFinder);
+        long[] nodes = snapCache.snap(longitudes, latitudes);
+        for (int i = 0; i < unsnapped.size(); i++) {
+            initNodes[unsnapped.get(i)] = nodes[i];
+        }
+        LOGGER.info("Snapped positions of the drivers: " + snapCache.getHits() + " found in the cache, "
+                + snapCache.getMisses() + " snapped");
+        snapCache.save();
+        return initNodes;
     }
 
     public List<Driver> loadSerializedPassengerPopulation(File serializedPopulation) {
@@ -155,6 +222,17 @@ public class DriverForBenchmarkInitFactory implements AgentInitFactory {
 
     }
 
+    private BinaryDriverPopulation loadBinaryDriverPopulation(File serializedPopulation, long mapHash) {
+        try {
+            return new BinaryDriverPopulation(serializedPopulation, mapHash);
+        } catch (IOException e) {
+            LOGGER.error(e);
+        }
+
+        return null;
+
+    }
+
     private VehicleTemplate selectVehicleTemplate(VehicleDataModel vehicleDataModel, VehicleType vehicleType,
                                                   Random random) {
 
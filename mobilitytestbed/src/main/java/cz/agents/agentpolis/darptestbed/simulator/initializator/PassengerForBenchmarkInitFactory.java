@@ -3,17 +3,18 @@ package cz.agents.agentpolis.darptestbed.simulator.initializator;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol.GeneralMessageProtocol;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.passenger.logic.PassengerDecentralizedLogic;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.passenger.logic.PassengerLogicWithRequestConsumerMessageProtocol;
 import org.apache.log4j.Logger;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.TypeReference;
 import org.joda.time.Duration;
 
 import com.google.common.collect.Lists;
@@ -24,7 +25,7 @@ import cz.agents.agentpolis.darptestbed.global.Utils;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.protocol.DriverMessageProtocol;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.protocol.RequestConsumerMessageProtocol;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.logger.RequestLogger;
-import cz.agents.agentpolis.darptestbed.siminfrastructure.request.GPS;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.request.BinaryPassengerPopulation;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.request.Passenger;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.request.PassengerRequest;
 import cz.agents.agentpolis.darptestbed.simmodel.agent.activity.movement.TestbedPassengerActivity;
@@ -39,6 +40,7 @@ import cz.agents.agentpolis.darptestbed.simmodel.agent.passenger.logic.Passenger
 import cz.agents.agentpolis.darptestbed.simmodel.agent.timer.Timer;
 import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedModel;
 import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.SnapCache;
 import cz.agents.agentpolis.ondemandtransport.simulator.initializator.TaxiPassengerInit;
 import cz.agents.agentpolis.siminfrastructure.time.TimeProvider;
 import cz.agents.agentpolis.simmodel.agent.Agent;
@@ -50,6 +52,10 @@ import cz.agents.agentpolis.simulator.creator.initializator.AgentInitFactory;
 public class PassengerForBenchmarkInitFactory implements AgentInitFactory {
 
 	private static final Logger logger = Logger.getLogger(TaxiPassengerInit.class);
+	/**
+	 * Number of passengers, whose positions are snapped together
+	 */
+	private static final int SNAP_BATCH = 10000;
 
 	private final File serializedPassengerPopulation;
 
@@ -79,121 +85,281 @@ public class PassengerForBenchmarkInitFactory implements AgentInitFactory {
 
 		List<Agent> agents = new ArrayList<Agent>();
 		PassengerAgentFactory factory = new PassengerAgentFactory();
-		Timer passTimer = injector.getInstance(TestbedModel.class).getPassengersTimer();
 		// int randomBound = possibleNodes.size();
 
-		// get ready for creating a logic (I couldn't figure out any better
-		// place to hide this code)
-		TestbedModel taxiModel = injector.getInstance(TestbedModel.class);
-		AgentPositionQuery positionQuery = injector.getInstance(AgentPositionQuery.class);
-		Utils utils = injector.getInstance(Utils.class);
-
 		NodeExtendedFunction nearestNodeFinder = injector.getInstance(NodeExtendedFunction.class);
 		TimeProvider timeProvider = injector.getInstance(TimeProvider.class);
-		AgentPositionAction agentPositionAction = injector.getInstance(AgentPositionAction.class);
 
-		List<Passenger> passenger = loadSerializedPassengerPopulation(serializedPassengerPopulation);
-		Collections.shuffle(passenger, injector.getInstance(Random.class));
+		Random random = injector.getInstance(Random.class);
+		if (BinaryPassengerPopulation.isBinaryPopulation(serializedPassengerPopulation)) {
+			BinaryPassengerPopulation population;
+			try {
+				population = new BinaryPassengerPopulation(serializedPassengerPopulation,
+						nearestNodeFinder.getMapHash());
+			} catch (IOException e) {
+				logger.error(e);
+				return agents;
+			}
 
-		int counter = 0;
+			List<Integer> order = new ArrayList<Integer>();
+			for (int i = 0; i < population.getSize(); i++) {
+				order.add(i);
+			}
+			Collections.shuffle(order, random);
+			order = order.subList(0, Math.min(populationLimit, order.size()));
+			SnapCache snapCache = SnapCache.open(serializedPassengerPopulation, nearestNodeFinder);
+			for (int from = 0; from < order.size(); from += SNAP_BATCH) {
+				createPassengerAgents(injector, factory, population,
+						order.subList(from, Math.min(from + SNAP_BATCH, order.size())), snapCache, timeProvider, agents);
+			}
+			saveSnapCache(snapCache);
+			registerPassengers(injector, agents);
 
-		// create passengers
-		for (Passenger agentRequests : passenger) {
+			logger.info("The number of created passengers: " + agents.size());
+			return agents;
+		}
 
-			if (counter++ > populationLimit) {
-				break;
-			}
+		PassengerPopulationReader reader;
+		try {
+			reader = new PassengerPopulationReader(serializedPassengerPopulation);
+		} catch (IOException e) {
+			logger.error(e);
+			return agents;
+		}
 
-			// create agents and their logics
-			String agentId = agentRequests.passsngerId;
-			PassengerProfile profile = new PassengerProfile();
-			TimeSpendingActivity timeActivity = injector.getInstance(TimeSpendingActivity.class);
-			TestbedPassengerActivity passengerActivity = injector.getInstance(TestbedPassengerActivity.class);
-			RequestLogger logger = injector.getInstance(RequestLogger.class);
+		// without a limit, the agents are created while the population is
+		// being read, otherwise only a random sample of the passengers is kept
+		Iterator<Passenger> passengers = reader;
+		if (populationLimit != Integer.MAX_VALUE) {
+			passengers = samplePassengers(reader, random).iterator();
+		}
 
-			TimeSpendingActivity timeSpendingActivity = injector.getInstance(TimeSpendingActivity.class);
+		// create passengers (in batches, whose positions are snapped together)
+		SnapCache snapCache = SnapCache.open(serializedPassengerPopulation, nearestNodeFinder);
+		try {
+			List<Passenger> batch = new ArrayList<Passenger>();
+			while (passengers.hasNext()) {
+				batch.add(passengers.next());
+				if (batch.size() == SNAP_BATCH || !passengers.hasNext()) {
+					createPassengerAgents(injector, factory, batch, snapCache, timeProvider, agents);
+					batch.clear();
+				}
+			}
+		} finally {
+			closePopulation(reader);
+		}
+		saveSnapCache(snapCache);
+		// the passengers are registered in a random order (the sample is in a
+		// random order already)
+		if (populationLimit == Integer.MAX_VALUE) {
+			Collections.shuffle(agents, random);
+		}
+		registerPassengers(injector, agents);
 
-			LinkedList<RequestBuilder> requests = mapRequests(timeProvider, agentRequests.requests, nearestNodeFinder);
-			BenchmarkRequestGenerator generator = new BenchmarkRequestGenerator(agentPositionAction, requests,
-					timeProvider, timeSpendingActivity);
+		logger.info("The number of created passengers: " + agents.size());
+		return agents;
 
-			RequestBuilder requestBuilder = requests.peek();
+	}
 
-			Duration startLife = new Duration(requestBuilder
-					.buildRequest(agentId, agentRequests.additionalRequirements).getTimeWindow().getEarliestDeparture());
-			if (startLife.getMillis() < 1) {
-				startLife = new Duration(1);
-			}
+	/**
+	 * Creates the passenger agent and its logic, the agent is registered by
+	 * {@link #registerPassengers(Injector, List)}
+	 */
+	private PassengerAgent<? extends PassengerLogic<?>> createPassengerAgent(Injector injector,
+			PassengerAgentFactory factory, String agentId, Set<String> additionalRequirements,
+			LinkedList<RequestBuilder> requests) {
 
-			DriverMessageProtocol driverMessageProtocol = injector.getInstance(DriverMessageProtocol.class);
-            GeneralMessageProtocol generalMessageProtocol = injector.getInstance(GeneralMessageProtocol.class);
+		// get ready for creating a logic (I couldn't figure out any better
+		// place to hide this code)
+		TestbedModel taxiModel = injector.getInstance(TestbedModel.class);
+		AgentPositionQuery positionQuery = injector.getInstance(AgentPositionQuery.class);
+		Utils utils = injector.getInstance(Utils.class);
+		TimeProvider timeProvider = injector.getInstance(TimeProvider.class);
+		AgentPositionAction agentPositionAction = injector.getInstance(AgentPositionAction.class);
 
-			PassengerAgent<? extends PassengerLogic<?>> passengerAgent;
-            RequestConsumerMessageProtocol sender = injector.getInstance(RequestConsumerMessageProtocol.class);
-            PassengerLogicWithRequestConsumerMessageProtocol logic = logicConstructor.constructPassengerLogic(
-                    agentId, sender, driverMessageProtocol, generalMessageProtocol, taxiModel, positionQuery, utils,
-                    profile,
-                    passengerActivity, timeActivity, logger);
+		// create agents and their logics
+		PassengerProfile profile = new PassengerProfile();
+		TimeSpendingActivity timeActivity = injector.getInstance(TimeSpendingActivity.class);
+		TestbedPassengerActivity passengerActivity = injector.getInstance(TestbedPassengerActivity.class);
+		RequestLogger logger = injector.getInstance(RequestLogger.class);
 
-            if (!logic.isDecentralized()) {
-                // centralized algorithms
+		TimeSpendingActivity timeSpendingActivity = injector.getInstance(TimeSpendingActivity.class);
 
+		BenchmarkRequestGenerator generator = new BenchmarkRequestGenerator(agentPositionAction, requests,
+				timeProvider, timeSpendingActivity);
 
-                // load the PassengerCentralizedLogic class for the passengers (in centralized case)
-				passengerAgent = factory.createCentrAgent(agentId, (PassengerCentralizedLogic) logic, startLife,
-						agentRequests.additionalRequirements, injector, generator);
+		RequestBuilder requestBuilder = requests.peek();
 
-			} else {
-				PassengerDecentralizedAgent passengerDecentralizedAgent =
-                        factory.createDecentrAgent(agentId, (PassengerDecentralizedLogic) logic, startLife,
-                                agentRequests.additionalRequirements, injector, generator);
-				passTimer.addCallback(passengerDecentralizedAgent);
+		Duration startLife = new Duration(requestBuilder
+				.buildRequest(agentId, additionalRequirements).getTimeWindow().getEarliestDeparture());
+		if (startLife.getMillis() < 1) {
+			startLife = new Duration(1);
+		}
 
-				passengerAgent = passengerDecentralizedAgent;
+		DriverMessageProtocol driverMessageProtocol = injector.getInstance(DriverMessageProtocol.class);
+		GeneralMessageProtocol generalMessageProtocol = injector.getInstance(GeneralMessageProtocol.class);
 
-			}
+		PassengerAgent<? extends PassengerLogic<?>> passengerAgent;
+		RequestConsumerMessageProtocol sender = injector.getInstance(RequestConsumerMessageProtocol.class);
+		PassengerLogicWithRequestConsumerMessageProtocol logic = logicConstructor.constructPassengerLogic(
+				agentId, sender, driverMessageProtocol, generalMessageProtocol, taxiModel, positionQuery, utils,
+				profile,
+				passengerActivity, timeActivity, logger);
 
-			// chose home node
-			injector.getInstance(TestbedModel.class).addPassenger(passengerAgent.getId());
+		if (!logic.isDecentralized()) {
+			// centralized algorithms
 
-			agents.add(passengerAgent);
 
-		}
+			// load the PassengerCentralizedLogic class for the passengers (in centralized case)
+			passengerAgent = factory.createCentrAgent(agentId, (PassengerCentralizedLogic) logic, startLife,
+					additionalRequirements, injector, generator);
 
-		logger.info("The number of created passengers: " + agents.size());
-		return agents;
+		} else {
+			passengerAgent = factory.createDecentrAgent(agentId, (PassengerDecentralizedLogic) logic, startLife,
+					additionalRequirements, injector, generator);
+		}
 
+		return passengerAgent;
 	}
 
-	private LinkedList<RequestBuilder> mapRequests(TimeProvider timeProvider, List<PassengerRequest> loadedRequests,
-			NodeExtendedFunction nearestNodeFinder) {
+	/**
+	 * Adds the passengers to the taxi model and the decentralized ones to the
+	 * passengers' timer, in the order of the list
+	 */
+	private void registerPassengers(Injector injector, List<Agent> agents) {
+		TestbedModel taxiModel = injector.getInstance(TestbedModel.class);
+		Timer passTimer = taxiModel.getPassengersTimer();
+		for (Agent agent : agents) {
+			if (agent instanceof PassengerDecentralizedAgent) {
+				passTimer.addCallback((PassengerDecentralizedAgent) agent);
+			}
+			// chose home node
+			taxiModel.addPassenger(agent.getId());
+		}
+	}
 
-		LinkedList<RequestBuilder> result = Lists.newLinkedList();
-		for (PassengerRequest request : loadedRequests) {
-			long fromNode = findNearestNode(request.originPosition, nearestNodeFinder);
-			long toNode = findNearestNode(request.destinationnPosition, nearestNodeFinder);
-			result.add(new RequestBuilder(fromNode, toNode, request, request.reqestCallTimeInDayRange, timeProvider));
+	/**
+	 * Creates the agents of the passengers, the positions of their requests
+	 * are snapped to the map together
+	 */
+	private void createPassengerAgents(Injector injector, PassengerAgentFactory factory, List<Passenger> passengers,
+			SnapCache snapCache, TimeProvider timeProvider, List<Agent> agents) {
 
+		int numberOfPositions = 0;
+		for (Passenger passenger : passengers) {
+			numberOfPositions += 2 * passenger.requests.size();
+		}
+		double[] longitudes = new double[numberOfPositions];
+		double[] latitudes = new double[numberOfPositions];
+		int position = 0;
+		for (Passenger passenger : passengers) {
+			for (PassengerRequest request : passenger.requests) {
+				longitudes[position] = request.originPosition.longitude;
+				latitudes[position++] = request.originPosition.latitude;
+				longitudes[position] = request.destinationnPosition.longitude;
+				latitudes[position++] = request.destinationnPosition.latitude;
+			}
 		}
+		long[] nodes = snapCache.snap(longitudes, latitudes);
+
+		position = 0;
+		for (Passenger passenger : passengers) {
+			LinkedList<RequestBuilder> requests = Lists.newLinkedList();
+			for (PassengerRequest request : passenger.requests) {
+				requests.add(new RequestBuilder(nodes[position], nodes[position + 1], request,
+						request.reqestCallTimeInDayRange, timeProvider));
+				position += 2;
+			}
+			agents.add(createPassengerAgent(injector, factory, passenger.passsngerId,
+					passenger.additionalRequirements, requests));
+		}
+	}
+
+	/**
+	 * Creates the agents of the passengers from the binary population (the
+	 * positions, that haven't been snapped yet, are snapped together)
+	 */
+	private void createPassengerAgents(Injector injector, PassengerAgentFactory factory,
+			BinaryPassengerPopulation population, List<Integer> passengers, SnapCache snapCache,
+			TimeProvider timeProvider, List<Agent> agents) {
 
-		return result;
+		int numberOfPositions = 0;
+		for (int passenger : passengers) {
+			numberOfPositions += 2 * (population.getEndRequest(passenger) - population.getFirstRequest(passenger));
+		}
+		double[] longitudes = new double[numberOfPositions];
+		double[] latitudes = new double[numberOfPositions];
+		int position = 0;
+		for (int passenger : passengers) {
+			for (int i = population.getFirstRequest(passenger); i < population.getEndRequest(passenger); i++) {
+				if (population.getOriginNode(i) != BinaryPassengerPopulation.NO_NODE
+						&& population.getDestinationNode(i) != BinaryPassengerPopulation.NO_NODE) {
+					continue;
+				}
+				PassengerRequest request = population.getRequest(i);
+				longitudes[position] = request.originPosition.longitude;
+				latitudes[position++] = request.originPosition.latitude;
+				longitudes[position] = request.destinationnPosition.longitude;
+				latitudes[position++] = request.destinationnPosition.latitude;
+			}
+		}
+		long[] nodes = snapCache.snap(Arrays.copyOf(longitudes, position), Arrays.copyOf(latitudes, position));
+
+		position = 0;
+		for (int passenger : passengers) {
+			LinkedList<RequestBuilder> requests = Lists.newLinkedList();
+			for (int i = population.getFirstRequest(passenger); i < population.getEndRequest(passenger); i++) {
+				long fromNode = population.getOriginNode(i);
+				long toNode = population.getDestinationNode(i);
+				if (fromNode == BinaryPassengerPopulation.NO_NODE || toNode == BinaryPassengerPopulation.NO_NODE) {
+					fromNode = nodes[position];
+					toNode = nodes[position + 1];
+					position += 2;
+				}
+				requests.add(new RequestBuilder(fromNode, toNode, population.getRequest(i), population.getCallTime(i),
+						timeProvider));
+			}
+			agents.add(createPassengerAgent(injector, factory, population.getPassengerId(passenger),
+					population.getAdditionalRequirements(passenger), requests));
+		}
+	}
 
+	private void saveSnapCache(SnapCache snapCache) {
+		logger.info("Snapped positions of the passengers: " + snapCache.getHits() + " found in the cache, "
+				+ snapCache.getMisses() + " snapped");
+		snapCache.save();
 	}
 
-	private long findNearestNode(GPS gps, NodeExtendedFunction nearestNodeFinder) {
-		return nearestNodeFinder.getNearestNodeByNodeId(gps.longitude, gps.latitude);
+	/**
+	 * Chooses populationLimit random passengers by reservoir sampling, so only
+	 * the chosen passengers are kept in the memory
+	 *
+	 * @return the chosen passengers in a random order
+	 */
+	private List<Passenger> samplePassengers(PassengerPopulationReader reader, Random random) {
+		List<Passenger> sample = new ArrayList<Passenger>();
+		long seen = 0;
+		while (reader.hasNext()) {
+			Passenger passenger = reader.next();
+			seen++;
+			if (sample.size() < populationLimit) {
+				sample.add(passenger);
+			} else {
+				long index = (long) (random.nextDouble() * seen);
+				if (index < populationLimit) {
+					sample.set((int) index, passenger);
+				}
+			}
+		}
+		Collections.shuffle(sample, random);
+		return sample;
 	}
 
-	private List<Passenger> loadSerializedPassengerPopulation(File serializedPopulation) {
-		ObjectMapper mapper = new ObjectMapper();
+	private void closePopulation(PassengerPopulationReader reader) {
 		try {
-			return mapper.readValue(serializedPopulation, new TypeReference<List<Passenger>>() {
-			});
+			reader.close();
 		} catch (IOException e) {
 			logger.error(e);
 		}
-
-		return new ArrayList<Passenger>();
-
 	}
 }
@@ -0,0 +1,123 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.request.Passenger;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a serialized passenger population (a JSON array of {@link Passenger}s)
+ * one passenger at a time, so the whole population never has to be in the
+ * memory.
+ * <p/>
+ * The file may be compressed by gzip, xz or bzip2 (the compression is found
+ * by the first bytes of the file, not by its name).
+ * <p/>
+ * An error while reading the file is thrown as a RuntimeException from
+ * {@link #hasNext()} or {@link #next()}.
+ */
+public class PassengerPopulationReader implements Iterator<Passenger>, Closeable {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonParser parser;
+    /**
+     * The passenger read ahead by {@link #hasNext()}
+     */
+    private Passenger nextPassenger;
+    private boolean finished;
+
+    public PassengerPopulationReader(File serializedPopulation) throws IOException {
+        this(openPopulationStream(serializedPopulation));
+    }
+
+    /**
+     * @param in uncompressed JSON (closed by {@link #close()})
+     */
+    public PassengerPopulationReader(InputStream in) throws IOException {
+        this.parser = mapper.getJsonFactory().createJsonParser(in);
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.close();
+            throw new JsonParseException("The population isn't a JSON array", parser.getCurrentLocation());
+        }
+    }
+
+    /**
+     * Opens the file and decompresses it, if it's compressed
+     */
+    public static InputStream openPopulationStream(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        try {
+            byte[] signature = new byte[12];
+            in.mark(signature.length);
+            int signatureLength = in.read(signature);
+            in.reset();
+
+            if (GzipCompressorInputStream.matches(signature, signatureLength)) {
+                return new BufferedInputStream(new GzipCompressorInputStream(in, true), 1 << 16);
+            }
+            if (XZCompressorInputStream.matches(signature, signatureLength)) {
+                return new BufferedInputStream(new XZCompressorInputStream(in, true), 1 << 16);
+            }
+            if (BZip2CompressorInputStream.matches(signature, signatureLength)) {
+                return new BufferedInputStream(new BZip2CompressorInputStream(in, true), 1 << 16);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextPassenger == null && !finished) {
+            try {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.START_OBJECT) {
+                    nextPassenger = mapper.readValue(parser, Passenger.class);
+                } else if (token == JsonToken.END_ARRAY || token == null) {
+                    finished = true;
+                } else {
+                    throw new JsonParseException("Unexpected " + token + " in the population",
+                            parser.getCurrentLocation());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("The population can't be read", e);
+            }
+        }
+        return nextPassenger != null;
+    }
+
+    @Override
+    public Passenger next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Passenger passenger = nextPassenger;
+        nextPassenger = null;
+        return passenger;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,290 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.LongIntHashMap;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Edge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
+import cz.agents.agentpolis.simmodel.environment.model.key.GraphFromToNodeKey;
+import cz.agents.agentpolis.utils.spatialrefsys.WGS84Convertor;
+
+/**
+ * The road graph in a compressed sparse row form. Nodes are addressed by dense
+ * indexes (0..n-1, in the order of their OSM ids), edges leaving node i are
+ * the edges firstEdge(i) .. firstEdge(i+1)-1. Incoming edges are indexed the
+ * same way (for backward searches). All attributes are held in primitive
+ * arrays, so the whole network takes a few dozen bytes per edge and node,
+ * instead of several boxed objects and hash map entries.
+ * <p/>
+ * The network is created once when the map is loaded and never changes.
+ */
+public class CompactRoadNetwork {
+
+    public static final int NO_NODE = -1;
+
+    private final long[] nodeIds;
+    private final LongIntHashMap nodeIndexes;
+    /**
+     * Projected coordinates of the nodes (in meters)
+     */
+    private final double[] nodeX;
+    private final double[] nodeY;
+
+    private final int[] firstEdge;
+    private final int[] edgeTargets;
+    private final int[] edgeSources;
+    /**
+     * Ids of the edges entering node i are incomingEdges[firstIncomingEdge(i)
+     * .. firstIncomingEdge(i+1)-1]
+     */
+    private final int[] firstIncomingEdge;
+    private final int[] incomingEdges;
+    /**
+     * Edge lengths in meters
+     */
+    private final double[] edgeLengths;
+    /**
+     * Edge speed limits in km/h, NaN if not known
+     */
+    private final double[] edgeSpeedLimits;
+
+    private CompactRoadNetwork(long[] nodeIds, double[] nodeX, double[] nodeY, int[] firstEdge, int[] edgeTargets,
+                               double[] edgeLengths, double[] edgeSpeedLimits) {
+        this.nodeIds = nodeIds;
+        this.nodeX = nodeX;
+        this.nodeY = nodeY;
+        this.firstEdge = firstEdge;
+        this.edgeTargets = edgeTargets;
+        this.edgeLengths = edgeLengths;
+        this.edgeSpeedLimits = edgeSpeedLimits;
+        this.edgeSources = new int[edgeTargets.length];
+        this.firstIncomingEdge = new int[nodeIds.length + 1];
+        this.incomingEdges = new int[edgeTargets.length];
+
+        this.nodeIndexes = new LongIntHashMap(nodeIds.length, NO_NODE);
+        for (int i = 0; i < nodeIds.length; i++) {
+            nodeIndexes.put(nodeIds[i], i);
+        }
+    }
+
+    /**
+     * Creates the network from an imported graph
+     *
+     * @param graph          the (simplified) road graph
+     * @param graphType      type of the graph, the speed limits are keyed by it
+     * @param speedLimits    speed limits of the graph edges (km/h), may be
+     *                       null
+     * @param wgs84Convertor converts node positions into the projected
+     *                       coordinates used for distances
+     */
+    public static CompactRoadNetwork create(Graph<? extends Node, ? extends Edge> graph, GraphType graphType,
+                                            Map<GraphFromToNodeKey, Double> speedLimits, WGS84Convertor wgs84Convertor) {
+
+        Collection<? extends Node> nodes = graph.getAllNodes();
+        long[] nodeIds = new long[nodes.size()];
+        int i = 0;
+        for (Node node : nodes) {
+            nodeIds[i++] = node.getId();
+        }
+        Arrays.sort(nodeIds);
+
+        int numberOfEdges = 0;
+        for (long nodeId : nodeIds) {
+            numberOfEdges += graph.getNodeOutcomingEdges(nodeId).size();
+        }
+
+        double[] nodeX = new double[nodeIds.length];
+        double[] nodeY = new double[nodeIds.length];
+        int[] firstEdge = new int[nodeIds.length + 1];
+        long[] edgeTargetIds = new long[numberOfEdges];
+        double[] edgeLengths = new double[numberOfEdges];
+        double[] edgeSpeedLimits = new double[numberOfEdges];
+
+        int edge = 0;
+        for (int node = 0; node < nodeIds.length; node++) {
+            LatLon latLon = graph.getNodeByNodeId(nodeIds[node]).getLatLon();
+            Coordinate coordinate = wgs84Convertor.convert(latLon.lon(), latLon.lat());
+            nodeX[node] = coordinate.x;
+            nodeY[node] = coordinate.y;
+
+            firstEdge[node] = edge;
+            List<? extends Edge> outgoingEdges = graph.getNodeOutcomingEdges(nodeIds[node]);
+            for (Edge outgoingEdge : outgoingEdges) {
+                edgeTargetIds[edge] = outgoingEdge.getToNodeId();
+                edgeLengths[edge] = outgoingEdge.getLength();
+                Double speedLimit = null;
+                if (speedLimits != null) {
+                    speedLimit = speedLimits.get(new GraphFromToNodeKey(graphType, outgoingEdge));
+                }
+                edgeSpeedLimits[edge] = speedLimit == null ? Double.NaN : speedLimit;
+                edge++;
+            }
+        }
+        firstEdge[nodeIds.length] = edge;
+
+        CompactRoadNetwork network = new CompactRoadNetwork(nodeIds, nodeX, nodeY, firstEdge, new int[numberOfEdges],
+                edgeLengths, edgeSpeedLimits);
+        for (int e = 0; e < numberOfEdges; e++) {
+            int target = network.getIndex(edgeTargetIds[e]);
+            if (target == NO_NODE) {
+                throw new IllegalArgumentException("The edge leads to node " + edgeTargetIds[e]
+                        + ", which isn't in the graph");
+            }
+            network.edgeTargets[e] = target;
+        }
+        network.indexIncomingEdges();
+        return network;
+    }
+
+    /**
+     * Creates the network from the arrays returned by its getters (e.g. read
+     * from a map snapshot), the arrays are taken over, not copied
+     *
+     * @param nodeIds         node ids in the increasing order
+     * @param firstEdge       the first outgoing edge of each node, followed by
+     *                        the number of edges
+     * @param edgeTargets     indexes of the target nodes
+     * @param edgeSpeedLimits speed limits in km/h, NaN if not known
+     */
+    public static CompactRoadNetwork create(long[] nodeIds, double[] nodeX, double[] nodeY, int[] firstEdge,
+                                            int[] edgeTargets, double[] edgeLengths, double[] edgeSpeedLimits) {
+        if (nodeX.length != nodeIds.length || nodeY.length != nodeIds.length
+                || firstEdge.length != nodeIds.length + 1 || firstEdge[nodeIds.length] != edgeTargets.length
+                || edgeLengths.length != edgeTargets.length || edgeSpeedLimits.length != edgeTargets.length) {
+            throw new IllegalArgumentException("The sizes of the network arrays don't match");
+        }
+        for (int edge = 0; edge < edgeTargets.length; edge++) {
+            if (edgeTargets[edge] < 0 || edgeTargets[edge] >= nodeIds.length) {
+                throw new IllegalArgumentException("The edge " + edge + " leads to a node outside the network");
+            }
+        }
+
+        CompactRoadNetwork network = new CompactRoadNetwork(nodeIds, nodeX, nodeY, firstEdge, edgeTargets,
+                edgeLengths, edgeSpeedLimits);
+        network.indexIncomingEdges();
+        return network;
+    }
+
+    private void indexIncomingEdges() {
+        for (int node = 0; node < nodeIds.length; node++) {
+            for (int edge = firstEdge[node]; edge < firstEdge[node + 1]; edge++) {
+                edgeSources[edge] = node;
+                firstIncomingEdge[edgeTargets[edge] + 1]++;
+            }
+        }
+        for (int node = 0; node < nodeIds.length; node++) {
+            firstIncomingEdge[node + 1] += firstIncomingEdge[node];
+        }
+        int[] next = Arrays.copyOf(firstIncomingEdge, nodeIds.length);
+        for (int edge = 0; edge < edgeTargets.length; edge++) {
+            incomingEdges[next[edgeTargets[edge]]++] = edge;
+        }
+    }
+
+    public int getNumberOfNodes() {
+        return nodeIds.length;
+    }
+
+    public int getNumberOfEdges() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * @return dense index of the node, or {@link #NO_NODE} if it isn't in the
+     *         network
+     */
+    public int getIndex(long nodeId) {
+        return nodeIndexes.get(nodeId);
+    }
+
+    public long getNodeId(int node) {
+        return nodeIds[node];
+    }
+
+    public double getX(int node) {
+        return nodeX[node];
+    }
+
+    public double getY(int node) {
+        return nodeY[node];
+    }
+
+    /**
+     * @return the first outgoing edge of the node
+     */
+    public int getFirstEdge(int node) {
+        return firstEdge[node];
+    }
+
+    /**
+     * @return the index after the last outgoing edge of the node
+     */
+    public int getEndEdge(int node) {
+        return firstEdge[node + 1];
+    }
+
+    /**
+     * @return position of the first incoming edge of the node (see
+     *         {@link #getIncomingEdge(int)})
+     */
+    public int getFirstIncomingEdge(int node) {
+        return firstIncomingEdge[node];
+    }
+
+    /**
+     * @return the position after the last incoming edge of the node
+     */
+    public int getEndIncomingEdge(int node) {
+        return firstIncomingEdge[node + 1];
+    }
+
+    /**
+     * @param position position between {@link #getFirstIncomingEdge(int)} and
+     *                 {@link #getEndIncomingEdge(int)} of a node
+     * @return id of the incoming edge
+     */
+    public int getIncomingEdge(int position) {
+        return incomingEdges[position];
+    }
+
+    public int getEdgeSource(int edge) {
+        return edgeSources[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    /**
+     * @return edge length in meters
+     */
+    public double getEdgeLength(int edge) {
+        return edgeLengths[edge];
+    }
+
+    /**
+     * @return edge speed limit in km/h, NaN if not known
+     */
+    public double getEdgeSpeedLimit(int edge) {
+        return edgeSpeedLimits[edge];
+    }
+
+    /**
+     * @return the straight line distance between two nodes (in meters)
+     */
+    public double computeDistance(int fromNode, int toNode) {
+        double dx = nodeX[fromNode] - nodeX[toNode];
+        double dy = nodeY[fromNode] - nodeY[toNode];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+}
@@ -26,23 +26,29 @@ public class KNearestNodesInitModuleFactory extends NearestNodeInitModuleFactory
 	@Override
 	public AbstractModule injectModule(Injector injector) {
 
-		Collection<HighwayNode> allNetworkNodes = injector.getInstance(HighwayNetwork.class).getNetwork().getAllNodes();
 		WGS84Convertor wgs84Convertor = WGS84Convertor.createConvertorFromWGS84ToSpatialRefSys(getEPSG());
+		CompactRoadNetwork roadNetwork = findRoadNetwork(injector);
 
-		Map<Long, Coordinate> projectedNodeCoordinats = Maps.newHashMap();
+		final KNodesExtendedFunction nearestNodeFinder;
+		if (roadNetwork != null) {
+			nearestNodeFinder = new KNodesExtendedFunction(roadNetwork, createKdTree(roadNetwork), wgs84Convertor);
+		} else {
+			Collection<HighwayNode> allNetworkNodes = injector.getInstance(HighwayNetwork.class).getNetwork()
+					.getAllNodes();
 
-		final KDTree kdTree = new KDTree(2);
-		for (Node node : allNetworkNodes) {
-			LatLon latLon = node.getLatLon();
-			Coordinate coordinate = wgs84Convertor.convert(latLon.lon(), latLon.lat());
-			projectedNodeCoordinats.put(node.getId(), coordinate);
-			kdTree.insert(new double[] { coordinate.x, coordinate.y }, node.getId());
+			Map<Long, Coordinate> projectedNodeCoordinats = Maps.newHashMap();
 
-		}
+			final KDTree kdTree = new KDTree(2);
+			for (Node node : allNetworkNodes) {
+				LatLon latLon = node.getLatLon();
+				Coordinate coordinate = wgs84Convertor.convert(latLon.lon(), latLon.lat());
+				projectedNodeCoordinats.put(node.getId(), coordinate);
+				kdTree.insert(new double[] { coordinate.x, coordinate.y }, node.getId());
+
+			}
 
-		final KNodesExtendedFunction nearestNodeFinder =
-                new KNodesExtendedFunction(projectedNodeCoordinats, kdTree,
-				wgs84Convertor);
+			nearestNodeFinder = new KNodesExtendedFunction(projectedNodeCoordinats, kdTree, wgs84Convertor);
+		}
 
 		return new AbstractModule() {
 
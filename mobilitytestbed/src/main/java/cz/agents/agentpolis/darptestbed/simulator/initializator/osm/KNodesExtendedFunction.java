@@ -18,6 +18,11 @@ public class KNodesExtendedFunction extends NodeExtendedFunction {
 		super(projectedNodeCoordinates, kdTreeForAllNodes, wgs84Convertor);
 	}
 
+	public KNodesExtendedFunction(CompactRoadNetwork roadNetwork, KDTree kdTreeForAllNodes,
+                                  WGS84Convertor wgs84Convertor) {
+		super(roadNetwork, kdTreeForAllNodes, wgs84Convertor);
+	}
+
     @Override
 	public Long getNearestNodeByNodeId(double longitude, double latitude) {
 		return getKNearestNodesByNodeId(longitude, latitude, 1).get(0);
@@ -52,12 +57,4 @@ public class KNodesExtendedFunction extends NodeExtendedFunction {
     }
 
 
-
-    @Override
-	public double computeDistanceBetweenNodes(long fromNodeId, long toNodeId) {
-		Coordinate from = getProjectedNodeCoordinats().get(fromNodeId);
-		Coordinate to = getProjectedNodeCoordinats().get(toNodeId);
-		return from.distance(to);
-	}
-
 }
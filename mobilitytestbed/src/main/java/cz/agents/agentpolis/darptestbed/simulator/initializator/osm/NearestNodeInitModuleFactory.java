@@ -32,22 +32,29 @@ public class NearestNodeInitModuleFactory implements InitModuleFactory {
 	@Override
 	public AbstractModule injectModule(Injector injector) {
 
-		Collection<HighwayNode> allNetworkNodes = injector.getInstance(HighwayNetwork.class).getNetwork().getAllNodes();
 		WGS84Convertor wgs84Convertor = WGS84Convertor.createConvertorFromWGS84ToSpatialRefSys(epsg);
+		CompactRoadNetwork roadNetwork = findRoadNetwork(injector);
 
-		Map<Long, Coordinate> projectedNodeCoordinats = Maps.newHashMap();
+		final NodeExtendedFunction nearestNodeFinder;
+		if (roadNetwork != null) {
+			nearestNodeFinder = new NodeExtendedFunction(roadNetwork, createKdTree(roadNetwork), wgs84Convertor);
+		} else {
+			Collection<HighwayNode> allNetworkNodes = injector.getInstance(HighwayNetwork.class).getNetwork()
+					.getAllNodes();
 
-		final KDTree kdTree = new KDTree(2);
-		for (Node node : allNetworkNodes) {
-			LatLon latLon = node.getLatLon();
-			Coordinate coordinate = wgs84Convertor.convert(latLon.lon(), latLon.lat());
-			projectedNodeCoordinats.put(node.getId(), coordinate);
-			kdTree.insert(new double[] { coordinate.x, coordinate.y }, node.getId());
+			Map<Long, Coordinate> projectedNodeCoordinats = Maps.newHashMap();
 
-		}
+			final KDTree kdTree = new KDTree(2);
+			for (Node node : allNetworkNodes) {
+				LatLon latLon = node.getLatLon();
+				Coordinate coordinate = wgs84Convertor.convert(latLon.lon(), latLon.lat());
+				projectedNodeCoordinats.put(node.getId(), coordinate);
+				kdTree.insert(new double[] { coordinate.x, coordinate.y }, node.getId());
 
-		final NodeExtendedFunction nearestNodeFinder = new NodeExtendedFunction(projectedNodeCoordinats, kdTree,
-				wgs84Convertor);
+			}
+
+			nearestNodeFinder = new NodeExtendedFunction(projectedNodeCoordinats, kdTree, wgs84Convertor);
+		}
 
 		return new AbstractModule() {
 
@@ -69,4 +76,23 @@ public class NearestNodeInitModuleFactory implements InitModuleFactory {
     protected int getEPSG() {
         return epsg;
     }
+
+	/**
+	 * @return the road network created by the map init, or null if it isn't
+	 *         bound in the injector
+	 */
+	protected CompactRoadNetwork findRoadNetwork(Injector injector) {
+		if (injector.getExistingBinding(com.google.inject.Key.get(CompactRoadNetwork.class)) == null) {
+			return null;
+		}
+		return injector.getInstance(CompactRoadNetwork.class);
+	}
+
+	protected KDTree createKdTree(CompactRoadNetwork roadNetwork) {
+		KDTree kdTree = new KDTree(2);
+		for (int node = 0; node < roadNetwork.getNumberOfNodes(); node++) {
+			kdTree.insert(new double[] { roadNetwork.getX(node), roadNetwork.getY(node) }, roadNetwork.getNodeId(node));
+		}
+		return kdTree;
+	}
 }
\ No newline at end of file
@@ -1,24 +1,67 @@
 package cz.agents.agentpolis.darptestbed.simulator.initializator.osm;
 
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.sf.javaml.core.kdtree.KDTree;
 
 import com.vividsolutions.jts.geom.Coordinate;
 
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.Hashes;
 import cz.agents.agentpolis.utils.spatialrefsys.WGS84Convertor;
 
 
 public class NodeExtendedFunction {
 
+	/**
+	 * Node of a position, that couldn't be snapped (there are no nodes)
+	 */
+	public static final long NO_NODE = -1;
+	/**
+	 * Positions snapped by one thread at once
+	 */
+	private static final int SNAP_CHUNK = 1024;
+
 	private final Map<Long, Coordinate> projectedNodeCoordinats;
+	/**
+	 * If set, node coordinates are read from the network instead of the map
+	 */
+	private final CompactRoadNetwork roadNetwork;
 	private final KDTree kdTreeForAllNodes;
 	private WGS84Convertor wgs84Convertor;
+	/**
+	 * Hash of the node coordinates, computed when it's needed
+	 */
+	private Long mapHash;
+	/**
+	 * Threads of the parallel snapping, created when they're needed first
+	 * (their threads are daemons, which end when idle)
+	 */
+	private ForkJoinPool snapPool;
+	/**
+	 * Shared by the parallel snappings, so the pool isn't shut down while
+	 * it's used
+	 */
+	private final ReadWriteLock snapPoolLock = new ReentrantReadWriteLock();
 
 	public NodeExtendedFunction(Map<Long, Coordinate> projectedNodeCoordinats, KDTree kdTreeForAllNodes,
 			WGS84Convertor wgs84Convertor) {
 		super();
 		this.projectedNodeCoordinats = projectedNodeCoordinats;
+		this.roadNetwork = null;
+		this.kdTreeForAllNodes = kdTreeForAllNodes;
+		this.wgs84Convertor = wgs84Convertor;
+	}
+
+	public NodeExtendedFunction(CompactRoadNetwork roadNetwork, KDTree kdTreeForAllNodes,
+			WGS84Convertor wgs84Convertor) {
+		super();
+		this.projectedNodeCoordinats = null;
+		this.roadNetwork = roadNetwork;
 		this.kdTreeForAllNodes = kdTreeForAllNodes;
 		this.wgs84Convertor = wgs84Convertor;
 	}
@@ -30,16 +73,127 @@ public class NodeExtendedFunction {
 
 	}
 
+	/**
+	 * Snaps the positions to their nearest nodes (like
+	 * {@link #getNearestNodeByNodeId(double, double)}), the positions are
+	 * projected and snapped by {@link GlobalParams#getInitThreads()} threads
+	 * 
+	 * @return ids of the nearest nodes ({@link #NO_NODE} if there are no
+	 *         nodes)
+	 */
+	public long[] getNearestNodes(double[] longitudes, double[] latitudes) {
+		long[] nodes = new long[longitudes.length];
+		SnapTask task = new SnapTask(longitudes, latitudes, nodes, 0, nodes.length);
+		if (GlobalParams.getInitThreads() > 1 && nodes.length > SNAP_CHUNK) {
+			ForkJoinPool pool = lockSnapPool();
+			try {
+				pool.invoke(task);
+			} finally {
+				snapPoolLock.readLock().unlock();
+			}
+		} else {
+			task.compute();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Holds the read lock of the pool, which the caller has to unlock when the
+	 * snapping is done. If the number of threads has changed, the previous
+	 * pool is shut down as soon as no snapping uses it.
+	 * 
+	 * @return the pool with the number of threads currently set
+	 */
+	private ForkJoinPool lockSnapPool() {
+		int threads = GlobalParams.getInitThreads();
+		snapPoolLock.readLock().lock();
+		if (snapPool != null && snapPool.getParallelism() == threads) {
+			return snapPool;
+		}
+		snapPoolLock.readLock().unlock();
+
+		snapPoolLock.writeLock().lock();
+		try {
+			if (snapPool == null || snapPool.getParallelism() != threads) {
+				if (snapPool != null) {
+					snapPool.shutdown();
+				}
+				snapPool = new ForkJoinPool(threads);
+			}
+			// downgraded, so the pool can't be replaced before it's used
+			snapPoolLock.readLock().lock();
+			return snapPool;
+		} finally {
+			snapPoolLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return a hash of the ids and projected coordinates of all nodes (it
+	 *         doesn't depend on the order of the nodes)
+	 */
+	public synchronized long getMapHash() {
+		if (mapHash == null) {
+			long hash = 0;
+			int numberOfNodes = 0;
+			if (roadNetwork != null) {
+				numberOfNodes = roadNetwork.getNumberOfNodes();
+				for (int node = 0; node < numberOfNodes; node++) {
+					hash += hashNode(roadNetwork.getNodeId(node), roadNetwork.getX(node), roadNetwork.getY(node));
+				}
+			} else {
+				numberOfNodes = projectedNodeCoordinats.size();
+				for (Map.Entry<Long, Coordinate> entry : projectedNodeCoordinats.entrySet()) {
+					hash += hashNode(entry.getKey(), entry.getValue().x, entry.getValue().y);
+				}
+			}
+			mapHash = hash * 31 + numberOfNodes;
+		}
+		return mapHash;
+	}
+
+	private static long hashNode(long nodeId, double x, double y) {
+		long hash = Hashes.mix(nodeId);
+		hash = Hashes.mix(hash ^ Double.doubleToLongBits(x));
+		return Hashes.mix(hash ^ Double.doubleToLongBits(y));
+	}
+
 	public double computeDistanceBetweenNodes(long fromNodeId, long toNodeId) {
+		if (roadNetwork != null) {
+			return roadNetwork.computeDistance(roadNetwork.getIndex(fromNodeId), roadNetwork.getIndex(toNodeId));
+		}
 		Coordinate from = projectedNodeCoordinats.get(fromNodeId);
 		Coordinate to = projectedNodeCoordinats.get(toNodeId);
 		return from.distance(to);
 	}
 
+	/**
+	 * @return projected coordinate of the node (in meters), or null if the
+	 *         node isn't known
+	 */
+	public Coordinate getNodeCoordinate(long nodeId) {
+		if (roadNetwork != null) {
+			int node = roadNetwork.getIndex(nodeId);
+			if (node == CompactRoadNetwork.NO_NODE) {
+				return null;
+			}
+			return new Coordinate(roadNetwork.getX(node), roadNetwork.getY(node));
+		}
+		return projectedNodeCoordinats.get(nodeId);
+	}
+
+    /**
+     * @return projected node coordinates, null if they are read from the road
+     *         network
+     */
     protected Map<Long, Coordinate> getProjectedNodeCoordinats() {
         return projectedNodeCoordinats;
     }
 
+    protected CompactRoadNetwork getRoadNetwork() {
+        return roadNetwork;
+    }
+
     protected KDTree getKdTreeForAllNodes() {
         return kdTreeForAllNodes;
     }
@@ -47,4 +201,47 @@ public class NodeExtendedFunction {
     protected WGS84Convertor getWgs84Convertor() {
         return wgs84Convertor;
     }
+
+	/**
+	 * Snaps the positions from..to-1, the range is split in halves until it's
+	 * short enough
+	 */
+	private class SnapTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] longitudes;
+		private final double[] latitudes;
+		private final long[] nodes;
+		private final int from;
+		private final int to;
+
+		SnapTask(double[] longitudes, double[] latitudes, long[] nodes, int from, int to) {
+			this.longitudes = longitudes;
+			this.latitudes = latitudes;
+			this.nodes = nodes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SNAP_CHUNK && getPool() != null) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SnapTask(longitudes, latitudes, nodes, from, middle),
+						new SnapTask(longitudes, latitudes, nodes, middle, to));
+				return;
+			}
+			// the tree and the transformation are only read, so they may be
+			// shared by the threads
+			double[] key = new double[2];
+			for (int i = from; i < to; i++) {
+				Coordinate coordinate = wgs84Convertor.convert(longitudes[i], latitudes[i]);
+				key[0] = coordinate.x;
+				key[1] = coordinate.y;
+				Long node = (Long) kdTreeForAllNodes.nearest(key);
+				nodes[i] = node == null ? NO_NODE : node;
+			}
+		}
+	}
 }
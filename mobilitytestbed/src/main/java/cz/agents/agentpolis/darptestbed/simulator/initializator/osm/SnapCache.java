@@ -0,0 +1,255 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.AtomicFiles;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.Hashes;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Nearest nodes of GPS positions, kept in a file next to the population, so
+ * repeated runs on the same scenario don't have to snap the positions again.
+ * The positions missing in the cache are snapped in bulk by
+ * {@link NodeExtendedFunction#getNearestNodes(double[], double[])}.
+ * <p/>
+ * The cache belongs to the map it was made with: it's ignored, if the hash of
+ * the map (node ids and projected coordinates, so the EPSG counts too)
+ * differs. A position is matched exactly (by the bits of its coordinates).
+ */
+public class SnapCache {
+
+    private static final Logger LOGGER = Logger.getLogger(SnapCache.class);
+
+    private static final int FILE_MAGIC = 0x534e4150;
+    private static final int FILE_VERSION = 1;
+    /**
+     * magic, version, map hash, number of positions
+     */
+    private static final int FILE_HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final String FILE_SUFFIX = ".snap";
+
+    private final File file;
+    private final NodeExtendedFunction nearestNodeFinder;
+
+    // open addressing table of the positions (a slot is free, if it's not
+    // used)
+    private long[] longitudeBits = new long[1024];
+    private long[] latitudeBits = new long[1024];
+    private long[] nodes = new long[1024];
+    private boolean[] used = new boolean[1024];
+    private int size;
+
+    /**
+     * true, if some positions have been snapped since the cache was loaded
+     */
+    private boolean changed;
+    private int hits;
+    private int misses;
+
+    private SnapCache(File file, NodeExtendedFunction nearestNodeFinder) {
+        this.file = file;
+        this.nearestNodeFinder = nearestNodeFinder;
+    }
+
+    /**
+     * Opens the cache of the population (an empty one, if it doesn't exist,
+     * is broken or belongs to another map)
+     *
+     * @param populationFile the cache is stored next to this file
+     */
+    public static SnapCache open(File populationFile, NodeExtendedFunction nearestNodeFinder) {
+        SnapCache cache = new SnapCache(new File(populationFile.getPath() + FILE_SUFFIX), nearestNodeFinder);
+        try {
+            cache.load();
+        } catch (IOException e) {
+            LOGGER.warn("The snap cache " + cache.file + " can't be read, the positions will be snapped again", e);
+            cache.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * @return the nearest nodes of the positions (from the cache, or snapped
+     *         now)
+     */
+    public long[] snap(double[] longitudes, double[] latitudes) {
+        long[] result = new long[longitudes.length];
+        int[] missing = new int[longitudes.length];
+        int numberOfMissing = 0;
+        for (int i = 0; i < longitudes.length; i++) {
+            int slot = findSlot(Double.doubleToLongBits(longitudes[i]), Double.doubleToLongBits(latitudes[i]));
+            if (used[slot]) {
+                result[i] = nodes[slot];
+            } else {
+                missing[numberOfMissing++] = i;
+            }
+        }
+        hits += longitudes.length - numberOfMissing;
+        misses += numberOfMissing;
+        if (numberOfMissing == 0) {
+            return result;
+        }
+
+        double[] missingLongitudes = new double[numberOfMissing];
+        double[] missingLatitudes = new double[numberOfMissing];
+        for (int i = 0; i < numberOfMissing; i++) {
+            missingLongitudes[i] = longitudes[missing[i]];
+            missingLatitudes[i] = latitudes[missing[i]];
+        }
+        long[] snapped = nearestNodeFinder.getNearestNodes(missingLongitudes, missingLatitudes);
+        for (int i = 0; i < numberOfMissing; i++) {
+            result[missing[i]] = snapped[i];
+            put(Double.doubleToLongBits(missingLongitudes[i]), Double.doubleToLongBits(missingLatitudes[i]),
+                    snapped[i]);
+        }
+        changed = true;
+        return result;
+    }
+
+    /**
+     * Saves the cache, if some positions have been snapped (an error is only
+     * logged, the cache isn't needed to run the simulation)
+     */
+    public void save() {
+        if (!changed) {
+            return;
+        }
+        try {
+            write();
+            changed = false;
+        } catch (IOException e) {
+            LOGGER.warn("The snap cache " + file + " can't be written", e);
+        }
+    }
+
+    /**
+     * @return the number of positions found in the cache
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of positions, that had to be snapped
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    private void load() throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() < FILE_HEADER_BYTES) {
+                throw new IOException("The snap cache file " + file + " is broken");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                throw new IOException("The file " + file + " isn't a snap cache");
+            }
+            if (buffer.getLong() != nearestNodeFinder.getMapHash()) {
+                LOGGER.info("The snap cache " + file + " belongs to another map, it will be replaced");
+                return;
+            }
+            int numberOfPositions = buffer.getInt();
+            for (int i = 0; i < numberOfPositions; i++) {
+                put(buffer.getLong(), buffer.getLong(), buffer.getLong());
+            }
+        } catch (RuntimeException e) {
+            // buffer underflow etc.
+            throw new IOException("The snap cache file " + file + " is broken", e);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the cache aside and renames it, so a broken run never leaves a
+     * half-written cache
+     */
+    private void write() throws IOException {
+        long fileSize = FILE_HEADER_BYTES + 3 * 8L * size;
+        File tmpFile = AtomicFiles.getTmpFile(file);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile, "rw");
+        try {
+            randomAccessFile.setLength(fileSize);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.putInt(FILE_MAGIC);
+            buffer.putInt(FILE_VERSION);
+            buffer.putLong(nearestNodeFinder.getMapHash());
+            buffer.putInt(size);
+            for (int slot = 0; slot < used.length; slot++) {
+                if (used[slot]) {
+                    buffer.putLong(longitudeBits[slot]);
+                    buffer.putLong(latitudeBits[slot]);
+                    buffer.putLong(nodes[slot]);
+                }
+            }
+            buffer.force();
+        } finally {
+            randomAccessFile.close();
+        }
+
+        AtomicFiles.replace(tmpFile, file);
+    }
+
+    private void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void put(long longitude, long latitude, long node) {
+        if (2 * (size + 1) > used.length) {
+            grow();
+        }
+        int slot = findSlot(longitude, latitude);
+        if (!used[slot]) {
+            used[slot] = true;
+            longitudeBits[slot] = longitude;
+            latitudeBits[slot] = latitude;
+            size++;
+        }
+        nodes[slot] = node;
+    }
+
+    /**
+     * @return the slot of the position, or the free slot, where it belongs
+     */
+    private int findSlot(long longitude, long latitude) {
+        int mask = used.length - 1;
+        int slot = (int) Hashes.mix(longitude * 31 + latitude) & mask;
+        while (used[slot] && (longitudeBits[slot] != longitude || latitudeBits[slot] != latitude)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldLongitudes = longitudeBits;
+        long[] oldLatitudes = latitudeBits;
+        long[] oldNodes = nodes;
+        boolean[] oldUsed = used;
+        longitudeBits = new long[2 * oldUsed.length];
+        latitudeBits = new long[2 * oldUsed.length];
+        nodes = new long[2 * oldUsed.length];
+        used = new boolean[2 * oldUsed.length];
+        size = 0;
+        for (int slot = 0; slot < oldUsed.length; slot++) {
+            if (oldUsed[slot]) {
+                put(oldLongitudes[slot], oldLatitudes[slot], oldNodes[slot]);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm.init;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.LongIntHashMap;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Edge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Finds the strongly connected component with more than a half of the nodes
+ * of a graph (the giant component of a road network) by the forward-backward
+ * algorithm: the component of a pivot node are the nodes, that are reachable
+ * from the pivot and that reach the pivot. Both searches run on primitive
+ * arrays, concurrently if a pool is given.
+ * <p/>
+ * Such a component is the only largest one, so it's the same component, as
+ * the one selected by sorting all the components by their sizes.
+ */
+public class GiantComponentFinder {
+
+    private static final int NO_NODE = -1;
+    /**
+     * Number of the nodes with the highest degrees tried as pivots
+     */
+    private static final int MAX_PIVOTS = 4;
+
+    private final long[] nodeIds;
+    private final LongIntHashMap nodeIndexes;
+    private final int[] firstOutgoingEdge;
+    private final int[] edgeTargets;
+    private final int[] firstIncomingEdge;
+    private final int[] edgeSources;
+    /**
+     * true, if some edges lead to nodes, that aren't in the graph
+     */
+    private boolean edgesOutside;
+
+    public GiantComponentFinder(Graph<? extends Node, ? extends Edge> graph) {
+        nodeIds = new long[graph.getAllNodes().size()];
+        nodeIndexes = new LongIntHashMap(nodeIds.length, NO_NODE);
+        int numberOfNodes = 0;
+        for (Node node : graph.getAllNodes()) {
+            nodeIds[numberOfNodes] = node.getId();
+            nodeIndexes.put(node.getId(), numberOfNodes);
+            numberOfNodes++;
+        }
+
+        firstOutgoingEdge = new int[numberOfNodes + 1];
+        firstIncomingEdge = new int[numberOfNodes + 1];
+        int numberOfEdges = 0;
+        for (int node = 0; node < numberOfNodes; node++) {
+            for (Edge edge : graph.getNodeOutcomingEdges(nodeIds[node])) {
+                int target = nodeIndexes.get(edge.getToNodeId());
+                if (target == NO_NODE) {
+                    edgesOutside = true;
+                } else {
+                    numberOfEdges++;
+                    firstIncomingEdge[target + 1]++;
+                }
+            }
+            firstOutgoingEdge[node + 1] = numberOfEdges;
+        }
+        for (int node = 0; node < numberOfNodes; node++) {
+            firstIncomingEdge[node + 1] += firstIncomingEdge[node];
+        }
+
+        edgeTargets = new int[numberOfEdges];
+        edgeSources = new int[numberOfEdges];
+        int[] nextIncomingEdge = new int[numberOfNodes];
+        System.arraycopy(firstIncomingEdge, 0, nextIncomingEdge, 0, numberOfNodes);
+        int edge = 0;
+        for (int node = 0; node < numberOfNodes; node++) {
+            for (Edge graphEdge : graph.getNodeOutcomingEdges(nodeIds[node])) {
+                int target = nodeIndexes.get(graphEdge.getToNodeId());
+                if (target != NO_NODE) {
+                    edgeTargets[edge++] = target;
+                    edgeSources[nextIncomingEdge[target]++] = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pool runs the backward search, while the forward one runs in the
+     *             calling thread (null = both in the calling thread)
+     * @return the nodes of the giant component (indexed like
+     *         {@link #getIndex(long)}), or null if there isn't any component
+     *         with more than a half of the nodes
+     */
+    public boolean[] find(ForkJoinPool pool) {
+        boolean[] tried = new boolean[nodeIds.length];
+        for (int i = 0; i < MAX_PIVOTS; i++) {
+            int pivot = findPivot(tried);
+            if (pivot == NO_NODE) {
+                return null;
+            }
+
+            ForkJoinTask<boolean[]> backwardSearch = ForkJoinTask.adapt(new Search(pivot, firstIncomingEdge,
+                    edgeSources));
+            if (pool != null) {
+                pool.execute(backwardSearch);
+            } else {
+                backwardSearch.invoke();
+            }
+            boolean[] component = new Search(pivot, firstOutgoingEdge, edgeTargets).call();
+            boolean[] reachingPivot = backwardSearch.join();
+
+            int size = 0;
+            for (int node = 0; node < nodeIds.length; node++) {
+                component[node] &= reachingPivot[node];
+                if (component[node]) {
+                    size++;
+                    tried[node] = true;
+                }
+            }
+            if (2 * size > nodeIds.length) {
+                return component;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true, if the whole graph is the component
+     */
+    public boolean isWholeGraph(boolean[] component) {
+        if (edgesOutside) {
+            return false;
+        }
+        for (boolean inComponent : component) {
+            if (!inComponent) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of the node in the array returned by
+     *         {@link #find(ForkJoinPool)}, or -1 if it isn't in the graph
+     */
+    public int getIndex(long nodeId) {
+        return nodeIndexes.get(nodeId);
+    }
+
+    /**
+     * @return the node with the highest degree (in + out), that hasn't been
+     *         tried yet (the giant component contains the crossroads)
+     */
+    private int findPivot(boolean[] tried) {
+        int pivot = NO_NODE;
+        int pivotDegree = -1;
+        for (int node = 0; node < nodeIds.length; node++) {
+            int degree = firstOutgoingEdge[node + 1] - firstOutgoingEdge[node] + firstIncomingEdge[node + 1]
+                    - firstIncomingEdge[node];
+            if (!tried[node] && degree > pivotDegree) {
+                pivot = node;
+                pivotDegree = degree;
+            }
+        }
+        if (pivot != NO_NODE) {
+            tried[pivot] = true;
+        }
+        return pivot;
+    }
+
+    /**
+     * Breadth first search over the outgoing or the incoming edges
+     */
+    private class Search implements Callable<boolean[]> {
+
+        private final int start;
+        private final int[] firstEdge;
+        private final int[] neighbours;
+
+        Search(int start, int[] firstEdge, int[] neighbours) {
+            this.start = start;
+            this.firstEdge = firstEdge;
+            this.neighbours = neighbours;
+        }
+
+        @Override
+        public boolean[] call() {
+            boolean[] reached = new boolean[nodeIds.length];
+            int[] queue = new int[nodeIds.length];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            reached[start] = true;
+            while (head < tail) {
+                int node = queue[head++];
+                for (int edge = firstEdge[node]; edge < firstEdge[node + 1]; edge++) {
+                    int neighbour = neighbours[edge];
+                    if (!reached[neighbour]) {
+                        reached[neighbour] = true;
+                        queue[tail++] = neighbour;
+                    }
+                }
+            }
+            return reached;
+        }
+    }
+}
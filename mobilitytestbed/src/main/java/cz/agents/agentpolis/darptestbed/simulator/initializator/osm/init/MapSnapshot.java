@@ -0,0 +1,453 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm.init;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.AtomicFiles;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.Hashes;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.restaurantnetwork.elements.RestaurantNode;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.EGraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphBuilder;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.highway.HighwayEdge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.highway.HighwayNode;
+import cz.agents.agentpolis.simmodel.environment.model.key.GraphFromToNodeKey;
+import org.apache.log4j.Logger;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The imported map (the simplified highway graph, its speed limits, the
+ * compact road network with the projected node coordinates and optionally
+ * the restaurants), saved next to the map file, so later runs don't have to
+ * import the map again.
+ * <p/>
+ * The snapshot belongs to the content of the map file and to the EPSG of the
+ * projection, it's ignored (and replaced by the next import), if either of
+ * them changes, or if its format version differs.
+ */
+public class MapSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(MapSnapshot.class);
+
+    private static final int FILE_MAGIC = 0x444d4150;
+    private static final int FILE_VERSION = 1;
+    private static final String FILE_SUFFIX = ".snapshot";
+    private static final int FLAG_RESTAURANTS = 1;
+    private static final int NO_STRING = -1;
+    /**
+     * The map file is hashed by parts of this size
+     */
+    private static final long HASH_CHUNK = 64L << 20;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Bounds bounds;
+    private final Graph<HighwayNode, HighwayEdge> highwayGraph;
+    private final Map<GraphFromToNodeKey, Double> speedLimits;
+    private final CompactRoadNetwork roadNetwork;
+    private final Map<Long, RestaurantNode> restaurants;
+
+    /**
+     * @param speedLimits speed limits of the highway edges (km/h)
+     * @param restaurants may be null, if they haven't been imported
+     */
+    public MapSnapshot(Bounds bounds, Graph<HighwayNode, HighwayEdge> highwayGraph,
+                       Map<GraphFromToNodeKey, Double> speedLimits, CompactRoadNetwork roadNetwork,
+                       Map<Long, RestaurantNode> restaurants) {
+        this.bounds = bounds;
+        this.highwayGraph = highwayGraph;
+        this.speedLimits = speedLimits;
+        this.roadNetwork = roadNetwork;
+        this.restaurants = restaurants;
+    }
+
+    public Bounds getBounds() {
+        return bounds;
+    }
+
+    public Graph<HighwayNode, HighwayEdge> getHighwayGraph() {
+        return highwayGraph;
+    }
+
+    public Map<GraphFromToNodeKey, Double> getSpeedLimits() {
+        return speedLimits;
+    }
+
+    public CompactRoadNetwork getRoadNetwork() {
+        return roadNetwork;
+    }
+
+    /**
+     * @return the restaurants, or null if they haven't been imported
+     */
+    public Map<Long, RestaurantNode> getRestaurants() {
+        return restaurants;
+    }
+
+    public static File getSnapshotFile(File mapFile, int epsg) {
+        return new File(mapFile.getPath() + "." + epsg + FILE_SUFFIX);
+    }
+
+    /**
+     * Loads the snapshot of the map
+     *
+     * @param restaurantsNeeded a snapshot without the restaurants is ignored
+     * @return the snapshot, or null if there isn't any valid one
+     */
+    public static MapSnapshot load(File mapFile, int epsg, boolean restaurantsNeeded) {
+        File file = getSnapshotFile(mapFile, epsg);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return read(file, mapFile, epsg, restaurantsNeeded);
+        } catch (IOException e) {
+            LOGGER.warn("The map snapshot " + file + " can't be read, the map will be imported", e);
+            return null;
+        }
+    }
+
+    /**
+     * Saves the snapshot of the map (an error is only logged, the snapshot
+     * isn't needed to run the simulation)
+     */
+    public void save(File mapFile, int epsg) {
+        File file = getSnapshotFile(mapFile, epsg);
+        try {
+            write(file, mapFile, epsg);
+        } catch (IOException e) {
+            LOGGER.warn("The map snapshot " + file + " can't be written", e);
+        }
+    }
+
+    private static MapSnapshot read(File file, File mapFile, int epsg, boolean restaurantsNeeded)
+            throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The map snapshot file " + file + " is broken");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FILE_MAGIC) {
+                throw new IOException("The file " + file + " isn't a map snapshot");
+            }
+            if (buffer.getInt() != FILE_VERSION || buffer.getInt() != epsg) {
+                LOGGER.info("The map snapshot " + file + " has another version, it will be replaced");
+                return null;
+            }
+            int flags = buffer.getInt();
+            if (buffer.getLong() != mapFile.length() || buffer.getLong() != hashFile(mapFile)) {
+                LOGGER.info("The map snapshot " + file + " belongs to another map, it will be replaced");
+                return null;
+            }
+            if (restaurantsNeeded && (flags & FLAG_RESTAURANTS) == 0) {
+                LOGGER.info("The map snapshot " + file + " doesn't contain the restaurants, it will be replaced");
+                return null;
+            }
+
+            Bounds bounds = new Bounds(new LatLon(buffer.getDouble(), buffer.getDouble()), new LatLon(
+                    buffer.getDouble(), buffer.getDouble()));
+            String[] strings = readStrings(buffer);
+            Graph<HighwayNode, HighwayEdge> highwayGraph = readHighwayGraph(buffer, strings);
+            Map<GraphFromToNodeKey, Double> speedLimits = readSpeedLimits(buffer);
+            CompactRoadNetwork roadNetwork = readRoadNetwork(buffer);
+            Map<Long, RestaurantNode> restaurants = null;
+            if ((flags & FLAG_RESTAURANTS) != 0) {
+                restaurants = readRestaurants(buffer, strings);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("The map snapshot file " + file + " is broken");
+            }
+            return new MapSnapshot(bounds, highwayGraph, speedLimits, roadNetwork, restaurants);
+        } catch (RuntimeException e) {
+            // buffer underflow, a network, that doesn't fit together etc.
+            throw new IOException("The map snapshot file " + file + " is broken", e);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static String[] readStrings(MappedByteBuffer buffer) {
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, UTF8);
+        }
+        return strings;
+    }
+
+    private static String getString(String[] strings, int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    private static Graph<HighwayNode, HighwayEdge> readHighwayGraph(MappedByteBuffer buffer, String[] strings) {
+        GraphBuilder<HighwayNode, HighwayEdge> graphBuilder = new GraphBuilder<HighwayNode, HighwayEdge>();
+        int numberOfNodes = buffer.getInt();
+        for (int i = 0; i < numberOfNodes; i++) {
+            long id = buffer.getLong();
+            LatLon latLon = new LatLon(buffer.getDouble(), buffer.getDouble());
+            graphBuilder.addNode(new HighwayNode(id, latLon, getString(strings, buffer.getInt())));
+        }
+        int numberOfEdges = buffer.getInt();
+        for (int i = 0; i < numberOfEdges; i++) {
+            long fromNodeId = buffer.getLong();
+            long toNodeId = buffer.getLong();
+            double length = buffer.getDouble();
+            String nameOfStreet = getString(strings, buffer.getInt());
+            graphBuilder.addEdge(new HighwayEdge(fromNodeId, toNodeId, length, nameOfStreet, buffer.getInt()));
+        }
+        return graphBuilder.createGraph();
+    }
+
+    /**
+     * The limits of the edges removed by the simplification are kept too,
+     * a missing limit (null) is stored as NaN
+     */
+    private static Map<GraphFromToNodeKey, Double> readSpeedLimits(MappedByteBuffer buffer) {
+        int numberOfLimits = buffer.getInt();
+        Map<GraphFromToNodeKey, Double> speedLimits = new HashMap<GraphFromToNodeKey, Double>(
+                2 * numberOfLimits);
+        for (int i = 0; i < numberOfLimits; i++) {
+            GraphFromToNodeKey key = new GraphFromToNodeKey(EGraphType.HIGHWAY, buffer.getLong(), buffer.getLong());
+            double speedLimit = buffer.getDouble();
+            speedLimits.put(key, Double.isNaN(speedLimit) ? null : speedLimit);
+        }
+        return speedLimits;
+    }
+
+    private static CompactRoadNetwork readRoadNetwork(MappedByteBuffer buffer) {
+        int numberOfNodes = buffer.getInt();
+        long[] nodeIds = new long[numberOfNodes];
+        double[] nodeX = new double[numberOfNodes];
+        double[] nodeY = new double[numberOfNodes];
+        int[] firstEdge = new int[numberOfNodes + 1];
+        getLongs(buffer, nodeIds);
+        getDoubles(buffer, nodeX);
+        getDoubles(buffer, nodeY);
+        getInts(buffer, firstEdge);
+
+        int numberOfEdges = buffer.getInt();
+        int[] edgeTargets = new int[numberOfEdges];
+        double[] edgeLengths = new double[numberOfEdges];
+        double[] edgeSpeedLimits = new double[numberOfEdges];
+        getInts(buffer, edgeTargets);
+        getDoubles(buffer, edgeLengths);
+        getDoubles(buffer, edgeSpeedLimits);
+        return CompactRoadNetwork.create(nodeIds, nodeX, nodeY, firstEdge, edgeTargets, edgeLengths,
+                edgeSpeedLimits);
+    }
+
+    private static Map<Long, RestaurantNode> readRestaurants(MappedByteBuffer buffer, String[] strings) {
+        int numberOfRestaurants = buffer.getInt();
+        Map<Long, RestaurantNode> restaurants = new HashMap<Long, RestaurantNode>(2 * numberOfRestaurants);
+        for (int i = 0; i < numberOfRestaurants; i++) {
+            long id = buffer.getLong();
+            LatLon latLon = new LatLon(buffer.getDouble(), buffer.getDouble());
+            restaurants.put(id, new RestaurantNode(id, latLon, getString(strings, buffer.getInt())));
+        }
+        return restaurants;
+    }
+
+    private static void getLongs(MappedByteBuffer buffer, long[] column) {
+        buffer.asLongBuffer().get(column);
+        buffer.position(buffer.position() + 8 * column.length);
+    }
+
+    private static void getDoubles(MappedByteBuffer buffer, double[] column) {
+        buffer.asDoubleBuffer().get(column);
+        buffer.position(buffer.position() + 8 * column.length);
+    }
+
+    private static void getInts(MappedByteBuffer buffer, int[] column) {
+        buffer.asIntBuffer().get(column);
+        buffer.position(buffer.position() + 4 * column.length);
+    }
+
+    /**
+     * Writes the snapshot aside and renames it, so a broken run never leaves
+     * a half-written snapshot
+     */
+    private void write(File file, File mapFile, int epsg) throws IOException {
+        long mapHash = hashFile(mapFile);
+        Map<String, Integer> stringIndexes = collectStrings();
+
+        File tmpFile = AtomicFiles.getTmpFile(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(epsg);
+            out.writeInt(restaurants == null ? 0 : FLAG_RESTAURANTS);
+            out.writeLong(mapFile.length());
+            out.writeLong(mapHash);
+            out.writeDouble(bounds.getMin().lat());
+            out.writeDouble(bounds.getMin().lon());
+            out.writeDouble(bounds.getMax().lat());
+            out.writeDouble(bounds.getMax().lon());
+
+            out.writeInt(stringIndexes.size());
+            for (String string : stringIndexes.keySet()) {
+                byte[] bytes = string.getBytes(UTF8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            writeHighwayGraph(out, stringIndexes);
+            writeSpeedLimits(out);
+            writeRoadNetwork(out);
+            if (restaurants != null) {
+                writeRestaurants(out, stringIndexes);
+            }
+        } finally {
+            out.close();
+        }
+
+        AtomicFiles.replace(tmpFile, file);
+    }
+
+    /**
+     * @return the descriptions and street names with their indexes in the
+     *         order of the indexes
+     */
+    private Map<String, Integer> collectStrings() {
+        List<String> strings = new ArrayList<String>();
+        for (HighwayNode node : highwayGraph.getAllNodes()) {
+            strings.add(node.getDescription());
+            for (HighwayEdge edge : highwayGraph.getNodeOutcomingEdges(node.getId())) {
+                strings.add(edge.getNameOfStreet());
+            }
+        }
+        if (restaurants != null) {
+            for (RestaurantNode restaurant : restaurants.values()) {
+                strings.add(restaurant.getDescription());
+            }
+        }
+
+        Map<String, Integer> stringIndexes = new LinkedHashMap<String, Integer>();
+        for (String string : strings) {
+            if (string != null && !stringIndexes.containsKey(string)) {
+                stringIndexes.put(string, stringIndexes.size());
+            }
+        }
+        return stringIndexes;
+    }
+
+    private static int getStringIndex(Map<String, Integer> stringIndexes, String string) {
+        return string == null ? NO_STRING : stringIndexes.get(string);
+    }
+
+    /**
+     * The nodes are written first (the builder needs them before the edges),
+     * the edges of each node keep their order
+     */
+    private void writeHighwayGraph(DataOutputStream out, Map<String, Integer> stringIndexes) throws IOException {
+        int numberOfEdges = 0;
+        out.writeInt(highwayGraph.getAllNodes().size());
+        for (HighwayNode node : highwayGraph.getAllNodes()) {
+            out.writeLong(node.getId());
+            out.writeDouble(node.getLatLon().lat());
+            out.writeDouble(node.getLatLon().lon());
+            out.writeInt(getStringIndex(stringIndexes, node.getDescription()));
+            numberOfEdges += highwayGraph.getNodeOutcomingEdges(node.getId()).size();
+        }
+        out.writeInt(numberOfEdges);
+        for (HighwayNode node : highwayGraph.getAllNodes()) {
+            for (HighwayEdge edge : highwayGraph.getNodeOutcomingEdges(node.getId())) {
+                out.writeLong(edge.getFromNodeId());
+                out.writeLong(edge.getToNodeId());
+                out.writeDouble(edge.getLength());
+                out.writeInt(getStringIndex(stringIndexes, edge.getNameOfStreet()));
+                out.writeInt(edge.getNumberOfLanes());
+            }
+        }
+    }
+
+    private void writeSpeedLimits(DataOutputStream out) throws IOException {
+        out.writeInt(speedLimits.size());
+        for (Entry<GraphFromToNodeKey, Double> entry : speedLimits.entrySet()) {
+            out.writeLong(entry.getKey().fromNodeByNodeId);
+            out.writeLong(entry.getKey().toNodeByNodeId);
+            out.writeDouble(entry.getValue() == null ? Double.NaN : entry.getValue());
+        }
+    }
+
+    private void writeRoadNetwork(DataOutputStream out) throws IOException {
+        int numberOfNodes = roadNetwork.getNumberOfNodes();
+        out.writeInt(numberOfNodes);
+        for (int node = 0; node < numberOfNodes; node++) {
+            out.writeLong(roadNetwork.getNodeId(node));
+        }
+        for (int node = 0; node < numberOfNodes; node++) {
+            out.writeDouble(roadNetwork.getX(node));
+        }
+        for (int node = 0; node < numberOfNodes; node++) {
+            out.writeDouble(roadNetwork.getY(node));
+        }
+        // the first edge of the node after the last one = the number of edges
+        for (int node = 0; node <= numberOfNodes; node++) {
+            out.writeInt(roadNetwork.getFirstEdge(node));
+        }
+
+        int numberOfEdges = roadNetwork.getNumberOfEdges();
+        out.writeInt(numberOfEdges);
+        for (int edge = 0; edge < numberOfEdges; edge++) {
+            out.writeInt(roadNetwork.getEdgeTarget(edge));
+        }
+        for (int edge = 0; edge < numberOfEdges; edge++) {
+            out.writeDouble(roadNetwork.getEdgeLength(edge));
+        }
+        for (int edge = 0; edge < numberOfEdges; edge++) {
+            out.writeDouble(roadNetwork.getEdgeSpeedLimit(edge));
+        }
+    }
+
+    private void writeRestaurants(DataOutputStream out, Map<String, Integer> stringIndexes) throws IOException {
+        out.writeInt(restaurants.size());
+        for (RestaurantNode restaurant : restaurants.values()) {
+            out.writeLong(restaurant.getId());
+            out.writeDouble(restaurant.getLatLon().lat());
+            out.writeDouble(restaurant.getLatLon().lon());
+            out.writeInt(getStringIndex(stringIndexes, restaurant.getDescription()));
+        }
+    }
+
+    /**
+     * @return hash of the content of the file
+     */
+    static long hashFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            long hash = Hashes.mix(size + 1);
+            for (long position = 0; position < size; position += HASH_CHUNK) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_CHUNK, size - position));
+                while (buffer.remaining() >= 8) {
+                    hash = Hashes.mix(hash ^ buffer.getLong()) + 1;
+                }
+                while (buffer.hasRemaining()) {
+                    hash = Hashes.mix(hash ^ (buffer.get() & 0xff)) + 1;
+                }
+            }
+            return hash;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
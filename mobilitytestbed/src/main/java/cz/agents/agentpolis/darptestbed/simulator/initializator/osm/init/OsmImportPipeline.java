@@ -0,0 +1,361 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm.init;
+
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.selector.impl.RoadwayGraphOsmBinder;
+import cz.agents.agentpolis.siminfrastructure.planner.path.ShortestPathPlanner.PlannerEdge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.restaurantnetwork.elements.RestaurantNode;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.EGraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphBuilder;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Edge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.highway.HighwayEdge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.highway.HighwayNode;
+import cz.agents.agentpolis.simmodel.environment.model.key.GraphFromToNodeKey;
+import cz.agents.agentpolis.simulator.importer.osm.OsmDataGetter;
+import cz.agents.agentpolis.simulator.importer.osm.OsmImporter;
+import cz.agents.agentpolis.simulator.importer.osm.selector.impl.RestaurantImportSelector;
+import cz.agents.agentpolis.simulator.importer.osm.simplification.EdgeFactory;
+import cz.agents.agentpolis.simulator.importer.osm.simplification.GraphEdgeSimplificationToolImpl;
+import cz.agents.agentpolis.simulator.importer.osm.simplification.GraphSimplificationBuilder;
+import cz.agents.agentpolis.simulator.importer.osm.simplification.dto.SimplifiedGraph;
+import cz.agents.agentpolis.simulator.importer.osm.speedlimit.SpeedLimitCollector;
+import cz.agents.agentpolis.simulator.importer.osm.speedlimit.waytype.DefaultSpeedLimitRoadTypeProvider;
+import cz.agents.agentpolis.simulator.importer.osm.task.impl.SimpleNodeImporterTask;
+import cz.agents.agentpolis.simulator.importer.osm.task.transportnetwork.HighwayGraphImportTask;
+import cz.agents.agentpolis.simulator.importer.osm.util.OSMBoundsUtil;
+import cz.agents.agentpolis.utils.key.Key;
+import cz.agents.agentpolis.utils.spatialrefsys.WGS84Convertor;
+import org.apache.log4j.Logger;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.alg.StrongConnectivityInspector;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Imports the simplified highway graph (and optionally the restaurants) from
+ * an OSM map. The stages, that don't depend on each other, run concurrently
+ * by {@link GlobalParams#getInitThreads()} threads: the bounds of the map and
+ * the restaurants are imported, while the highway graph is imported, reduced
+ * to its largest strongly connected component and simplified. The imported
+ * map doesn't depend on the number of threads.
+ * <p/>
+ * The duration of each stage is logged (the concurrent stages overlap).
+ */
+public class OsmImportPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(OsmImportPipeline.class);
+
+    private final int epsg;
+    private final boolean importRestaurants;
+    /**
+     * Durations of the finished stages (in ms) in the order they finished
+     */
+    private final Map<String, Long> stageTimes = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+    /**
+     * Runs the concurrent stages, null = the stages run one by one
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * @param epsg              the node coordinates of the road network are
+     *                          projected into this system
+     * @param importRestaurants true, if the restaurants should be imported
+     *                          too
+     */
+    public OsmImportPipeline(int epsg, boolean importRestaurants) {
+        this.epsg = epsg;
+        this.importRestaurants = importRestaurants;
+    }
+
+    public MapSnapshot importMap(File mapFile) {
+        stageTimes.clear();
+        long start = System.currentTimeMillis();
+        OsmDataGetter osmDataGetter = OsmDataGetter.createOsmDataGetter(mapFile);
+        stageFinished("parsing", start);
+        MapSnapshot snapshot = runStages(osmDataGetter);
+        logStageTimes(start);
+        return snapshot;
+    }
+
+    public MapSnapshot importMap(OsmDataGetter osmDataGetter) {
+        stageTimes.clear();
+        long start = System.currentTimeMillis();
+        MapSnapshot snapshot = runStages(osmDataGetter);
+        logStageTimes(start);
+        return snapshot;
+    }
+
+    /**
+     * @return durations of the stages of the last import (in ms)
+     */
+    public Map<String, Long> getStageTimes() {
+        synchronized (stageTimes) {
+            return new LinkedHashMap<String, Long>(stageTimes);
+        }
+    }
+
+    private MapSnapshot runStages(final OsmDataGetter osmDataGetter) {
+        int threads = GlobalParams.getInitThreads();
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            final WGS84Convertor wgs84Convertor = WGS84Convertor.createConvertorFromWGS84ToSpatialRefSys(epsg);
+
+            // the parsed map is only read by the stages, so they may share it
+            ForkJoinTask<Bounds> bounds = fork(new Callable<Bounds>() {
+
+                @Override
+                public Bounds call() {
+                    long start = System.currentTimeMillis();
+                    Bounds bounds = OSMBoundsUtil.computeBoundsOfSimulationWorld(osmDataGetter);
+                    stageFinished("bounds", start);
+                    return bounds;
+                }
+            });
+            ForkJoinTask<Map<Long, RestaurantNode>> restaurants = null;
+            if (importRestaurants) {
+                restaurants = fork(new Callable<Map<Long, RestaurantNode>>() {
+
+                    @Override
+                    public Map<Long, RestaurantNode> call() {
+                        long start = System.currentTimeMillis();
+                        Map<Long, RestaurantNode> restaurants = new OsmImporter(osmDataGetter).executeTaskForNode(
+                                new SimpleNodeImporterTask(wgs84Convertor), RestaurantImportSelector.getSelector());
+                        stageFinished("restaurants", start);
+                        return restaurants;
+                    }
+                });
+            }
+
+            long start = System.currentTimeMillis();
+            OsmImporter importer = new OsmImporter(osmDataGetter);
+            SpeedLimitCollector speedLimitCollector = new SpeedLimitCollector<HighwayNode, HighwayEdge>(
+                    EGraphType.HIGHWAY, 50, new DefaultSpeedLimitRoadTypeProvider());
+            Graph highWay = importer.executeTaskForWay(new HighwayGraphImportTask(speedLimitCollector),
+                    RoadwayGraphOsmBinder.getSelector());
+            stageFinished("highway graph", start);
+
+            start = System.currentTimeMillis();
+            highWay = connectivity(highWay);
+            stageFinished("connectivity", start);
+
+            start = System.currentTimeMillis();
+            Map<GraphFromToNodeKey, Double> highwayLimits = speedLimitCollector.getSpeedLimistForSpecificSegment();
+            GraphEdgeSimplificationToolImpl<HighwayNode, HighwayEdge> tGS = new GraphEdgeSimplificationToolImpl<HighwayNode, HighwayEdge>(
+                    new GraphSimplificationBuilder<HighwayNode, HighwayEdge>(new HighwayEdgeFactory()),
+                    new HashSet<Long>(), EGraphType.HIGHWAY, highwayLimits);
+            SimplifiedGraph<HighwayNode, HighwayEdge> simplifyGraph = tGS.simplifyGraph(highWay);
+            Map<GraphFromToNodeKey, Double> simplifiedHighwayLimits = makeConsistentWithSimplifiedGraph(
+                    highwayLimits, EGraphType.HIGHWAY, simplifyGraph.mapppingBetweenOriginNewGraph);
+            stageFinished("simplification", start);
+
+            start = System.currentTimeMillis();
+            CompactRoadNetwork roadNetwork = CompactRoadNetwork.create(simplifyGraph.simplifiedGraph,
+                    EGraphType.HIGHWAY, simplifiedHighwayLimits, wgs84Convertor);
+            stageFinished("road network", start);
+
+            return new MapSnapshot(bounds.join(), simplifyGraph.simplifiedGraph, simplifiedHighwayLimits,
+                    roadNetwork, restaurants == null ? null : restaurants.join());
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
+
+    /**
+     * Starts the stage in the pool, or runs it now, if there isn't any pool
+     */
+    private <T> ForkJoinTask<T> fork(Callable<T> stage) {
+        ForkJoinTask<T> task = ForkJoinTask.adapt(stage);
+        if (pool != null) {
+            pool.execute(task);
+        } else {
+            task.invoke();
+        }
+        return task;
+    }
+
+    private void stageFinished(String stage, long start) {
+        stageTimes.put(stage, System.currentTimeMillis() - start);
+    }
+
+    private void logStageTimes(long start) {
+        StringBuilder stages = new StringBuilder();
+        for (Entry<String, Long> stage : getStageTimes().entrySet()) {
+            stages.append(stages.length() == 0 ? "" : ", ").append(stage.getKey()).append(" ")
+                    .append(stage.getValue()).append(" ms");
+        }
+        LOGGER.info("The map has been imported in " + (System.currentTimeMillis() - start) + " ms (" + stages
+                + ")");
+    }
+
+    /**
+     * Reduces the graph to its largest strongly connected component. The
+     * component is found by {@link GiantComponentFinder}, if it contains more
+     * than a half of the nodes (as in any real road network), otherwise all
+     * the components are computed and sorted by their sizes.
+     */
+    Graph<Node, Edge> connectivity(Graph graph) {
+        GiantComponentFinder finder = new GiantComponentFinder(graph);
+        boolean[] component = finder.find(pool);
+        if (component == null) {
+            LOGGER.debug("No strong component of the Highway map has more than a half of the nodes, "
+                    + "all the components will be computed");
+            return connectivityOfAllComponents(graph);
+        }
+        if (finder.isWholeGraph(component)) {
+            return graph;
+        }
+
+        LOGGER.debug("The Highway map has more then one strong component, it will be selected the largest components");
+
+        Graph<Node, Edge> fullGraph = graph;
+        GraphBuilder<Node, Edge> graphBuilder = new GraphBuilder<>();
+        for (Node node : fullGraph.getAllNodes()) {
+            if (component[finder.getIndex(node.getId())]) {
+                graphBuilder.addNode(node);
+            }
+        }
+        for (Node node : fullGraph.getAllNodes()) {
+            if (!component[finder.getIndex(node.getId())]) {
+                continue;
+            }
+            for (Edge edge : fullGraph.getNodeOutcomingEdges(node.getId())) {
+                int target = finder.getIndex(edge.getToNodeId());
+                if (target != -1 && component[target]) {
+                    graphBuilder.addEdge(fullGraph.getEdges(node.getId(), edge.getToNodeId()));
+                }
+            }
+        }
+        return graphBuilder.createGraph();
+    }
+
+    Graph<Node, Edge> connectivityOfAllComponents(Graph graph) {
+
+        DirectedGraph<Long, PlannerEdge> plannerGraph = prepareGraphForFindComponents(graph);
+
+        StrongConnectivityInspector<Long, PlannerEdge> strongConnectivityInspector = new StrongConnectivityInspector<>(
+                plannerGraph);
+
+        if (strongConnectivityInspector.isStronglyConnected()) {
+            return graph;
+        }
+
+        LOGGER.debug("The Highway map has more then one strong component, it will be selected the largest components");
+
+        Set<Long> strongestComponents = getTheLargestGraphComponent(strongConnectivityInspector);
+
+        return createGraphBasedOnTheLargestComponent(graph, strongestComponents);
+    }
+
+    private DirectedGraph<Long, PlannerEdge> prepareGraphForFindComponents(Graph<Node, Edge> graph) {
+
+        DirectedGraph<Long, PlannerEdge> plannerGraph = new DefaultDirectedGraph<>(PlannerEdge.class);
+        Set<Long> addedNodes = new HashSet<Long>();
+
+        for (Node node : graph.getAllNodes()) {
+            Long fromPositionByNodeId = node.getId();
+            if (addedNodes.contains(fromPositionByNodeId) == false) {
+                addedNodes.add(fromPositionByNodeId);
+                plannerGraph.addVertex(fromPositionByNodeId);
+            }
+
+            for (Edge edge : graph.getNodeOutcomingEdges(node.getId())) {
+                Long toPositionByNodeId = edge.getToNodeId();
+                if (addedNodes.contains(toPositionByNodeId) == false) {
+                    addedNodes.add(toPositionByNodeId);
+                    plannerGraph.addVertex(toPositionByNodeId);
+                }
+
+                PlannerEdge plannerEdge = new PlannerEdge(null, fromPositionByNodeId, toPositionByNodeId);
+                plannerGraph.addEdge(fromPositionByNodeId, toPositionByNodeId, plannerEdge);
+            }
+
+        }
+        return plannerGraph;
+    }
+
+    private Graph<Node, Edge> createGraphBasedOnTheLargestComponent(Graph<Node, Edge> graph,
+            Set<Long> strongestComponents) {
+        GraphBuilder<Node, Edge> graphBuilder = new GraphBuilder<>();
+        for (Long nodeId : strongestComponents) {
+            graphBuilder.addNode(graph.getNodeByNodeId(nodeId));
+        }
+
+        for (Long nodeId : strongestComponents) {
+            for (Edge edge : graph.getNodeOutcomingEdges(nodeId)) {
+                if (strongestComponents.contains(edge.getToNodeId())) {
+                    graphBuilder.addEdge(graph.getEdges(nodeId, edge.getToNodeId()));
+                }
+            }
+        }
+        return graphBuilder.createGraph();
+    }
+
+    private Set<Long> getTheLargestGraphComponent(
+            StrongConnectivityInspector<Long, PlannerEdge> strongConnectivityInspector) {
+        List<Set<Long>> components = strongConnectivityInspector.stronglyConnectedSets();
+        Collections.sort(components, new Comparator<Set<Long>>() {
+
+            @Override
+            public int compare(Set<Long> o1, Set<Long> o2) {
+                return o2.size() - o1.size();
+            }
+
+        });
+
+        return components.get(0);
+    }
+
+    private Map<GraphFromToNodeKey, Double> makeConsistentWithSimplifiedGraph(Map<GraphFromToNodeKey, Double> speed,
+            GraphType graphType, Map<Key, Key> mapppingBetweenOriginNewGraph) {
+
+        for (Entry<Key, Key> entry : mapppingBetweenOriginNewGraph.entrySet()) {
+
+            Key key = entry.getKey();
+            Key value = entry.getValue();
+
+            GraphFromToNodeKey originEdge = new GraphFromToNodeKey(graphType, key.firstPartOfKey, key.secondPartOfKey);
+            GraphFromToNodeKey mappedEdge = new GraphFromToNodeKey(graphType, value.firstPartOfKey,
+                    value.secondPartOfKey);
+
+            Double speedLimitOrgValue = speed.remove(originEdge);
+            Double speedLimitMappingValue = speed.remove(mappedEdge);
+
+            if (speedLimitMappingValue != null && speedLimitMappingValue < speedLimitOrgValue) {
+                speedLimitOrgValue = speedLimitMappingValue;
+            }
+
+            speed.put(mappedEdge, speedLimitOrgValue);
+
+        }
+
+        return speed;
+    }
+
+    private static class HighwayEdgeFactory implements EdgeFactory<HighwayEdge> {
+
+        @Override
+        public HighwayEdge createEdge(long fromNodeId, long toNodeId, double lenght, HighwayEdge incomingEdge) {
+            return new HighwayEdge(fromNodeId, toNodeId, lenght, "");
+        }
+
+    }
+}
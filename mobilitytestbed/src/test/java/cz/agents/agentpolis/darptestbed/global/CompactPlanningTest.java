@@ -0,0 +1,119 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+
+/**
+ * The insertion into compact plans has to make the same plans as the
+ * insertion into the plan items
+ */
+public class CompactPlanningTest {
+
+	private static final int NUMBER_OF_VEHICLES = 10;
+
+	private final GridTestFixture grid = new GridTestFixture(20);
+	private final Utils utils = grid.createUtils();
+	private final List<TestbedVehicle> vehicles = new ArrayList<TestbedVehicle>();
+
+	public CompactPlanningTest() {
+		Random random = new Random(1);
+		for (int i = 0; i < NUMBER_OF_VEHICLES; i++) {
+			vehicles.add(grid.addVehicle("vehicle" + i, "driver" + i, grid.getRandomNode(random),
+					1 + random.nextInt(4)));
+		}
+	}
+
+	@After
+	public void resetCompactPlans() {
+		GlobalParams.setCompactPlans(false);
+	}
+
+	@Test
+	public void testNewAndExtendedPlans() {
+		List<String> plans = planNewAndExtended(false);
+		List<String> compactPlans = planNewAndExtended(true);
+		assertEquals(plans, compactPlans);
+	}
+
+	@Test
+	public void testPlansWithRequestsInExecution() {
+		List<String> plans = planWithRequestsInExecution(false);
+		List<String> compactPlans = planWithRequestsInExecution(true);
+		assertEquals(plans, compactPlans);
+	}
+
+	/**
+	 * New plans by {@link Utils#planTrips(List, TestbedVehicle, FlexiblePlan, boolean)},
+	 * later extended by more requests
+	 */
+	private List<String> planNewAndExtended(boolean compactPlans) {
+		GlobalParams.setCompactPlans(compactPlans);
+		grid.setCurrentTime(0);
+		Random random = new Random(2);
+		int requestId = 0;
+		int plannedRequests = 0;
+		List<String> descriptions = new ArrayList<String>();
+		for (TestbedVehicle vehicle : vehicles) {
+			List<Request> requests = new ArrayList<Request>();
+			for (int i = 0; i < 8; i++) {
+				requests.add(grid.createRequest(random, requestId++));
+			}
+			FlexiblePlan plan = utils.planTrips(requests, vehicle, null, false);
+			descriptions.add(GridTestFixture.describe(plan));
+			plannedRequests += plan.getRequests().size();
+
+			List<Request> moreRequests = new ArrayList<Request>();
+			for (int i = 0; i < 4; i++) {
+				moreRequests.add(grid.createRequest(random, requestId++));
+			}
+			plan = utils.planTrips(moreRequests, vehicle, plan, false);
+			descriptions.add(GridTestFixture.describe(plan));
+		}
+		assertTrue(plannedRequests > NUMBER_OF_VEHICLES);
+		return descriptions;
+	}
+
+	/**
+	 * Plans by {@link Utils#planTrips(List, TestbedVehicle, Set, FlexiblePlan, boolean)}
+	 * with some passengers already on board
+	 */
+	private List<String> planWithRequestsInExecution(boolean compactPlans) {
+		GlobalParams.setCompactPlans(compactPlans);
+		grid.setCurrentTime(0);
+		Random random = new Random(3);
+		int requestId = 0;
+		int plannedPlans = 0;
+		List<String> descriptions = new ArrayList<String>();
+		for (TestbedVehicle vehicle : vehicles) {
+			List<Request> requests = new ArrayList<Request>();
+			Set<Request> requestsInExecution = new HashSet<Request>();
+			for (int i = 0; i < 6; i++) {
+				Request request = grid.createRequest(random, requestId++);
+				requests.add(request);
+				if (i < vehicle.getCapacity() / 2) {
+					requestsInExecution.add(request);
+				}
+			}
+			FlexiblePlan plan = utils.planTrips(requests, vehicle, requestsInExecution, null, false);
+			descriptions.add(plan == null ? "no plan" : GridTestFixture.describe(plan));
+			if (plan != null) {
+				plannedPlans++;
+			}
+		}
+		assertTrue(plannedPlans > 0);
+		return descriptions;
+	}
+}
@@ -0,0 +1,77 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TimeWindow;
+
+public class DrivingTimesToPassengersTest {
+
+	private final GridTestFixture grid = new GridTestFixture(15);
+
+	@Test
+	public void testBoundedSearchMatchesPairs() {
+		Utils searching = grid.createUtils();
+		searching.setRoadNetwork(grid.createRoadNetwork());
+		Utils pairwise = grid.createUtils();
+
+		Random random = new Random(8);
+		for (int round = 0; round < 20; round++) {
+			long currentTime = random.nextInt(10) * GridTestFixture.MINUTE;
+			grid.setCurrentTime(currentTime);
+			grid.getPositions().put("driver", grid.getRandomNode(random));
+			List<Request> requests = new ArrayList<Request>();
+			for (int i = 0; i < 10; i++) {
+				long latestDeparture = currentTime + random.nextInt(20 * (int) GridTestFixture.MINUTE);
+				requests.add(grid.createRequest("passenger" + i, grid.getRandomNode(random), 0, new TimeWindow(0,
+						latestDeparture, 0, latestDeparture + 3600000L)));
+			}
+			// neither measured
+			requests.add(grid.createRequest("passenger10", 0, 0, null));
+			Set<Request> requestsInExecution = Collections.singleton(requests.get(0));
+
+			long maxDrivingTime = 0;
+			for (Request request : requests.subList(1, 10)) {
+				maxDrivingTime = Math.max(maxDrivingTime, request.getTimeWindow().getLatestDeparture() - currentTime);
+			}
+			long[] drivingTimes = searching.computeDrivingTimesToPassengers("driver", requests, requestsInExecution);
+			long[] pairDrivingTimes = pairwise.computeDrivingTimesToPassengers("driver", requests,
+					requestsInExecution);
+
+			assertEquals(0, drivingTimes[0]);
+			assertEquals(0, drivingTimes[10]);
+			for (int i = 1; i < 10; i++) {
+				long expected = pairwise.computeDrivingTime("driver", requests.get(i).getPassengerId());
+				assertEquals(expected, pairDrivingTimes[i]);
+				if (expected <= maxDrivingTime) {
+					assertEquals(expected, drivingTimes[i]);
+				} else {
+					// beyond the bound of the search
+					assertTrue(drivingTimes[i] == expected || drivingTimes[i] == Long.MAX_VALUE);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAllLate() {
+		Utils utils = grid.createUtils();
+		utils.setRoadNetwork(grid.createRoadNetwork());
+		grid.setCurrentTime(10 * GridTestFixture.MINUTE);
+		grid.getPositions().put("driver", 0L);
+		List<Request> requests = new ArrayList<Request>();
+		requests.add(grid.createRequest("passenger", 0, 1, new TimeWindow(0, 5 * GridTestFixture.MINUTE, 0,
+				15 * GridTestFixture.MINUTE)));
+
+		assertEquals(Long.MAX_VALUE, utils.computeDrivingTimesToPassengers("driver", requests, null)[0]);
+	}
+}
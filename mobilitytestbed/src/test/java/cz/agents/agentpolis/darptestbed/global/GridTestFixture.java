@@ -0,0 +1,285 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.graph.DirectedWeightedMultigraph;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedAStarPlanner;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedPlanner;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.PlanItem;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TimeWindow;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedModel;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+import cz.agents.agentpolis.siminfrastructure.planner.utils.PlannerEdge;
+import cz.agents.agentpolis.siminfrastructure.planner.trip.Trips;
+import cz.agents.agentpolis.simmodel.entity.vehicle.VehicleType;
+import cz.agents.agentpolis.simmodel.environment.model.AgentPositionModel;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.AllNetworkNodes;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.EGraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.TransportNetworks;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
+import cz.agents.agentpolis.simmodel.environment.model.query.AgentPositionQuery;
+import cz.agents.agentpolis.simmodel.environment.model.sensor.PositionUpdated;
+import cz.agents.agentpolis.utils.key.KeyWithString;
+import cz.agents.alite.common.event.EventProcessor;
+
+/**
+ * A square grid city for the planning tests. Node x + y * size lies at (x *
+ * SPACING_IN_METERS, y * SPACING_IN_METERS), the routes between nodes are as
+ * long as their Manhattan distance and it takes one minute to drive between
+ * neighbouring nodes. The agents' positions and the simulation time are set
+ * by the tests (and the benchmarks, which run on a bigger grid).
+ */
+public class GridTestFixture {
+
+	public static final double SPACING_IN_METERS = 100;
+	public static final long MINUTE = 60000L;
+	/**
+	 * One spacing per minute
+	 */
+	public static final double VELOCITY_IN_KMPH = SPACING_IN_METERS * 60 / 1000;
+
+	private final int size;
+	private final Map<String, Long> positions = new HashMap<String, Long>();
+	private final AgentPositionQuery positionQuery;
+	private final TestbedModel taxiModel;
+	private final NodeExtendedFunction nodeFunction;
+	private long currentTime = 0;
+	private final AtomicInteger numberOfRoutes = new AtomicInteger();
+
+	public GridTestFixture(int size) {
+		this.size = size;
+		GlobalParams.setVelocityInKmph(VELOCITY_IN_KMPH);
+		AgentPositionModel positionModel = new AgentPositionModel(positions,
+				new HashMap<String, Set<PositionUpdated>>(), new HashMap<KeyWithString, Set<PositionUpdated>>(),
+				new EventProcessor());
+		// no graphs, the positions are asked by node ids only
+		this.positionQuery = new AgentPositionQuery(positionModel, new TransportNetworks(null), new AllNetworkNodes(
+				new HashMap<Long, Node>()));
+		this.taxiModel = new TestbedModel(positionQuery, null);
+
+		Map<Long, Coordinate> coordinates = new HashMap<Long, Coordinate>();
+		for (long node = 0; node < getNumberOfNodes(); node++) {
+			coordinates.put(node, new Coordinate(node % size * SPACING_IN_METERS, node / size * SPACING_IN_METERS));
+		}
+		this.nodeFunction = new NodeExtendedFunction(coordinates, null, null);
+	}
+
+	public int getNumberOfNodes() {
+		return size * size;
+	}
+
+	public long getRandomNode(Random random) {
+		return random.nextInt(getNumberOfNodes());
+	}
+
+	/**
+	 * @return driving time between the nodes in milliseconds
+	 */
+	public long getDrivingTime(long fromNode, long toNode) {
+		long dx = Math.abs(fromNode % size - toNode % size);
+		long dy = Math.abs(fromNode / size - toNode / size);
+		return (dx + dy) * MINUTE;
+	}
+
+	/**
+	 * @return utils measuring the grid routes, whose time is
+	 *         {@link #setCurrentTime(long)}
+	 */
+	public Utils createUtils() {
+		return new GridUtils(new GridPlanner());
+	}
+
+	/**
+	 * @return utils searching the routes by the planner, whose time is
+	 *         {@link #setCurrentTime(long)}
+	 */
+	public Utils createUtils(TestbedPlanner planner) {
+		return new GridUtils(planner);
+	}
+
+	/**
+	 * @return a new A* planner over the grid with empty caches (the size of
+	 *         its path cache is {@link GlobalParams#getPathCacheMemoryInMB()})
+	 */
+	public TestbedAStarPlanner createPlanner() {
+		DirectedWeightedMultigraph<Long, PlannerEdge> graph = new DirectedWeightedMultigraph<Long, PlannerEdge>(
+				PlannerEdge.class);
+		for (long node = 0; node < getNumberOfNodes(); node++) {
+			graph.addVertex(node);
+		}
+		for (long node = 0; node < getNumberOfNodes(); node++) {
+			if (node % size + 1 < size) {
+				addRoad(graph, node, node + 1);
+			}
+			if (node / size + 1 < size) {
+				addRoad(graph, node, node + size);
+			}
+		}
+		return new TestbedAStarPlanner(nodeFunction, graph, EGraphType.HIGHWAY);
+	}
+
+	private static void addRoad(DirectedWeightedMultigraph<Long, PlannerEdge> graph, long fromNode, long toNode) {
+		PlannerEdge there = new PlannerEdge(fromNode, toNode, SPACING_IN_METERS);
+		graph.addEdge(fromNode, toNode, there);
+		graph.setEdgeWeight(there, SPACING_IN_METERS);
+		PlannerEdge back = new PlannerEdge(toNode, fromNode, SPACING_IN_METERS);
+		graph.addEdge(toNode, fromNode, back);
+		graph.setEdgeWeight(back, SPACING_IN_METERS);
+	}
+
+	public void setCurrentTime(long currentTime) {
+		this.currentTime = currentTime;
+	}
+
+	/**
+	 * @return how many routes have been measured by the planner of the utils
+	 */
+	public int getNumberOfRoutes() {
+		return numberOfRoutes.get();
+	}
+
+	/**
+	 * @return the grid in the compact form (for searches)
+	 */
+	public CompactRoadNetwork createRoadNetwork() {
+		int numberOfNodes = getNumberOfNodes();
+		long[] nodeIds = new long[numberOfNodes];
+		double[] nodeX = new double[numberOfNodes];
+		double[] nodeY = new double[numberOfNodes];
+		int[] firstEdge = new int[numberOfNodes + 1];
+		int[] edgeTargets = new int[4 * numberOfNodes];
+		int numberOfEdges = 0;
+		for (int node = 0; node < numberOfNodes; node++) {
+			int x = node % size;
+			int y = node / size;
+			nodeIds[node] = node;
+			nodeX[node] = x * SPACING_IN_METERS;
+			nodeY[node] = y * SPACING_IN_METERS;
+			firstEdge[node] = numberOfEdges;
+			if (x > 0) {
+				edgeTargets[numberOfEdges++] = node - 1;
+			}
+			if (x + 1 < size) {
+				edgeTargets[numberOfEdges++] = node + 1;
+			}
+			if (y > 0) {
+				edgeTargets[numberOfEdges++] = node - size;
+			}
+			if (y + 1 < size) {
+				edgeTargets[numberOfEdges++] = node + size;
+			}
+		}
+		firstEdge[numberOfNodes] = numberOfEdges;
+		double[] edgeLengths = new double[numberOfEdges];
+		double[] edgeSpeedLimits = new double[numberOfEdges];
+		for (int edge = 0; edge < numberOfEdges; edge++) {
+			edgeLengths[edge] = SPACING_IN_METERS;
+			edgeSpeedLimits[edge] = Double.NaN;
+		}
+		int[] targets = new int[numberOfEdges];
+		System.arraycopy(edgeTargets, 0, targets, 0, numberOfEdges);
+		return CompactRoadNetwork.create(nodeIds, nodeX, nodeY, firstEdge, targets, edgeLengths, edgeSpeedLimits);
+	}
+
+	/**
+	 * Adds a free taxi with its driver on the node
+	 */
+	public TestbedVehicle addVehicle(String vehicleId, String driverId, long node, int capacity) {
+		positions.put(driverId, node);
+		taxiModel.addFreeTaxi(vehicleId, driverId);
+		return new TestbedVehicle(vehicleId, VehicleType.CAR, 5.0, capacity, EGraphType.HIGHWAY,
+				new HashSet<String>());
+	}
+
+	/**
+	 * @return a request between random nodes, which may be picked up in the
+	 *         first two hours and takes 40 to 160 minutes (its passenger
+	 *         waits on the first node)
+	 */
+	public Request createRequest(Random random, int id) {
+		long fromNode = getRandomNode(random);
+		long toNode = getRandomNode(random);
+		long earliestDeparture = random.nextInt(120) * MINUTE;
+		long latestArrival = earliestDeparture + (40 + random.nextInt(120)) * MINUTE;
+		return createRequest("passenger" + id, fromNode, toNode, new TimeWindow(earliestDeparture, latestArrival));
+	}
+
+	/**
+	 * @return the request, its passenger waits on the first node
+	 */
+	public Request createRequest(String passengerId, long fromNode, long toNode, TimeWindow timeWindow) {
+		positions.put(passengerId, fromNode);
+		return new Request(passengerId, fromNode, toNode, timeWindow, null);
+	}
+
+	/**
+	 * @return current positions (nodes) of the agents by their ids
+	 */
+	public Map<String, Long> getPositions() {
+		return positions;
+	}
+
+	public TestbedModel getTaxiModel() {
+		return taxiModel;
+	}
+
+	/**
+	 * @return the function knowing the coordinates of the nodes
+	 */
+	public NodeExtendedFunction getNodeFunction() {
+		return nodeFunction;
+	}
+
+	/**
+	 * @return the items of the plan with their times (equal for equal plans)
+	 */
+	public static String describe(FlexiblePlan plan) {
+		StringBuilder description = new StringBuilder();
+		description.append(plan.currentTime).append(' ').append(plan.firstNode).append(':');
+		for (PlanItem item : plan.getPlanItems()) {
+			description.append(' ').append(item.getPassengerId()).append(item.isBoarding ? " in " : " off ")
+					.append(item.getNode()).append('@').append(item.getArrivalTime()).append('+')
+					.append(item.getWaitingTime());
+		}
+		return description.toString();
+	}
+
+	private class GridUtils extends Utils {
+
+		GridUtils(TestbedPlanner planner) {
+			super(null, planner, GridTestFixture.this.positionQuery, GridTestFixture.this.taxiModel, null,
+					GridTestFixture.this.nodeFunction, null);
+		}
+
+		@Override
+		public long getCurrentTime() {
+			return currentTime;
+		}
+	}
+
+	private class GridPlanner implements TestbedPlanner {
+
+		@Override
+		public Trips findTrip(String vehicleId, long startNodeById, long destinationNodeById) {
+			throw new UnsupportedOperationException("The grid measures the routes only");
+		}
+
+		@Override
+		public double findDistance(long startNodeById, long destinationNodeById) {
+			numberOfRoutes.incrementAndGet();
+			return getDrivingTime(startNodeById, destinationNodeById) / MINUTE * SPACING_IN_METERS;
+		}
+	}
+}
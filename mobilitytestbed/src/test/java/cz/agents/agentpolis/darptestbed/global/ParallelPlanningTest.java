@@ -0,0 +1,87 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+
+public class ParallelPlanningTest {
+
+	private final GridTestFixture grid = new GridTestFixture(20);
+
+	@Test
+	public void testSamePlansWithMoreThreads() {
+		checkSamePlansWithMoreThreads(false);
+	}
+
+	@Test
+	public void testSameCompactPlansWithMoreThreads() {
+		checkSamePlansWithMoreThreads(true);
+	}
+
+	private void checkSamePlansWithMoreThreads(boolean compactPlans) {
+		GlobalParams.setCompactPlans(compactPlans);
+		try {
+			Utils utils = grid.createUtils();
+			Random random = new Random(9);
+			List<TestbedVehicle> vehicles = new ArrayList<TestbedVehicle>();
+			Map<String, FlexiblePlan> currentPlans = new HashMap<String, FlexiblePlan>();
+			Map<String, String> currentPlanDescriptions = new HashMap<String, String>();
+			for (int i = 0; i < 12; i++) {
+				TestbedVehicle vehicle = grid.addVehicle("vehicle" + i, "driver" + i, grid.getRandomNode(random), 4);
+				vehicles.add(vehicle);
+				if (i % 2 == 0) {
+					List<Request> assigned = new ArrayList<Request>();
+					assigned.add(grid.createRequest(random, 2 * i));
+					assigned.add(grid.createRequest(random, 2 * i + 1));
+					FlexiblePlan plan = utils.planTrips(assigned, vehicle, null, false);
+					currentPlans.put(vehicle.getId(), plan);
+					currentPlanDescriptions.put(vehicle.getId(), GridTestFixture.describe(plan));
+				}
+			}
+			List<Request> requests = new ArrayList<Request>();
+			for (int i = 0; i < 6; i++) {
+				requests.add(grid.createRequest(random, 100 + i));
+			}
+			grid.setCurrentTime(5 * GridTestFixture.MINUTE);
+
+			GlobalParams.setPlanningThreads(1);
+			List<FlexiblePlan> sequentialPlans = utils.planTripsInParallel(requests, vehicles, currentPlans);
+			GlobalParams.setPlanningThreads(4);
+			List<FlexiblePlan> parallelPlans = utils.planTripsInParallel(requests, vehicles, currentPlans);
+			// the pool is replaced
+			GlobalParams.setPlanningThreads(3);
+			List<FlexiblePlan> otherParallelPlans = utils.planTripsInParallel(requests, vehicles, currentPlans);
+			utils.shutdown();
+
+			int extendedPlans = 0;
+			for (int i = 0; i < vehicles.size(); i++) {
+				String description = GridTestFixture.describe(sequentialPlans.get(i));
+				assertEquals(description, GridTestFixture.describe(parallelPlans.get(i)));
+				assertEquals(description, GridTestFixture.describe(otherParallelPlans.get(i)));
+				FlexiblePlan currentPlan = currentPlans.get(vehicles.get(i).getId());
+				if (currentPlan != null) {
+					assertEquals(currentPlanDescriptions.get(vehicles.get(i).getId()),
+							GridTestFixture.describe(currentPlan));
+					if (sequentialPlans.get(i).getSize() > currentPlan.getSize()) {
+						extendedPlans++;
+					}
+				}
+			}
+			assertTrue(extendedPlans > 0);
+		} finally {
+			GlobalParams.setPlanningThreads(0);
+			GlobalParams.setCompactPlans(false);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.CompactPlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TimeWindow;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+
+public class PlanImproverTest {
+
+	private static final int FREE_SEATS = 3;
+
+	private final GridTestFixture grid = new GridTestFixture(20);
+
+	@Test
+	public void testImprove() {
+		Utils utils = grid.createUtils();
+		CompactPlan plan = createAppendedPlan(utils, new Random(6), 12);
+		long endOfPlanTime = plan.getEndOfPlanTime();
+		int size = plan.getSize();
+
+		PlanImprover improver = new PlanImprover(utils);
+		assertTrue(improver.improve(plan, FREE_SEATS, Long.MAX_VALUE));
+
+		assertTrue(plan.getEndOfPlanTime() < endOfPlanTime);
+		assertEquals(size, plan.getSize());
+		assertTrue(plan.checkCapacity(FREE_SEATS));
+		Set<Request> boarded = new HashSet<Request>();
+		for (int i = 0; i < plan.getSize(); i++) {
+			assertTrue(plan.getArrivalTime(i) <= plan.getLatestArrivalTime(i));
+			if (plan.isBoarding(i)) {
+				assertTrue(boarded.add(plan.getRequest(i)));
+			} else {
+				assertTrue(boarded.remove(plan.getRequest(i)));
+			}
+		}
+		assertTrue(boarded.isEmpty());
+		assertTrue(improver.getNumberOfImprovements() > 0);
+		assertTrue(improver.getNumberOfMoves() >= improver.getNumberOfImprovements());
+	}
+
+	@Test
+	public void testDeadline() {
+		Utils utils = grid.createUtils();
+		CompactPlan plan = createAppendedPlan(utils, new Random(6), 12);
+		long endOfPlanTime = plan.getEndOfPlanTime();
+
+		PlanImprover improver = new PlanImprover(utils);
+		assertFalse(improver.improve(plan, FREE_SEATS, System.nanoTime()));
+		assertEquals(endOfPlanTime, plan.getEndOfPlanTime());
+		assertEquals(0, improver.getNumberOfMoves());
+	}
+
+	@Test
+	public void testLatePlanIsSkipped() {
+		Utils utils = grid.createUtils();
+		TestbedVehicle vehicle = grid.addVehicle("vehicle", "driver", 0, 4);
+		long hour = 60 * GridTestFixture.MINUTE;
+		List<Request> requests = Arrays.asList(grid.createRequest("first", 1, 45, new TimeWindow(0, hour)),
+				grid.createRequest("second", 21, 3, new TimeWindow(0, hour)));
+		FlexiblePlan plan = utils.planTrips(requests, vehicle, null, false);
+		assertEquals(4, plan.getSize());
+		assertEquals(4, utils.refreshPlan(plan).getSize());
+
+		// the vehicle can start the plan two hours later only
+		plan.currentTime += 2 * hour;
+		PlanImprover improver = new PlanImprover(utils);
+		assertNull(utils.improvePlan(plan, improver, Long.MAX_VALUE));
+		assertEquals(0, improver.getNumberOfMoves());
+		assertEquals(4, plan.getSize());
+	}
+
+	/**
+	 * @return a plan, where the requests are driven one after another in the
+	 *         order of their ids
+	 */
+	private CompactPlan createAppendedPlan(Utils utils, Random random, int numberOfRequests) {
+		CompactPlan plan = new CompactPlan(utils, null, 0, 0, -1);
+		for (int i = 0; i < numberOfRequests; i++) {
+			Request request = grid.createRequest("passenger" + i, grid.getRandomNode(random),
+					grid.getRandomNode(random), new TimeWindow(0, 24 * 3600000L));
+			plan.insertItem(plan.getSize(), request, true, true);
+			plan.insertItem(plan.getSize(), request, false, true);
+		}
+		assertEquals(2 * numberOfRequests, plan.getSize());
+		return plan;
+	}
+}
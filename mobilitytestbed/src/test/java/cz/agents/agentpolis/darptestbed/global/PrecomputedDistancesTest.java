@@ -0,0 +1,65 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrecomputedDistancesTest {
+
+	private final GridTestFixture grid = new GridTestFixture(15);
+	private final List<Long> nodeIds = new ArrayList<Long>();
+
+	@Before
+	public void setUp() {
+		GlobalParams.setDistanceMatrixMemoryInMB(1);
+		Random random = new Random(4);
+		while (nodeIds.size() < 20) {
+			long node = grid.getRandomNode(random);
+			if (!nodeIds.contains(node)) {
+				nodeIds.add(node);
+			}
+		}
+	}
+
+	@After
+	public void tearDown() {
+		GlobalParams.setDistanceMatrixMemoryInMB(0);
+	}
+
+	@Test
+	public void testSearchFromEveryNode() {
+		Utils utils = grid.createUtils();
+		utils.setRoadNetwork(grid.createRoadNetwork());
+		utils.precomputeDistances(nodeIds);
+
+		checkDistances(utils);
+		assertEquals(0, grid.getNumberOfRoutes());
+	}
+
+	@Test
+	public void testPairsWithoutRoadNetwork() {
+		Utils utils = grid.createUtils();
+		utils.precomputeDistances(nodeIds);
+		int numberOfRoutes = grid.getNumberOfRoutes();
+		assertEquals(nodeIds.size() * (nodeIds.size() - 1), numberOfRoutes);
+
+		checkDistances(utils);
+		assertEquals(numberOfRoutes, grid.getNumberOfRoutes());
+	}
+
+	private void checkDistances(Utils utils) {
+		for (long from : nodeIds) {
+			for (long to : nodeIds) {
+				double expected = grid.getDrivingTime(from, to) / GridTestFixture.MINUTE
+						* GridTestFixture.SPACING_IN_METERS;
+				assertEquals(expected, utils.computeDistance(from, to), 1e-9);
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package cz.agents.agentpolis.darptestbed.global;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.PlanItem;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+
+public class SlackInsertionEvaluatorTest {
+
+	private static final int SEATS = 100;
+
+	private final GridTestFixture grid = new GridTestFixture(20);
+
+	@Test
+	public void testSamePositionsAsInsertionAlgorithm() throws CloneNotSupportedException {
+		checkAgainstInsertionAlgorithm(-1, 1);
+	}
+
+	@Test
+	public void testSamePositionsWithLastNode() throws CloneNotSupportedException {
+		checkAgainstInsertionAlgorithm(7, 2);
+	}
+
+	@Test
+	public void testGetOffOnly() throws CloneNotSupportedException {
+		Utils utils = grid.createUtils();
+		Random random = new Random(3);
+		FlexiblePlan plan = new FlexiblePlan(utils, null, 0, 0);
+		int inserted = 0;
+		for (int i = 0; i < 60; i++) {
+			Request request = grid.createRequest(random, i);
+			SlackInsertionEvaluator.Insertion insertion = new SlackInsertionEvaluator(utils, plan, SEATS)
+					.findBestGetOffInsertion(request);
+
+			long minDepartTime = Long.MAX_VALUE;
+			int minIndex = -1;
+			for (int k = 0; k <= plan.getSize(); k++) {
+				long departTime = utils.insertItem(k, new PlanItem(request, false), false, plan);
+				if (departTime >= 0 && departTime < minDepartTime) {
+					minDepartTime = departTime;
+					minIndex = k;
+				}
+			}
+
+			if (minIndex == -1) {
+				assertNull(insertion);
+			} else {
+				assertEquals(minIndex, insertion.getOffIndex);
+				assertEquals(minDepartTime, insertion.endOfPlanTime);
+				assertTrue(utils.insertItem(minIndex, new PlanItem(request, false), true, plan) >= 0);
+				inserted++;
+			}
+		}
+		assertTrue(inserted > 5);
+	}
+
+	private void checkAgainstInsertionAlgorithm(long lastNode, long seed) throws CloneNotSupportedException {
+		Utils utils = grid.createUtils();
+		Random random = new Random(seed);
+		FlexiblePlan plan = new FlexiblePlan(utils, null, 0, 0, lastNode);
+		int inserted = 0;
+		int rejected = 0;
+		for (int i = 0; i < 80; i++) {
+			Request request = grid.createRequest(random, i);
+			SlackInsertionEvaluator.Insertion insertion = new SlackInsertionEvaluator(utils, plan, SEATS)
+					.findBestInsertion(request);
+
+			// the insertion algorithm of Utils.planTrips (on a copy of the plan)
+			FlexiblePlan copy = (FlexiblePlan) plan.clone();
+			PlanItem getIn = new PlanItem(request, true);
+			PlanItem getOff = new PlanItem(request, false);
+			long minDepartTime = Long.MAX_VALUE;
+			int minGetInIndex = -1;
+			int minGetOffIndex = -1;
+			for (int j = 0; j <= copy.getSize(); j++) {
+				if (utils.insertItem(j, getIn, true, copy) >= 0) {
+					for (int k = j + 1; k <= copy.getSize(); k++) {
+						long departTime = utils.insertItem(k, getOff, false, copy);
+						if (departTime >= 0 && departTime < minDepartTime) {
+							minDepartTime = departTime;
+							minGetInIndex = j;
+							minGetOffIndex = k;
+						}
+					}
+					copy.removeItem(j);
+				}
+			}
+
+			if (minGetInIndex == -1) {
+				assertNull(insertion);
+				rejected++;
+			} else {
+				assertEquals(minGetInIndex, insertion.getInIndex);
+				assertEquals(minGetOffIndex, insertion.getOffIndex);
+				assertEquals(minDepartTime, insertion.endOfPlanTime);
+				assertTrue(utils.insertItem(minGetInIndex, new PlanItem(request, true), true, plan) >= 0);
+				assertTrue(utils.insertItem(minGetOffIndex, new PlanItem(request, false), true, plan) >= 0);
+				inserted++;
+			}
+		}
+		assertTrue(inserted > 5);
+		assertTrue(rejected > 0);
+	}
+}
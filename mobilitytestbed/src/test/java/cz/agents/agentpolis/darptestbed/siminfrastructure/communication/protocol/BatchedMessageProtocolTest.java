@@ -0,0 +1,129 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.communication.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.receiver.BaseReceiverVisitor;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.receiver.StringMessage;
+import cz.agents.alite.common.event.Event;
+import cz.agents.alite.common.event.EventHandlerAdapter;
+import cz.agents.alite.common.event.EventProcessor;
+
+public class BatchedMessageProtocolTest {
+
+	private static class Receiver implements BaseReceiverVisitor {
+
+		final List<String> received = new ArrayList<String>();
+		/**
+		 * Messages of all receivers, as "receiver:message" (null = not logged)
+		 */
+		final List<String> log;
+		final String name;
+
+		Receiver() {
+			this(null, null);
+		}
+
+		Receiver(String name, List<String> log) {
+			this.name = name;
+			this.log = log;
+		}
+
+		@Override
+		public void visit(StringMessage<?> stringMessage) {
+			received.add(stringMessage.message);
+			if (log != null) {
+				log.add(name + ":" + stringMessage.message);
+			}
+		}
+	}
+
+	@Test
+	public void testBatchedDelivery() {
+		EventProcessor eventProcessor = new EventProcessor();
+		BatchedMessageProtocol<BaseReceiverVisitor> protocol = new BatchedMessageProtocol<BaseReceiverVisitor>(
+				eventProcessor) {};
+		Receiver a = new Receiver();
+		Receiver b = new Receiver();
+		protocol.addReceiverVisitor("a", a);
+		protocol.addReceiverVisitor("b", b);
+
+		assertEquals(Arrays.asList("a", "b"),
+				protocol.sendMessageBatched(Arrays.asList("a", "b", "unknown"), new StringMessage<BaseReceiverVisitor>("s", "first")));
+		protocol.sendMessageBatched("a", new StringMessage<BaseReceiverVisitor>("s", "second"));
+		assertFalse(protocol.sendMessageBatched("unknown", new StringMessage<BaseReceiverVisitor>("s", "lost")));
+		protocol.sendMessage("b", new StringMessage<BaseReceiverVisitor>("s", "direct"));
+
+		// nothing is delivered before the events are processed
+		assertEquals(0, a.received.size());
+		eventProcessor.run();
+
+		assertEquals(Arrays.asList("first", "second"), a.received);
+		assertEquals(Arrays.asList("first", "direct"), b.received);
+		// one delivery for the batch, the direct message has joined it
+		assertEquals(1, protocol.getNumberOfEvents());
+		assertEquals(4, protocol.getNumberOfMessages());
+		assertEquals(4, protocol.getNumberOfMessages(StringMessage.class));
+	}
+
+	@Test
+	public void testBatchedMessagesInSendOrder() {
+		EventProcessor eventProcessor = new EventProcessor();
+		BatchedMessageProtocol<BaseReceiverVisitor> protocol = new BatchedMessageProtocol<BaseReceiverVisitor>(
+				eventProcessor) {};
+		List<String> log = new ArrayList<String>();
+		protocol.addReceiverVisitor("a", new Receiver("a", log));
+		protocol.addReceiverVisitor("b", new Receiver("b", log));
+
+		protocol.sendMessageBatched("a", new StringMessage<BaseReceiverVisitor>("s", "1"));
+		protocol.sendMessageBatched("b", new StringMessage<BaseReceiverVisitor>("s", "2"));
+		protocol.sendMessageBatched("a", new StringMessage<BaseReceiverVisitor>("s", "3"));
+		protocol.sendMessageBatched(Arrays.asList("b", "a"), new StringMessage<BaseReceiverVisitor>("s", "4"));
+		eventProcessor.run();
+
+		// not grouped by the receivers
+		assertEquals(Arrays.asList("a:1", "b:2", "a:3", "b:4", "a:4"), log);
+		assertEquals(1, protocol.getNumberOfEvents());
+	}
+
+	@Test
+	public void testDirectAndBatchedMessagesInOrder() {
+		EventProcessor eventProcessor = new EventProcessor();
+		final BatchedMessageProtocol<BaseReceiverVisitor> protocol = new BatchedMessageProtocol<BaseReceiverVisitor>(
+				eventProcessor) {};
+		Receiver a = new Receiver();
+		Receiver b = new Receiver();
+		protocol.addReceiverVisitor("a", a);
+		protocol.addReceiverVisitor("b", b);
+
+		// the delivery is scheduled before the direct messages
+		protocol.sendMessageBatched("b", new StringMessage<BaseReceiverVisitor>("s", "1"));
+		protocol.sendMessage("a", new StringMessage<BaseReceiverVisitor>("s", "2"));
+		protocol.sendMessageBatched("a", new StringMessage<BaseReceiverVisitor>("s", "3"));
+		protocol.sendMessage(Arrays.asList("a", "b"), new StringMessage<BaseReceiverVisitor>("s", "4"));
+		protocol.sendMessageBatched(Arrays.asList("a", "b"), new StringMessage<BaseReceiverVisitor>("s", "5"));
+		// no delivery is pending later, the direct message goes first
+		eventProcessor.addEvent(new EventHandlerAdapter() {
+
+			@Override
+			public void handleEvent(Event event) {
+				protocol.sendMessage("a", new StringMessage<BaseReceiverVisitor>("s", "6"));
+				protocol.sendMessageBatched("a", new StringMessage<BaseReceiverVisitor>("s", "7"));
+				protocol.sendMessage("a", new StringMessage<BaseReceiverVisitor>("s", "8"));
+			}
+		}, 10);
+		eventProcessor.run();
+
+		assertEquals(Arrays.asList("2", "3", "4", "5", "6", "7", "8"), a.received);
+		assertEquals(Arrays.asList("1", "4", "5"), b.received);
+		// a delivery for each batch, one event for the message 6
+		assertEquals(3, protocol.getNumberOfEvents());
+		assertEquals(10, protocol.getNumberOfMessages());
+	}
+}
@@ -0,0 +1,99 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class DistanceMatrixTest {
+
+	@Test
+	public void testPutAndGet() {
+		DistanceMatrix matrix = new DistanceMatrix(100 * 100 * 8);
+		assertEquals(100, matrix.getCapacity());
+		assertEquals(Double.NaN, matrix.getDistance(1, 2), 0);
+
+		matrix.putDistance(1, 2, 150);
+		matrix.putDistance(2, 1, 0);
+		assertEquals(150, matrix.getDistance(1, 2), 0);
+		assertEquals(0, matrix.getDistance(2, 1), 0);
+		assertEquals(Double.NaN, matrix.getDistance(1, 1), 0);
+		assertEquals(Double.NaN, matrix.getDistance(1, 3), 0);
+		assertEquals(2, matrix.getNumberOfNodes());
+	}
+
+	@Test
+	public void testMemoryBudget() {
+		DistanceMatrix matrix = new DistanceMatrix(3 * 3 * 8);
+		matrix.putDistance(1, 2, 10);
+		matrix.putDistance(3, 1, 20);
+		assertEquals(3, matrix.getNumberOfNodes());
+		assertFalse(matrix.canStore(4));
+		assertTrue(matrix.canStore(3));
+
+		// distances of nodes, that don't fit, aren't stored
+		matrix.putDistance(1, 4, 30);
+		matrix.putDistance(4, 1, 30);
+		assertEquals(Double.NaN, matrix.getDistance(1, 4), 0);
+		assertEquals(Double.NaN, matrix.getDistance(4, 1), 0);
+		assertEquals(3, matrix.getNumberOfNodes());
+
+		matrix.putDistance(2, 3, 40);
+		assertEquals(40, matrix.getDistance(2, 3), 0);
+		assertEquals(10, matrix.getDistance(1, 2), 0);
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final int numberOfNodes = 200;
+		final DistanceMatrix matrix = new DistanceMatrix(150 * 150 * 8);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int thread = 0; thread < 4; thread++) {
+			final int offset = thread;
+			results.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int wrongDistances = 0;
+					for (int i = 0; i < numberOfNodes * numberOfNodes; i++) {
+						long from = (i + offset * 37) % numberOfNodes;
+						long to = i / numberOfNodes;
+						double distance = matrix.getDistance(from, to);
+						if (Double.isNaN(distance)) {
+							matrix.putDistance(from, to, from * 1000 + to);
+						} else if (distance != from * 1000 + to) {
+							wrongDistances++;
+						}
+					}
+					return wrongDistances;
+				}
+			}));
+		}
+		for (Future<Integer> result : results) {
+			assertEquals(0, (int) result.get());
+		}
+		executor.shutdown();
+
+		// every index has been given once
+		assertEquals(150, matrix.getNumberOfNodes());
+		int stored = 0;
+		for (long from = 0; from < numberOfNodes; from++) {
+			for (long to = 0; to < numberOfNodes; to++) {
+				double distance = matrix.getDistance(from, to);
+				if (!Double.isNaN(distance)) {
+					assertEquals(from * 1000 + to, distance, 0);
+					stored++;
+				}
+			}
+		}
+		assertEquals(150 * 150, stored);
+	}
+}
@@ -0,0 +1,118 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.AtomicFiles;
+
+public class PathCacheTest {
+
+	@Test
+	public void testHitsShareTheStoredPath() throws ExecutionException {
+		PathCache cache = new PathCache(1024 * 1024, 4);
+		RoutedPath first = cache.getPath(1, 2, createLoader(10));
+		RoutedPath second = cache.getPath(1, 2, createLoader(10));
+
+		assertSame(first, second);
+		assertEquals(1, cache.getStats().hitCount());
+		assertEquals(1, cache.getStats().missCount());
+	}
+
+	@Test
+	public void testEvictionByWeight() throws ExecutionException {
+		// room for a few long paths only
+		PathCache cache = new PathCache(10 * 1000, 1);
+		for (int i = 0; i < 100; i++) {
+			cache.getPath(i, i + 1, createLoader(200));
+		}
+
+		assertTrue(cache.size() < 10);
+		assertEquals(100 - cache.size(), cache.getStats().evictionCount());
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		File file = File.createTempFile("paths", ".bin");
+		file.deleteOnExit();
+		PathCache cache = new PathCache(1024 * 1024, 1);
+		for (int i = 0; i < 20; i++) {
+			cache.getPath(i, i + 1, createLoader(i));
+		}
+		cache.save(file, 42);
+
+		PathCache otherGraph = new PathCache(1024 * 1024, 1);
+		assertEquals(0, otherGraph.load(file, 43));
+		assertEquals(0, otherGraph.size());
+
+		PathCache loaded = new PathCache(1024 * 1024, 1);
+		assertEquals(20, loaded.load(file, 42));
+		for (int i = 0; i < 20; i++) {
+			RoutedPath path = loaded.getPath(i, i + 1, createLoader(0));
+			assertEquals(i, path.getNumberOfNodes());
+			for (int j = 0; j < i; j++) {
+				assertEquals(j, path.getNodeId(j));
+			}
+			assertEquals(i, path.getLength(), 0);
+		}
+		assertEquals(20, loaded.getStats().hitCount());
+		assertEquals(0, loaded.getStats().missCount());
+	}
+
+	@Test
+	public void testBrokenFile() throws Exception {
+		File file = File.createTempFile("paths", ".bin");
+		file.deleteOnExit();
+		PathCache cache = new PathCache(1024 * 1024, 1);
+		cache.getPath(1, 2, createLoader(3));
+		cache.save(file, 42);
+		assertFalse(AtomicFiles.getTmpFile(file).exists());
+
+		// a huge number of nodes of the path
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.seek(4 + 4 + 8 + 4 + 8 + 8 + 8);
+		randomAccessFile.writeInt(Integer.MAX_VALUE);
+		randomAccessFile.close();
+		try {
+			new PathCache(1024 * 1024, 1).load(file, 42);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+
+		// cut in the middle of the path
+		cache.save(file, 42);
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(randomAccessFile.length() - 4);
+		randomAccessFile.close();
+		try {
+			new PathCache(1024 * 1024, 1).load(file, 42);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private Callable<RoutedPath> createLoader(final int length) {
+		return new Callable<RoutedPath>() {
+			@Override
+			public RoutedPath call() {
+				long[] path = new long[length];
+				for (int i = 0; i < length; i++) {
+					path[i] = i;
+				}
+				return new RoutedPath(path, length);
+			}
+		};
+	}
+}
@@ -0,0 +1,184 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+
+public class RoadNetworkSearchTest {
+
+	private static final double EPSILON = 1e-6;
+
+	@Test
+	public void testAgainstDijkstra() {
+		CompactRoadNetwork network = createNetwork(new Random(5), 150, 600);
+		RoadNetworkSearch search = new RoadNetworkSearch(network);
+		Random random = new Random(6);
+		int[] nodes = new int[network.getNumberOfNodes()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = i;
+		}
+
+		for (int root = 0; root < network.getNumberOfNodes(); root += 7) {
+			double[] forward = findDistances(network, root, false);
+			double[] backward = findDistances(network, root, true);
+			assertDistances(forward, search.findDistancesFromSource(root, nodes, Double.POSITIVE_INFINITY),
+					Double.POSITIVE_INFINITY);
+			assertDistances(backward, search.findDistancesToTarget(root, nodes, Double.POSITIVE_INFINITY),
+					Double.POSITIVE_INFINITY);
+
+			// a few wanted nodes only, within a bound
+			int[] wanted = new int[5];
+			for (int i = 0; i < wanted.length; i++) {
+				wanted[i] = random.nextInt(nodes.length);
+			}
+			double maxDistance = 500 + random.nextInt(2000);
+			assertDistances(select(forward, wanted), search.findDistancesFromSource(root, wanted, maxDistance),
+					maxDistance);
+			assertDistances(select(backward, wanted), search.findDistancesToTarget(root, wanted, maxDistance),
+					maxDistance);
+		}
+	}
+
+	@Test
+	public void testMissingNodes() {
+		CompactRoadNetwork network = createNetwork(new Random(7), 10, 40);
+		RoadNetworkSearch search = new RoadNetworkSearch(network);
+		int[] wanted = { CompactRoadNetwork.NO_NODE, 3, 3 };
+
+		double[] distances = search.findDistancesFromSource(0, wanted, Double.POSITIVE_INFINITY);
+		assertEquals(Double.POSITIVE_INFINITY, distances[0], 0);
+		assertEquals(distances[1], distances[2], 0);
+		double[] fromNoNode = search.findDistancesFromSource(CompactRoadNetwork.NO_NODE, wanted,
+				Double.POSITIVE_INFINITY);
+		assertEquals(Arrays.toString(new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY }), Arrays.toString(fromNoNode));
+		assertEquals(0, search.findDistancesToTarget(3, new int[] { 3 }, 0)[0], 0);
+	}
+
+	@Test
+	public void testBoundOnLongEdges() {
+		// a street, whose edges are twice as long as the straight lines
+		double[] edgeLengths = { 200, 200, 200 };
+		CompactRoadNetwork network = CompactRoadNetwork.create(new long[] { 1, 2, 3, 4 }, new double[] { 0, 100,
+				200, 300 }, new double[4], new int[] { 0, 1, 2, 3, 3 }, new int[] { 1, 2, 3 }, edgeLengths,
+				new double[] { Double.NaN, Double.NaN, Double.NaN });
+		RoadNetworkSearch search = new RoadNetworkSearch(network);
+
+		// the weight of node 2 is beyond the bound, its distance isn't
+		double[] distances = search.findDistancesFromSource(0, new int[] { 1, 2, 3 }, 250);
+		assertEquals(Arrays.toString(new double[] { 100, 200, Double.POSITIVE_INFINITY }),
+				Arrays.toString(distances));
+		distances = search.findDistancesToTarget(3, new int[] { 2, 1, 0 }, 250);
+		assertEquals(Arrays.toString(new double[] { 100, 200, Double.POSITIVE_INFINITY }),
+				Arrays.toString(distances));
+	}
+
+	@Test
+	public void testBoundWithoutStraightLine() {
+		// the first edge connects two nodes on the same place
+		CompactRoadNetwork network = CompactRoadNetwork.create(new long[] { 1, 2, 3 },
+				new double[] { 0, 0, 100 }, new double[3], new int[] { 0, 1, 2, 2 }, new int[] { 1, 2 },
+				new double[] { 1000, 100 }, new double[] { Double.NaN, Double.NaN });
+		RoadNetworkSearch search = new RoadNetworkSearch(network);
+
+		assertEquals(100, search.findDistancesFromSource(0, new int[] { 2 }, 100)[0], 0);
+	}
+
+	private void assertDistances(double[] expected, double[] actual, double maxDistance) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] <= maxDistance) {
+				assertEquals(expected[i], actual[i], EPSILON);
+			} else {
+				assertEquals(Double.POSITIVE_INFINITY, actual[i], 0);
+			}
+		}
+	}
+
+	private double[] select(double[] distances, int[] nodes) {
+		double[] selected = new double[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			selected[i] = distances[nodes[i]];
+		}
+		return selected;
+	}
+
+	/**
+	 * Plain Dijkstra by the edge lengths, the routes are measured by the
+	 * straight line distances of their nodes
+	 */
+	private double[] findDistances(CompactRoadNetwork network, int root, boolean backward) {
+		int n = network.getNumberOfNodes();
+		double[] weight = new double[n];
+		double[] measured = new double[n];
+		boolean[] settled = new boolean[n];
+		Arrays.fill(weight, Double.POSITIVE_INFINITY);
+		Arrays.fill(measured, Double.POSITIVE_INFINITY);
+		weight[root] = 0;
+		measured[root] = 0;
+		while (true) {
+			int node = -1;
+			for (int i = 0; i < n; i++) {
+				if (!settled[i] && weight[i] < Double.POSITIVE_INFINITY && (node == -1 || weight[i] < weight[node])) {
+					node = i;
+				}
+			}
+			if (node == -1) {
+				return measured;
+			}
+			settled[node] = true;
+			for (int edge = 0; edge < network.getNumberOfEdges(); edge++) {
+				int from = backward ? network.getEdgeTarget(edge) : network.getEdgeSource(edge);
+				int to = backward ? network.getEdgeSource(edge) : network.getEdgeTarget(edge);
+				if (from == node && weight[node] + network.getEdgeLength(edge) < weight[to]) {
+					weight[to] = weight[node] + network.getEdgeLength(edge);
+					measured[to] = measured[node] + network.computeDistance(node, to);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Random nodes in a 2 km square, random edges are longer than the
+	 * straight line (so the routes by lengths and by distances differ)
+	 */
+	private CompactRoadNetwork createNetwork(Random random, int numberOfNodes, int numberOfEdges) {
+		long[] nodeIds = new long[numberOfNodes];
+		double[] nodeX = new double[numberOfNodes];
+		double[] nodeY = new double[numberOfNodes];
+		for (int i = 0; i < numberOfNodes; i++) {
+			nodeIds[i] = 100 + 2 * i;
+			nodeX[i] = random.nextDouble() * 2000;
+			nodeY[i] = random.nextDouble() * 2000;
+		}
+
+		int[] edgeSources = new int[numberOfEdges];
+		int[] firstEdge = new int[numberOfNodes + 1];
+		for (int edge = 0; edge < numberOfEdges; edge++) {
+			edgeSources[edge] = random.nextInt(numberOfNodes);
+		}
+		Arrays.sort(edgeSources);
+		int[] edgeTargets = new int[numberOfEdges];
+		double[] edgeLengths = new double[numberOfEdges];
+		for (int edge = 0; edge < numberOfEdges; edge++) {
+			int source = edgeSources[edge];
+			firstEdge[source + 1]++;
+			int target = random.nextInt(numberOfNodes);
+			edgeTargets[edge] = target;
+			double dx = nodeX[source] - nodeX[target];
+			double dy = nodeY[source] - nodeY[target];
+			edgeLengths[edge] = Math.sqrt(dx * dx + dy * dy) * (1 + random.nextDouble());
+		}
+		for (int node = 0; node < numberOfNodes; node++) {
+			firstEdge[node + 1] += firstEdge[node];
+		}
+		double[] edgeSpeedLimits = new double[numberOfEdges];
+		Arrays.fill(edgeSpeedLimits, Double.NaN);
+		return CompactRoadNetwork.create(nodeIds, nodeX, nodeY, firstEdge, edgeTargets, edgeLengths, edgeSpeedLimits);
+	}
+}
@@ -0,0 +1,102 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.ch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ContractionHierarchyTest {
+
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void testRandomGraphAgainstFloydWarshall() {
+		Random random = new Random(0);
+		int n = 80;
+		double[][] weights = new double[n][n];
+		for (double[] row : weights) {
+			Arrays.fill(row, Double.POSITIVE_INFINITY);
+		}
+
+		ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder(n);
+		for (int i = 0; i < 4 * n; i++) {
+			int from = random.nextInt(n);
+			int to = random.nextInt(n);
+			double weight = 1 + random.nextInt(100);
+			builder.addEdge(from, to, weight);
+			if (from != to) {
+				weights[from][to] = Math.min(weights[from][to], weight);
+			}
+		}
+		ContractionHierarchy hierarchy = builder.build();
+
+		double[][] distances = new double[n][];
+		for (int i = 0; i < n; i++) {
+			distances[i] = weights[i].clone();
+			distances[i][i] = 0;
+		}
+		for (int k = 0; k < n; k++) {
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					distances[i][j] = Math.min(distances[i][j], distances[i][k] + distances[k][j]);
+				}
+			}
+		}
+
+		for (int from = 0; from < n; from++) {
+			for (int to = 0; to < n; to++) {
+				assertEquals(distances[from][to], hierarchy.findDistance(from, to), EPSILON);
+
+				int[] path = hierarchy.findPath(from, to);
+				if (distances[from][to] == Double.POSITIVE_INFINITY) {
+					assertNull(path);
+					continue;
+				}
+				assertEquals(from, path[0]);
+				assertEquals(to, path[path.length - 1]);
+				double length = 0;
+				for (int i = 1; i < path.length; i++) {
+					assertTrue(weights[path[i - 1]][path[i]] < Double.POSITIVE_INFINITY);
+					length += weights[path[i - 1]][path[i]];
+				}
+				assertEquals(distances[from][to], length, EPSILON);
+
+				// the same path measured without unpacking it into nodes
+				final int[] nodeOrder = new int[n];
+				for (int i = 0; i < path.length; i++) {
+					nodeOrder[path[i]] = i;
+				}
+				final int[] measuredEdges = new int[1];
+				double edges = hierarchy.findPathMeasure(from, to, new ContractionHierarchy.EdgeMeasure() {
+					@Override
+					public double measure(int edgeFrom, int edgeTo) {
+						// edges come in the path order
+						assertEquals(measuredEdges[0], nodeOrder[edgeFrom]);
+						assertEquals(measuredEdges[0] + 1, nodeOrder[edgeTo]);
+						measuredEdges[0]++;
+						return 1;
+					}
+				});
+				assertEquals(path.length - 1, edges, EPSILON);
+			}
+		}
+	}
+
+	@Test
+	public void testLine() {
+		ContractionHierarchyBuilder builder = new ContractionHierarchyBuilder(5);
+		for (int i = 0; i < 4; i++) {
+			builder.addEdge(i, i + 1, 1);
+		}
+		ContractionHierarchy hierarchy = builder.build();
+
+		assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, hierarchy.findPath(0, 4));
+		assertArrayEquals(new int[] { 2 }, hierarchy.findPath(2, 2));
+		assertNull(hierarchy.findPath(4, 0));
+	}
+}
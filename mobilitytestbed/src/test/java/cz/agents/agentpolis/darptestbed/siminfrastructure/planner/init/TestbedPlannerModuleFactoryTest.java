@@ -0,0 +1,117 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.init;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.vividsolutions.jts.geom.Coordinate;
+
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedAStarPlanner;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedContractionHierarchyPlanner;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedPlanner;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+import cz.agents.agentpolis.siminfrastructure.planner.TripPlannerException;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.AllNetworkNodes;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.EGraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphBuilder;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.TransportNetworks;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Edge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
+
+public class TestbedPlannerModuleFactoryTest {
+
+	private static final double SPACING_IN_METERS = 100;
+
+	@Test
+	public void testAStar() throws TripPlannerException {
+		TestbedPlanner planner = getPlanner(TestbedPlannerType.A_STAR, createMapInjector());
+		assertTrue(planner instanceof TestbedAStarPlanner);
+		assertEquals(3 * SPACING_IN_METERS, planner.findDistance(0, 3), 1e-9);
+	}
+
+	@Test
+	public void testContractionHierarchies() throws TripPlannerException {
+		TestbedPlanner planner = getPlanner(TestbedPlannerType.CONTRACTION_HIERARCHIES, createMapInjector());
+		assertTrue(planner instanceof TestbedContractionHierarchyPlanner);
+		assertEquals(3 * SPACING_IN_METERS, planner.findDistance(0, 3), 1e-9);
+	}
+
+	@Test
+	public void testContractionHierarchiesOnRoadNetwork() throws TripPlannerException {
+		GridTestFixture grid = new GridTestFixture(3);
+		final CompactRoadNetwork roadNetwork = grid.createRoadNetwork();
+		Injector injector = Guice.createInjector(new AbstractModule() {
+
+			@Override
+			protected void configure() {
+				bind(CompactRoadNetwork.class).toInstance(roadNetwork);
+			}
+		});
+
+		TestbedPlanner planner = getPlanner(TestbedPlannerType.CONTRACTION_HIERARCHIES, injector);
+		assertTrue(planner instanceof TestbedContractionHierarchyPlanner);
+		assertEquals(4 * GridTestFixture.SPACING_IN_METERS, planner.findDistance(0, 8), 1e-9);
+	}
+
+	@Test
+	public void testDefaultIsAStar() {
+		Injector injector = createMapInjector();
+		Injector plannerInjector = injector.createChildInjector(new TestbedPlannerModuleFactory()
+				.injectModule(injector));
+		TestbedPlanner planner = plannerInjector.getInstance(TestbedPlanner.class);
+		assertTrue(planner instanceof TestbedAStarPlanner);
+		assertSame(planner, plannerInjector.getInstance(TestbedPlanner.class));
+	}
+
+	private TestbedPlanner getPlanner(TestbedPlannerType plannerType, Injector injector) {
+		AbstractModule module = new TestbedPlannerModuleFactory(plannerType).injectModule(injector);
+		return injector.createChildInjector(module).getInstance(TestbedPlanner.class);
+	}
+
+	/**
+	 * @return injector of a map with one street of four nodes (both ways)
+	 */
+	@SuppressWarnings("rawtypes")
+	private Injector createMapInjector() {
+		GraphBuilder<Node, Edge> graphBuilder = new GraphBuilder<Node, Edge>();
+		final Map<Long, Node> nodes = new HashMap<Long, Node>();
+		final Map<Long, Coordinate> projectedNodeCoordinates = new HashMap<Long, Coordinate>();
+		for (long nodeId = 0; nodeId < 4; nodeId++) {
+			Node node = new Node(nodeId, new LatLon(50, 14 + nodeId * 0.001), null);
+			graphBuilder.addNode(node);
+			nodes.put(nodeId, node);
+			projectedNodeCoordinates.put(nodeId, new Coordinate(nodeId * SPACING_IN_METERS, 0));
+		}
+		for (long nodeId = 0; nodeId < 3; nodeId++) {
+			graphBuilder.addEdge(new Edge(nodeId, nodeId + 1, SPACING_IN_METERS));
+			graphBuilder.addEdge(new Edge(nodeId + 1, nodeId, SPACING_IN_METERS));
+		}
+		// the networks keep raw graphs
+		final Map<GraphType, Graph> graphs = new HashMap<GraphType, Graph>();
+		graphs.put(EGraphType.HIGHWAY, graphBuilder.createGraph());
+
+		return Guice.createInjector(new AbstractModule() {
+
+			@Override
+			protected void configure() {
+				bind(AllNetworkNodes.class).toInstance(new AllNetworkNodes(nodes));
+				bind(TransportNetworks.class).toInstance(new TransportNetworks(graphs));
+				bind(NodeExtendedFunction.class).toInstance(
+						new NodeExtendedFunction(projectedNodeCoordinates, null, null));
+			}
+		});
+	}
+}
@@ -0,0 +1,54 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntHashMapTest {
+
+	@Test
+	public void testPutAndGet() {
+		LongIntHashMap map = new LongIntHashMap(4, -1);
+		map.put(7, 1);
+		map.put(-7, 2);
+		map.put(Long.MAX_VALUE, 3);
+		map.put(7, 4);
+
+		assertEquals(3, map.size());
+		assertEquals(4, map.get(7));
+		assertEquals(2, map.get(-7));
+		assertEquals(3, map.get(Long.MAX_VALUE));
+		assertEquals(-1, map.get(8));
+		assertTrue(map.containsKey(-7));
+		assertFalse(map.containsKey(0));
+
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(-1, map.get(7));
+		assertFalse(map.containsKey(7));
+	}
+
+	@Test
+	public void testGrowing() {
+		LongIntHashMap map = new LongIntHashMap(1, -1);
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			// OSM ids are often close to each other
+			long key = random.nextBoolean() ? random.nextLong() : 2000000000L + random.nextInt(20000);
+			map.put(key, i);
+			expected.put(key, i);
+		}
+
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package cz.agents.agentpolis.darptestbed.siminfrastructure.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.utils.AtomicFiles;
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+
+public class BinaryPopulationTest {
+
+	private static final long MAP_HASH = 42;
+	private static final long NODE = 7;
+
+	@Test
+	public void testPassengers() throws IOException {
+		List<Passenger> passengers = new ArrayList<Passenger>();
+		for (int i = 0; i < 3000; i++) {
+			List<PassengerRequest> requests = new ArrayList<PassengerRequest>();
+			for (int j = 0; j < i % 3; j++) {
+				long from = 1000 * i + j;
+				requests.add(new PassengerRequest(new GPS(50 + i * 1e-4, 14 + j * 1e-4), new GPS(50.5, 14.5), from,
+						new TimeWindow(from, from + 600000), new TimeWindow(from + 60000, from + 1200000)));
+			}
+			Set<String> requirements = i % 5 == 0 ? null : new HashSet<String>(Arrays.asList("req" + i % 4));
+			passengers.add(new Passenger("passenger" + i, requirements, requests));
+		}
+		File file = File.createTempFile("passengers", ".bin");
+		file.deleteOnExit();
+		new BinaryPopulationWriter(null).writePassengers(passengers.iterator(), file);
+
+		assertTrue(BinaryPopulation.isBinaryPopulation(file));
+		BinaryPassengerPopulation population = new BinaryPassengerPopulation(file, MAP_HASH);
+		assertEquals(passengers.size(), population.getSize());
+		for (int i = 0; i < passengers.size(); i++) {
+			Passenger passenger = passengers.get(i);
+			assertEquals(passenger.passsngerId, population.getPassengerId(i));
+			assertEquals(passenger.additionalRequirements, population.getAdditionalRequirements(i));
+			assertEquals(passenger.requests.size(), population.getEndRequest(i) - population.getFirstRequest(i));
+			for (int j = 0; j < passenger.requests.size(); j++) {
+				PassengerRequest expected = passenger.requests.get(j);
+				PassengerRequest request = population.getRequest(population.getFirstRequest(i) + j);
+				assertEquals(expected.reqestCallTimeInDayRange, request.reqestCallTimeInDayRange);
+				assertEquals(expected.originPosition.latitude, request.originPosition.latitude, 0);
+				assertEquals(expected.originPosition.longitude, request.originPosition.longitude, 0);
+				assertEquals(expected.destinationnPosition.latitude, request.destinationnPosition.latitude, 0);
+				assertEquals(expected.fromTimeWindow.toTimeInDayRange, request.fromTimeWindow.toTimeInDayRange);
+				assertEquals(expected.toTimeWindow.fromTimeInDayRange, request.toTimeWindow.fromTimeInDayRange);
+				assertEquals(BinaryPopulation.NO_NODE, population.getOriginNode(population.getFirstRequest(i) + j));
+			}
+		}
+	}
+
+	@Test
+	public void testDrivers() throws IOException {
+		List<Driver> drivers = new ArrayList<Driver>();
+		drivers.add(new Driver("driver0", new GPS(50.1, 14.1), 4, new HashSet<String>(Arrays.asList("wheelchair"))));
+		drivers.add(new Driver("řidič1", new GPS(50.2, 14.2), 7, new HashSet<String>()));
+		File file = File.createTempFile("drivers", ".bin");
+		file.deleteOnExit();
+		new BinaryPopulationWriter(null).writeDrivers(drivers.iterator(), file);
+
+		BinaryDriverPopulation population = new BinaryDriverPopulation(file, MAP_HASH);
+		assertEquals(2, population.getSize());
+		for (int i = 0; i < drivers.size(); i++) {
+			Driver driver = population.getDriver(i);
+			assertEquals(drivers.get(i).driverId, driver.driverId);
+			assertEquals(drivers.get(i).driverInitPosition.latitude, driver.driverInitPosition.latitude, 0);
+			assertEquals(drivers.get(i).vehicleCapacity, driver.vehicleCapacity);
+			assertEquals(drivers.get(i).vehicleEquipments, driver.vehicleEquipments);
+			assertEquals(BinaryPopulation.NO_NODE, population.getInitNode(i));
+		}
+	}
+
+	@Test
+	public void testAnotherMap() throws IOException {
+		// snaps all positions to one node of the map
+		NodeExtendedFunction nearestNodeFinder = new NodeExtendedFunction((Map<Long, Coordinate>) null, null, null) {
+
+			@Override
+			public Long getNearestNodeByNodeId(double longitude, double latitude) {
+				return NODE;
+			}
+
+			@Override
+			public long getMapHash() {
+				return MAP_HASH;
+			}
+		};
+		List<PassengerRequest> requests = Arrays.asList(new PassengerRequest(new GPS(50.1, 14.1), new GPS(50.2,
+				14.2), 0, new TimeWindow(0, 600000), new TimeWindow(60000, 1200000)));
+		File passengersFile = File.createTempFile("passengers", ".bin");
+		passengersFile.deleteOnExit();
+		new BinaryPopulationWriter(nearestNodeFinder).writePassengers(Arrays.asList(
+				new Passenger("passenger", null, requests)).iterator(), passengersFile);
+		File driversFile = File.createTempFile("drivers", ".bin");
+		driversFile.deleteOnExit();
+		new BinaryPopulationWriter(nearestNodeFinder).writeDrivers(Arrays.asList(
+				new Driver("driver", new GPS(50.1, 14.1), 4, null)).iterator(), driversFile);
+
+		BinaryPassengerPopulation passengers = new BinaryPassengerPopulation(passengersFile, MAP_HASH);
+		assertEquals(NODE, passengers.getOriginNode(0));
+		assertEquals(NODE, passengers.getDestinationNode(0));
+		assertEquals(NODE, new BinaryDriverPopulation(driversFile, MAP_HASH).getInitNode(0));
+
+		// the nodes of another map are snapped again
+		passengers = new BinaryPassengerPopulation(passengersFile, MAP_HASH + 1);
+		assertEquals(BinaryPopulation.NO_NODE, passengers.getOriginNode(0));
+		assertEquals(BinaryPopulation.NO_NODE, passengers.getDestinationNode(0));
+		assertEquals(50.1, passengers.getRequest(0).originPosition.latitude, 0);
+		assertEquals(BinaryPopulation.NO_NODE, new BinaryDriverPopulation(driversFile, MAP_HASH + 1).getInitNode(0));
+	}
+
+	@Test
+	public void testFailedReplace() throws IOException {
+		// a directory with a file can't be replaced by the population
+		File directory = File.createTempFile("drivers", ".bin");
+		assertTrue(directory.delete() && directory.mkdir());
+		File fileInDirectory = new File(directory, "file");
+		assertTrue(fileInDirectory.createNewFile());
+		try {
+			new BinaryPopulationWriter(null).writeDrivers(Arrays.asList(
+					new Driver("driver", new GPS(50.1, 14.1), 4, null)).iterator(), directory);
+			fail("The directory has been replaced");
+		} catch (IOException e) {
+			assertFalse(AtomicFiles.getTmpFile(directory).exists());
+			assertTrue(fileInDirectory.exists());
+		} finally {
+			fileInDirectory.delete();
+			directory.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongKind() throws IOException {
+		File file = File.createTempFile("drivers", ".bin");
+		file.deleteOnExit();
+		new BinaryPopulationWriter(null).writeDrivers(new ArrayList<Driver>().iterator(), file);
+		assertFalse(BinaryPopulation.isBinaryPopulation(new File(file.getPath() + ".missing")));
+		new BinaryPassengerPopulation(file, MAP_HASH);
+	}
+}
@@ -0,0 +1,147 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.global.Utils;
+
+public class CompactPlanTest {
+
+	private final GridTestFixture grid = new GridTestFixture(20);
+
+	@Test
+	public void testSameTimesAsPlanItems() {
+		checkAgainstPlanItems(-1, 1);
+		checkAgainstPlanItems(7, 2);
+	}
+
+	private void checkAgainstPlanItems(long lastNode, long seed) {
+		Utils utils = grid.createUtils();
+		Random random = new Random(seed);
+		FlexiblePlan plan = new FlexiblePlan(utils, null, 0, 0, lastNode);
+		CompactPlan compactPlan = CompactPlan.fromFlexiblePlan(plan);
+		int inserted = 0;
+		for (int i = 0; i < 80; i++) {
+			Request request = grid.createRequest(random, i);
+			PlanItem getIn = new PlanItem(request, true);
+			PlanItem getOff = new PlanItem(request, false);
+			long minDepartTime = Long.MAX_VALUE;
+			int minGetInIndex = -1;
+			int minGetOffIndex = -1;
+			for (int j = 0; j <= plan.getSize(); j++) {
+				long departTime = utils.insertItem(j, getIn, true, plan);
+				assertEquals(departTime, compactPlan.insertItem(j, request, true, true));
+				if (departTime >= 0) {
+					for (int k = j + 1; k <= plan.getSize(); k++) {
+						departTime = utils.insertItem(k, getOff, false, plan);
+						assertEquals(departTime, compactPlan.insertItem(k, request, false, false));
+						if (departTime >= 0 && departTime < minDepartTime) {
+							minDepartTime = departTime;
+							minGetInIndex = j;
+							minGetOffIndex = k;
+						}
+					}
+					plan.removeItem(j);
+					compactPlan.removeItem(j);
+					assertSamePlan(plan, compactPlan);
+				}
+			}
+			if (minGetInIndex != -1) {
+				utils.insertItem(minGetInIndex, getIn, true, plan);
+				utils.insertItem(minGetOffIndex, getOff, true, plan);
+				compactPlan.insertItem(minGetInIndex, request, true, true);
+				compactPlan.insertItem(minGetOffIndex, request, false, true);
+				assertSamePlan(plan, compactPlan);
+				inserted++;
+			}
+		}
+		assertTrue(inserted > 5);
+		assertEquals(plan.getEndOfPlanTime(), compactPlan.getEndOfPlanTime());
+
+		// the driver got late, the times are refreshed
+		plan.currentTime = compactPlan.currentTime = 30 * 60000L;
+		utils.updateCurrentTime(plan.currentTime, plan);
+		compactPlan.refreshTimes();
+		assertSamePlan(plan, compactPlan);
+	}
+
+	@Test
+	public void testConversion() {
+		Utils utils = grid.createUtils();
+		Random random = new Random(3);
+		FlexiblePlan plan = new FlexiblePlan(utils, null, 0, 5);
+		for (int i = 0; i < 20; i++) {
+			Request request = grid.createRequest(random, i);
+			if (utils.insertItem(new PlanItem(request, true), true, plan) >= 0) {
+				utils.insertItem(new PlanItem(request, false), true, plan);
+			}
+		}
+		assertTrue(plan.getSize() > 2);
+
+		FlexiblePlan converted = CompactPlan.fromFlexiblePlan(plan).toFlexiblePlan();
+		assertEquals(plan.currentTime, converted.currentTime);
+		assertEquals(plan.firstNode, converted.firstNode);
+		assertEquals(plan.lastNode, converted.lastNode);
+		assertEquals(plan.getRequests(), converted.getRequests());
+		assertSamePlan(plan, CompactPlan.fromFlexiblePlan(converted));
+	}
+
+	@Test
+	public void testRollback() {
+		Random random = new Random(4);
+		CompactPlan plan = createPlan(random, 30);
+		FlexiblePlan before = plan.toFlexiblePlan();
+
+		int mark = plan.mark();
+		for (int i = 0; i < 10; i++) {
+			Request request = grid.createRequest(random, 100 + i);
+			int index = random.nextInt(plan.getSize() + 1);
+			if (plan.insertItem(index, request, true, true) >= 0) {
+				plan.insertItem(index + 1 + random.nextInt(plan.getSize() - index), request, false, true);
+			}
+			int nested = plan.mark();
+			plan.removeItem(random.nextInt(plan.getSize()));
+			if (i % 2 == 0) {
+				plan.rollback(nested);
+			} else {
+				plan.release(nested);
+			}
+		}
+		plan.currentTime = 20 * 60000L;
+		plan.refreshTimes();
+		plan.currentTime = before.currentTime;
+		plan.rollback(mark);
+
+		assertEquals(0, plan.getLogSize());
+		assertSamePlan(before, plan);
+	}
+
+	private CompactPlan createPlan(Random random, int numberOfRequests) {
+		CompactPlan plan = new CompactPlan(grid.createUtils(), null, 0, 0, -1);
+		for (int i = 0; i < numberOfRequests; i++) {
+			Request request = grid.createRequest(random, i);
+			if (plan.insertItem(plan.getSize(), request, true, true) >= 0) {
+				plan.insertItem(plan.getSize(), request, false, true);
+			}
+		}
+		assertTrue(plan.getSize() > 4);
+		return plan;
+	}
+
+	private void assertSamePlan(FlexiblePlan plan, CompactPlan compactPlan) {
+		assertEquals(plan.getSize(), compactPlan.getSize());
+		for (int i = 0; i < plan.getSize(); i++) {
+			PlanItem item = plan.getPlanItems().get(i);
+			assertEquals(item.getNode(), compactPlan.getNode(i));
+			assertEquals(item.isBoarding, compactPlan.isBoarding(i));
+			assertEquals(item.getArrivalTime(), compactPlan.getArrivalTime(i));
+			assertEquals(item.getWaitingTime(), compactPlan.getWaitingTime(i));
+			assertEquals(item.getLatestArrivalTime(), compactPlan.getLatestArrivalTime(i));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TimeWindow;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+
+public class BatchAssignerTest {
+
+	private static final int SIZE = 20;
+	private static final long HOUR = 60 * GridTestFixture.MINUTE;
+
+	private final GridTestFixture grid = new GridTestFixture(SIZE);
+	private final Utils utils = grid.createUtils();
+
+	@Test
+	public void testRegretGoesFirst() {
+		List<TestbedVehicle> vehicles = Arrays.asList(grid.addVehicle("a", "driverA", node(0, 0), 4),
+				grid.addVehicle("b", "driverB", node(10, 0), 4));
+		// 6 minutes for both vehicles (no regret)
+		Request cheap = createRequest("cheap", node(5, 0), node(5, 1));
+		// 7 minutes for a, 13 for b (the regret is 6)
+		Request regretful = createRequest("regretful", node(2, 0), node(2, 5));
+
+		BatchAssigner.Assignment assignment = new BatchAssigner(utils).assign(Arrays.asList(cheap, regretful),
+				vehicles, null);
+
+		// the cheapest pair would go first, the regret wins
+		assertEquals(Arrays.asList(regretful, cheap), new ArrayList<Request>(assignment.getAssignedRequests()
+				.keySet()));
+		assertEquals("a", assignment.getAssignedRequests().get(regretful));
+		assertTrue(assignment.getUnassignedRequests().isEmpty());
+		assertEquals(4, assignment.getNumberOfFeasiblePairs());
+	}
+
+	@Test
+	public void testRegretOfMoreVehicles() {
+		List<TestbedVehicle> vehicles = Arrays.asList(grid.addVehicle("a", "driverA", node(0, 0), 4),
+				grid.addVehicle("b", "driverB", node(5, 0), 4), grid.addVehicle("c", "driverC", node(0, 10), 4));
+		// 2 minutes for b, 5 for a, 15 for c (the regret is 3 by 2 vehicles,
+		// 16 by 3 vehicles)
+		Request first = createRequest("first", node(4, 0), node(4, 1));
+		// 4 minutes for a, 8 for c, 9 for b (the regret is 4 by 2 vehicles, 9
+		// by 3 vehicles)
+		Request second = createRequest("second", node(0, 3), node(0, 4));
+		List<Request> requests = Arrays.asList(first, second);
+
+		BatchAssigner.Assignment assignment = new BatchAssigner(utils, 2).assign(requests, vehicles, null);
+		assertEquals(Arrays.asList(second, first), new ArrayList<Request>(assignment.getAssignedRequests()
+				.keySet()));
+
+		assignment = new BatchAssigner(utils, 3).assign(requests, vehicles, null);
+		assertEquals(Arrays.asList(first, second), new ArrayList<Request>(assignment.getAssignedRequests()
+				.keySet()));
+		assertEquals("b", assignment.getAssignedRequests().get(first));
+		assertEquals("a", assignment.getAssignedRequests().get(second));
+
+		// less than 3 feasible vehicles go before all others
+		Request urgent = grid.createRequest("urgent", node(0, 1), node(0, 2), new TimeWindow(0,
+				7 * GridTestFixture.MINUTE));
+		assignment = new BatchAssigner(utils, 3).assign(Arrays.asList(first, second, urgent), vehicles, null);
+		assertEquals(urgent, assignment.getAssignedRequests().keySet().iterator().next());
+		assertEquals("a", assignment.getAssignedRequests().get(urgent));
+	}
+
+	@Test
+	public void testRequiredVehicle() {
+		List<TestbedVehicle> vehicles = Arrays.asList(grid.addVehicle("a", "driverA", node(0, 0), 4),
+				grid.addVehicle("b", "driverB", node(10, 0), 4));
+		// b would be closer
+		Request pinned = createRequest("pinned", node(9, 0), node(9, 1));
+		// has the regret, but waits for the pinned request
+		Request regretful = createRequest("regretful", node(1, 0), node(1, 1));
+
+		BatchAssigner.Assignment assignment = new BatchAssigner(utils).assign(Arrays.asList(regretful, pinned),
+				vehicles, null, Collections.singletonMap(pinned, "a"));
+
+		assertEquals(Arrays.asList(pinned, regretful), new ArrayList<Request>(assignment.getAssignedRequests()
+				.keySet()));
+		assertEquals("a", assignment.getAssignedRequests().get(pinned));
+		assertEquals("a", assignment.getAssignedRequests().get(regretful));
+		// the pinned request isn't planned into other vehicles
+		assertEquals(3, assignment.getNumberOfFeasiblePairs());
+
+		// the required vehicle isn't a candidate
+		assignment = new BatchAssigner(utils).assign(Arrays.asList(pinned), vehicles.subList(1, 2), null,
+				Collections.singletonMap(pinned, "a"));
+		assertEquals(Arrays.asList(pinned), assignment.getUnassignedRequests());
+	}
+
+	@Test
+	public void testSharedVehicle() {
+		TestbedVehicle vehicle = grid.addVehicle("a", "driverA", node(0, 0), 4);
+		List<Request> requests = Arrays.asList(createRequest("first", node(1, 0), node(5, 0)),
+				createRequest("second", node(2, 0), node(6, 0)), createRequest("third", node(3, 0), node(4, 0)));
+
+		BatchAssigner batchAssigner = new BatchAssigner(utils);
+		BatchAssigner.Assignment assignment = batchAssigner.assign(requests, Arrays.asList(vehicle), null);
+
+		assertEquals(3, assignment.getAssignedRequests().size());
+		assertEquals(1, assignment.getPlans().size());
+		FlexiblePlan plan = assignment.getPlans().get("a");
+		assertEquals(3, plan.getRequests().size());
+		assertTrue(plan.getRequests().containsAll(requests));
+		// all of them on the way
+		assertEquals(6 * GridTestFixture.MINUTE, plan.getEndOfPlanTime());
+		assertEquals(1, batchAssigner.getNumberOfBatches());
+		assertEquals(assignment, batchAssigner.getLastAssignment());
+	}
+
+	@Test
+	public void testUnassignableRequest() {
+		TestbedVehicle vehicle = grid.addVehicle("a", "driverA", node(0, 0), 4);
+		Request feasible = createRequest("feasible", node(1, 0), node(2, 0));
+		// can't be reached within its time window
+		Request late = grid.createRequest("late", node(SIZE - 1, SIZE - 1), node(SIZE - 2, SIZE - 1),
+				new TimeWindow(0, 5 * GridTestFixture.MINUTE));
+
+		BatchAssigner.Assignment assignment = new BatchAssigner(utils).assign(Arrays.asList(late, feasible),
+				Arrays.asList(vehicle), null);
+
+		assertEquals(Arrays.asList(feasible), new ArrayList<Request>(assignment.getAssignedRequests().keySet()));
+		assertEquals(Arrays.asList(late), assignment.getUnassignedRequests());
+		assertEquals(1, assignment.getNumberOfFeasiblePairs());
+	}
+
+	@Test
+	public void testRequestMustNotPushOutOthers() {
+		TestbedVehicle vehicle = grid.addVehicle("a", "driverA", node(0, 0), 1);
+		Request current = grid.createRequest("current", node(0, 0), node(10, 0), new TimeWindow(0,
+				15 * GridTestFixture.MINUTE));
+		FlexiblePlan currentPlan = utils.planTrips(Arrays.asList(current), vehicle, null, false);
+		// fits only instead of the current request (one seat)
+		Request other = grid.createRequest("other", node(1, 0), node(9, 0), new TimeWindow(0,
+				12 * GridTestFixture.MINUTE));
+
+		BatchAssigner.Assignment assignment = new BatchAssigner(utils).assign(Arrays.asList(other),
+				Arrays.asList(vehicle), Collections.singletonMap("a", currentPlan));
+
+		assertTrue(assignment.getPlans().isEmpty());
+		assertEquals(Arrays.asList(other), assignment.getUnassignedRequests());
+		assertEquals(0, assignment.getNumberOfFeasiblePairs());
+	}
+
+	private long node(int x, int y) {
+		return x + y * SIZE;
+	}
+
+	private Request createRequest(String passengerId, long fromNode, long toNode) {
+		return grid.createRequest(passengerId, fromNode, toNode, new TimeWindow(0, HOUR));
+	}
+}
@@ -0,0 +1,182 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.global.PlanImprover;
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.message.DriverNewPlanAcceptMessage;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.message.DriverNewPlanRejectMessage;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.message.DriverReportsLateForPassengerMessage;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.message.DriverReportsPassengerHasLeftMessage;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.message.DriverReportsPassengerIsInMessage;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.message.ProposalAccept;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.requestconsumer.message.ProposalReject;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.CompactPlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TimeWindow;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedVehicleStorage;
+import cz.agents.agentpolis.simmodel.entity.EntityType;
+
+public class DispatchingLogicTest {
+
+	private static final int SIZE = 20;
+
+	private final GridTestFixture grid = new GridTestFixture(SIZE);
+
+	@Test
+	public void testAssignQueuedRequests() {
+		TestbedVehicleStorage vehicleStorage = new TestbedVehicleStorage(new HashMap<String, TestbedVehicle>(),
+				new HashMap<EntityType, Set<String>>());
+		vehicleStorage.addEntity(grid.addVehicle("a", "driverA", 0, 4));
+		vehicleStorage.addEntity(grid.addVehicle("b", "driverB", SIZE - 1, 4));
+		QueueingDispatchingLogic dispatchingLogic = new QueueingDispatchingLogic(vehicleStorage);
+
+		long hour = 60 * GridTestFixture.MINUTE;
+		Request first = grid.createRequest("first", 1, 1 + SIZE, new TimeWindow(0, hour));
+		Request second = grid.createRequest("second", 2, 3, new TimeWindow(0, hour));
+		Request third = grid.createRequest("third", SIZE - 2, SIZE - 3, new TimeWindow(0, hour));
+		// nobody gets there in time
+		Request late = grid.createRequest("late", SIZE * SIZE - 1, SIZE * SIZE - 2, new TimeWindow(0,
+				2 * GridTestFixture.MINUTE));
+		dispatchingLogic.processNewRequest(first);
+		dispatchingLogic.processNewRequest(late);
+		dispatchingLogic.processNewRequest(second);
+		dispatchingLogic.processNewRequest(third);
+
+		BatchAssigner.Assignment assignment = dispatchingLogic.assignQueuedRequests(Arrays.asList("a", "b"), null);
+
+		assertEquals(3, assignment.getAssignedRequests().size());
+		assertEquals("a", assignment.getAssignedRequests().get(first));
+		assertEquals("a", assignment.getAssignedRequests().get(second));
+		assertEquals("b", assignment.getAssignedRequests().get(third));
+		assertEquals(2, assignment.getPlans().get("a").getRequests().size());
+		// the unassigned request waits for the next batch
+		assertEquals(Arrays.asList(late), dispatchingLogic.queueOfRequests);
+		assertEquals(1, dispatchingLogic.getBatchAssigner().getNumberOfBatches());
+
+		assignment = dispatchingLogic.assignQueuedRequests(Arrays.asList("a", "b"), null);
+		assertEquals(0, assignment.getAssignedRequests().size());
+		assertEquals(Arrays.asList(late), dispatchingLogic.queueOfRequests);
+	}
+
+	@Test
+	public void testImprovePlansInTurns() {
+		TestbedVehicleStorage vehicleStorage = new TestbedVehicleStorage(new HashMap<String, TestbedVehicle>(),
+				new HashMap<EntityType, Set<String>>());
+		Utils utils = grid.createUtils();
+		final List<String> improvedVehicles = new ArrayList<String>();
+		final PlanImprover planImprover = new PlanImprover(utils) {
+
+			@Override
+			public boolean improve(CompactPlan plan, int freeSeats, long deadlineInNanos) {
+				improvedVehicles.add(plan.vehicle.getId());
+				if (improvedVehicles.size() % 2 == 0) {
+					// uses up the time of the call
+					while (System.nanoTime() < deadlineInNanos) {
+					}
+				}
+				return false;
+			}
+		};
+		QueueingDispatchingLogic dispatchingLogic = new QueueingDispatchingLogic(vehicleStorage) {
+
+			@Override
+			protected PlanImprover getPlanImprover() {
+				return planImprover;
+			}
+		};
+
+		long hour = 60 * GridTestFixture.MINUTE;
+		Map<String, FlexiblePlan> currentPlans = new HashMap<String, FlexiblePlan>();
+		for (String vehicleId : Arrays.asList("d", "b", "a", "c")) {
+			int node = vehicleId.charAt(0) - 'a';
+			TestbedVehicle vehicle = grid.addVehicle(vehicleId, "driver" + vehicleId, node, 4);
+			Request request = grid.createRequest("passenger" + vehicleId, node + SIZE, node + 2 * SIZE,
+					new TimeWindow(0, hour));
+			currentPlans.put(vehicleId, utils.planTrips(Arrays.asList(request), vehicle, null, false));
+		}
+
+		GlobalParams.setPlanImprovementTimeInMillis(50);
+		try {
+			// every call stops after two vehicles, the next one goes on with
+			// the vehicle after the last improved one
+			assertEquals(0, dispatchingLogic.improvePlans(currentPlans).size());
+			assertEquals(Arrays.asList("a", "b"), improvedVehicles);
+			dispatchingLogic.improvePlans(currentPlans);
+			assertEquals(Arrays.asList("a", "b", "c", "d"), improvedVehicles);
+			dispatchingLogic.improvePlans(currentPlans);
+			assertEquals(Arrays.asList("a", "b", "c", "d", "a", "b"), improvedVehicles);
+
+			// "b" is gone, the turn goes on after it
+			currentPlans.remove("b");
+			improvedVehicles.clear();
+			dispatchingLogic.improvePlans(currentPlans);
+			assertEquals(Arrays.asList("c", "d"), improvedVehicles);
+		} finally {
+			GlobalParams.setPlanImprovementTimeInMillis(0);
+		}
+	}
+
+	/**
+	 * Queues the requests, the messages aren't processed
+	 */
+	private class QueueingDispatchingLogic extends DispatchingLogic {
+
+		QueueingDispatchingLogic(TestbedVehicleStorage vehicleStorage) {
+			super("dispatcher", null, null, null, grid.getTaxiModel(), null, null, grid.createUtils(), null,
+					vehicleStorage);
+		}
+
+		@Override
+		public void processNewRequest(Request request) {
+			queueOfRequests.add(request);
+		}
+
+		@Override
+		public void processRequests() {
+		}
+
+		@Override
+		public void confirmOrder(ProposalAccept proposalAccept) {
+		}
+
+		@Override
+		public void processRejectedProposal(ProposalReject proposalReject) {
+		}
+
+		@Override
+		public void processPassengerInVehicle(DriverReportsPassengerIsInMessage passengerIsInTaxiMessage) {
+		}
+
+		@Override
+		public void processPassengerOffVehicle(
+				DriverReportsPassengerHasLeftMessage driverReportsPassengerHasLeftMessage) {
+		}
+
+		@Override
+		public void processDriverArrivedLateForPassengerPickup(
+				DriverReportsLateForPassengerMessage driverArrivedLateForPassenger) {
+		}
+
+		@Override
+		public void processDriverAcceptsNewPlan(DriverNewPlanAcceptMessage driverNewPlanAcceptMessage) {
+		}
+
+		@Override
+		public void processDriverRejectsNewPlan(DriverNewPlanRejectMessage driverNewPlanRejectMessage) {
+		}
+	}
+}
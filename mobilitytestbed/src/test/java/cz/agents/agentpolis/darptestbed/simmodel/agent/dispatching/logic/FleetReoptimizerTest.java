@@ -0,0 +1,150 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.CompactPlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TimeWindow;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+
+public class FleetReoptimizerTest {
+
+	private static final int SIZE = 20;
+	private static final long MINUTE = GridTestFixture.MINUTE;
+	private static final long HOUR = 60 * MINUTE;
+
+	private final GridTestFixture grid = new GridTestFixture(SIZE);
+	private final Utils utils = grid.createUtils();
+
+	@Test
+	public void testPinnedRequestStaysInItsVehicle() {
+		TestbedVehicle vehicleA = grid.addVehicle("a", "driverA", node(0, 0), 4);
+		TestbedVehicle vehicleB = grid.addVehicle("b", "driverB", node(10, 0), 4);
+		// b would be closer, but the passenger has been told, that a comes
+		Request pinned = createRequest("pinned", node(9, 0), node(9, 1), 0, HOUR);
+		Map<String, FlexiblePlan> currentPlans = Collections.singletonMap("a",
+				utils.planTrips(Arrays.asList(pinned), vehicleA, null, false));
+		Request unserved = createRequest("unserved", node(1, 0), node(1, 1), 0, HOUR);
+
+		FleetReoptimizer.Reoptimization reoptimization = new FleetReoptimizer(utils, 2, 0).reoptimize(
+				Arrays.asList(unserved), Arrays.asList(vehicleA, vehicleB), currentPlans, null);
+
+		assertEquals(1, reoptimization.getNumberOfMovableRequests());
+		assertEquals(Collections.singletonMap(unserved, "a"), reoptimization.getAssignedRequests());
+		assertEquals(Collections.singleton("a"), reoptimization.getChangedPlans().keySet());
+		List<Request> requests = reoptimization.getChangedPlans().get("a").getRequests();
+		assertEquals(2, requests.size());
+		assertTrue(requests.containsAll(Arrays.asList(pinned, unserved)));
+		assertTrue(reoptimization.getUnassignedRequests().isEmpty());
+	}
+
+	@Test
+	public void testVehicleKeepsPlanIfRequestsDontFitAgain() {
+		TestbedVehicle vehicle = grid.addVehicle("a", "driverA", node(0, 0), 4);
+		// planned one after another, the greedy reinsertion (the cheapest
+		// request first) can't put all of them back
+		FlexiblePlan currentPlan = null;
+		List<Request> requests = Arrays.asList(createRequest("first", node(3, 0), node(1, 0), 7 * MINUTE,
+				12 * MINUTE), createRequest("second", node(2, 0), node(5, 0), 7 * MINUTE, 13 * MINUTE),
+				createRequest("third", node(2, 0), node(3, 0), 8 * MINUTE, 13 * MINUTE));
+		for (Request request : requests) {
+			currentPlan = utils.planTrips(Arrays.asList(request), vehicle, currentPlan, false);
+		}
+		assertEquals(3, currentPlan.getRequests().size());
+		Map<String, FlexiblePlan> currentPlans = Collections.singletonMap("a", currentPlan);
+		// fits at the end of the current plan
+		Request unserved = createRequest("unserved", node(0, 0), node(1, 0), 0, 24 * HOUR);
+		assertEquals(4, utils.planTripsInParallel(Arrays.asList(unserved), Arrays.asList(vehicle), currentPlans)
+				.get(0).getRequests().size());
+
+		FleetReoptimizer.Reoptimization reoptimization = new FleetReoptimizer(utils, 2, 0).reoptimize(
+				Arrays.asList(unserved), Arrays.asList(vehicle), currentPlans, null);
+
+		assertEquals(3, reoptimization.getNumberOfMovableRequests());
+		assertTrue(reoptimization.getChangedPlans().isEmpty());
+		assertTrue(reoptimization.getAssignedRequests().isEmpty());
+		assertEquals(Arrays.asList(unserved), reoptimization.getUnassignedRequests());
+	}
+
+	@Test
+	public void testHorizon() {
+		TestbedVehicle vehicle = grid.addVehicle("a", "driverA", node(0, 0), 4);
+		Request soon = createRequest("soon", node(1, 0), node(2, 0), 0, HOUR);
+		Request later = createRequest("later", node(3, 0), node(4, 0), 2 * HOUR, 3 * HOUR);
+		Map<String, FlexiblePlan> currentPlans = Collections.singletonMap("a",
+				utils.planTrips(Arrays.asList(soon, later), vehicle, null, false));
+		Request unservedSoon = createRequest("unservedSoon", node(5, 0), node(6, 0), 0, HOUR);
+		Request unservedLater = createRequest("unservedLater", node(6, 0), node(7, 0), 2 * HOUR, 3 * HOUR);
+
+		FleetReoptimizer reoptimizer = new FleetReoptimizer(utils, 2, 30 * MINUTE);
+		FleetReoptimizer.Reoptimization reoptimization = reoptimizer.reoptimize(Arrays.asList(unservedSoon,
+				unservedLater), Arrays.asList(vehicle), currentPlans, null);
+
+		// only the requests, that begin within the horizon, are moved or
+		// assigned
+		assertEquals(1, reoptimization.getNumberOfMovableRequests());
+		assertEquals(Collections.singletonMap(unservedSoon, "a"), reoptimization.getAssignedRequests());
+		assertEquals(Arrays.asList(unservedLater), reoptimization.getUnassignedRequests());
+		List<Request> requests = reoptimization.getChangedPlans().get("a").getRequests();
+		assertEquals(3, requests.size());
+		assertTrue(requests.containsAll(Arrays.asList(soon, later, unservedSoon)));
+	}
+
+	@Test
+	public void testOnlyChangedPlansAreReturned() {
+		TestbedVehicle vehicleA = grid.addVehicle("a", "driverA", node(0, 0), 4);
+		TestbedVehicle vehicleB = grid.addVehicle("b", "driverB", node(10, 10), 4);
+		Request far = createRequest("far", node(5, 0), node(6, 0), 0, HOUR);
+		Request near = createRequest("near", node(1, 0), node(2, 0), 0, HOUR);
+		// a drives past the near request to the far one and comes back for it
+		CompactPlan detour = new CompactPlan(utils, vehicleA, 0, node(0, 0), -1);
+		for (Request request : Arrays.asList(far, near)) {
+			detour.insertItem(detour.getSize(), request, true, true);
+			detour.insertItem(detour.getSize(), request, false, true);
+		}
+		Map<String, FlexiblePlan> currentPlans = new HashMap<String, FlexiblePlan>();
+		currentPlans.put("a", detour.toFlexiblePlan());
+		currentPlans.put("b", utils.planTrips(
+				Arrays.asList(createRequest("other", node(10, 11), node(10, 12), 0, HOUR)), vehicleB, null, false));
+		assertEquals(12 * MINUTE, currentPlans.get("a").getEndOfPlanTime());
+
+		FleetReoptimizer reoptimizer = new FleetReoptimizer(utils, 2, 0);
+		FleetReoptimizer.Reoptimization reoptimization = reoptimizer.reoptimize(Collections.<Request>emptyList(),
+				Arrays.asList(vehicleA, vehicleB), currentPlans, null);
+
+		// b's plan is the same, it isn't sent again
+		assertEquals(Collections.singleton("a"), reoptimization.getChangedPlans().keySet());
+		assertEquals(6 * MINUTE, reoptimization.getChangedPlans().get("a").getEndOfPlanTime());
+		assertEquals(3, reoptimization.getNumberOfMovableRequests());
+		assertEquals(1, reoptimizer.getNumberOfReoptimizations());
+		assertEquals(1, reoptimizer.getNumberOfChangedPlans());
+
+		// the plans are the best ones already
+		currentPlans.put("a", reoptimization.getChangedPlans().get("a"));
+		reoptimization = reoptimizer.reoptimize(Collections.<Request>emptyList(), Arrays.asList(vehicleA, vehicleB),
+				currentPlans, null);
+		assertTrue(reoptimization.getChangedPlans().isEmpty());
+		assertEquals(1, reoptimizer.getNumberOfChangedPlans());
+	}
+
+	private long node(int x, int y) {
+		return x + y * SIZE;
+	}
+
+	private Request createRequest(String passengerId, long fromNode, long toNode, long earliestDeparture,
+			long latestArrival) {
+		return grid.createRequest(passengerId, fromNode, toNode, new TimeWindow(earliestDeparture, latestArrival));
+	}
+}
@@ -0,0 +1,268 @@
+package cz.agents.agentpolis.darptestbed.simmodel.agent.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.alite.common.event.Event;
+import cz.agents.alite.common.event.EventHandler;
+import cz.agents.alite.common.event.EventProcessor;
+import cz.agents.alite.common.event.EventProcessorEventType;
+
+public class TimerTest {
+
+	private static final long INTERVAL = 10;
+
+	private final EventProcessor eventProcessor = new EventProcessor();
+	/**
+	 * Times of the STOP events
+	 */
+	private final List<Long> stops = new ArrayList<Long>();
+
+	public TimerTest() {
+		eventProcessor.addEventHandler(new EventHandler() {
+
+			@Override
+			public void handleEvent(Event event) {
+				if (event.isType(EventProcessorEventType.STOP)) {
+					stops.add(eventProcessor.getCurrentTime());
+				}
+			}
+
+			@Override
+			public EventProcessor getEventProcessor() {
+				return eventProcessor;
+			}
+		});
+	}
+
+	@Test
+	public void testSleepingCallbackIsNotCalled() {
+		Timer timer = createTimer();
+		Callback callback = new Callback(0);
+		timer.addCallback(callback);
+		assertEquals(0, timer.getNumberOfWokenCallbacks());
+		assertFalse(timer.hasPendingWork());
+
+		timer.start();
+		eventProcessor.run();
+
+		// the first tick only, then the timer sleeps
+		assertTrue(callback.calls.isEmpty());
+		assertFalse(timer.isTicking());
+		assertTrue(stops.isEmpty());
+	}
+
+	@Test
+	public void testWakeUp() {
+		final Timer timer = createTimer();
+		final Callback callback = new Callback(0);
+		timer.addCallback(callback);
+		timer.start();
+		// new work comes between the ticks
+		addEvent(35, new Runnable() {
+
+			@Override
+			public void run() {
+				callback.pendingCalls = 2;
+				timer.wakeUp(callback);
+				timer.wakeUp(callback);
+			}
+		});
+		eventProcessor.run();
+
+		// woken up at the next multiple of the interval, until the work is
+		// done, then the simulation stops at once
+		assertEquals(Arrays.asList(40L, 50L), callback.calls);
+		assertEquals(0, timer.getNumberOfWokenCallbacks());
+		assertFalse(timer.isTicking());
+		assertEquals(Arrays.asList(51L), stops);
+	}
+
+	@Test
+	public void testWakeUpWhileTicking() {
+		final Timer timer = createTimer();
+		final Callback busy = new Callback(5);
+		final Callback other = new Callback(0);
+		timer.addCallback(busy);
+		timer.addCallback(other);
+		assertEquals(1, timer.getNumberOfWokenCallbacks());
+		timer.start();
+		addEvent(25, new Runnable() {
+
+			@Override
+			public void run() {
+				other.pendingCalls = 1;
+				timer.wakeUp(other);
+			}
+		});
+		eventProcessor.run();
+
+		// no extra tick is scheduled
+		assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), busy.calls);
+		assertEquals(Arrays.asList(30L), other.calls);
+		assertEquals(Arrays.asList(51L), stops);
+	}
+
+	@Test
+	public void testGracePeriod() {
+		Timer timer = createTimer();
+		// a plain callback has work always
+		final List<Long> calls = new ArrayList<Long>();
+		timer.addCallback(new TimerCallback() {
+
+			@Override
+			public void timerCallback() {
+				calls.add(eventProcessor.getCurrentTime());
+			}
+		});
+		timer.start();
+		eventProcessor.run();
+
+		// the first tick (the start of the simulation), then 20 empty ticks and
+		// the last one stops
+		assertEquals(22, calls.size());
+		assertEquals(Arrays.asList(221L), stops);
+	}
+
+	@Test
+	public void testGracePeriodRestartsAfterOtherEvents() {
+		Timer timer = createTimer();
+		// claims work, but does nothing
+		Callback callback = new Callback(Integer.MAX_VALUE);
+		timer.addCallback(callback);
+		timer.start();
+		addEvent(105, new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		});
+		eventProcessor.run();
+
+		// the grace starts again at the tick after the event (20 empty ticks,
+		// then the stop)
+		assertEquals(Arrays.asList(110L + 20 * INTERVAL + 1), stops);
+	}
+
+	@Test
+	public void testSharedQuiescenceDetector() {
+		Timer timer = createTimer();
+		Timer otherTimer = createTimer();
+		QuiescenceDetector quiescenceDetector = new QuiescenceDetector();
+		for (Timer sharingTimer : Arrays.asList(timer, otherTimer)) {
+			quiescenceDetector.addTimer(sharingTimer);
+			sharingTimer.setQuiescenceDetector(quiescenceDetector);
+		}
+		Callback callback = new Callback(3);
+		Callback otherCallback = new Callback(6);
+		timer.addCallback(callback);
+		otherTimer.addCallback(otherCallback);
+		timer.start();
+		otherTimer.start();
+		eventProcessor.run();
+
+		// the first timer sleeps, while the other one still works
+		assertEquals(3, callback.calls.size());
+		assertEquals(6, otherCallback.calls.size());
+		assertEquals(Arrays.asList(61L), stops);
+	}
+
+	@Test
+	public void testQuiescenceDetector() {
+		QuiescenceDetector quiescenceDetector = new QuiescenceDetector();
+		Timer timer = createTimer();
+		Timer otherTimer = createTimer();
+		quiescenceDetector.addTimer(timer);
+		quiescenceDetector.addTimer(otherTimer);
+		quiescenceDetector.addTimer(timer);
+		assertFalse(quiescenceDetector.hasPendingWork());
+		// no timer ticks yet
+		assertTrue(quiescenceDetector.isEventQueueIdle(0));
+		assertFalse(quiescenceDetector.isEventQueueIdle(1));
+
+		timer.start();
+		otherTimer.start();
+		assertTrue(quiescenceDetector.isEventQueueIdle(2));
+		assertFalse(quiescenceDetector.isEventQueueIdle(3));
+
+		timer.addCallback(new Callback(1));
+		assertTrue(quiescenceDetector.hasPendingWork());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testDeprecatedConstructor() {
+		Timer timer = new Timer("timer", eventProcessor, null, createUtils(), 3, INTERVAL);
+		timer.addCallback(new Callback(2));
+		timer.start();
+		eventProcessor.run();
+		assertEquals(Arrays.asList(21L), stops);
+	}
+
+	private Timer createTimer() {
+		return new Timer("timer", eventProcessor, null, createUtils(), INTERVAL);
+	}
+
+	private Utils createUtils() {
+		return new Utils(null, null, null, null, eventProcessor, null, null) {
+
+			@Override
+			public void logAlgRealTime(long realTime) {
+			}
+		};
+	}
+
+	private void addEvent(long time, final Runnable action) {
+		eventProcessor.addEvent(new EventHandler() {
+
+			@Override
+			public void handleEvent(Event event) {
+				action.run();
+			}
+
+			@Override
+			public EventProcessor getEventProcessor() {
+				return eventProcessor;
+			}
+		}, time);
+	}
+
+	/**
+	 * Does its pending work one call per tick and remembers the times of the
+	 * calls
+	 */
+	private class Callback implements WakeableTimerCallback {
+
+		private int pendingCalls;
+		private final List<Long> calls = new ArrayList<Long>();
+
+		Callback(int pendingCalls) {
+			this.pendingCalls = pendingCalls;
+		}
+
+		@Override
+		public void timerCallback() {
+			calls.add(eventProcessor.getCurrentTime());
+			if (pendingCalls != Integer.MAX_VALUE) {
+				pendingCalls--;
+			}
+		}
+
+		@Override
+		public boolean hasPendingWork() {
+			return pendingCalls > 0;
+		}
+
+		@Override
+		public void setTimer(Timer timer) {
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package cz.agents.agentpolis.darptestbed.simmodel.environment.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FleetRegistryTest {
+
+	@Test
+	public void testStateTransitions() {
+		FleetRegistry fleet = new FleetRegistry();
+		fleet.addFreeVehicle("v1", "d1");
+		fleet.addFreeVehicle("v2", "d2");
+		fleet.addFreeVehicle("v3", "d3");
+
+		List<String> freeDrivers = fleet.getFreeDriverList();
+		assertEquals(Arrays.asList("d1", "d2", "d3"), freeDrivers);
+
+		assertTrue(fleet.setBusy("v2"));
+		assertFalse(fleet.setBusy("v2"));
+		// the view follows the registry
+		assertEquals(Arrays.asList("d1", "d3"), freeDrivers);
+		assertEquals(Arrays.asList("v1", "v3"), fleet.getFreeVehicleList());
+		assertEquals(Arrays.asList("d2"), fleet.getBusyDriverList());
+		assertFalse(fleet.isDriverFree("d2"));
+		assertFalse(freeDrivers.contains("d2"));
+
+		assertTrue(fleet.setFree("v2"));
+		assertFalse(fleet.setFree("v2"));
+		assertEquals(Arrays.asList("d1", "d3", "d2"), freeDrivers);
+		assertTrue(fleet.isDriverFree("d2"));
+
+		assertEquals("v3", fleet.getVehicleId("d3"));
+		assertEquals("d1", fleet.getDriverId("v1"));
+		assertEquals(null, fleet.getDriverId("v4"));
+	}
+
+	@Test
+	public void testAddBusyVehicleAgain() {
+		FleetRegistry fleet = new FleetRegistry();
+		fleet.addFreeVehicle("v1", "d1");
+		fleet.setBusy("v1");
+		fleet.addFreeVehicle("v1", "d1");
+
+		assertEquals(Arrays.asList("v1"), fleet.getFreeVehicleList());
+		assertTrue(fleet.getBusyVehicleList().isEmpty());
+		assertEquals(1, fleet.getNumberOfVehicles());
+	}
+
+	@Test
+	public void testIteratorFailsFast() {
+		FleetRegistry fleet = new FleetRegistry();
+		fleet.addFreeVehicle("v1", "d1");
+		fleet.addFreeVehicle("v2", "d2");
+
+		Iterator<String> freeDrivers = fleet.getFreeDriverList().iterator();
+		assertEquals("d1", freeDrivers.next());
+		fleet.setBusy("v1");
+		try {
+			freeDrivers.next();
+			fail();
+		} catch (ConcurrentModificationException e) {
+		}
+
+		// the vehicle stays free, but its driver changes
+		Iterator<String> freeVehicles = fleet.getFreeVehicleList().iterator();
+		fleet.addFreeVehicle("v2", "d3");
+		try {
+			freeVehicles.next();
+			fail();
+		} catch (ConcurrentModificationException e) {
+		}
+		assertEquals(Arrays.asList("d3"), fleet.getFreeDriverList());
+	}
+
+	@Test
+	public void testGetByIndex() {
+		FleetRegistry fleet = new FleetRegistry();
+		for (int i = 0; i < 5; i++) {
+			fleet.addFreeVehicle("v" + i, "d" + i);
+		}
+		fleet.setBusy("v2");
+
+		List<String> freeVehicles = fleet.getFreeVehicleList();
+		assertEquals("v3", freeVehicles.get(2));
+		assertEquals("d4", fleet.getFreeDriverList().get(3));
+		assertEquals("d2", fleet.getBusyDriverList().get(0));
+		try {
+			freeVehicles.get(4);
+			fail();
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testViewsAreReadOnly() {
+		FleetRegistry fleet = new FleetRegistry();
+		fleet.addFreeVehicle("v1", "d1");
+		fleet.getFreeDriverList().remove(0);
+	}
+}
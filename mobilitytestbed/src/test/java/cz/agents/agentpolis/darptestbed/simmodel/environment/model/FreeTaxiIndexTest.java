@@ -0,0 +1,89 @@
+package cz.agents.agentpolis.darptestbed.simmodel.environment.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.NodeExtendedFunction;
+
+public class FreeTaxiIndexTest {
+
+	/**
+	 * Node i lies at the point (i * 100, 0)
+	 */
+	private static NodeExtendedFunction createLine(int numberOfNodes) {
+		Map<Long, Coordinate> coordinates = new HashMap<Long, Coordinate>();
+		for (long i = 0; i < numberOfNodes; i++) {
+			coordinates.put(i, new Coordinate(i * 100, 0));
+		}
+		return new NodeExtendedFunction(coordinates, null, null);
+	}
+
+	@Test
+	public void testNearestAndRadius() {
+		FreeTaxiIndex index = new FreeTaxiIndex(createLine(100), 250);
+		index.put("d1", 10);
+		index.put("d2", 50);
+		index.put("d3", 12);
+
+		assertEquals(Arrays.asList("d3", "d1"), index.findNearest(13, 2));
+		assertEquals(Arrays.asList("d2", "d3", "d1"), index.findNearest(60, 5));
+		assertEquals(Arrays.asList("d1", "d3"), index.findWithinRadius(11, 100));
+		assertEquals(Collections.<String> emptyList(), index.findWithinRadius(30, 500));
+
+		// moved by the position sensing
+		index.newEntityPosition("d2", 31);
+		assertEquals(Arrays.asList("d2"), index.findWithinRadius(30, 500));
+
+		// only indexed drivers are moved
+		index.remove("d2");
+		index.newEntityPosition("d2", 31);
+		assertFalse(index.contains("d2"));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void testNearestMatchesFullScan() {
+		final int numberOfNodes = 2000;
+		Map<Long, Coordinate> coordinates = new HashMap<Long, Coordinate>();
+		Random random = new Random(1);
+		for (long i = 0; i < numberOfNodes; i++) {
+			coordinates.put(i, new Coordinate(random.nextDouble() * 10000, random.nextDouble() * 10000));
+		}
+		final NodeExtendedFunction nodeFunction = new NodeExtendedFunction(coordinates, null, null);
+		FreeTaxiIndex index = new FreeTaxiIndex(nodeFunction, 300);
+		final Map<String, Long> driverNodes = new HashMap<String, Long>();
+		for (int i = 0; i < 300; i++) {
+			long node = random.nextInt(numberOfNodes);
+			driverNodes.put("d" + i, node);
+			index.put("d" + i, node);
+		}
+
+		for (int query = 0; query < 50; query++) {
+			final long target = random.nextInt(numberOfNodes);
+			List<String> expected = new ArrayList<String>(driverNodes.keySet());
+			Collections.sort(expected, new Comparator<String>() {
+				@Override
+				public int compare(String a, String b) {
+					int byDistance = Double.compare(
+							nodeFunction.computeDistanceBetweenNodes(driverNodes.get(a), target),
+							nodeFunction.computeDistanceBetweenNodes(driverNodes.get(b), target));
+					return byDistance != 0 ? byDistance : a.compareTo(b);
+				}
+			});
+			assertEquals(expected.subList(0, 7), index.findNearest(target, 7));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import cz.agents.agentpolis.darptestbed.siminfrastructure.request.Passenger;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.request.PassengerRequest;
+
+public class PassengerPopulationReaderTest {
+
+	private static final int POPULATION_SIZE = 50;
+
+	@Test
+	public void testPlain() throws IOException {
+		File file = File.createTempFile("population", ".json");
+		file.deleteOnExit();
+		writePopulation(new FileOutputStream(file));
+		assertPopulation(file);
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		File file = File.createTempFile("population", ".json.gz");
+		file.deleteOnExit();
+		writePopulation(new GzipCompressorOutputStream(new FileOutputStream(file)));
+		assertPopulation(file);
+	}
+
+	@Test
+	public void testXz() throws IOException {
+		File file = File.createTempFile("population", ".json.xz");
+		file.deleteOnExit();
+		writePopulation(new XZCompressorOutputStream(new FileOutputStream(file)));
+		assertPopulation(file);
+	}
+
+	private void writePopulation(OutputStream out) throws IOException {
+		List<Passenger> passengers = new ArrayList<Passenger>();
+		for (int i = 0; i < POPULATION_SIZE; i++) {
+			passengers.add(new Passenger("passenger" + i, new HashSet<String>(), new ArrayList<PassengerRequest>()));
+		}
+		new ObjectMapper().writeValue(out, passengers);
+		out.close();
+	}
+
+	private void assertPopulation(File file) throws IOException {
+		PassengerPopulationReader reader = new PassengerPopulationReader(file);
+		int count = 0;
+		while (reader.hasNext()) {
+			assertEquals("passenger" + count, reader.next().passsngerId);
+			count++;
+		}
+		reader.close();
+		assertEquals(POPULATION_SIZE, count);
+		assertFalse(reader.hasNext());
+	}
+}
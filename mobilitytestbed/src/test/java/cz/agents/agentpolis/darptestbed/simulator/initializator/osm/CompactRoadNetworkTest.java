@@ -0,0 +1,131 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.geotools.referencing.operation.transform.IdentityTransform;
+import org.junit.Test;
+import org.opengis.referencing.operation.MathTransform;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.EGraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphBuilder;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Edge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
+import cz.agents.agentpolis.simmodel.environment.model.key.GraphFromToNodeKey;
+import cz.agents.agentpolis.utils.spatialrefsys.WGS84Convertor;
+
+public class CompactRoadNetworkTest {
+
+	@Test
+	public void testAgainstGraph() throws Exception {
+		Random random = new Random(4);
+		GraphBuilder<Node, Edge> graphBuilder = new GraphBuilder<Node, Edge>();
+		List<Long> nodeIds = new ArrayList<Long>();
+		for (int i = 0; i < 200; i++) {
+			long nodeId = 1000000L + random.nextInt(1000000);
+			if (!nodeIds.contains(nodeId)) {
+				nodeIds.add(nodeId);
+				graphBuilder.addNode(new Node(nodeId, new LatLon(random.nextDouble() * 1000,
+						random.nextDouble() * 1000), null));
+			}
+		}
+		Map<GraphFromToNodeKey, Double> speedLimits = new HashMap<GraphFromToNodeKey, Double>();
+		for (int i = 0; i < 800; i++) {
+			long from = nodeIds.get(random.nextInt(nodeIds.size()));
+			long to = nodeIds.get(random.nextInt(nodeIds.size()));
+			Edge edge = new Edge(from, to, 1 + random.nextInt(500));
+			graphBuilder.addEdge(edge);
+			if (random.nextBoolean()) {
+				speedLimits.put(new GraphFromToNodeKey(EGraphType.HIGHWAY, edge), 10.0 + random.nextInt(100));
+			}
+		}
+		Graph<Node, Edge> graph = graphBuilder.createGraph();
+
+		CompactRoadNetwork network = CompactRoadNetwork.create(graph, EGraphType.HIGHWAY, speedLimits,
+				createIdentityConvertor());
+
+		Collections.sort(nodeIds);
+		assertEquals(nodeIds.size(), network.getNumberOfNodes());
+		assertEquals(CompactRoadNetwork.NO_NODE, network.getIndex(1));
+		int numberOfEdges = 0;
+		int numberOfIncomingEdges = 0;
+		for (int node = 0; node < network.getNumberOfNodes(); node++) {
+			long nodeId = nodeIds.get(node);
+			assertEquals(nodeId, network.getNodeId(node));
+			assertEquals(node, network.getIndex(nodeId));
+			LatLon latLon = graph.getNodeByNodeId(nodeId).getLatLon();
+			assertEquals(latLon.lon(), network.getX(node), 0);
+			assertEquals(latLon.lat(), network.getY(node), 0);
+
+			List<? extends Edge> outgoingEdges = graph.getNodeOutcomingEdges(nodeId);
+			numberOfEdges += outgoingEdges.size();
+			assertEquals(outgoingEdges.size(), network.getEndEdge(node) - network.getFirstEdge(node));
+			for (int i = 0; i < outgoingEdges.size(); i++) {
+				Edge edge = outgoingEdges.get(i);
+				int compactEdge = network.getFirstEdge(node) + i;
+				assertEquals(node, network.getEdgeSource(compactEdge));
+				assertEquals(edge.getToNodeId(), network.getNodeId(network.getEdgeTarget(compactEdge)));
+				assertEquals(edge.getLength(), network.getEdgeLength(compactEdge), 0);
+				Double speedLimit = speedLimits.get(new GraphFromToNodeKey(EGraphType.HIGHWAY, edge));
+				assertEquals(speedLimit == null ? Double.NaN : speedLimit, network.getEdgeSpeedLimit(compactEdge),
+						0);
+			}
+
+			for (int position = network.getFirstIncomingEdge(node); position < network.getEndIncomingEdge(node);
+					position++) {
+				assertEquals(node, network.getEdgeTarget(network.getIncomingEdge(position)));
+				numberOfIncomingEdges++;
+			}
+		}
+		assertEquals(numberOfEdges, network.getNumberOfEdges());
+		assertEquals(numberOfEdges, numberOfIncomingEdges);
+
+		int from = network.getIndex(nodeIds.get(3));
+		int to = network.getIndex(nodeIds.get(7));
+		LatLon fromLatLon = graph.getNodeByNodeId(nodeIds.get(3)).getLatLon();
+		LatLon toLatLon = graph.getNodeByNodeId(nodeIds.get(7)).getLatLon();
+		assertEquals(Math.hypot(fromLatLon.lon() - toLatLon.lon(), fromLatLon.lat() - toLatLon.lat()),
+				network.computeDistance(from, to), 1e-9);
+		assertEquals(0, network.computeDistance(from, from), 0);
+	}
+
+	@Test
+	public void testCreateFromArrays() {
+		CompactRoadNetwork network = CompactRoadNetwork.create(new long[] { 5, 8 }, new double[] { 0, 300 },
+				new double[] { 0, 400 }, new int[] { 0, 1, 3 }, new int[] { 1, 0, 1 }, new double[] { 500, 500, 10 },
+				new double[] { 50, Double.NaN, 30 });
+
+		assertEquals(1, network.getIndex(8));
+		assertEquals(500, network.computeDistance(0, 1), 0);
+		assertEquals(2, network.getEndIncomingEdge(1) - network.getFirstIncomingEdge(1));
+		assertEquals(1, network.getEdgeSource(2));
+
+		try {
+			CompactRoadNetwork.create(new long[] { 5, 8 }, new double[] { 0, 300 }, new double[] { 0, 400 },
+					new int[] { 0, 1, 2 }, new int[] { 1, 2 }, new double[] { 500, 500 }, new double[] { 50, 50 });
+			assertTrue("an edge leads outside the network", false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * A convertor keeping the WGS84 coordinates (the projections need GeoTools
+	 * factories, which aren't registered when the tests run)
+	 */
+	static WGS84Convertor createIdentityConvertor() throws Exception {
+		Constructor<WGS84Convertor> constructor = WGS84Convertor.class.getDeclaredConstructor(MathTransform.class);
+		constructor.setAccessible(true);
+		return constructor.newInstance(IdentityTransform.create(2));
+	}
+}
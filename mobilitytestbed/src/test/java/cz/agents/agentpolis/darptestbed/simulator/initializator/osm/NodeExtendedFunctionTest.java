@@ -0,0 +1,83 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.javaml.core.kdtree.KDTree;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+
+public class NodeExtendedFunctionTest {
+
+	/**
+	 * The nodes lie on a square grid of this size, one degree apart
+	 */
+	private static final int GRID_SIZE = 100;
+	private static final int NUMBER_OF_POSITIONS = 4000;
+
+	@After
+	public void tearDown() {
+		GlobalParams.setInitThreads(0);
+	}
+
+	@Test
+	public void testSnapWhileThreadsChange() throws Exception {
+		KDTree kdTree = new KDTree(2);
+		for (long node = 0; node < GRID_SIZE * GRID_SIZE; node++) {
+			kdTree.insert(new double[] { node % GRID_SIZE, node / GRID_SIZE }, node);
+		}
+		final NodeExtendedFunction nodeFunction = new NodeExtendedFunction((Map<Long, Coordinate>) null, kdTree,
+				CompactRoadNetworkTest.createIdentityConvertor());
+
+		final double[] longitudes = new double[NUMBER_OF_POSITIONS];
+		final double[] latitudes = new double[NUMBER_OF_POSITIONS];
+		final long[] expectedNodes = new long[NUMBER_OF_POSITIONS];
+		Random random = new Random(4);
+		for (int i = 0; i < NUMBER_OF_POSITIONS; i++) {
+			int x = random.nextInt(GRID_SIZE);
+			int y = random.nextInt(GRID_SIZE);
+			longitudes[i] = x + 0.1;
+			latitudes[i] = y - 0.2;
+			expectedNodes[i] = x + y * GRID_SIZE;
+		}
+
+		// every snapping changes the number of threads, so the pool is
+		// replaced while the others snap
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> snappings = new ArrayList<Future<Void>>();
+			for (int thread = 0; thread < 4; thread++) {
+				final int firstThreads = 2 + thread;
+				snappings.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() {
+						for (int round = 0; round < 10; round++) {
+							GlobalParams.setInitThreads(firstThreads + round % 3);
+							assertArrayEquals(expectedNodes, nodeFunction.getNearestNodes(longitudes, latitudes));
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> snapping : snappings) {
+				snapping.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
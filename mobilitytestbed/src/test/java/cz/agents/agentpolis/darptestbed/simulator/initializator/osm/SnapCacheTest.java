@@ -0,0 +1,86 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class SnapCacheTest {
+
+	@Test
+	public void testCache() throws IOException {
+		File population = File.createTempFile("population", ".json");
+		population.deleteOnExit();
+		new File(population.getPath() + ".snap").deleteOnExit();
+		Random random = new Random(2);
+		double[] longitudes = new double[3000];
+		double[] latitudes = new double[3000];
+		for (int i = 0; i < longitudes.length; i++) {
+			longitudes[i] = 14.3 + 0.2 * random.nextDouble();
+			latitudes[i] = 50.0 + 0.1 * random.nextDouble();
+		}
+
+		GridNodeFunction nodeFunction = new GridNodeFunction(0);
+		SnapCache cache = SnapCache.open(population, nodeFunction);
+		long[] nodes = cache.snap(longitudes, latitudes);
+		assertEquals(0, cache.getHits());
+		assertEquals(3000, cache.getMisses());
+		assertEquals(1, nodeFunction.calls);
+		cache.save();
+
+		nodeFunction = new GridNodeFunction(0);
+		cache = SnapCache.open(population, nodeFunction);
+		assertArrayEquals(nodes, cache.snap(longitudes, latitudes));
+		assertEquals(3000, cache.getHits());
+		assertEquals(0, cache.getMisses());
+		assertEquals(0, nodeFunction.calls);
+
+		// another map
+		nodeFunction = new GridNodeFunction(1);
+		cache = SnapCache.open(population, nodeFunction);
+		cache.snap(longitudes, latitudes);
+		assertEquals(0, cache.getHits());
+		assertEquals(1, nodeFunction.calls);
+	}
+
+	/**
+	 * Nodes in a grid of 0.01 degrees, the positions are snapped without the
+	 * projection
+	 */
+	private static class GridNodeFunction extends NodeExtendedFunction {
+
+		private int calls;
+
+		GridNodeFunction(long shift) {
+			super(createCoordinates(shift), null, null);
+		}
+
+		@Override
+		public long[] getNearestNodes(double[] longitudes, double[] latitudes) {
+			calls++;
+			long[] nodes = new long[longitudes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				nodes[i] = Math.round(longitudes[i] * 100) * 10000 + Math.round(latitudes[i] * 100);
+			}
+			return nodes;
+		}
+
+		private static Map<Long, Coordinate> createCoordinates(long shift) {
+			Map<Long, Coordinate> coordinates = new HashMap<Long, Coordinate>();
+			for (long x = 1430; x <= 1450; x++) {
+				for (long y = 5000; y <= 5010; y++) {
+					coordinates.put(x * 10000 + y, new Coordinate(x + shift, y));
+				}
+			}
+			return coordinates;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm.init;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openstreetmap.osm.data.coordinates.Bounds;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import cz.agents.agentpolis.darptestbed.simulator.initializator.osm.CompactRoadNetwork;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.restaurantnetwork.elements.RestaurantNode;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.EGraphType;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphBuilder;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.highway.HighwayEdge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.highway.HighwayNode;
+import cz.agents.agentpolis.simmodel.environment.model.key.GraphFromToNodeKey;
+
+public class MapSnapshotTest {
+
+	private static final int EPSG = 2065;
+
+	@Test
+	public void testSnapshot() throws IOException {
+		File mapFile = createMapFile("<osm>map</osm>");
+		createSnapshot(true).save(mapFile, EPSG);
+		MapSnapshot.getSnapshotFile(mapFile, EPSG).deleteOnExit();
+
+		MapSnapshot snapshot = MapSnapshot.load(mapFile, EPSG, true);
+		assertNotNull(snapshot);
+		assertEquals(50.0, snapshot.getBounds().getMin().lat(), 0);
+		assertEquals(14.6, snapshot.getBounds().getMax().lon(), 0);
+
+		Graph<HighwayNode, HighwayEdge> graph = snapshot.getHighwayGraph();
+		assertEquals(3, graph.getAllNodes().size());
+		assertEquals(4, graph.getAllEdges().size());
+		assertEquals(50.2, graph.getNodeByNodeId(20).getLatLon().lat(), 0);
+		assertEquals("node 20", graph.getNodeByNodeId(20).getDescription());
+		assertNull(graph.getNodeByNodeId(30).getDescription());
+		HighwayEdge edge = graph.getEdges(10, 20);
+		assertEquals(120.5, edge.getLength(), 0);
+		assertEquals("Street", edge.getNameOfStreet());
+		assertEquals(2, edge.getNumberOfLanes());
+		assertEquals(graph.getNodeOutcomingEdges(10).get(1), graph.getEdges(10, 30));
+
+		Map<GraphFromToNodeKey, Double> speedLimits = snapshot.getSpeedLimits();
+		assertEquals(3, speedLimits.size());
+		assertEquals(50.0, speedLimits.get(new GraphFromToNodeKey(EGraphType.HIGHWAY, 10, 20)), 0);
+		assertNull(speedLimits.get(new GraphFromToNodeKey(EGraphType.HIGHWAY, 20, 30)));
+
+		CompactRoadNetwork network = snapshot.getRoadNetwork();
+		assertEquals(3, network.getNumberOfNodes());
+		assertEquals(4, network.getNumberOfEdges());
+		assertEquals(2000.0, network.getY(1), 0);
+		assertEquals(1, network.getEdgeTarget(0));
+		assertEquals(1, network.getIncomingEdge(network.getFirstIncomingEdge(2)));
+		assertEquals(Double.NaN, network.getEdgeSpeedLimit(3), 0);
+
+		assertEquals(1, snapshot.getRestaurants().size());
+		assertEquals("restaurant", snapshot.getRestaurants().get(100L).getDescription());
+	}
+
+	@Test
+	public void testOutdatedSnapshot() throws IOException {
+		File mapFile = createMapFile("<osm>map</osm>");
+		createSnapshot(false).save(mapFile, EPSG);
+		MapSnapshot.getSnapshotFile(mapFile, EPSG).deleteOnExit();
+
+		assertNotNull(MapSnapshot.load(mapFile, EPSG, false));
+		assertNull(MapSnapshot.load(mapFile, EPSG, true));
+		assertNull(MapSnapshot.load(mapFile, 4326, false));
+
+		// the same size, another content
+		FileOutputStream out = new FileOutputStream(mapFile);
+		out.write("<osm>pam</osm>".getBytes("UTF-8"));
+		out.close();
+		assertNull(MapSnapshot.load(mapFile, EPSG, false));
+	}
+
+	private File createMapFile(String content) throws IOException {
+		File mapFile = File.createTempFile("map", ".osm");
+		mapFile.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(mapFile);
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+		return mapFile;
+	}
+
+	private MapSnapshot createSnapshot(boolean withRestaurants) {
+		GraphBuilder<HighwayNode, HighwayEdge> graphBuilder = new GraphBuilder<HighwayNode, HighwayEdge>();
+		graphBuilder.addNode(new HighwayNode(10, new LatLon(50.1, 14.1), "node 10"));
+		graphBuilder.addNode(new HighwayNode(20, new LatLon(50.2, 14.2), "node 20"));
+		graphBuilder.addNode(new HighwayNode(30, new LatLon(50.3, 14.3), null));
+		graphBuilder.addEdge(new HighwayEdge(10, 20, 120.5, "Street", 2));
+		graphBuilder.addEdge(new HighwayEdge(10, 30, 200, "", 1));
+		graphBuilder.addEdge(new HighwayEdge(20, 30, 90, "Street", 1));
+		graphBuilder.addEdge(new HighwayEdge(30, 10, 210, null, 3));
+
+		Map<GraphFromToNodeKey, Double> speedLimits = new HashMap<GraphFromToNodeKey, Double>();
+		speedLimits.put(new GraphFromToNodeKey(EGraphType.HIGHWAY, 10, 20), 50.0);
+		speedLimits.put(new GraphFromToNodeKey(EGraphType.HIGHWAY, 10, 30), 30.0);
+		speedLimits.put(new GraphFromToNodeKey(EGraphType.HIGHWAY, 20, 30), null);
+
+		CompactRoadNetwork network = CompactRoadNetwork.create(new long[] { 10, 20, 30 }, new double[] { 1000,
+				1100, 1200 }, new double[] { 1000, 2000, 3000 }, new int[] { 0, 2, 3, 4 }, new int[] { 1, 2, 2, 0 },
+				new double[] { 120.5, 200, 90, 210 }, new double[] { 50, 30, Double.NaN, Double.NaN });
+
+		Map<Long, RestaurantNode> restaurants = null;
+		if (withRestaurants) {
+			restaurants = new HashMap<Long, RestaurantNode>();
+			restaurants.put(100L, new RestaurantNode(100, new LatLon(50.15, 14.15), "restaurant"));
+		}
+		return new MapSnapshot(new Bounds(50.0, 14.0, 50.5, 14.6), graphBuilder.createGraph(), speedLimits, network,
+				restaurants);
+	}
+}
@@ -0,0 +1,133 @@
+package cz.agents.agentpolis.darptestbed.simulator.initializator.osm.init;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.openstreetmap.osm.data.coordinates.LatLon;
+
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.Graph;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.GraphBuilder;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Edge;
+import cz.agents.agentpolis.simmodel.environment.model.citymodel.transportnetwork.elemets.Node;
+
+public class OsmImportPipelineTest {
+
+	@Test
+	public void testConnectivity() {
+		OsmImportPipeline pipeline = new OsmImportPipeline(4326, false);
+		Random random = new Random(1);
+		for (int i = 0; i < 20; i++) {
+			// a grid with some streets made one-way, so some nodes can't be
+			// reached or can't be left
+			Graph<Node, Edge> graph = createGraph(random, 30, 0.2 + 0.02 * i);
+			Graph<Node, Edge> expected = pipeline.connectivityOfAllComponents(graph);
+			Graph<Node, Edge> component = pipeline.connectivity(graph);
+
+			assertEquals(getNodes(expected), getNodes(component));
+			assertEquals(getEdges(expected), getEdges(component));
+			for (Node node : expected.getAllNodes()) {
+				assertEquals(expected.getNodeOutcomingEdges(node.getId()),
+						component.getNodeOutcomingEdges(node.getId()));
+			}
+		}
+	}
+
+	@Test
+	public void testStronglyConnectedGraph() {
+		Graph<Node, Edge> graph = createGraph(new Random(2), 10, 0);
+		assertSame(graph, new OsmImportPipeline(4326, false).connectivity(graph));
+	}
+
+	@Test
+	public void testGiantComponent() {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		Graph<Node, Edge> graph = createGraph(new Random(3), 30, 0.3);
+		GiantComponentFinder finder = new GiantComponentFinder(graph);
+		boolean[] component = finder.find(pool);
+		assertNotNull(component);
+		int size = 0;
+		for (boolean inComponent : component) {
+			size += inComponent ? 1 : 0;
+		}
+		assertEquals(new OsmImportPipeline(4326, false).connectivityOfAllComponents(graph).getAllNodes().size(), size);
+
+		// two equal components
+		GraphBuilder<Node, Edge> graphBuilder = new GraphBuilder<Node, Edge>();
+		for (long node = 0; node < 4; node++) {
+			graphBuilder.addNode(new Node(node, new LatLon(50, 14), null));
+		}
+		graphBuilder.addEdge(new Edge(0, 1, 100));
+		graphBuilder.addEdge(new Edge(1, 0, 100));
+		graphBuilder.addEdge(new Edge(2, 3, 100));
+		graphBuilder.addEdge(new Edge(3, 2, 100));
+		assertNull(new GiantComponentFinder(graphBuilder.createGraph()).find(pool));
+		pool.shutdown();
+	}
+
+	/**
+	 * A square grid of two-way streets, some of them are one-way
+	 */
+	private Graph<Node, Edge> createGraph(Random random, int size, double oneWayProbability) {
+		GraphBuilder<Node, Edge> graphBuilder = new GraphBuilder<Node, Edge>();
+		for (long node = 0; node < size * size; node++) {
+			graphBuilder.addNode(new Node(node, new LatLon(50 + node / size * 0.001, 14 + node % size * 0.001), null));
+		}
+		for (int x = 0; x < size; x++) {
+			for (int y = 0; y < size; y++) {
+				long node = x * size + y;
+				if (x + 1 < size) {
+					addStreet(graphBuilder, random, node, node + size, oneWayProbability);
+				}
+				if (y + 1 < size) {
+					addStreet(graphBuilder, random, node, node + 1, oneWayProbability);
+				}
+			}
+		}
+		return graphBuilder.createGraph();
+	}
+
+	private void addStreet(GraphBuilder<Node, Edge> graphBuilder, Random random, long from, long to,
+			double oneWayProbability) {
+		double length = 50 + random.nextInt(100);
+		if (random.nextDouble() < oneWayProbability) {
+			if (random.nextBoolean()) {
+				graphBuilder.addEdge(new Edge(from, to, length));
+			} else {
+				graphBuilder.addEdge(new Edge(to, from, length));
+			}
+		} else {
+			graphBuilder.addEdge(new Edge(from, to, length));
+			graphBuilder.addEdge(new Edge(to, from, length));
+		}
+	}
+
+	private Set<Long> getNodes(Graph<Node, Edge> graph) {
+		Set<Long> nodes = new HashSet<Long>();
+		for (Node node : graph.getAllNodes()) {
+			nodes.add(node.getId());
+		}
+		return nodes;
+	}
+
+	private Set<List<Object>> getEdges(Graph<Node, Edge> graph) {
+		Set<List<Object>> edges = new HashSet<List<Object>>();
+		for (Edge edge : graph.getAllEdges()) {
+			List<Object> key = new ArrayList<Object>();
+			key.add(edge.getFromNodeId());
+			key.add(edge.getToNodeId());
+			key.add(edge.getLength());
+			edges.add(key);
+		}
+		return edges;
+	}
+}
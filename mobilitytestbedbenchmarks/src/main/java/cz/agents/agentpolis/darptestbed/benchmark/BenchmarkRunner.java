@@ -0,0 +1,168 @@
+package cz.agents.agentpolis.darptestbed.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs microbenchmarks the way JMH does it, just in a simpler way: an
+ * operation is first run for some warmup iterations (so it's compiled by the
+ * JIT), then it's measured in several iterations of a fixed time. The result
+ * of every call is consumed, so the JIT can't leave the work out.
+ * <p/>
+ * The numbers are meant to compare the hot paths before and after a change
+ * on the same machine, not to be compared across machines.
+ */
+public class BenchmarkRunner {
+
+    /**
+     * One call of the benchmarked code
+     */
+    public interface Operation {
+
+        /**
+         * @return any value computed by the call (it's consumed by the runner)
+         */
+        long run() throws Exception;
+    }
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationTimeInMillis;
+    /**
+     * Only benchmarks, whose names contain one of these strings, are run
+     * (all, if empty)
+     */
+    private final List<String> filters;
+
+    private final List<Result> results = new ArrayList<Result>();
+    /**
+     * The consumed values (volatile, so the calls can't be optimized away)
+     */
+    private volatile long sink;
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationTimeInMillis,
+                           List<String> filters) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationTimeInMillis = iterationTimeInMillis;
+        this.filters = filters;
+    }
+
+    /**
+     * @return true, if the benchmark with the name should be run
+     */
+    public boolean isSelected(String name) {
+        if (filters.isEmpty()) {
+            return true;
+        }
+        for (String filter : filters) {
+            if (name.contains(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Measures the operation (if it's selected) and prints the result
+     *
+     * @return the result, or null if the benchmark isn't selected
+     */
+    public Result run(String name, Operation operation) throws Exception {
+        if (!isSelected(name)) {
+            return null;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(operation);
+        }
+        double[] nanosPerOperation = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            nanosPerOperation[i] = runIteration(operation);
+        }
+
+        Result result = new Result(name, nanosPerOperation);
+        results.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * @return average time of one call in nanoseconds
+     */
+    private double runIteration(Operation operation) throws Exception {
+        long iterationTimeInNanos = iterationTimeInMillis * 1000000L;
+        long start = System.nanoTime();
+        long end = start;
+        long calls = 0;
+        long consumed = 0;
+        // the clock is read once per batch of calls, so it doesn't distort
+        // the short operations
+        int batch = 1;
+        while (end - start < iterationTimeInNanos) {
+            for (int i = 0; i < batch; i++) {
+                consumed += operation.run();
+            }
+            calls += batch;
+            end = System.nanoTime();
+            if (batch < 1024 && end - start < iterationTimeInNanos / 100) {
+                batch *= 2;
+            }
+        }
+        sink += consumed;
+        return (end - start) / (double) calls;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Times of one benchmark
+     */
+    public static class Result {
+
+        private final String name;
+        private final double meanNanos;
+        private final double errorNanos;
+
+        Result(String name, double[] nanosPerOperation) {
+            this.name = name;
+            double sum = 0;
+            for (double nanos : nanosPerOperation) {
+                sum += nanos;
+            }
+            this.meanNanos = sum / nanosPerOperation.length;
+            double squares = 0;
+            for (double nanos : nanosPerOperation) {
+                squares += (nanos - meanNanos) * (nanos - meanNanos);
+            }
+            this.errorNanos = nanosPerOperation.length > 1 ? Math.sqrt(squares / (nanosPerOperation.length - 1))
+                    : 0;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return mean time of one call in nanoseconds
+         */
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        /**
+         * @return standard deviation of the iterations in nanoseconds
+         */
+        public double getErrorNanos() {
+            return errorNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-50s %14.1f ns/op  +- %10.1f  %14.1f ops/s", name, meanNanos,
+                    errorNanos, 1e9 / meanNanos);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package cz.agents.agentpolis.darptestbed.benchmark;
+
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks of the hot paths of the testbed on a synthetic grid
+ * city, so that no map or database is needed.
+ * <p/>
+ * Usage: Benchmarks [-w warmupIterations] [-i iterations] [-t iterationTimeInMillis]
+ * [-g gridSize] [filter...]
+ * <p/>
+ * Only the benchmarks, whose names contain one of the filters, are run (e.g.
+ * "routing", "planning.compact", "size40").
+ */
+public class Benchmarks {
+
+    private static final long SEED = 1;
+
+    public static void main(String[] args) throws Exception {
+        int warmupIterations = 3;
+        int iterations = 5;
+        long iterationTimeInMillis = 1000;
+        int gridSize = 50;
+        List<String> filters = new ArrayList<String>();
+
+        List<String> arguments = Arrays.asList(args);
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            if (argument.equals("-w")) {
+                warmupIterations = Integer.parseInt(arguments.get(++i));
+            } else if (argument.equals("-i")) {
+                iterations = Integer.parseInt(arguments.get(++i));
+            } else if (argument.equals("-t")) {
+                iterationTimeInMillis = Long.parseLong(arguments.get(++i));
+            } else if (argument.equals("-g")) {
+                gridSize = Integer.parseInt(arguments.get(++i));
+            } else {
+                filters.add(argument);
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmupIterations, iterations, iterationTimeInMillis, filters);
+        GridTestFixture fixture = new GridTestFixture(gridSize);
+        System.out.println("Grid of " + fixture.getNumberOfNodes() + " nodes, " + warmupIterations
+                + " warmup iterations, " + iterations + " iterations of " + iterationTimeInMillis + " ms");
+
+        new RoutingBenchmarks(fixture, SEED).run(runner);
+        new PlanningBenchmarks(fixture, SEED).run(runner);
+        new FleetStateBenchmarks(fixture, SEED).run(runner);
+    }
+}
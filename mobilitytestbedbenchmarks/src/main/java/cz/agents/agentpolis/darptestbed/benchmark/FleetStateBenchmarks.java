@@ -0,0 +1,63 @@
+package cz.agents.agentpolis.darptestbed.benchmark;
+
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.simmodel.environment.model.FreeTaxiIndex;
+import cz.agents.agentpolis.darptestbed.simmodel.environment.model.TestbedModel;
+
+import java.util.Random;
+
+/**
+ * Benchmarks of the free/busy transitions of the taxis in
+ * {@link TestbedModel}, with and without the spatial index of free taxis.
+ */
+public class FleetStateBenchmarks {
+
+    public static final int[] FLEET_SIZES = {100, 1000};
+
+    private final GridTestFixture fixture;
+    private final Random random;
+
+    public FleetStateBenchmarks(GridTestFixture fixture, long seed) {
+        this.fixture = fixture;
+        this.random = new Random(seed);
+    }
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        // the index can't be removed from the model, so it comes last
+        for (int fleetSize : FLEET_SIZES) {
+            runFleet(runner, "fleet.setBusyAndFree.size" + fleetSize, fleetSize, false);
+        }
+        for (int fleetSize : FLEET_SIZES) {
+            runFleet(runner, "fleet.setBusyAndFree.indexed.size" + fleetSize, fleetSize, true);
+        }
+    }
+
+    private void runFleet(BenchmarkRunner runner, String name, int fleetSize, boolean indexed) throws Exception {
+        final TestbedModel taxiModel = fixture.getTaxiModel();
+        final String[] vehicleIds = new String[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            vehicleIds[i] = name + ".vehicle" + i;
+            fixture.addVehicle(vehicleIds[i], name + ".driver" + i, fixture.getRandomNode(random), 4);
+        }
+        FreeTaxiIndex freeTaxiIndex = taxiModel.getFreeTaxiIndex();
+        if (indexed && freeTaxiIndex == null) {
+            taxiModel.setFreeTaxiIndex(new FreeTaxiIndex(fixture.getNodeFunction()));
+        }
+
+        runner.run(name, new BenchmarkRunner.Operation() {
+            private int vehicle;
+
+            @Override
+            public long run() {
+                vehicle = (vehicle + 1) % vehicleIds.length;
+                taxiModel.setTaxiBusy(vehicleIds[vehicle]);
+                taxiModel.setTaxiFree(vehicleIds[vehicle]);
+                return vehicle;
+            }
+        });
+
+        for (String vehicleId : vehicleIds) {
+            taxiModel.setTaxiBusy(vehicleId);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package cz.agents.agentpolis.darptestbed.benchmark;
+
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.FlexiblePlan;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.Request;
+import cz.agents.agentpolis.darptestbed.simmodel.agent.data.TimeWindow;
+import cz.agents.agentpolis.darptestbed.simmodel.entity.vehicle.TestbedVehicle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the operations on the plans, for plans of 2 to 40 items:
+ * inserting a new request by {@link Utils#planTrips}, removing an item and
+ * refreshing the times of the plan.
+ * <p/>
+ * Every changing operation works on a copy of the plan, so the copying is
+ * measured separately (as "clone") and should be subtracted.
+ */
+public class PlanningBenchmarks {
+
+    public static final int[] PLAN_SIZES = {2, 10, 20, 40};
+
+    /**
+     * The vehicle is big enough to take all passengers at once, so the plans
+     * get exactly the requested size
+     */
+    private static final int CAPACITY = 100;
+    /**
+     * The requests may be served at any time of the week, so that all of
+     * them fit into one plan
+     */
+    private static final TimeWindow TIME_WINDOW = new TimeWindow(0, 7 * 24 * 60 * GridTestFixture.MINUTE);
+
+    private final GridTestFixture fixture;
+    private final Utils utils;
+    private final TestbedVehicle vehicle;
+    private final Random random;
+
+    public PlanningBenchmarks(GridTestFixture fixture, long seed) {
+        this.fixture = fixture;
+        this.utils = fixture.createUtils(fixture.createPlanner());
+        this.random = new Random(seed);
+        this.vehicle = fixture.addVehicle("planningVehicle", "planningDriver", fixture.getRandomNode(random),
+                CAPACITY);
+    }
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        boolean compactPlans = GlobalParams.isCompactPlans();
+        try {
+            for (boolean compact : new boolean[]{false, true}) {
+                GlobalParams.setCompactPlans(compact);
+                String prefix = "planning." + (compact ? "compact." : "list.");
+                for (int planSize : PLAN_SIZES) {
+                    runPlanSize(runner, prefix, planSize);
+                }
+            }
+        } finally {
+            GlobalParams.setCompactPlans(compactPlans);
+        }
+    }
+
+    private void runPlanSize(BenchmarkRunner runner, String prefix, int planSize) throws Exception {
+        final FlexiblePlan plan = createPlan(planSize / 2);
+        final List<List<Request>> newRequests = new ArrayList<List<Request>>();
+        for (int i = 0; i < 100; i++) {
+            newRequests.add(Collections.singletonList(createRequest("new" + planSize + "_" + i)));
+        }
+        String suffix = ".size" + plan.getSize();
+
+        runner.run(prefix + "clone" + suffix, new BenchmarkRunner.Operation() {
+            @Override
+            public long run() throws Exception {
+                return ((FlexiblePlan) plan.clone()).getSize();
+            }
+        });
+        runner.run(prefix + "planTrips" + suffix, new BenchmarkRunner.Operation() {
+            private int request;
+
+            @Override
+            public long run() throws Exception {
+                request = (request + 1) % newRequests.size();
+                FlexiblePlan newPlan = utils.planTrips(newRequests.get(request), vehicle, (FlexiblePlan) plan.clone(),
+                        false);
+                return newPlan == null ? 0 : newPlan.getEndOfPlanTime();
+            }
+        });
+        runner.run(prefix + "removeItem" + suffix, new BenchmarkRunner.Operation() {
+            private int index;
+
+            @Override
+            public long run() throws Exception {
+                index = (index + 1) % plan.getSize();
+                FlexiblePlan newPlan = (FlexiblePlan) plan.clone();
+                newPlan.removeItem(index);
+                return newPlan.getEndOfPlanTime();
+            }
+        });
+        runner.run(prefix + "updateCurrentTime" + suffix, new BenchmarkRunner.Operation() {
+            @Override
+            public long run() throws Exception {
+                FlexiblePlan newPlan = (FlexiblePlan) plan.clone();
+                utils.updateCurrentTime(0, newPlan);
+                return newPlan.getEndOfPlanTime();
+            }
+        });
+    }
+
+    /**
+     * @return a plan serving the given number of random requests
+     */
+    private FlexiblePlan createPlan(int numberOfRequests) {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < numberOfRequests; i++) {
+            requests.add(createRequest("planned" + numberOfRequests + "_" + i));
+        }
+        FlexiblePlan plan = utils.planTrips(requests, vehicle);
+        if (plan.getSize() != 2 * numberOfRequests) {
+            throw new IllegalStateException("Only " + plan.getSize() + " of " + 2 * numberOfRequests
+                    + " items have been planned");
+        }
+        return plan;
+    }
+
+    /**
+     * @return a request between random nodes (its passenger waits on the
+     *         first node)
+     */
+    private Request createRequest(String passengerId) {
+        return fixture.createRequest(passengerId, fixture.getRandomNode(random), fixture.getRandomNode(random),
+                TIME_WINDOW);
+    }
+}
@@ -0,0 +1,83 @@
+package cz.agents.agentpolis.darptestbed.benchmark;
+
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
+import cz.agents.agentpolis.darptestbed.global.GridTestFixture;
+import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.siminfrastructure.planner.TestbedAStarPlanner;
+
+import java.util.Random;
+
+/**
+ * Benchmarks of the shortest path search: {@link TestbedAStarPlanner#findTrip}
+ * with the path cache turned off (every call runs A*) and with the cache
+ * filled by the same queries, and {@link Utils#computeDrivingTime(long, long)}.
+ */
+public class RoutingBenchmarks {
+
+    /**
+     * Number of different queries (they're asked over and over again)
+     */
+    private static final int NUMBER_OF_QUERIES = 1000;
+
+    private final GridTestFixture fixture;
+    private final long[] fromNodes = new long[NUMBER_OF_QUERIES];
+    private final long[] toNodes = new long[NUMBER_OF_QUERIES];
+
+    public RoutingBenchmarks(GridTestFixture fixture, long seed) {
+        this.fixture = fixture;
+        Random random = new Random(seed);
+        for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+            fromNodes[i] = fixture.getRandomNode(random);
+            toNodes[i] = fixture.getRandomNode(random);
+        }
+    }
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        int pathCacheMemoryInMB = GlobalParams.getPathCacheMemoryInMB();
+        try {
+            GlobalParams.setPathCacheMemoryInMB(0);
+            runner.run("routing.findTrip.coldCache", new FindTrip(fixture.createPlanner()));
+
+            GlobalParams.setPathCacheMemoryInMB(Math.max(pathCacheMemoryInMB, 16));
+            TestbedAStarPlanner warmPlanner = fixture.createPlanner();
+            FindTrip warmFindTrip = new FindTrip(warmPlanner);
+            for (int i = 0; i < NUMBER_OF_QUERIES; i++) {
+                warmFindTrip.run();
+            }
+            runner.run("routing.findTrip.warmCache", warmFindTrip);
+
+            final Utils utils = fixture.createUtils(warmPlanner);
+            runner.run("routing.computeDrivingTime", new BenchmarkRunner.Operation() {
+                private int query;
+
+                @Override
+                public long run() {
+                    query = (query + 1) % NUMBER_OF_QUERIES;
+                    Long drivingTime = utils.computeDrivingTime(fromNodes[query], toNodes[query]);
+                    return drivingTime == null ? 0 : drivingTime;
+                }
+            });
+        } finally {
+            GlobalParams.setPathCacheMemoryInMB(pathCacheMemoryInMB);
+        }
+    }
+
+    /**
+     * Asks the queries one after another
+     */
+    private class FindTrip implements BenchmarkRunner.Operation {
+
+        private final TestbedAStarPlanner planner;
+        private int query;
+
+        FindTrip(TestbedAStarPlanner planner) {
+            this.planner = planner;
+        }
+
+        @Override
+        public long run() throws Exception {
+            query = (query + 1) % NUMBER_OF_QUERIES;
+            return System.identityHashCode(planner.findTrip("vehicle", fromNodes[query], toNodes[query]));
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package cz.agents.agentpolis.darptestbed.simmodel.agent.dispatching.logic;
 
 import com.google.common.collect.Maps;
+import cz.agents.agentpolis.darptestbed.global.GlobalParams;
 import cz.agents.agentpolis.darptestbed.global.Utils;
+import cz.agents.agentpolis.darptestbed.global.data.DriverAndDistance;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.message.*;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.driver.protocol.DriverCentralizedMessageProtocol;
 import cz.agents.agentpolis.darptestbed.siminfrastructure.communication.passenger.message.OrderConfirmation;
@@ -26,6 +28,8 @@ import org.apache.log4j.Logger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 public class DispatchingLogicExample extends DispatchingLogic {
@@ -51,6 +55,12 @@ public class DispatchingLogicExample extends DispatchingLogic {
                 + "] from " + request.getPassengerId() + ", latest departure: "
                 + utils.toHoursAndMinutes(request.getTimeWindow().getLatestDeparture()) + " " + request);
 
+        // in the batch mode the request waits for the next tick
+        if (GlobalParams.isBatchDispatching()) {
+            queueOfRequests.add(request);
+            return;
+        }
+
         // check if there are any free taxi drivers
         if (taxiModel.getTaxiDriversFree().size() == 0) {
             // if there are no free drivers, dispatcher needs to reject the
@@ -60,8 +70,14 @@ public class DispatchingLogicExample extends DispatchingLogic {
             return;
         }
 
-        // loop over all free taxi drivers
-        for (String taxiDriverId : taxiModel.getTaxiDriversFree()) {
+        // only drivers within the distance, that can be driven before the
+        // latest departure, may pick up the passenger in time
+        double maxDistance = utils.computeMaxDrivingDistance(request.getTimeWindow().getLatestDeparture()
+                - utils.getCurrentTime());
+
+        // loop over those free taxi drivers
+        List<String> candidateDriverIds = new ArrayList<String>();
+        for (String taxiDriverId : taxiModel.findFreeTaxiDriversWithinRadius(request.getFromNode(), maxDistance)) {
 
             // get the object representation of this driver's vehicle
             TestbedVehicle taxiVehicle = vehicleStorage.getEntityById(taxiModel.getVehicleId(taxiDriverId));
@@ -77,11 +93,25 @@ public class DispatchingLogicExample extends DispatchingLogic {
                 continue;
             }
 
-            // compute the driving time between the passenger and the driver
-            double timeToPassenger = utils.computeDrivingTime(taxiDriverId, request.getPassengerId());
+            candidateDriverIds.add(taxiDriverId);
+        }
+
+        // compute the driving times between the passenger and all the
+        // candidate drivers at once (the closest first), drivers who can't
+        // make it before the latest departure are left out
+        DriverAndDistance[] closestDrivers = new DriverAndDistance[0];
+        if (!candidateDriverIds.isEmpty()) {
+            closestDrivers = getClosestDrivers(request, candidateDriverIds, false, request.getTimeWindow()
+                    .getLatestDeparture() - utils.getCurrentTime());
+        }
+
+        for (DriverAndDistance closestDriver : closestDrivers) {
+
+            String taxiDriverId = closestDriver.getTaxiDriverId();
+            TestbedVehicle taxiVehicle = vehicleStorage.getEntityById(taxiModel.getVehicleId(taxiDriverId));
 
             // compute when this driver could pick up the passenger
-            long pickUpTime = utils.getCurrentTime() + (long) timeToPassenger;
+            long pickUpTime = utils.getCurrentTime() + closestDriver.getDistanceTime();
 
             // if this driver is able to pick up the passenger within his
             // departure time window ...
@@ -146,8 +176,45 @@ public class DispatchingLogicExample extends DispatchingLogic {
 
     @Override
     public void processRequests() {
-        // TODO Auto-generated method stub
+        if (!GlobalParams.isBatchDispatching() || queueOfRequests.isEmpty()) {
+            return;
+        }
+
+        // the queued requests are assigned jointly to the free taxis
+        List<String> vehicleIds = new ArrayList<String>();
+        for (String taxiDriverId : taxiModel.getTaxiDriversFree()) {
+            vehicleIds.add(taxiModel.getVehicleId(taxiDriverId));
+        }
+        BatchAssigner.Assignment assignment = assignQueuedRequests(vehicleIds, null);
+
+        sendPlans(assignment.getPlans());
+        for (Map.Entry<Request, String> assignedRequest : assignment.getAssignedRequests().entrySet()) {
+            String vehicleId = assignedRequest.getValue();
+            sendMessageDispatcherAcceptsRequest(assignedRequest.getKey(),
+                    new TripInfo(taxiModel.getTaxiDriverId(vehicleId), vehicleId));
+            LOGGER.info("	Reply:   ACCEPT [sending " + vehicleId + "] " + assignedRequest.getKey());
+        }
+        for (String vehicleId : assignment.getPlans().keySet()) {
+            taxiModel.setTaxiBusy(vehicleId);
+        }
 
+        // the others wait for the next batch, unless it's too late for them
+        Iterator<Request> queuedRequests = queueOfRequests.iterator();
+        while (queuedRequests.hasNext()) {
+            Request request = queuedRequests.next();
+            if (request.getTimeWindow().getLatestDeparture() < utils.getCurrentTime()) {
+                queuedRequests.remove();
+                sendRequestReject(request.getPassengerId(), request);
+                LOGGER.info("	Reply:   REJECT [suitable taxi not found] " + request);
+            }
+        }
+    }
+
+    // Requests are processed as they come (unless they are dispatched in
+    // batches), so the timer doesn't have to call us.
+    @Override
+    public boolean hasPendingWork() {
+        return GlobalParams.isBatchDispatching() && !queueOfRequests.isEmpty();
     }
 
     @Override
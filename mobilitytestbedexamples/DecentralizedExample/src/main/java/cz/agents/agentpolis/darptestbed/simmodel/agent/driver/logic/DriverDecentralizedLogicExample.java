@@ -158,6 +158,12 @@ public class DriverDecentralizedLogicExample extends DriverDecentralizedLogic {
     public void processAcceptancesAndRejections() {
     }
 
+    // Nothing is queued for the timer callbacks above, so the timer doesn't have to call us.
+    @Override
+    public boolean hasPendingWork() {
+        return false;
+    }
+
     // Notify the passenger that the taxi arrived, so he can get in.
     @Override
     protected void sendTaxiArrivedToPickup(String passengerId) {
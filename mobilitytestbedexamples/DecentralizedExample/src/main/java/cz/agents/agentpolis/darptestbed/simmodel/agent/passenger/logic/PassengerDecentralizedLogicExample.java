@@ -106,4 +106,10 @@ public class PassengerDecentralizedLogicExample extends PassengerDecentralizedLo
     public void processProposals() {
     }
 
+    // proposals are not queued, so the timer doesn't have to call us
+    @Override
+    public boolean hasPendingWork() {
+        return false;
+    }
+
 }
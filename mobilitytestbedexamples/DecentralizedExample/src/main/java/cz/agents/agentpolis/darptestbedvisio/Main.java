@@ -148,6 +148,9 @@ public class Main {
 
         LOGGER.info("Seed = " + GlobalParams.getRandomSeed());
 
+        // the map init provides the compact road network to the following modules
+        TestbedMapInit mapInit = new TestbedMapInit(epsg);
+        creator.addInitModulFactory(mapInit);
         creator.addInitModulFactory(new NearestNodeInitModuleFactory(epsg));
         creator.addInitModulFactory(new TestbedPlannerModuleFactory());
 
@@ -160,7 +163,7 @@ public class Main {
                 logicConstructor));
 
         // initialize the dispatching and timers
-        creator.addInitModulFactory(new DispatchingAndTimersInitFactory(logicConstructor));
+        creator.addInitModulFactory(new DispatchingAndTimersInitFactory(logicConstructor, creator));
 
         // set up visual appearance of agents
         creator.addEntityStyleVis(TestbedEntityType.TAXI_DRIVER, Color.BLUE, 9);
@@ -177,7 +180,7 @@ public class Main {
         }, creator));
 
         // start it up
-        creator.startSimulation(new TestbedMapInit(epsg));
+        creator.startSimulation(mapInit);
 
         // after finishing the simulation, report statistics
         testbedLogAnalyser.processResult();